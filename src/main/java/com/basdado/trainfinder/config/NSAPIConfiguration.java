@@ -1,15 +1,77 @@
 package com.basdado.trainfinder.config;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 import org.apache.commons.configuration2.Configuration;
 
+import com.basdado.trainfinder.ns.communicator.NSCommunicatorConfiguration;
+import com.basdado.trainfinder.ns.communicator.NSRequestType;
+
 public class NSAPIConfiguration {
 
 	private final String username;
 	private final String password;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final int maxConnectionsPerRoute;
+	private final int maxConnections;
+	private final int connectionIdleTimeout;
+	private final int maxConcurrentDepartureRequests;
+	private final Map<NSRequestType, Double> requestRates = new EnumMap<>(NSRequestType.class);
+	private final Map<NSRequestType, Integer> requestBursts = new EnumMap<>(NSRequestType.class);
+	private final int maxRateLimitWaitTime;
 	
 	public NSAPIConfiguration(Configuration config) {
 		this.username = config.getString("NSApi.Username");
 		this.password = config.getString("NSApi.Password");
+		this.connectTimeout = getNonNegativeInt(config, "NSApi.Connection.ConnectTimeout", NSCommunicatorConfiguration.DEFAULT_CONNECT_TIMEOUT);
+		this.readTimeout = getNonNegativeInt(config, "NSApi.Connection.ReadTimeout", NSCommunicatorConfiguration.DEFAULT_READ_TIMEOUT);
+		this.maxConnectionsPerRoute = config.getInt("NSApi.Connection.MaxPerRoute", NSCommunicatorConfiguration.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+		if (maxConnectionsPerRoute < 1) {
+			throw new IllegalArgumentException("NSApi.Connection.MaxPerRoute should be at least 1, but was " + maxConnectionsPerRoute);
+		}
+		this.maxConnections = config.getInt("NSApi.Connection.MaxTotal", NSCommunicatorConfiguration.DEFAULT_MAX_CONNECTIONS);
+		if (maxConnections < maxConnectionsPerRoute) {
+			throw new IllegalArgumentException("NSApi.Connection.MaxTotal should be at least NSApi.Connection.MaxPerRoute (" + maxConnectionsPerRoute + "), but was " + maxConnections);
+		}
+		this.connectionIdleTimeout = getNonNegativeInt(config, "NSApi.Connection.IdleTimeout", NSCommunicatorConfiguration.DEFAULT_CONNECTION_IDLE_TIMEOUT);
+		this.maxConcurrentDepartureRequests = config.getInt("NSApi.Departures.MaxConcurrentRequests", 4);
+		if (maxConcurrentDepartureRequests < 1) {
+			throw new IllegalArgumentException("NSApi.Departures.MaxConcurrentRequests should be at least 1, but was " + maxConcurrentDepartureRequests);
+		}
+		
+		for (NSRequestType requestType : NSRequestType.values()) {
+			String keyPrefix = "NSApi.RateLimit." + getRateLimitName(requestType);
+			double requestRate = config.getDouble(keyPrefix + ".RequestsPerSecond", NSCommunicatorConfiguration.DEFAULT_REQUEST_RATE);
+			if (requestRate <= 0) {
+				throw new IllegalArgumentException(keyPrefix + ".RequestsPerSecond should be positive, but was " + requestRate);
+			}
+			int requestBurst = config.getInt(keyPrefix + ".Burst", NSCommunicatorConfiguration.DEFAULT_REQUEST_BURST);
+			if (requestBurst < 1) {
+				throw new IllegalArgumentException(keyPrefix + ".Burst should be at least 1, but was " + requestBurst);
+			}
+			requestRates.put(requestType, requestRate);
+			requestBursts.put(requestType, requestBurst);
+		}
+		this.maxRateLimitWaitTime = getNonNegativeInt(config, "NSApi.RateLimit.MaxWaitTime", NSCommunicatorConfiguration.DEFAULT_MAX_RATE_LIMIT_WAIT_TIME);
+	}
+	
+	private static String getRateLimitName(NSRequestType requestType) {
+		switch (requestType) {
+			case STATIONS: return "Stations";
+			case DEPARTURES: return "Departures";
+			case TRAVEL_ADVICE: return "TravelAdvice";
+			default: throw new IllegalArgumentException("Unknown request type: " + requestType);
+		}
+	}
+	
+	private static int getNonNegativeInt(Configuration config, String key, int defaultValue) {
+		int value = config.getInt(key, defaultValue);
+		if (value < 0) {
+			throw new IllegalArgumentException(key + " should not be negative, but was " + value);
+		}
+		return value;
 	}
 	
 	public String getUsername() {
@@ -20,4 +82,61 @@ public class NSAPIConfiguration {
 		return this.password;
 	}
 
+	/**
+	 * @return The maximum time (in milliseconds) to wait for a connection to the NS API.
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * @return The maximum time (in milliseconds) to wait for data from the NS API, once connected.
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+	
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+	
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+	
+	/**
+	 * @return The time (in milliseconds) after which an unused connection to the NS API is closed.
+	 */
+	public int getConnectionIdleTimeout() {
+		return connectionIdleTimeout;
+	}
+
+	/**
+	 * @return The maximum number of requests for departures to the NS API at the same time.
+	 */
+	public int getMaxConcurrentDepartureRequests() {
+		return maxConcurrentDepartureRequests;
+	}
+	
+	/**
+	 * @return The number of requests of the given type that may be done per second, on average.
+	 */
+	public double getRequestRate(NSRequestType requestType) {
+		return requestRates.get(requestType);
+	}
+	
+	/**
+	 * @return The number of requests of the given type that may be done at once, after a quiet period.
+	 */
+	public int getRequestBurst(NSRequestType requestType) {
+		return requestBursts.get(requestType);
+	}
+	
+	/**
+	 * @return The maximum time (in milliseconds) a blocking request to the NS API waits for the rate limit.
+	 */
+	public int getMaxRateLimitWaitTime() {
+		return maxRateLimitWaitTime;
+	}
+
 }
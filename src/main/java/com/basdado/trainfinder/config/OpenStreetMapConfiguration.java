@@ -1,15 +1,57 @@
 package com.basdado.trainfinder.config;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.lang3.StringUtils;
+
+import com.basdado.trainfinder.util.RailwayMapUtil.SearchAlgorithm;
 
 public class OpenStreetMapConfiguration {
 	
+	private static final String DEFAULT_SNAPSHOT_FILE_EXTENSION = ".snapshot";
+	private static final String DEFAULT_PATH_STORE_FILE_EXTENSION = ".railways";
+	
 	private final String railroadFile;
+	private final boolean twoPassIngest;
+	private final boolean snapshotEnabled;
+	private final String snapshotFile;
+	private final boolean pathStoreEnabled;
+	private final String pathStoreFile;
+	private final SearchAlgorithm routingAlgorithm;
+	private final boolean contractionHierarchyEnabled;
+	private final boolean warmUpEnabled;
+	private final int warmUpThreadCount;
+	private final List<List<String>> warmUpRoutes;
 	private final double maxStationToTrackDistance;
 	private final double preferredStationToTrackDistance;
 	
 	public OpenStreetMapConfiguration(Configuration config) {
 		railroadFile = config.getString("OpenStreetMap.RailroadFile");
+		twoPassIngest = config.getBoolean("OpenStreetMap.TwoPassIngest", false);
+		snapshotEnabled = config.getBoolean("OpenStreetMap.Snapshot.Enabled", true);
+		String configuredSnapshotFile = config.getString("OpenStreetMap.Snapshot.File", null);
+		snapshotFile = StringUtils.isBlank(configuredSnapshotFile) ? railroadFile + DEFAULT_SNAPSHOT_FILE_EXTENSION : configuredSnapshotFile;
+		pathStoreEnabled = config.getBoolean("OpenStreetMap.PathStore.Enabled", true);
+		String configuredPathStoreFile = config.getString("OpenStreetMap.PathStore.File", null);
+		pathStoreFile = StringUtils.isBlank(configuredPathStoreFile) ? railroadFile + DEFAULT_PATH_STORE_FILE_EXTENSION : configuredPathStoreFile;
+		routingAlgorithm = SearchAlgorithm.valueOf(config.getString("OpenStreetMap.Routing.Algorithm", SearchAlgorithm.A_STAR.name()));
+		contractionHierarchyEnabled = config.getBoolean("OpenStreetMap.Routing.ContractionHierarchy", true);
+		warmUpEnabled = config.getBoolean("OpenStreetMap.Routing.WarmUp.Enabled", true);
+		warmUpThreadCount = config.getInt("OpenStreetMap.Routing.WarmUp.Threads", 2);
+		if (warmUpThreadCount < 1) {
+			throw new IllegalArgumentException("OpenStreetMap.Routing.WarmUp.Threads should be at least 1, but was " + warmUpThreadCount);
+		}
+		List<List<String>> routes = new ArrayList<>();
+		for (String route : config.getStringArray("OpenStreetMap.Routing.WarmUp.Route")) {
+			if (!StringUtils.isBlank(route)) {
+				routes.add(Collections.unmodifiableList(Arrays.asList(StringUtils.split(route.replaceAll("\\s", ""), ','))));
+			}
+		}
+		warmUpRoutes = Collections.unmodifiableList(routes);
 		preferredStationToTrackDistance = config.getDouble("OpenStreetMap.PreferredStationToTrackDistance");
 		maxStationToTrackDistance = config.getDouble("OpenStreetMap.MaxStationToTrackDistance");
 	}
@@ -18,6 +60,81 @@ public class OpenStreetMapConfiguration {
 		return railroadFile;
 	}
 	
+	/**
+	 * @return True iff the railroad file should be read twice: first to find the nodes used by railways, and then
+	 * to read only those nodes. Reduces the memory needed to read large (unfiltered) OSM files.
+	 */
+	public boolean isTwoPassIngest() {
+		return twoPassIngest;
+	}
+	
+	/**
+	 * @return True iff a binary snapshot of the parsed railway map should be used to speed up loading the map.
+	 */
+	public boolean isSnapshotEnabled() {
+		return snapshotEnabled;
+	}
+	
+	/**
+	 * @return The location of the binary snapshot of the railway map. Defaults to the railroad file with ".snapshot" appended.
+	 */
+	public String getSnapshotFile() {
+		return snapshotFile;
+	}
+	
+	/**
+	 * @return True iff the railways calculated between stations should be stored on disk, so they are still known after a restart.
+	 */
+	public boolean isPathStoreEnabled() {
+		return pathStoreEnabled;
+	}
+	
+	/**
+	 * @return The location of the file the railways are stored in. Defaults to the railroad file with ".railways" appended.
+	 */
+	public String getPathStoreFile() {
+		return pathStoreFile;
+	}
+	
+	/**
+	 * @return The algorithm used to search paths between stations. All algorithms find the same shortest paths,
+	 * but A* and bidirectional Dijkstra visit far less of the railway map than plain Dijkstra.
+	 */
+	public SearchAlgorithm getRoutingAlgorithm() {
+		return routingAlgorithm;
+	}
+	
+	/**
+	 * @return True iff a contraction hierarchy of the railway map should be built (or read from its snapshot) when the map
+	 * is loaded. Paths are then searched using the hierarchy, which is much faster than any of the routing algorithms.
+	 */
+	public boolean isContractionHierarchyEnabled() {
+		return contractionHierarchyEnabled;
+	}
+	
+	/**
+	 * @return True iff the railways between the stations of the warm-up routes (and of the known rides) should be calculated
+	 * in the background, so they don't have to be calculated while handling a request.
+	 */
+	public boolean isWarmUpEnabled() {
+		return warmUpEnabled;
+	}
+	
+	/**
+	 * @return The maximum number of railways that are calculated at the same time during the warm-up.
+	 */
+	public int getWarmUpThreadCount() {
+		return warmUpThreadCount;
+	}
+	
+	/**
+	 * @return The routes to calculate the railways for at startup, each as a list of station codes. The railway between every
+	 * two consecutive stations of a route is calculated.
+	 */
+	public List<List<String>> getWarmUpRoutes() {
+		return warmUpRoutes;
+	}
+	
 	public double getPreferredStationToTrackDistance() {
 		return preferredStationToTrackDistance;
 	}
@@ -0,0 +1,107 @@
+package com.basdado.trainfinder.controller;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import com.basdado.trainfinder.exception.PathFindingException;
+import com.basdado.trainfinder.model.Railway;
+import com.basdado.trainfinder.model.Station;
+
+/**
+ * Makes sure that the railway between two stations (in either direction) is only calculated by one thread at a time. Other
+ * threads that need the same railway wait for that calculation, and get its result (reversed, if they asked for the
+ * opposite direction). A calculation that fails is not remembered, so the next thread that needs the railway calculates it
+ * again.
+ *
+ * This class is thread-safe.
+ */
+public class RailwayComputations {
+	
+	/**
+	 * Calculates the railway between two stations.
+	 */
+	@FunctionalInterface
+	public interface RailwayCalculator {
+		Railway calculateRailway(Station from, Station to) throws PathFindingException;
+	}
+	
+	private final RailwayCalculator railwayCalculator;
+	/** The railways that are being calculated, by {@link #getKey(Station, Station)}. */
+	private final Map<String, CompletableFuture<Railway>> computations = new ConcurrentHashMap<>();
+	
+	public RailwayComputations(RailwayCalculator railwayCalculator) {
+		this.railwayCalculator = railwayCalculator;
+	}
+	
+	/**
+	 * Calculates the railway between the given stations, or waits for the thread that is already calculating it.
+	 * @return The railway from the from station to the to station, or null if the calculator found none.
+	 * @throws PathFindingException If the railway could not be calculated (by this thread or the one it waited for).
+	 */
+	public Railway getRailway(Station from, Station to) throws PathFindingException {
+		
+		String key = getKey(from, to);
+		CompletableFuture<Railway> computation = new CompletableFuture<>();
+		CompletableFuture<Railway> runningComputation = computations.putIfAbsent(key, computation);
+		if (runningComputation != null) {
+			return orient(awaitRailway(runningComputation, from, to), from);
+		}
+		
+		try {
+			Railway res = railwayCalculator.calculateRailway(from, to);
+			computation.complete(res);
+			return res;
+		} catch (PathFindingException | RuntimeException e) {
+			computation.completeExceptionally(e);
+			throw e;
+		} finally {
+			computations.remove(key, computation);
+		}
+	}
+	
+	/**
+	 * @return The number of railways that are being calculated.
+	 */
+	public int size() {
+		return computations.size();
+	}
+	
+	/**
+	 * Waits for the railway that is being calculated by another thread.
+	 */
+	private static Railway awaitRailway(CompletableFuture<Railway> computation, Station from, Station to) throws PathFindingException {
+		
+		try {
+			return computation.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PathFindingException("Interrupted while waiting for the path from " + from.getCode() + " to " + to.getCode(), e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof PathFindingException) {
+				throw new PathFindingException(e.getCause().getMessage(), e.getCause());
+			}
+			throw new PathFindingException("Error while calculating the path from " + from.getCode() + " to " + to.getCode(), e.getCause());
+		}
+	}
+	
+	/**
+	 * @return The given railway, reversed if it was calculated in the opposite direction.
+	 */
+	private static Railway orient(Railway railway, Station from) {
+		
+		if (railway == null || railway.getFrom().getCode().equals(from.getCode())) {
+			return railway;
+		}
+		return railway.reversed();
+	}
+	
+	/**
+	 * @return The same key for both directions between the given stations.
+	 */
+	private static String getKey(Station from, Station to) {
+		return from.getCode().compareTo(to.getCode()) <= 0 ? from.getCode() + "-" + to.getCode() : to.getCode() + "-" + from.getCode();
+	}
+
+}
@@ -0,0 +1,130 @@
+package com.basdado.trainfinder.controller;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basdado.trainfinder.config.ConfigService;
+import com.basdado.trainfinder.config.OpenStreetMapConfiguration;
+import com.basdado.trainfinder.data.StationRepository;
+import com.basdado.trainfinder.model.Ride;
+import com.basdado.trainfinder.model.RideStop;
+import com.basdado.trainfinder.model.Station;
+
+/**
+ * Calculates the railways between consecutive stations in the background, so they don't have to be calculated while
+ * handling a request. At startup, the railways of the configured warm-up routes are calculated. After that, the railways
+ * between the stops of the known rides are added whenever the departures are updated.
+ *
+ * The railways are calculated on the managed executor, by at most the configured number of workers at the same time
+ * (see {@link RailwayWarmUpQueue}). The progress is available from {@link #getProgress()}, and as a JMX bean.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN) // All state is thread-safe
+public class RailwayWarmUpController {
+	
+	private static final Logger logger = LoggerFactory.getLogger(RailwayWarmUpController.class);
+	
+	private static final String MBEAN_NAME = "com.basdado.trainfinder:type=RailwayWarmUp";
+	
+	@Inject private ConfigService configService;
+	@Inject private StationRepository stationRepository;
+	@Inject private TrainRoutingController trainRoutes;
+	@Resource private ManagedExecutorService executor;
+	
+	private RailwayWarmUpQueue queue;
+	private ObjectName mbeanName;
+	
+	@PostConstruct
+	private void init() {
+		
+		OpenStreetMapConfiguration osmConfig = configService.getOpenStreetMapConfiguration();
+		queue = new RailwayWarmUpQueue(executor, osmConfig.getWarmUpThreadCount(), trainRoutes::getRailway);
+		
+		try {
+			mbeanName = new ObjectName(MBEAN_NAME);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(queue.getProgress(), mbeanName);
+		} catch (JMException e) {
+			logger.warn("Could not register railway warm-up progress bean: " + e.getMessage(), e);
+			mbeanName = null;
+		}
+		
+		if (!osmConfig.isWarmUpEnabled()) {
+			queue.startupRoutesAdded();
+			return;
+		}
+		
+		// Finding the stations may need the NS API, so that is done in the background as well
+		executor.execute(() -> {
+			try {
+				for (List<String> route : osmConfig.getWarmUpRoutes()) {
+					List<Station> stations = new ArrayList<>();
+					for (String code : route) {
+						Station station = stationRepository.getStationWithCode(code);
+						if (station != null) {
+							stations.add(station);
+						}
+					}
+					queue.addRoute(stations);
+				}
+				logger.info("Calculating railways for " + queue.getProgress().getPairCount() + " station pairs of the warm-up routes");
+			} catch (RuntimeException e) {
+				logger.warn("Could not find the stations of the warm-up routes: " + e.getMessage(), e);
+			} finally {
+				queue.startupRoutesAdded();
+			}
+		});
+	}
+	
+	@PreDestroy
+	private void destroy() {
+		
+		if (mbeanName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			} catch (JMException e) {
+				logger.warn("Could not unregister railway warm-up progress bean: " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	public RailwayWarmUpProgressMXBean getProgress() {
+		return queue.getProgress();
+	}
+	
+	/**
+	 * Calculates the railways between the consecutive stops of the given rides in the background (if they weren't calculated before).
+	 */
+	public void warmUp(Collection<Ride> rides) {
+		
+		if (!configService.getOpenStreetMapConfiguration().isWarmUpEnabled()) {
+			return;
+		}
+		
+		for (Ride ride : rides) {
+			List<Station> stations = new ArrayList<>();
+			for (RideStop stop : ride.getStops()) {
+				stations.add(stop.getStation());
+			}
+			queue.addRoute(stations);
+		}
+	}
+
+}
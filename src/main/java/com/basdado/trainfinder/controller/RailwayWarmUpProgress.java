@@ -0,0 +1,74 @@
+package com.basdado.trainfinder.controller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the progress of the railway warm-up. Can be updated and read from any thread.
+ */
+public class RailwayWarmUpProgress implements RailwayWarmUpProgressMXBean {
+	
+	private final AtomicInteger pairCount = new AtomicInteger();
+	private final AtomicInteger completedPairCount = new AtomicInteger();
+	private final AtomicInteger failedPairCount = new AtomicInteger();
+	private volatile boolean startupPairsAdded;
+	private volatile boolean ready;
+	
+	@Override
+	public int getPairCount() {
+		return pairCount.get();
+	}
+	
+	@Override
+	public int getCompletedPairCount() {
+		return completedPairCount.get();
+	}
+	
+	@Override
+	public int getFailedPairCount() {
+		return failedPairCount.get();
+	}
+	
+	@Override
+	public double getProgress() {
+		int count = pairCount.get();
+		return count == 0 ? 1 : (completedPairCount.get() + failedPairCount.get()) / (double)count;
+	}
+	
+	@Override
+	public boolean isReady() {
+		return ready;
+	}
+	
+	void pairAdded() {
+		pairCount.incrementAndGet();
+	}
+	
+	void pairCompleted() {
+		completedPairCount.incrementAndGet();
+		updateReady();
+	}
+	
+	void pairFailed() {
+		failedPairCount.incrementAndGet();
+		updateReady();
+	}
+	
+	/**
+	 * Marks that all pairs of the startup routes were added, so the warm-up is ready as soon as all pairs are done.
+	 */
+	void startupPairsAdded() {
+		startupPairsAdded = true;
+		updateReady();
+	}
+	
+	/**
+	 * The warm-up is ready once every pair added so far is done after the startup pairs were added. Once ready, it stays
+	 * ready, even when pairs for new rides are added.
+	 */
+	private void updateReady() {
+		if (startupPairsAdded && completedPairCount.get() + failedPairCount.get() >= pairCount.get()) {
+			ready = true;
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.basdado.trainfinder.controller;
+
+/**
+ * Progress of the railway warm-up (see {@link RailwayWarmUpController}), registered as a JMX bean.
+ */
+public interface RailwayWarmUpProgressMXBean {
+	
+	/**
+	 * @return The number of station pairs the railway has to be calculated for, including the pairs that are done.
+	 */
+	int getPairCount();
+	
+	/**
+	 * @return The number of station pairs for which the railway was calculated.
+	 */
+	int getCompletedPairCount();
+	
+	/**
+	 * @return The number of station pairs for which no railway could be calculated.
+	 */
+	int getFailedPairCount();
+	
+	/**
+	 * @return The fraction (between 0 and 1) of the station pairs that is done.
+	 */
+	double getProgress();
+	
+	/**
+	 * @return True iff the railways of all warm-up routes configured for startup are done.
+	 */
+	boolean isReady();
+
+}
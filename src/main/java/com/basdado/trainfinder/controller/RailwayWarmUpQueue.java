@@ -0,0 +1,121 @@
+package com.basdado.trainfinder.controller;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basdado.trainfinder.exception.PathFindingException;
+import com.basdado.trainfinder.model.Station;
+
+/**
+ * The station pairs the railways still have to be calculated for by the {@link RailwayWarmUpController}. Each pair of
+ * consecutive stations of a route is added once (in either direction, since a railway can be reversed), and the pairs
+ * are calculated on the executor by at most the given number of workers at the same time.
+ *
+ * This class is thread-safe.
+ */
+public class RailwayWarmUpQueue {
+	
+	private static final Logger logger = LoggerFactory.getLogger(RailwayWarmUpQueue.class);
+	
+	/**
+	 * Calculates (and stores) the railway between two stations.
+	 */
+	@FunctionalInterface
+	public interface RailwayCalculator {
+		void calculateRailway(Station from, Station to) throws PathFindingException;
+	}
+	
+	private final Executor executor;
+	private final int maxWorkerCount;
+	private final RailwayCalculator railwayCalculator;
+	
+	private final Queue<Station[]> pendingPairs = new ConcurrentLinkedQueue<>();
+	/**
+	 * The pairs that were added before (in either direction), so each pair is only calculated once.
+	 */
+	private final Set<String> addedPairs = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger workerCount = new AtomicInteger();
+	private final RailwayWarmUpProgress progress = new RailwayWarmUpProgress();
+	
+	public RailwayWarmUpQueue(Executor executor, int maxWorkerCount, RailwayCalculator railwayCalculator) {
+		this.executor = executor;
+		this.maxWorkerCount = maxWorkerCount;
+		this.railwayCalculator = railwayCalculator;
+	}
+	
+	public RailwayWarmUpProgress getProgress() {
+		return progress;
+	}
+	
+	/**
+	 * Marks that all routes that should be done before the warm-up is ready are added.
+	 */
+	public void startupRoutesAdded() {
+		progress.startupPairsAdded();
+	}
+	
+	/**
+	 * Calculates the railways between the consecutive stations of the given route in the background, if they weren't
+	 * added before. Missing (null) stations and consecutive stops at the same station are skipped.
+	 */
+	public void addRoute(List<Station> stations) {
+		
+		for (int i = 1; i < stations.size(); i++) {
+			Station from = stations.get(i - 1);
+			Station to = stations.get(i);
+			if (from == null || to == null || from.equals(to)) {
+				continue;
+			}
+			
+			String key = from.getCode().compareTo(to.getCode()) < 0 ? from.getCode() + "-" + to.getCode() : to.getCode() + "-" + from.getCode();
+			if (addedPairs.add(key)) {
+				progress.pairAdded();
+				pendingPairs.add(new Station[] { from, to });
+			}
+		}
+		startWorkers();
+	}
+	
+	/**
+	 * Starts workers for the pending pairs, up to the maximum number of workers.
+	 */
+	private void startWorkers() {
+		
+		while (!pendingPairs.isEmpty()) {
+			int count = workerCount.get();
+			if (count >= maxWorkerCount) {
+				return;
+			}
+			if (workerCount.compareAndSet(count, count + 1)) {
+				executor.execute(this::calculatePendingRailways);
+			}
+		}
+	}
+	
+	private void calculatePendingRailways() {
+		
+		Station[] pair;
+		while ((pair = pendingPairs.poll()) != null) {
+			try {
+				railwayCalculator.calculateRailway(pair[0], pair[1]);
+				progress.pairCompleted();
+			} catch (PathFindingException | RuntimeException e) {
+				logger.warn("Could not calculate railway from " + pair[0].getCode() + " to " + pair[1].getCode() + ": " + e.getMessage());
+				progress.pairFailed();
+			}
+		}
+		workerCount.decrementAndGet();
+		
+		// A pair may have been added after the queue was found empty, but before the worker count was decreased
+		startWorkers();
+	}
+
+}
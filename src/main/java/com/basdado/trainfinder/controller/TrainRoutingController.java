@@ -1,48 +1,44 @@
 package com.basdado.trainfinder.controller;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.cache.Cache;
 import javax.cache.CacheManager;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
 import javax.ejb.Singleton;
 import javax.inject.Inject;
 
-import org.apache.commons.lang3.tuple.ImmutableTriple;
-import org.apache.commons.lang3.tuple.Triple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.basdado.trainfinder.config.ConfigService;
 import com.basdado.trainfinder.config.OpenStreetMapConfiguration;
+import com.basdado.trainfinder.data.StationRepository;
 import com.basdado.trainfinder.exception.PathFindingException;
+import com.basdado.trainfinder.model.ContractedRailwayGraph;
+import com.basdado.trainfinder.model.ContractionHierarchy;
 import com.basdado.trainfinder.model.LatLng;
-import com.basdado.trainfinder.model.OsmRailwayMap;
-import com.basdado.trainfinder.model.OsmRailwayMap.OsmRailwayMapNode;
 import com.basdado.trainfinder.model.Railway;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.model.RailwayPath;
 import com.basdado.trainfinder.model.Station;
-import com.basdado.trainfinder.util.CoordinateUtil;
+import com.basdado.trainfinder.model.StationTrackPositions;
+import com.basdado.trainfinder.model.TrackPosition;
+import com.basdado.trainfinder.osm.OsmRailwayMapLoader;
+import com.basdado.trainfinder.osm.RailwayStore;
 import com.basdado.trainfinder.util.RailwayMapUtil;
-
-import de.topobyte.osm4j.core.access.OsmHandler;
-import de.topobyte.osm4j.core.access.OsmInputException;
-import de.topobyte.osm4j.core.model.iface.OsmBounds;
-import de.topobyte.osm4j.core.model.iface.OsmNode;
-import de.topobyte.osm4j.core.model.iface.OsmRelation;
-import de.topobyte.osm4j.core.model.iface.OsmTag;
-import de.topobyte.osm4j.core.model.iface.OsmWay;
-import de.topobyte.osm4j.xml.dynsax.OsmXmlReader;
+import com.basdado.trainfinder.util.RailwayMapUtil.SearchAlgorithm;
 
 @Singleton
+@Lock(LockType.READ) // The railway graphs are immutable and stations are snapped in a separate overlay, so railways are calculated concurrently
 public class TrainRoutingController {
 	
 	private static final String RAILWAY_CACHE_KEY = "railwayPathCache";
@@ -51,52 +47,105 @@ public class TrainRoutingController {
 	
 	@Inject private ConfigService configService;
 	@Inject private CacheManager cacheManager;
+	@Inject private StationRepository stationRepository;
 	
-	private OsmRailwayMap railwayMap;
-	private Map<String, Boolean> nodesAddedNearStation;
+	private RailwayGraph railwayGraph;
+	private ContractedRailwayGraph routingGraph;
+	private ContractionHierarchy contractionHierarchy;
+	private StationTrackPositions stationTrackPositions;
 	
 	private Cache<String, Railway> railwayCache;
+	private RailwayStore railwayStore;
+	/** Only one thread calculates the railway between two stations (in either direction), the others wait for it. */
+	private final RailwayComputations railwayComputations = new RailwayComputations(this::getKnownOrCalculateRailway);
 	
 	@PostConstruct
 	private void init() {
 		
 		OpenStreetMapConfiguration osmConfig = configService.getOpenStreetMapConfiguration();
+		OsmRailwayMapLoader loader = new OsmRailwayMapLoader(osmConfig);
+		this.railwayGraph = loader.load();
 		
-		OsmXmlReader xmlReader;
-		try {
-			final String railRoadFile = osmConfig.getRailroadFile();
-			logger.info("Reading railway map at: " + railRoadFile);
-			xmlReader = new OsmXmlReader(railRoadFile, true);
-		} catch (FileNotFoundException e) {
-			throw new IllegalArgumentException("File not found: " + osmConfig.getRailroadFile(), e);
-		}
+		logger.info("Railway map was read succesfully, using " + railwayGraph.getNodeCount() + " nodes");
 		
-		this.railwayMap = new OsmRailwayMap();
-		xmlReader.setHandler(new OsmRailwayMapReader(railwayMap));
-		try {
-			xmlReader.read();
-		} catch (OsmInputException e) {
-			throw new IllegalArgumentException("Error in OSM file", e);
+		this.routingGraph = new ContractedRailwayGraph(railwayGraph);
+		logger.info("Railway map was contracted to " + routingGraph.getJunctionCount() + " junctions, connected by " + routingGraph.getChainCount() + " chains");
+		
+		if (osmConfig.isContractionHierarchyEnabled()) {
+			this.contractionHierarchy = loader.loadContractionHierarchy(routingGraph);
 		}
-		nodesAddedNearStation = new HashMap<>();
 		
-		logger.info("Railway map was read succesfully, using " + railwayMap.getNodes().size() + " nodes");
+		this.stationTrackPositions = new StationTrackPositions(railwayGraph, osmConfig.getPreferredStationToTrackDistance());
+		snapStations();
 		
 		railwayCache = (Cache<String, Railway>)
 				cacheManager.getCache(RAILWAY_CACHE_KEY, String.class, Railway.class);
+		
+		if (osmConfig.isPathStoreEnabled()) {
+			try {
+				this.railwayStore = RailwayStore.open(Paths.get(osmConfig.getPathStoreFile()), loader.getRailroadChecksum(), osmConfig.getPreferredStationToTrackDistance());
+				logger.info("Railway store contains " + railwayStore.size() + " railways");
+			} catch (IOException e) {
+				logger.warn("Could not open the railway store, railways will not be stored: " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Snaps all known stations to the tracks, so it doesn't have to be done while calculating railways. Stations that
+	 * are not known yet are snapped when a railway to or from them is calculated.
+	 */
+	private void snapStations() {
+		
+		long startTime = System.currentTimeMillis();
+		Collection<Station> stations;
+		try {
+			stations = stationRepository.getStations();
+		} catch (RuntimeException e) {
+			logger.warn("Could not load the stations, they will be snapped to the tracks when needed: " + e.getMessage(), e);
+			return;
+		}
+		int unsnappedCount = stationTrackPositions.snapAll(stations);
+		logger.info("Snapped " + (stations.size() - unsnappedCount) + " stations to the tracks in " + (System.currentTimeMillis() - startTime) + "ms, " + unsnappedCount + " stations have no tracks nearby");
+	}
+	
+	@PreDestroy
+	private void close() {
+		
+		if (railwayStore != null) {
+			try {
+				railwayStore.close();
+			} catch (IOException e) {
+				logger.warn("Could not close the railway store: " + e.getMessage(), e);
+			}
+		}
 	}
 	
 	public Railway getRailway(Station from, Station to) throws PathFindingException {
 		
-		if (nodesAddedNearStation.get(from.getCode()) == null || !nodesAddedNearStation.get(from.getCode())) {
-			addNodesOnTracksNear(from.getLocation());
-			nodesAddedNearStation.put(from.getCode(), true);
+		Railway res = getKnownRailway(from, to);
+		if (res != null) {
+			return res;
 		}
 		
-		if (nodesAddedNearStation.get(to.getCode()) == null || !nodesAddedNearStation.get(to.getCode())) {
-			addNodesOnTracksNear(to.getLocation());
-			nodesAddedNearStation.put(to.getCode(), true);
+		return railwayComputations.getRailway(from, to);
+	}
+	
+	private Railway getKnownOrCalculateRailway(Station from, Station to) throws PathFindingException {
+		
+		// The railway may have been calculated since it was looked up
+		Railway res = getKnownRailway(from, to);
+		if (res == null) {
+			res = calculateRailway(from, to);
 		}
+		return res;
+	}
+	
+	/**
+	 * Looks up a railway that has already been calculated, in the cache or in the railway store.
+	 * @return The railway, or null if it has not been calculated yet.
+	 */
+	private Railway getKnownRailway(Station from, Station to) {
 		
 		Railway res = railwayCache.get(getCacheKey(from, to));
 		if (res == null) {
@@ -106,221 +155,151 @@ public class TrainRoutingController {
 				res = inverseRes.reversed();
 			}
 		}
-		if (res == null) {
-			// Actually calculate it
-			logger.info("Calculating path from station " + from.getShortName() + "(" + from.getCode() + ") to " + to.getShortName() + "(" + to.getCode() + ").");
-			List<Long> pathNodes = calculateShortestPathBetween(from.getLocation(), to.getLocation());
-			if (pathNodes != null) {
-				res = generateRailway(pathNodes, from, to);
+		if (res == null && railwayStore != null) {
+			// Calculated before, possibly before a restart
+			res = readStoredRailway(from, to);
+			if (res != null) {
 				railwayCache.put(getCacheKey(from, to), res);
 			}
 		}
-		
 		return res;
 	}
 	
-	private String getCacheKey(Station from, Station to) {
-		return from.getCode() + "-" + to.getCode();
-	}
-	
-	private List<Long> calculateShortestPathBetween(LatLng from, LatLng to) throws PathFindingException {
-		
-		List<Long> sourceNodes = findNodesNear(from);
-		if (sourceNodes.isEmpty()) {
-			sourceNodes = addNodesOnTracksNear(from);
-		}
-		if (sourceNodes.isEmpty()) {
-			throw new PathFindingException("Could not find railway nodes near from coordinate " + from);
-		}
-		List<Long> destNodes = findNodesNear(to);
-		if (destNodes.isEmpty()) {
-			destNodes = addNodesOnTracksNear(to);
-		}
-		if (destNodes.isEmpty()) {
-			throw new PathFindingException("Could not find railway nodes near to coordinate " + to);
-		}
+	private Railway calculateRailway(Station from, Station to) throws PathFindingException {
 		
-		// First try to find a path directly from the closest node to "from" to the closest node to "to".
-		List<Long> pathNodes = RailwayMapUtil.calculateShortestPathBetween(railwayMap, sourceNodes.get(0), new HashSet<>(Arrays.asList(destNodes.get(0))));
-		if (pathNodes != null && !pathNodes.isEmpty()) {
-			return pathNodes;
+		logger.info("Calculating path from station " + from.getShortName() + "(" + from.getCode() + ") to " + to.getShortName() + "(" + to.getCode() + ").");
+		RailwayPath path = calculateShortestPathBetween(from, to);
+		if (path == null) {
+			return null;
 		}
+		logger.info("Found path of " + Math.round(path.getLength()) + "m from " + from.getCode() + " to " + to.getCode() + ", visited " + path.getSettledJunctionCount() + " junctions.");
+		Railway res = generateRailway(path, from, to);
+		railwayCache.put(getCacheKey(from, to), res);
+		storeRailway(res);
+		return res;
+	}
+	
+	private Railway readStoredRailway(Station from, Station to) {
 		
-		// Otherwise, try any combination of nodes
-		for (Long sourceNodeId : sourceNodes) {
-
-			pathNodes = RailwayMapUtil.calculateShortestPathBetween(railwayMap, sourceNodeId, new HashSet<>(Arrays.asList(destNodes.get(0))));
-			if (pathNodes != null && !pathNodes.isEmpty()) {
-				return pathNodes;
-			}
+		try {
+			return railwayStore.get(from, to);
+		} catch (IOException e) {
+			logger.warn("Could not read the railway from " + from.getCode() + " to " + to.getCode() + " from the railway store: " + e.getMessage(), e);
+			return null;
 		}
-		
-		throw new PathFindingException("Could not find a path from " + from + " to " + to);
 	}
 	
-	private Railway generateRailway(List<Long> pathNodes, Station from, Station to) {
-		
-		LatLng[] path = new LatLng[pathNodes.size()];
-		double[] distanceUntil = new double[pathNodes.size()];
-		Long previousPathNodeId = null;
-		OsmRailwayMapNode previousPathNode = null;
-		int i = 0;
+	private void storeRailway(Railway railway) {
 		
-		for (Long pathNodeId : pathNodes) {
-			
-			OsmRailwayMapNode pathNode = railwayMap.getNode(pathNodeId);
-			path[i] = pathNode.getPosition();
-			if (i == 0) {
-				distanceUntil[i] = 0;
-			} else {
-				double distanceToPreviousNode = pathNode.isConnectedTo(previousPathNodeId) ?
-						pathNode.getDistanceToConnectedNode(previousPathNodeId) :
-						CoordinateUtil.dist(pathNode.getPosition(), previousPathNode.getPosition());
-				
-				distanceUntil[i] = distanceUntil[i - 1] + distanceToPreviousNode;
+		if (railwayStore != null) {
+			try {
+				railwayStore.put(railway);
+			} catch (IOException e) {
+				logger.warn("Could not store the railway from " + railway.getFrom().getCode() + " to " + railway.getTo().getCode() + ": " + e.getMessage(), e);
 			}
-			
-			previousPathNodeId = pathNodeId;
-			previousPathNode = pathNode;
-			i++;
 		}
-		
-		return new Railway(path, distanceUntil, from, to);
 	}
 	
-	
-
-	
-	private List<Long> findNodesNear(LatLng pos) {
-		List<Long> preferredNodes = railwayMap.findNodesNear(pos, configService.getOpenStreetMapConfiguration().getPreferredStationToTrackDistance());
-//		if (preferredNodes.isEmpty()) {
-//			return railwayMap.findNodesNear(pos, configService.getOpenStreetMapConfiguration().getMaxStationToTrackDistance());
-//		} else {
-			return preferredNodes;
-//		}
-	}
-	
-	private List<Long> addNodesOnTracksNear(LatLng pos) {
-		return addNodesOnTracksNear(pos, configService.getOpenStreetMapConfiguration().getPreferredStationToTrackDistance());
+	private String getCacheKey(Station from, Station to) {
+		return from.getCode() + "-" + to.getCode();
 	}
 	
-	/**
-	 * Adds nodes on the tracks near the given position (to make navigation easier).
-	 * Returns the IDs of the added nodes if any. If no IDs are returned, then
-	 * no track were found near the given position within maxDist.
-	 * 
-	 * @param pos
-	 * @param maxDist
-	 * @return
-	 */
-	private List<Long> addNodesOnTracksNear(LatLng pos, double maxDist) {
+	private RailwayPath calculateShortestPathBetween(Station from, Station to) throws PathFindingException {
 		
-		double trackNodeDistance = railwayMap.getLongestNodeConnectionDistance() + maxDist;
-		List<Long> nearbyTrackNodes = railwayMap.findNodesNear(pos, trackNodeDistance);
-		
-		// Triple: left = existing node 1, middle = existing node 2, right = new node. 
-		List<Triple<Long, Long, Long>> addedNodes = new ArrayList<>();
+		List<TrackPosition> sourcePositions = stationTrackPositions.get(from);
+		if (sourcePositions.isEmpty()) {
+			throw new PathFindingException("Could not find railway tracks near from coordinate " + from.getLocation());
+		}
+		List<TrackPosition> destPositions = stationTrackPositions.get(to);
+		if (destPositions.isEmpty()) {
+			throw new PathFindingException("Could not find railway tracks near to coordinate " + to.getLocation());
+		}
 		
-		// Find all paths (lines) that pass nearby pos.
-		for (Long nodeId : nearbyTrackNodes) {
-			OsmRailwayMapNode node = railwayMap.getNode(nodeId);
-			for (Long neighborNodeId : node.getConnections().keySet()) {
-				if (nodeId < neighborNodeId) { // To prevent calculating this twice for the same path
-					OsmRailwayMapNode neighborNode = railwayMap.getNode(neighborNodeId);
-					
-					double trackDist = CoordinateUtil.crossTrackDist(node.getPosition(), neighborNode.getPosition(), pos);
-					if (trackDist < maxDist) { // This track passes by close enough, so let's add a new node:
-						
-						long newNodeId = addNodeOnPath(node.getPosition(), neighborNode.getPosition(), pos);
-						addedNodes.add(new ImmutableTriple<>(nodeId, neighborNodeId, newNodeId));
-						
-					}
-					
-				}
-			}
+		// First try to find a path directly from the closest position to "from" to the closest position to "to".
+		List<TrackPosition> nearestDestPosition = Collections.singletonList(destPositions.get(0));
+		RailwayPath path = calculateShortestPathBetween(sourcePositions.get(0), nearestDestPosition);
+		if (path != null) {
+			return path;
 		}
 		
-		// Fix the connections
-		for (Triple<Long, Long, Long> addedNode : addedNodes) {
-			
-			Long node1Id = addedNode.getLeft();
-			Long node2Id = addedNode.getMiddle();
-			Long newNodeId = addedNode.getRight();
+		// Otherwise, try any of the other positions near "from"
+		for (TrackPosition sourcePosition : sourcePositions) {
 			
-			railwayMap.removeConnection(node1Id, node2Id);
-			railwayMap.addWay(Arrays.asList(node1Id, newNodeId, node2Id));
+			path = calculateShortestPathBetween(sourcePosition, nearestDestPosition);
+			if (path != null) {
+				return path;
+			}
 		}
 		
-		return addedNodes.stream().map(n -> n.getRight())
-				.sorted(Comparator.comparing(a -> CoordinateUtil.angularDist(railwayMap.getNode(a).getPosition(), pos)))
-				.collect(Collectors.toList());
-		
+		throw new PathFindingException("Could not find a path from " + from.getLocation() + " to " + to.getLocation());
 	}
 	
-	private Long addNodeOnPath(LatLng c1, LatLng c2, LatLng pos) {
+	private RailwayPath calculateShortestPathBetween(TrackPosition source, List<TrackPosition> destinations) {
 		
-		double alongTrack = CoordinateUtil.alongTrackDist(c1, c2, pos);
-		double trackLength = CoordinateUtil.dist(c1, c2);
-		
-		LatLng nodeOnPathPos = CoordinateUtil.interpolate(c1, c2, alongTrack / trackLength);
-		long newNodeId = 0;
-		// Find the first free node index
-		while(railwayMap.getNode(newNodeId) != null) {
-			newNodeId++; 
+		if (contractionHierarchy != null) {
+			return RailwayMapUtil.calculateShortestPathBetween(contractionHierarchy, source, destinations);
 		}
-		
-		railwayMap.addNode(newNodeId, new OsmRailwayMapNode(nodeOnPathPos));
-		
-		return newNodeId;
+		SearchAlgorithm algorithm = configService.getOpenStreetMapConfiguration().getRoutingAlgorithm();
+		return RailwayMapUtil.calculateShortestPathBetween(routingGraph, source, destinations, algorithm);
 	}
-
 	
-	private class OsmRailwayMapReader implements OsmHandler {
-
-		private final OsmRailwayMap target;
+	/**
+	 * Creates the railway for the given path. This is the only place where the chains of the path are expanded
+	 * into the railway graph nodes they consist of.
+	 */
+	private Railway generateRailway(RailwayPath railwayPath, Station from, Station to) {
 		
-		public OsmRailwayMapReader(OsmRailwayMap target) {
-			this.target = target;
-		}
+		int legCount = railwayPath.getLegCount();
 		
-		@Override
-		public void complete() throws IOException {
-			target.clean();
+		// Every leg adds at most all of the nodes of its chain
+		int maxPointCount = 2;
+		for (int leg = 0; leg < legCount; leg++) {
+			int chain = railwayPath.getLegChain(leg);
+			maxPointCount += routingGraph.getChainNodeEnd(chain) - routingGraph.getFirstChainNode(chain);
 		}
-
-		@Override
-		public void handle(OsmBounds bounds) throws IOException {
-			// We don't care about bounds for the train map
-		}
-
-		@Override
-		public void handle(OsmNode node) throws IOException {
-			target.addNode(node);
+		
+		LatLng[] path = new LatLng[maxPointCount];
+		double[] distanceUntil = new double[maxPointCount];
+		
+		path[0] = railwayPath.getFrom().getPosition();
+		distanceUntil[0] = 0;
+		int pointCount = 1;
+		double legDistance = 0;
+		
+		for (int leg = 0; leg < legCount; leg++) {
 			
-		}
-
-		@Override
-		public void handle(OsmWay way) throws IOException {
+			int chain = railwayPath.getLegChain(leg);
+			double startOffset = railwayPath.getLegStartOffset(leg);
+			double endOffset = railwayPath.getLegEndOffset(leg);
+			boolean forward = startOffset <= endOffset;
+			int first = routingGraph.getFirstChainNode(chain);
+			int end = routingGraph.getChainNodeEnd(chain);
 			
-			boolean isRailway = false;
-			for (int i = 0; i < way.getNumberOfTags(); i++) {
-				OsmTag tag = way.getTag(i);
-				if ("railway".equals(tag.getKey()) && "rail".equals(tag.getValue())) {
-					isRailway = true;
-					break;
+			// Add the nodes between the start and end offset (the ends themselves are added by the adjacent legs)
+			for (int i = forward ? first : end - 1; forward ? i < end : i >= first; i += forward ? 1 : -1) {
+				double offset = routingGraph.getChainNodeOffset(i);
+				if (forward ? (offset > startOffset && offset < endOffset) : (offset < startOffset && offset > endOffset)) {
+					path[pointCount] = railwayGraph.getPosition(routingGraph.getChainNode(i));
+					distanceUntil[pointCount] = legDistance + Math.abs(offset - startOffset);
+					pointCount++;
 				}
 			}
 			
-			if (isRailway) {
-				target.addWay(way);
-			}
+			legDistance += Math.abs(endOffset - startOffset);
 			
-		}
-
-		@Override
-		public void handle(OsmRelation arg0) throws IOException {
-			// Not important for railway map
+			if (leg < legCount - 1) { // The leg ends at a junction
+				int junctionNode = routingGraph.getChainNode(endOffset == 0 ? first : end - 1);
+				path[pointCount] = railwayGraph.getPosition(junctionNode);
+				distanceUntil[pointCount] = legDistance;
+				pointCount++;
+			}
 		}
 		
+		path[pointCount] = railwayPath.getTo().getPosition();
+		distanceUntil[pointCount] = railwayPath.getLength();
+		pointCount++;
+		
+		return new Railway(Arrays.copyOf(path, pointCount), Arrays.copyOf(distanceUntil, pointCount), from, to);
 	}
+
 }
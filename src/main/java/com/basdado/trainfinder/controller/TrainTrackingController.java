@@ -4,9 +4,20 @@ import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
@@ -18,11 +29,12 @@ import javax.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.basdado.trainfinder.config.ConfigService;
 import com.basdado.trainfinder.data.DeparturesRepository;
+import com.basdado.trainfinder.data.DeparturesRepository.Priority;
 import com.basdado.trainfinder.data.StationRepository;
 import com.basdado.trainfinder.data.TravelAdviceRepository;
 import com.basdado.trainfinder.data.TravelAdviceRepository.TimeType;
-import com.basdado.trainfinder.exception.TravelAdviceException;
 import com.basdado.trainfinder.model.Departure;
 import com.basdado.trainfinder.model.LatLng;
 import com.basdado.trainfinder.model.Ride;
@@ -57,11 +69,19 @@ public class TrainTrackingController {
 	 */
 	private static final Duration STATION_UPDATE_OFFSET = Duration.ofMinutes(5);
 	
+	/**
+	 * The maximum time an update waits for the NS API. Shorter than the interval of the updates, because this singleton is locked
+	 * while it waits (and the first update holds up the deployment).
+	 */
+	private static final Duration UPDATE_TIMEOUT = Duration.ofMinutes(4);
+	
 	@Inject StationRepository stationRepo;
 	@Inject DeparturesRepository departuresRepo;
 	@Inject TravelAdviceRepository travelAdviceRepo;
 	@Inject TrainRoutingController trainRoutes;	
 	@Inject TrainRideDataManager trainRideDataManager;
+	@Inject RailwayWarmUpController railwayWarmUp;
+	@Inject ConfigService configService;
 	
 	private Map<Station, OffsetDateTime> nextUpdateTimes;
 	/**
@@ -78,17 +98,27 @@ public class TrainTrackingController {
 	@Schedule(hour="*",minute="*/5", persistent=false)
 	public void RefreshDepartures() {
 		
+		OffsetDateTime deadline = OffsetDateTime.now().plus(UPDATE_TIMEOUT);
 		Collection<Station> stations = getStations();		
-		Collection<Station> stationsWorthUpdating = stations.stream().filter(s -> isStationWorthUpdating(s)).collect(Collectors.toList());
+		Map<Station, Priority> stationsWorthUpdating = new LinkedHashMap<>();
+		for (Station station : stations) {
+			Priority priority = getUpdatePriority(station);
+			if (priority != null) {
+				stationsWorthUpdating.put(station, priority);
+			}
+		}
 		
 		logger.info("Found " + stationsWorthUpdating.size() + " stations worth updating: " + 
-				String.join(",", stationsWorthUpdating.stream().map(s -> s.getShortName()).collect(Collectors.toList())));
+				String.join(",", stationsWorthUpdating.keySet().stream().map(s -> s.getShortName()).collect(Collectors.toList())));
 		
-		for(Station station: stationsWorthUpdating) {
-
-			logger.info("Getting departures at " + station.getFullName());
+		// The departures are requested concurrently, but added to the rides one station at a time, in the same order as before
+		Map<Station, Collection<Departure>> departuresByStation = getDeparturesAt(stationsWorthUpdating, deadline);
+		for(Station station: stationsWorthUpdating.keySet()) {
 			
-			final Collection<Departure> departures = departuresRepo.getDeparturesAt(station);
+			final Collection<Departure> departures = departuresByStation.get(station);
+			if (departures == null) {
+				continue; // Retried in the next update
+			}
 			
 			for (Departure departure : departures) {
 				Ride ride = trainRideDataManager.findOrCreateRide(departure);
@@ -98,7 +128,7 @@ public class TrainTrackingController {
 			setLastUpdateTime(station);
 			
 			// If there were no departures, we skip updating this station for a while
-			if (departures == null || departures.isEmpty()) {
+			if (departures.isEmpty()) {
 				setNextUpdateTime(station, OffsetDateTime.now().plus(STATION_UPDATE_SKIP));
 			}
 		}
@@ -106,7 +136,9 @@ public class TrainTrackingController {
 		// We can't get the time at the destination station from the departures alone.
 		// Therefore, when a ride for which the time at the final station is not known is reaching the last known station,
 		// we get a travel advice from the last known stop till the final destination, which should gives us the required details
+		// All travel advices are requested before the first one is used, so the requests are done concurrently.
 		List<Ride> rides = trainRideDataManager.getRides();
+		Map<Ride, FinalStopRequest> finalStopRequests = new LinkedHashMap<>();
 		for (Ride ride : rides) {
 			OffsetDateTime now = OffsetDateTime.now();
 			RideStop lastKnownStop = ride.getLastKnownStop();
@@ -120,9 +152,16 @@ public class TrainTrackingController {
 					(actualLastKnownDeparture.isBefore(now.plus(STATION_UPDATE_OFFSET)) && actualLastKnownDeparture.isAfter(now))) {
 				
 				logger.debug("Getting final stop for ride: " + ride);
-				tryGetFinalStopForRide(ride);
+				FinalStopRequest finalStopRequest = requestFinalStopForRide(ride);
+				if (finalStopRequest != null) {
+					finalStopRequests.put(ride, finalStopRequest);
+				}
 			}
 		}
+		finalStopRequests.forEach((ride, finalStopRequest) -> tryAddFinalStop(ride, finalStopRequest, deadline));
+		
+		// Calculate the railways the rides will need before they are requested
+		railwayWarmUp.warmUp(rides);
 		
 		List<Ride> sortedRides = rides.stream().sorted((r1, r2) -> r1.getRideCode().compareTo(r2.getRideCode())).collect(Collectors.toList());
 		for (Ride ride: sortedRides) {
@@ -132,6 +171,112 @@ public class TrainTrackingController {
 		cleanNextUpdateTimes();
 	}
 	
+	/**
+	 * Gets the departures at the given stations, doing at most the configured number of requests to the NS API at the same time.
+	 * The stations with the highest priority are requested first. The requests don't block, so only the calling thread waits
+	 * until all departures are known, or until the deadline.
+	 * @param stations The stations, with the priority of the request for their departures
+	 * @param deadline The time after which no more departures are waited for
+	 * @return The departures at each station. Stations for which the departures could not be retrieved (in time) are left out.
+	 */
+	private Map<Station, Collection<Departure>> getDeparturesAt(Map<Station, Priority> stations, OffsetDateTime deadline) {
+		
+		DepartureRequests requests = new DepartureRequests(stations);
+		
+		int maxConcurrentRequests = Math.min(stations.size(), configService.getNSAPIConfiguration().getMaxConcurrentDepartureRequests());
+		CompletableFuture<?>[] requestChains = new CompletableFuture<?>[maxConcurrentRequests];
+		for (int i = 0; i < maxConcurrentRequests; i++) {
+			requestChains[i] = requests.getRemainingDepartures();
+		}
+		
+		try {
+			CompletableFuture.allOf(requestChains).get(getMillisUntil(deadline), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while getting departures, continuing with the departures retrieved so far");
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.warn("Could not get departures: " + e.getMessage(), e);
+		} catch (TimeoutException e) {
+			logger.warn("Timed out while getting departures, continuing with the departures at " + requests.departuresByStation.size() + " of " + 
+					stations.size() + " stations");
+		} finally {
+			// No requests are started for the stations that are left, so they are updated in the next update. The requests
+			// that are still running are cancelled, so they don't take the permits of the requests of the next update.
+			requests.cancel();
+		}
+		
+		// Copied, because requests that complete while they are being cancelled may still add departures
+		return new HashMap<>(requests.departuresByStation);
+	}
+	
+	/**
+	 * The departure requests of a single update, for the stations that are still pending (highest priority first).
+	 */
+	private class DepartureRequests {
+		
+		private final Map<Station, Priority> priorities;
+		private final Queue<Station> pendingStations;
+		private final Map<Station, Collection<Departure>> departuresByStation = new ConcurrentHashMap<>();
+		/** The requests that have been started, but have not completed yet. */
+		private final Set<CompletableFuture<Collection<Departure>>> runningRequests = ConcurrentHashMap.newKeySet();
+		private volatile boolean cancelled;
+		
+		public DepartureRequests(Map<Station, Priority> priorities) {
+			
+			List<Station> sortedStations = new ArrayList<>(priorities.keySet());
+			sortedStations.sort(Comparator.comparing(priorities::get));
+			this.priorities = priorities;
+			this.pendingStations = new ConcurrentLinkedQueue<>(sortedStations);
+		}
+		
+		/**
+		 * Gets the departures at the pending stations one after another, requesting the departures at the next station as
+		 * soon as the previous response arrives.
+		 * @return A future that completes when there are no pending stations left.
+		 */
+		private CompletableFuture<Void> getRemainingDepartures() {
+			
+			Station station = pendingStations.poll();
+			if (station == null) {
+				return CompletableFuture.completedFuture(null);
+			}
+			
+			logger.info("Getting departures at " + station.getFullName());
+			CompletableFuture<Collection<Departure>> request = departuresRepo.getDeparturesAtAsync(station, priorities.get(station));
+			runningRequests.add(request);
+			if (cancelled) {
+				request.cancel(false); // Started while the requests were being cancelled
+			}
+			return request
+					.handle((departures, e) -> {
+						runningRequests.remove(request);
+						if (e == null) {
+							departuresByStation.put(station, departures);
+						} else if (!(e instanceof CancellationException)) {
+							logger.warn("Could not get departures at " + station.getFullName() + ": " + e.getMessage(), e);
+						}
+						return null;
+					})
+					.thenCompose(v -> getRemainingDepartures());
+		}
+		
+		/**
+		 * Starts no more requests, and cancels the running requests (which withdraws or aborts their requests to the NS API).
+		 */
+		private void cancel() {
+			
+			cancelled = true;
+			pendingStations.clear();
+			for (CompletableFuture<Collection<Departure>> request : runningRequests) {
+				request.cancel(false);
+			}
+		}
+	}
+	
+	private static long getMillisUntil(OffsetDateTime time) {
+		return Math.max(0, Duration.between(OffsetDateTime.now(), time).toMillis());
+	}
+	
 	private void cleanNextUpdateTimes() {
 		
 		List<Station> toRemove = new ArrayList<>();
@@ -157,41 +302,36 @@ public class TrainTrackingController {
 	}
 	
 	/**
-	 * Based on the station timeouts (nextUpdateTimes)
+	 * Based on the station timeouts (nextUpdateTimes) and the rides that will stop at the station soon.
 	 * @param station
-	 * @return
+	 * @return The priority of updating the station: high if a train will stop at it soon, low if it just hasn't been updated
+	 * for a while, or null if it is not worth updating.
 	 */
-	private boolean isStationWorthUpdating(Station station) {
+	private Priority getUpdatePriority(Station station) {
 		
 		OffsetDateTime now = OffsetDateTime.now();
 		
-		// If a station has not been updated in STATION_UPDATE_MAXIMUM_SKIP duration, then it is worth updating regardless of which trains arrive
-		if (!lastUpdateTimes.containsKey(station) || lastUpdateTimes.get(station).isBefore(now.minus(STATION_UPDATE_MAXIMUM_SKIP))) { 
-			return true;
-		}
-		
-		// If updating is disabled (next update time in the future)
-		if (nextUpdateTimes.containsKey(station)) {
-			if (!nextUpdateTimes.get(station).isBefore(now)) {
-				return false;
+		// If updating is disabled (next update time in the future), the trains don't make it worth updating
+		if (!nextUpdateTimes.containsKey(station) || nextUpdateTimes.get(station).isBefore(now)) {
+			
+			OffsetDateTime nowPlusUpdateOffset = now.plus(STATION_UPDATE_OFFSET);
+			
+			// If there are no trains which within 5 minutes will have this station as the next station, then this station is not worth updating.
+			List<Ride> rides = trainRideDataManager.getRides();
+			for (Ride ride : rides) {	
+				if (isStationWorthUpdatingForRide(ride, station, now, nowPlusUpdateOffset)) {
+					logger.debug("Station " + station.getFullName() + " is worth updating because of ride: " + ride);
+					return Priority.HIGH; // If we find it is worth updating, stop searching further and update already!
+				}
 			}
 		}
 		
-		OffsetDateTime nowPlusUpdateOffset = now.plus(STATION_UPDATE_OFFSET);
-		boolean worthUpdating = false;
-
-		// If there are no trains which within 5 minutes will have this station as the next station, then this station is not worth updating.
-		List<Ride> rides = trainRideDataManager.getRides();
-		for (Ride ride : rides) {	
-			worthUpdating = isStationWorthUpdatingForRide(ride, station, now, nowPlusUpdateOffset);
-			if (worthUpdating) {
-				logger.debug("Station " + station.getFullName() + " is worth updating because of ride: " + ride);
-				break; // If we find it is worth updating, stop searching further and update already!
-			}
+		// If a station has not been updated in STATION_UPDATE_MAXIMUM_SKIP duration, then it is worth updating regardless of which trains arrive
+		if (!lastUpdateTimes.containsKey(station) || lastUpdateTimes.get(station).isBefore(now.minus(STATION_UPDATE_MAXIMUM_SKIP))) { 
+			return Priority.LOW;
 		}
-				
-		return worthUpdating;
 		
+		return null;
 	}
 	
 	private boolean isStationWorthUpdatingForRide(Ride ride, Station station, OffsetDateTime now, OffsetDateTime nowPlusUpdateOffset) {
@@ -224,61 +364,92 @@ public class TrainTrackingController {
 	}
 
 	/**
-	 * Uses the travel advice repository to try to get (or update) information on the final stop in the given ride.
-	 * @param ride
-	 * @param lastKnownStop
+	 * Requests a travel advice from the last known stop of the given ride to its destination, which contains the final stop.
+	 * @return The request, or null if no travel advice can be requested for this ride.
 	 */
-	private void tryGetFinalStopForRide(Ride ride) {
+	private FinalStopRequest requestFinalStopForRide(Ride ride) {
 		
 		// Ride destination unknown, so no way to get the final stop. Happens when the destination is foreign or the ride is not complete yet.
 		if (ride.getDestination() == null) {
-			return;
+			return null;
 		}
 		
 		RideStop lastKnownStop = ride.getLastKnownStop();
 		RideStop fromStop = lastKnownStop.getStation().equals(ride.getDestination()) ? ride.getStopBefore(lastKnownStop) : lastKnownStop;
 		if (fromStop == null) {
 			logger.warn("Couldn't determine from stop for travel advice to final destination for ride: " + ride);
-		} else {
-			try {
-				TravelAdvice advice = travelAdviceRepo.getTravelAdvice(fromStop.getStation(), ride.getDestination(), fromStop.getDepartureTime(), TimeType.DEPARTURE);
-				
-				logger.debug("Got travel advice: " + advice);
-				
-				// We expect to get a travel advice without transfers (i.e. advice.getParts() == 1), and where the travel part has the same ride code.
-				// Note: this assumes that we will not get a travel advice for the next day
-				TravelAdviceOption currentRideTravelOption = advice.getTravelAdviceOptions().stream().filter(a -> 
-						a.getParts() != null && 
-						a.getParts().size() == 1 && 
-						a.getParts().stream().anyMatch(p -> p.getRideNumber().equals(ride.getRideCode()) && p.getStops().get(p.getStops().size() - 1).getStation().equals(ride.getDestination()))
-						)
-						.findFirst().orElse(null);
-				
-				if (currentRideTravelOption == null) {
-					logger.warn("Could not find valid travel advice option from " + fromStop.getStation().getFullName() + " to " + ride.getDestination() + " at " + fromStop.getDepartureTime());
+			return null;
+		}
+		
+		return new FinalStopRequest(fromStop, 
+				travelAdviceRepo.getTravelAdviceAsync(fromStop.getStation(), ride.getDestination(), fromStop.getDepartureTime(), TimeType.DEPARTURE));
+	}
+	
+	/**
+	 * Waits for the travel advice of the given request, and uses it to try to get (or update) information on the final stop in the given ride.
+	 * @param ride
+	 * @param finalStopRequest
+	 * @param deadline The time after which the travel advice is not waited for anymore
+	 */
+	private void tryAddFinalStop(Ride ride, FinalStopRequest finalStopRequest, OffsetDateTime deadline) {
+		
+		RideStop fromStop = finalStopRequest.fromStop;
+		try {
+			TravelAdvice advice = finalStopRequest.travelAdvice.get(getMillisUntil(deadline), TimeUnit.MILLISECONDS);
+			
+			logger.debug("Got travel advice: " + advice);
+			
+			// We expect to get a travel advice without transfers (i.e. advice.getParts() == 1), and where the travel part has the same ride code.
+			// Note: this assumes that we will not get a travel advice for the next day
+			TravelAdviceOption currentRideTravelOption = advice.getTravelAdviceOptions().stream().filter(a -> 
+					a.getParts() != null && 
+					a.getParts().size() == 1 && 
+					a.getParts().stream().anyMatch(p -> p.getRideNumber().equals(ride.getRideCode()) && p.getStops().get(p.getStops().size() - 1).getStation().equals(ride.getDestination()))
+					)
+					.findFirst().orElse(null);
+			
+			if (currentRideTravelOption == null) {
+				logger.warn("Could not find valid travel advice option from " + fromStop.getStation().getFullName() + " to " + ride.getDestination() + " at " + fromStop.getDepartureTime());
+			} else {
+				// Extract the RideStop from the travel advice
+				TravelAdviceOptionPart ridePart = currentRideTravelOption.getParts().get(0);
+				TravelAdviceOptionPartStop lastStop = ridePart.getStops().get(ridePart.getStops().size() - 1);
+				if (!lastStop.getStation().equals(ride.getDestination())) {
+					logger.error("Given travel advice does not end at the final destination!");
 				} else {
-					// Extract the RideStop from the travel advice
-					TravelAdviceOptionPart ridePart = currentRideTravelOption.getParts().get(0);
-					TravelAdviceOptionPartStop lastStop = ridePart.getStops().get(ridePart.getStops().size() - 1);
-					if (!lastStop.getStation().equals(ride.getDestination())) {
-						logger.error("Given travel advice does not end at the final destination!");
-					} else {
-						for (TravelAdviceOptionPartStop travelAdviceStop : ridePart.getStops()) {
-							RideStop stop = new RideStop(travelAdviceStop.getStation(), travelAdviceStop.getTime(), travelAdviceStop.getDepartureDelay(), travelAdviceStop.getTrack());
-							ride.addStop(stop);
-						}
+					for (TravelAdviceOptionPartStop travelAdviceStop : ridePart.getStops()) {
+						RideStop stop = new RideStop(travelAdviceStop.getStation(), travelAdviceStop.getTime(), travelAdviceStop.getDepartureDelay(), travelAdviceStop.getTrack());
+						ride.addStop(stop);
 					}
 				}
-				
-			} catch (TravelAdviceException e) {
-				logger.error("Couldn't get travel advice", e);						
 			}
 			
-			
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while waiting for travel advice for ride: " + ride);
+			Thread.currentThread().interrupt();
+			finalStopRequest.travelAdvice.cancel(false);
+		} catch (ExecutionException e) {
+			logger.error("Couldn't get travel advice", e.getCause());
+		} catch (TimeoutException e) {
+			logger.warn("Timed out while waiting for travel advice for ride: " + ride);
+			// Cancels the request to the NS API as well, so it doesn't hold up the next update
+			finalStopRequest.travelAdvice.cancel(false);
 		}
 	}
 	
-
+	/**
+	 * A travel advice that has been requested to find the final stop of a ride.
+	 */
+	private static class FinalStopRequest {
+		
+		private final RideStop fromStop;
+		private final CompletableFuture<TravelAdvice> travelAdvice;
+		
+		public FinalStopRequest(RideStop fromStop, CompletableFuture<TravelAdvice> travelAdvice) {
+			this.fromStop = fromStop;
+			this.travelAdvice = travelAdvice;
+		}
+	}
 	
 	@PostConstruct
 	public void init() {
@@ -1,6 +1,7 @@
 package com.basdado.trainfinder.data;
 
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 import com.basdado.trainfinder.model.Departure;
 import com.basdado.trainfinder.model.Station;
@@ -13,4 +14,24 @@ public interface DeparturesRepository {
 	 * @return
 	 */
 	public Collection<Departure> getDeparturesAt(Station station);
+	
+	/**
+	 * Asynchronous variant of {@link #getDeparturesAt(Station)}, which doesn't keep a thread waiting for the response.
+	 * @param station
+	 * @return A future of the departures at the given station, which completes exceptionally if the departures
+	 * can't be retrieved right now (e.g. because the source is overloaded). Cancelling it cancels the request.
+	 */
+	public CompletableFuture<Collection<Departure>> getDeparturesAtAsync(Station station);
+	
+	/**
+	 * Similar to {@link #getDeparturesAtAsync(Station)}, with a priority for the request.
+	 * @param station
+	 * @param priority The priority of this request, when requests have to wait because of the rate limit of the source.
+	 * @return A future of the departures at the given station.
+	 */
+	public CompletableFuture<Collection<Departure>> getDeparturesAtAsync(Station station, Priority priority);
+	
+	public static enum Priority {
+		HIGH, NORMAL, LOW
+	}
 }
@@ -2,10 +2,14 @@ package com.basdado.trainfinder.data;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
+import javax.annotation.Resource;
 import javax.ejb.Local;
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 
 import org.slf4j.Logger;
@@ -14,6 +18,7 @@ import org.slf4j.LoggerFactory;
 import com.basdado.trainfinder.model.Departure;
 import com.basdado.trainfinder.model.Station;
 import com.basdado.trainfinder.ns.communicator.NSCommunicator;
+import com.basdado.trainfinder.ns.communicator.NSRequestPriority;
 import com.basdado.trainfinder.ns.exception.NSException;
 import com.basdado.trainfinder.ns.model.DepartureInfoResponse;
 
@@ -25,6 +30,7 @@ public class NSDeparturesRepository implements DeparturesRepository {
 	
 	@Inject NSCommunicator communicator;
 	@Inject StationRepository nsStationRepo;
+	@Resource ManagedExecutorService executor;
 	
 	@Override
 	public Collection<Departure> getDeparturesAt(Station station) {
@@ -37,12 +43,61 @@ public class NSDeparturesRepository implements DeparturesRepository {
 			return Collections.emptyList();
 		}
 		
+		return toDepartures(station, departureInfoResponse);
+	}
+	
+	@Override
+	public CompletableFuture<Collection<Departure>> getDeparturesAtAsync(Station station) {
+		
+		return getDeparturesAtAsync(station, Priority.NORMAL);
+	}
+	
+	@Override
+	public CompletableFuture<Collection<Departure>> getDeparturesAtAsync(Station station, Priority priority) {
+		
+		CompletableFuture<Collection<Departure>> res = new CompletableFuture<>();
+		
+		// Converted on the managed executor rather than on the I/O thread of the communicator, because it looks up stations
+		CompletableFuture<DepartureInfoResponse> responseFuture = communicator.getDeparturesAsync(station.getCode(), toNSRequestPriority(priority));
+		responseFuture.whenCompleteAsync((departureInfoResponse, e) -> {
+			if (e == null) {
+				try {
+					res.complete(toDepartures(station, departureInfoResponse));
+				} catch (RuntimeException conversionException) {
+					res.completeExceptionally(conversionException);
+				}
+			} else if (e instanceof NSException) {
+				logger.error("NSException while trying to load departure times: " + e.getMessage(), e);
+				res.complete(Collections.emptyList());
+			} else {
+				// E.g. an NSOverloadedException: the departures are unknown rather than empty, so they can be requested again later
+				res.completeExceptionally(e);
+			}
+		}, executor);
+		
+		// Cancelling the departures cancels the request, so it doesn't keep waiting for (or holding) a permit of the limiter
+		res.whenComplete((departures, e) -> {
+			if (res.isCancelled()) {
+				responseFuture.cancel(false);
+			}
+		});
+		return res;
+	}
+	
+	private static NSRequestPriority toNSRequestPriority(Priority priority) {
+		switch (priority) {
+			case HIGH: return NSRequestPriority.HIGH;
+			case LOW: return NSRequestPriority.LOW;
+			default: return NSRequestPriority.NORMAL;
+		}
+	}
+	
+	private List<Departure> toDepartures(Station station, DepartureInfoResponse departureInfoResponse) {
 		
 		return departureInfoResponse.getDepartures().stream()
 				.map(d ->
 					new Departure(station, nsStationRepo.getStationWithName(d.getDestination()), d.getRideNumber(), d.getDepartureTime(), d.getDelay(), d.getTrack(), d.getCarrier(), d.getTrainType())
 				).collect(Collectors.toList());
-		
 	}
 
 }
@@ -5,10 +5,13 @@ import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
+import javax.annotation.Resource;
 import javax.ejb.Local;
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 
 import com.basdado.trainfinder.exception.TravelAdviceException;
@@ -32,6 +35,7 @@ public class NSTravelAdviceRepository implements TravelAdviceRepository {
 
 	@Inject private NSCommunicator nsCommunicator;
 	@Inject private StationRepository stationRepo;
+	@Resource private ManagedExecutorService executor;
 	
 	@Override
 	public TravelAdvice getTravelAdvice(Station fromStation, Station toStation, OffsetDateTime dateTime, TimeType timeType) throws TravelAdviceException {
@@ -67,6 +71,56 @@ public class NSTravelAdviceRepository implements TravelAdviceRepository {
 		
 		return toTravelAdvice(response);
 	}
+	
+	@Override
+	public CompletableFuture<TravelAdvice> getTravelAdviceAsync(Station fromStation, Station toStation, OffsetDateTime dateTime, TimeType timeType) {
+		
+		return toTravelAdviceAsync(nsCommunicator.getTravelAdviceAsync(fromStation.getCode(), toStation.getCode(), dateTime, timeType == TimeType.DEPARTURE));
+	}
+	
+	@Override
+	public CompletableFuture<TravelAdvice> getTravelAdviceAsync(Station fromStation, Station toStation, Station intermediateStation, OffsetDateTime dateTime, TimeType timeType) {
+		
+		return toTravelAdviceAsync(nsCommunicator.getTravelAdviceAsync(
+				fromStation.getCode(), 
+				toStation.getCode(),
+				intermediateStation.getCode(),
+				5, 5,
+				dateTime, 
+				timeType == TimeType.DEPARTURE, 
+				true, 
+				false));
+	}
+	
+	/**
+	 * Converts the response on the managed executor rather than on the I/O thread of the communicator, because it looks up
+	 * the station of every stop. Cancelling the returned future cancels the request.
+	 */
+	private CompletableFuture<TravelAdvice> toTravelAdviceAsync(CompletableFuture<TravelAdviceResponse> responseFuture) {
+		
+		CompletableFuture<TravelAdvice> res = new CompletableFuture<>();
+		responseFuture.whenCompleteAsync((response, e) -> {
+			if (e == null) {
+				try {
+					res.complete(toTravelAdvice(response));
+				} catch (RuntimeException conversionException) {
+					res.completeExceptionally(conversionException);
+				}
+			} else if (e instanceof NSException) {
+				res.completeExceptionally(new TravelAdviceException(e));
+			} else {
+				res.completeExceptionally(e);
+			}
+		}, executor);
+		
+		// Cancelling the travel advice cancels the request, so it doesn't keep waiting for (or holding) a permit of the limiter
+		res.whenComplete((travelAdvice, e) -> {
+			if (res.isCancelled()) {
+				responseFuture.cancel(false);
+			}
+		});
+		return res;
+	}
 
 	private TravelAdvice toTravelAdvice(TravelAdviceResponse response) {
 		
@@ -1,6 +1,7 @@
 package com.basdado.trainfinder.data;
 
 import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
 
 import com.basdado.trainfinder.exception.TravelAdviceException;
 import com.basdado.trainfinder.model.Station;
@@ -11,6 +12,14 @@ public interface TravelAdviceRepository {
 	TravelAdvice getTravelAdvice(Station fromStation, Station toStation, OffsetDateTime dateTime, TimeType timeType) throws TravelAdviceException;
 	TravelAdvice getTravelAdvice(Station fromStation, Station toStation, Station intermediateStation, OffsetDateTime dateTime, TimeType timeType) throws TravelAdviceException;
 	
+	/**
+	 * Asynchronous variants of the methods above, which don't keep a thread waiting for the response.
+	 * The returned futures complete exceptionally with a TravelAdviceException if no travel advice could be given.
+	 * Cancelling a returned future cancels the request.
+	 */
+	CompletableFuture<TravelAdvice> getTravelAdviceAsync(Station fromStation, Station toStation, OffsetDateTime dateTime, TimeType timeType);
+	CompletableFuture<TravelAdvice> getTravelAdviceAsync(Station fromStation, Station toStation, Station intermediateStation, OffsetDateTime dateTime, TimeType timeType);
+	
 	public static enum TimeType {
 		DEPARTURE, ARRIVAL
 	}
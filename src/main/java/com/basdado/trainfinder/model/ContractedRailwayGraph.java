@@ -0,0 +1,322 @@
+package com.basdado.trainfinder.model;
+
+import java.util.Arrays;
+
+/**
+ * Routing view of a {@link RailwayGraph} in which every maximal chain of degree-2 nodes is contracted into a single edge.
+ *
+ * Most nodes of the railway graph only describe the shape of the track (they have exactly two connections). Only the
+ * other nodes (end points, switches and crossings) are kept as <i>junctions</i> in this graph. The junctions are connected
+ * by <i>chains</i>: the sequence of railway graph nodes between two junctions, with the total length of the track. A
+ * shortest path search therefore only has to visit the junctions, and the nodes in between are only needed again when
+ * the path is turned into a {@link Railway}.
+ *
+ * Positions along a chain are expressed as an offset: the distance (in meters) over the track from the first node of the chain.
+ *
+ * Like the railway graph, this graph is immutable, so it can safely be shared between threads.
+ */
+public final class ContractedRailwayGraph {
+	
+	private static final int NO_JUNCTION = -1;
+	
+	private final RailwayGraph railwayGraph;
+	
+	/** For each junction, the railway graph node it corresponds to. */
+	private final int[] junctionNodes;
+	/** For each railway graph node, the junction it corresponds to, or NO_JUNCTION. */
+	private final int[] nodeJunctions;
+	
+	/** The nodes of chain <code>c</code> are stored at <code>[chainOffsets[c], chainOffsets[c + 1])</code>. */
+	private final int[] chainOffsets;
+	private final int[] chainNodes;
+	/** For each entry in chainNodes, the offset of that node along its chain. */
+	private final double[] chainNodeOffsets;
+	
+	/** For each railway graph connection, the index (in chainNodes) of the chain node at which the connection starts or ends. */
+	private final int[] connectionChainIndices;
+	
+	/** The edges of junction <code>j</code> are stored at <code>[edgeOffsets[j], edgeOffsets[j + 1])</code>. */
+	private final int[] edgeOffsets;
+	private final int[] edgeTargets;
+	/** For each edge, the chain it follows, times two, plus one if the chain is followed from its last node to its first node. */
+	private final int[] edgeChains;
+	private final double[] edgeLengths;
+	
+	public ContractedRailwayGraph(RailwayGraph railwayGraph) {
+		
+		this.railwayGraph = railwayGraph;
+		
+		int nodeCount = railwayGraph.getNodeCount();
+		int connectionCount = railwayGraph.getConnectionCount();
+		
+		// Every node that is not in the middle of a chain is a junction
+		nodeJunctions = new int[nodeCount];
+		int junctionCount = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			nodeJunctions[node] = railwayGraph.getDegree(node) == 2 ? NO_JUNCTION : junctionCount++;
+		}
+		
+		// Walk the chains starting at each junction. Each chain has at least one connection, and each connection is in exactly one chain.
+		int[] offsets = new int[16];
+		int[] nodes = new int[Math.max(16, connectionCount)];
+		double[] nodeOffsets = new double[nodes.length];
+		connectionChainIndices = new int[connectionCount];
+		Arrays.fill(connectionChainIndices, -1);
+		int chainCount = 0;
+		int chainNodeCount = 0;
+		
+		// Loops without any junction are only found after all other chains have been walked, so those are handled in a second pass
+		for (int pass = 0; pass < 2; pass++) {
+			for (int node = 0; node < nodeCount; node++) {
+				
+				if (railwayGraph.getDegree(node) == 2) {
+					if (pass == 0 || connectionChainIndices[railwayGraph.getFirstConnection(node)] != -1) {
+						continue;
+					}
+					// An unvisited degree-2 node at this point is part of a loop without any junction, so make it a junction itself.
+					nodeJunctions[node] = junctionCount++;
+				} else if (pass == 1) {
+					continue;
+				}
+				
+				for (int c = railwayGraph.getFirstConnection(node); c < railwayGraph.getConnectionEnd(node); c++) {
+					
+					if (connectionChainIndices[c] != -1) {
+						continue; // Chain has been walked already (from the other side)
+					}
+					
+					if (chainCount + 1 == offsets.length) {
+						offsets = Arrays.copyOf(offsets, offsets.length * 2);
+					}
+					offsets[chainCount] = chainNodeCount;
+					
+					int current = node;
+					int connection = c;
+					double offset = 0;
+					while (true) {
+						
+						if (chainNodeCount + 1 >= nodes.length) {
+							nodes = Arrays.copyOf(nodes, nodes.length * 2);
+							nodeOffsets = Arrays.copyOf(nodeOffsets, nodes.length);
+						}
+						nodes[chainNodeCount] = current;
+						nodeOffsets[chainNodeCount] = offset;
+						
+						int next = railwayGraph.getConnectionTarget(connection);
+						int reverseConnection = railwayGraph.findConnection(next, current);
+						connectionChainIndices[connection] = chainNodeCount;
+						connectionChainIndices[reverseConnection] = chainNodeCount;
+						offset += railwayGraph.getConnectionLength(connection);
+						chainNodeCount++;
+						
+						if (nodeJunctions[next] != NO_JUNCTION) {
+							nodes[chainNodeCount] = next;
+							nodeOffsets[chainNodeCount] = offset;
+							chainNodeCount++;
+							break;
+						}
+						
+						// Continue over the other connection of the degree-2 node
+						int firstConnection = railwayGraph.getFirstConnection(next);
+						connection = reverseConnection == firstConnection ? firstConnection + 1 : firstConnection;
+						current = next;
+					}
+					chainCount++;
+				}
+			}
+		}
+		offsets[chainCount] = chainNodeCount;
+		
+		chainOffsets = Arrays.copyOf(offsets, chainCount + 1);
+		chainNodes = Arrays.copyOf(nodes, chainNodeCount);
+		chainNodeOffsets = Arrays.copyOf(nodeOffsets, chainNodeCount);
+		
+		junctionNodes = new int[junctionCount];
+		for (int node = 0; node < nodeCount; node++) {
+			if (nodeJunctions[node] != NO_JUNCTION) {
+				junctionNodes[nodeJunctions[node]] = node;
+			}
+		}
+		
+		// Every chain results in an edge in both directions
+		edgeOffsets = new int[junctionCount + 1];
+		for (int chain = 0; chain < chainCount; chain++) {
+			edgeOffsets[getChainStartJunction(chain) + 1]++;
+			edgeOffsets[getChainEndJunction(chain) + 1]++;
+		}
+		for (int j = 0; j < junctionCount; j++) {
+			edgeOffsets[j + 1] += edgeOffsets[j];
+		}
+		
+		edgeTargets = new int[chainCount * 2];
+		edgeChains = new int[chainCount * 2];
+		edgeLengths = new double[chainCount * 2];
+		int[] edgeCounts = new int[junctionCount];
+		for (int chain = 0; chain < chainCount; chain++) {
+			int start = getChainStartJunction(chain);
+			int end = getChainEndJunction(chain);
+			
+			int forwardEdge = edgeOffsets[start] + edgeCounts[start]++;
+			edgeTargets[forwardEdge] = end;
+			edgeChains[forwardEdge] = chain * 2;
+			edgeLengths[forwardEdge] = getChainLength(chain);
+			
+			int backwardEdge = edgeOffsets[end] + edgeCounts[end]++;
+			edgeTargets[backwardEdge] = start;
+			edgeChains[backwardEdge] = chain * 2 + 1;
+			edgeLengths[backwardEdge] = getChainLength(chain);
+		}
+	}
+	
+	public RailwayGraph getRailwayGraph() {
+		return railwayGraph;
+	}
+	
+	public int getJunctionCount() {
+		return junctionNodes.length;
+	}
+	
+	/**
+	 * @return The railway graph node of the given junction.
+	 */
+	public int getJunctionNode(int junction) {
+		return junctionNodes[junction];
+	}
+	
+	/**
+	 * @return The junction at the given railway graph node, or -1 if the node is in the middle of a chain.
+	 */
+	public int getNodeJunction(int node) {
+		return nodeJunctions[node];
+	}
+	
+	public int getChainCount() {
+		return chainOffsets.length - 1;
+	}
+	
+	public int getChainStartJunction(int chain) {
+		return nodeJunctions[chainNodes[chainOffsets[chain]]];
+	}
+	
+	public int getChainEndJunction(int chain) {
+		return nodeJunctions[chainNodes[chainOffsets[chain + 1] - 1]];
+	}
+	
+	/**
+	 * @return The length (in meters) of the track of the given chain.
+	 */
+	public double getChainLength(int chain) {
+		return chainNodeOffsets[chainOffsets[chain + 1] - 1];
+	}
+	
+	/**
+	 * @return The index of the first node of the chain. The nodes of a chain are at the indices <code>[getFirstChainNode(chain), getChainNodeEnd(chain))</code>.
+	 */
+	public int getFirstChainNode(int chain) {
+		return chainOffsets[chain];
+	}
+	
+	/**
+	 * @return The index after the last node of the chain.
+	 */
+	public int getChainNodeEnd(int chain) {
+		return chainOffsets[chain + 1];
+	}
+	
+	/**
+	 * @return The railway graph node at the given chain node index.
+	 */
+	public int getChainNode(int index) {
+		return chainNodes[index];
+	}
+	
+	/**
+	 * @return The offset along its chain of the node at the given chain node index.
+	 */
+	public double getChainNodeOffset(int index) {
+		return chainNodeOffsets[index];
+	}
+	
+	public int getFirstEdge(int junction) {
+		return edgeOffsets[junction];
+	}
+	
+	public int getEdgeEnd(int junction) {
+		return edgeOffsets[junction + 1];
+	}
+	
+	/**
+	 * @return The junction the given edge leads to.
+	 */
+	public int getEdgeTarget(int edge) {
+		return edgeTargets[edge];
+	}
+	
+	/**
+	 * @return The chain the given edge follows.
+	 */
+	public int getEdgeChain(int edge) {
+		return edgeChains[edge] >> 1;
+	}
+	
+	/**
+	 * @return True iff the given edge follows its chain from the last node to the first node.
+	 */
+	public boolean isEdgeReversed(int edge) {
+		return (edgeChains[edge] & 1) == 1;
+	}
+	
+	/**
+	 * @return The length (in meters) of the given edge.
+	 */
+	public double getEdgeLength(int edge) {
+		return edgeLengths[edge];
+	}
+	
+	/**
+	 * @return The junction at the given track position, or -1 if the position is not exactly at a junction.
+	 */
+	public int getJunction(TrackPosition position) {
+		return position.isAtNode() ? nodeJunctions[position.getNode1()] : NO_JUNCTION;
+	}
+	
+	/**
+	 * @return The chain the given track position lies on. For a position exactly at a junction, this is one of the chains of that junction.
+	 */
+	public int getChain(TrackPosition position) {
+		return findChain(connectionChainIndices[getConnection(position)]);
+	}
+	
+	/**
+	 * @return The offset of the given track position along the chain returned by {@link #getChain(TrackPosition)}.
+	 */
+	public double getChainOffset(TrackPosition position) {
+		
+		int index = connectionChainIndices[getConnection(position)];
+		if (position.isAtNode()) {
+			return chainNodes[index] == position.getNode1() ? chainNodeOffsets[index] : chainNodeOffsets[index + 1];
+		}
+		return chainNodeOffsets[index] + position.getDistanceTo(chainNodes[index]);
+	}
+	
+	private int getConnection(TrackPosition position) {
+		
+		if (position.isAtNode()) {
+			int node = position.getNode1();
+			if (railwayGraph.getDegree(node) == 0) {
+				throw new IllegalArgumentException("Node " + node + " is not on any chain");
+			}
+			return railwayGraph.getFirstConnection(node);
+		}
+		return railwayGraph.findConnection(position.getNode1(), position.getNode2());
+	}
+	
+	private int findChain(int chainNodeIndex) {
+		int res = Arrays.binarySearch(chainOffsets, chainNodeIndex);
+		if (res >= 0) {
+			return res;
+		}
+		return -res - 2; // The chain before the insertion point
+	}
+
+}
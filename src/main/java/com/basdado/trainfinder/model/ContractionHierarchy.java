@@ -0,0 +1,423 @@
+package com.basdado.trainfinder.model;
+
+import java.util.Arrays;
+
+import com.basdado.trainfinder.util.IntDoubleMinHeap;
+
+/**
+ * Contraction hierarchy over the junctions of a {@link ContractedRailwayGraph}, which makes shortest path queries much
+ * cheaper than a full search.
+ *
+ * The hierarchy is built by removing (contracting) the junctions one by one, starting with the least important ones.
+ * When a junction is contracted, a <i>shortcut</i> is added between each pair of its neighbours for which the shortest
+ * path goes through that junction. A shortest path between any two junctions then goes up in the order of contraction
+ * and then down again, so a query only has to search <i>upward</i> edges (to junctions contracted later) from both the
+ * source and the destination, which visits only a small part of the graph.
+ *
+ * Only the upward edges are stored, since the railway graph is undirected. Every edge is either a chain of the
+ * contracted railway graph, or a shortcut consisting of two other edges, which both start at the junction that was
+ * contracted to create the shortcut (see {@link #getEdgeFirst(int)} and {@link #getEdgeSecond(int)}).
+ *
+ * Like the graph it is built for, the hierarchy is immutable, so it can safely be shared between threads.
+ */
+public final class ContractionHierarchy {
+	
+	private static final int NO_EDGE = -1;
+	
+	/**
+	 * The maximum number of junctions a witness search may visit. If no shorter path than the path via the contracted
+	 * junction is found within this limit, a shortcut is added anyway (which is never wrong, just less efficient).
+	 */
+	private static final int MAX_WITNESS_SEARCH_SIZE = 500;
+	
+	private final ContractedRailwayGraph graph;
+	
+	/** The upward edges of junction <code>j</code> are stored at <code>[edgeOffsets[j], edgeOffsets[j + 1])</code>. */
+	private final int[] edgeOffsets;
+	private final int[] edgeTargets;
+	private final double[] edgeLengths;
+	/** For each shortcut, the edge from the contracted junction to the source of the shortcut. NO_EDGE for chains. */
+	private final int[] edgeFirst;
+	/** For each shortcut, the edge from the contracted junction to the target of the shortcut. For chains, the chain times two, plus one if reversed. */
+	private final int[] edgeSecond;
+	
+	public ContractionHierarchy(ContractedRailwayGraph graph, int[] edgeOffsets, int[] edgeTargets, double[] edgeLengths, int[] edgeFirst, int[] edgeSecond) {
+		
+		if (edgeOffsets.length != graph.getJunctionCount() + 1) {
+			throw new IllegalArgumentException("Expected edge offsets for " + graph.getJunctionCount() + " junctions, but got " + (edgeOffsets.length - 1));
+		}
+		
+		this.graph = graph;
+		this.edgeOffsets = edgeOffsets;
+		this.edgeTargets = edgeTargets;
+		this.edgeLengths = edgeLengths;
+		this.edgeFirst = edgeFirst;
+		this.edgeSecond = edgeSecond;
+	}
+	
+	/**
+	 * Builds the contraction hierarchy for the given graph.
+	 */
+	public static ContractionHierarchy build(ContractedRailwayGraph graph) {
+		return new Builder(graph).build();
+	}
+	
+	public ContractedRailwayGraph getGraph() {
+		return graph;
+	}
+	
+	public int getEdgeCount() {
+		return edgeTargets.length;
+	}
+	
+	public int getFirstEdge(int junction) {
+		return edgeOffsets[junction];
+	}
+	
+	public int getEdgeEnd(int junction) {
+		return edgeOffsets[junction + 1];
+	}
+	
+	/**
+	 * @return The junction the given edge starts at.
+	 */
+	public int getEdgeSource(int edge) {
+		int res = Arrays.binarySearch(edgeOffsets, edge);
+		if (res < 0) {
+			return -res - 2; // The junction before the insertion point
+		}
+		// Junctions without upward edges share their offset with the next junction
+		while (edgeOffsets[res + 1] == edge) {
+			res++;
+		}
+		return res;
+	}
+	
+	/**
+	 * @return The junction the given edge leads to (which was contracted after the source of the edge).
+	 */
+	public int getEdgeTarget(int edge) {
+		return edgeTargets[edge];
+	}
+	
+	/**
+	 * @return The length (in meters) of the given edge.
+	 */
+	public double getEdgeLength(int edge) {
+		return edgeLengths[edge];
+	}
+	
+	/**
+	 * @return True iff the given edge is a shortcut, or false if it follows a single chain.
+	 */
+	public boolean isShortcut(int edge) {
+		return edgeFirst[edge] != NO_EDGE;
+	}
+	
+	/**
+	 * @return For a shortcut, the edge from the contracted junction to the source of the shortcut. The shortcut starts by following this edge in reverse.
+	 */
+	public int getEdgeFirst(int edge) {
+		return edgeFirst[edge];
+	}
+	
+	/**
+	 * @return For a shortcut, the edge from the contracted junction to the target of the shortcut. For an edge that is not
+	 * a shortcut, the chain it follows, times two, plus one if the chain is followed from its last node to its first node.
+	 */
+	public int getEdgeSecond(int edge) {
+		return edgeSecond[edge];
+	}
+	
+	/**
+	 * Builds the hierarchy by contracting the junctions in order of their priority: the number of shortcuts that would be
+	 * added minus the number of edges that are removed, plus the number of neighbours that were contracted before. This
+	 * contracts the junctions that add few shortcuts first, spread evenly over the graph.
+	 *
+	 * While building, every edge is stored once and is listed at both of its junctions.
+	 */
+	private static final class Builder {
+		
+		private final ContractedRailwayGraph graph;
+		private final int junctionCount;
+		
+		private int edgeCount;
+		private int[] edgeSources = new int[16];
+		private int[] edgeTargets = new int[16];
+		private double[] edgeLengths = new double[16];
+		/** For shortcuts, the edges from the contracted junction to the source and target. For chains, NO_EDGE and the chain code. */
+		private int[] edgeFirst = new int[16];
+		private int[] edgeSecond = new int[16];
+		
+		/** The edges of each junction, including edges to junctions that were contracted already. */
+		private final int[][] junctionEdges;
+		private final int[] junctionEdgeCounts;
+		
+		private final boolean[] contracted;
+		private final int[] contractedNeighbourCounts;
+		private final int[] ranks;
+		
+		// State of the witness search, which is reset after every search
+		private final double[] witnessDist;
+		private final int[] touched;
+		private int touchedCount;
+		private final IntDoubleMinHeap witnessQueue;
+		
+		private Builder(ContractedRailwayGraph graph) {
+			
+			this.graph = graph;
+			this.junctionCount = graph.getJunctionCount();
+			
+			junctionEdges = new int[junctionCount][];
+			junctionEdgeCounts = new int[junctionCount];
+			contracted = new boolean[junctionCount];
+			contractedNeighbourCounts = new int[junctionCount];
+			ranks = new int[junctionCount];
+			witnessDist = new double[junctionCount];
+			Arrays.fill(witnessDist, Double.POSITIVE_INFINITY);
+			touched = new int[junctionCount];
+			witnessQueue = new IntDoubleMinHeap(junctionCount);
+			
+			for (int j = 0; j < junctionCount; j++) {
+				junctionEdges[j] = new int[Math.max(1, graph.getEdgeEnd(j) - graph.getFirstEdge(j))];
+			}
+			
+			// Only the shortest chain between two junctions is needed, and chains from a junction to itself are never part of a shortest path
+			for (int chain = 0; chain < graph.getChainCount(); chain++) {
+				int start = graph.getChainStartJunction(chain);
+				int end = graph.getChainEndJunction(chain);
+				if (start != end) {
+					addOrUpdateEdge(start, end, graph.getChainLength(chain), NO_EDGE, chain * 2);
+				}
+			}
+		}
+		
+		private ContractionHierarchy build() {
+			
+			IntDoubleMinHeap queue = new IntDoubleMinHeap(junctionCount);
+			for (int j = 0; j < junctionCount; j++) {
+				queue.add(j, calculatePriority(j));
+			}
+			
+			int rank = 0;
+			while (!queue.isEmpty()) {
+				
+				// The priority of a junction changes as its neighbours are contracted, so it is updated lazily:
+				// only contract the junction if it still has the lowest priority after recalculating it.
+				int junction = queue.remove();
+				double priority = calculatePriority(junction);
+				if (!queue.isEmpty() && priority > queue.peekRating()) {
+					queue.add(junction, priority);
+					continue;
+				}
+				
+				contract(junction, false);
+				contracted[junction] = true;
+				ranks[junction] = rank++;
+				
+				for (int i = 0; i < junctionEdgeCounts[junction]; i++) {
+					int neighbour = getOtherJunction(junctionEdges[junction][i], junction);
+					if (!contracted[neighbour]) {
+						contractedNeighbourCounts[neighbour]++;
+					}
+				}
+			}
+			
+			return toContractionHierarchy();
+		}
+		
+		private double calculatePriority(int junction) {
+			
+			int remainingEdgeCount = 0;
+			for (int i = 0; i < junctionEdgeCounts[junction]; i++) {
+				if (!contracted[getOtherJunction(junctionEdges[junction][i], junction)]) {
+					remainingEdgeCount++;
+				}
+			}
+			return contract(junction, true) - remainingEdgeCount + contractedNeighbourCounts[junction];
+		}
+		
+		/**
+		 * Adds the shortcuts needed to contract the given junction.
+		 * @param simulate If true, only counts the shortcuts that would be added.
+		 * @return The number of shortcuts that were (or would be) added.
+		 */
+		private int contract(int junction, boolean simulate) {
+			
+			int shortcutCount = 0;
+			int count = junctionEdgeCounts[junction];
+			int[] edges = junctionEdges[junction];
+			
+			for (int i = 0; i < count; i++) {
+				int sourceEdge = edges[i];
+				int source = getOtherJunction(sourceEdge, junction);
+				if (contracted[source]) continue;
+				
+				double maxDist = -1;
+				for (int k = i + 1; k < count; k++) {
+					if (!contracted[getOtherJunction(edges[k], junction)]) {
+						maxDist = Math.max(maxDist, edgeLengths[sourceEdge] + edgeLengths[edges[k]]);
+					}
+				}
+				if (maxDist < 0) continue; // No other neighbours left
+				
+				findWitnesses(source, junction, maxDist);
+				
+				for (int k = i + 1; k < count; k++) {
+					int targetEdge = edges[k];
+					int target = getOtherJunction(targetEdge, junction);
+					double shortcutLength = edgeLengths[sourceEdge] + edgeLengths[targetEdge];
+					if (contracted[target] || witnessDist[target] <= shortcutLength) {
+						continue; // There is a path that is at least as short without the contracted junction
+					}
+					shortcutCount++;
+					if (!simulate) {
+						addOrUpdateEdge(source, target, shortcutLength, sourceEdge, targetEdge);
+					}
+				}
+				resetWitnessSearch();
+			}
+			return shortcutCount;
+		}
+		
+		/**
+		 * Searches the paths from the source that don't go through the excluded junction, up to the given distance.
+		 */
+		private void findWitnesses(int source, int excluded, double maxDist) {
+			
+			witnessDist[source] = 0;
+			touched[touchedCount++] = source;
+			witnessQueue.add(source, 0);
+			
+			int visitedCount = 0;
+			while (!witnessQueue.isEmpty() && witnessQueue.peekRating() <= maxDist && visitedCount++ < MAX_WITNESS_SEARCH_SIZE) {
+				
+				int u = witnessQueue.remove();
+				for (int i = 0; i < junctionEdgeCounts[u]; i++) {
+					int edge = junctionEdges[u][i];
+					int v = getOtherJunction(edge, u);
+					if (v == excluded || contracted[v]) continue;
+					
+					double newDist = witnessDist[u] + edgeLengths[edge];
+					if (newDist < witnessDist[v]) {
+						if (witnessDist[v] == Double.POSITIVE_INFINITY) {
+							touched[touchedCount++] = v;
+						}
+						witnessDist[v] = newDist;
+						witnessQueue.addOrUpdateMinRating(v, newDist);
+					}
+				}
+			}
+		}
+		
+		private void resetWitnessSearch() {
+			for (int i = 0; i < touchedCount; i++) {
+				witnessDist[touched[i]] = Double.POSITIVE_INFINITY;
+			}
+			touchedCount = 0;
+			witnessQueue.clear();
+		}
+		
+		/**
+		 * Adds an edge between the given junctions, or replaces the existing edge between them if the new edge is shorter.
+		 */
+		private void addOrUpdateEdge(int source, int target, double length, int first, int second) {
+			
+			for (int i = 0; i < junctionEdgeCounts[source]; i++) {
+				int edge = junctionEdges[source][i];
+				if (getOtherJunction(edge, source) == target) {
+					if (length < edgeLengths[edge]) {
+						// The existing edge is not part of any shortcut yet (shortcuts only consist of edges of the contracted junction)
+						edgeSources[edge] = source;
+						edgeTargets[edge] = target;
+						edgeLengths[edge] = length;
+						edgeFirst[edge] = first;
+						edgeSecond[edge] = second;
+					}
+					return;
+				}
+			}
+			
+			if (edgeCount == edgeSources.length) {
+				int newCapacity = edgeCount * 2;
+				edgeSources = Arrays.copyOf(edgeSources, newCapacity);
+				edgeTargets = Arrays.copyOf(edgeTargets, newCapacity);
+				edgeLengths = Arrays.copyOf(edgeLengths, newCapacity);
+				edgeFirst = Arrays.copyOf(edgeFirst, newCapacity);
+				edgeSecond = Arrays.copyOf(edgeSecond, newCapacity);
+			}
+			int edge = edgeCount++;
+			edgeSources[edge] = source;
+			edgeTargets[edge] = target;
+			edgeLengths[edge] = length;
+			edgeFirst[edge] = first;
+			edgeSecond[edge] = second;
+			
+			addJunctionEdge(source, edge);
+			addJunctionEdge(target, edge);
+		}
+		
+		private void addJunctionEdge(int junction, int edge) {
+			
+			if (junctionEdgeCounts[junction] == junctionEdges[junction].length) {
+				junctionEdges[junction] = Arrays.copyOf(junctionEdges[junction], junctionEdges[junction].length * 2);
+			}
+			junctionEdges[junction][junctionEdgeCounts[junction]++] = edge;
+		}
+		
+		private int getOtherJunction(int edge, int junction) {
+			return edgeSources[edge] == junction ? edgeTargets[edge] : edgeSources[edge];
+		}
+		
+		/**
+		 * Stores every edge at the junction that was contracted first, pointing upward to the junction that was contracted later.
+		 */
+		private ContractionHierarchy toContractionHierarchy() {
+			
+			int[] offsets = new int[junctionCount + 1];
+			for (int edge = 0; edge < edgeCount; edge++) {
+				offsets[getLowerJunction(edge) + 1]++;
+			}
+			for (int j = 0; j < junctionCount; j++) {
+				offsets[j + 1] += offsets[j];
+			}
+			
+			int[] upwardEdges = new int[edgeCount];
+			int[] upwardEdgeCounts = new int[junctionCount];
+			for (int edge = 0; edge < edgeCount; edge++) {
+				int lower = getLowerJunction(edge);
+				upwardEdges[edge] = offsets[lower] + upwardEdgeCounts[lower]++;
+			}
+			
+			int[] targets = new int[edgeCount];
+			double[] lengths = new double[edgeCount];
+			int[] first = new int[edgeCount];
+			int[] second = new int[edgeCount];
+			for (int edge = 0; edge < edgeCount; edge++) {
+				
+				int lower = getLowerJunction(edge);
+				int upwardEdge = upwardEdges[edge];
+				targets[upwardEdge] = getOtherJunction(edge, lower);
+				lengths[upwardEdge] = edgeLengths[edge];
+				
+				if (edgeFirst[edge] == NO_EDGE) {
+					// Follow the chain in the reverse direction if the edge is turned around
+					first[upwardEdge] = NO_EDGE;
+					second[upwardEdge] = lower == edgeSources[edge] ? edgeSecond[edge] : edgeSecond[edge] ^ 1;
+				} else {
+					boolean turned = lower != edgeSources[edge];
+					first[upwardEdge] = upwardEdges[turned ? edgeSecond[edge] : edgeFirst[edge]];
+					second[upwardEdge] = upwardEdges[turned ? edgeFirst[edge] : edgeSecond[edge]];
+				}
+			}
+			
+			return new ContractionHierarchy(graph, offsets, targets, lengths, first, second);
+		}
+		
+		private int getLowerJunction(int edge) {
+			return ranks[edgeSources[edge]] < ranks[edgeTargets[edge]] ? edgeSources[edge] : edgeTargets[edge];
+		}
+	
+	}
+
+}
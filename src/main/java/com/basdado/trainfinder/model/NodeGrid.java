@@ -0,0 +1,203 @@
+package com.basdado.trainfinder.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.basdado.trainfinder.util.CoordinateUtil;
+
+/**
+ * Immutable multi-resolution grid of node indices, covering only the bounding box of the nodes.
+ *
+ * The grid consists of levels with tiles of decreasing size: the first level uses the given tile size, and every next
+ * level uses tiles a quarter of that size, as long as the number of tiles stays proportional to the number of nodes.
+ * A search uses the level with the smallest tiles that are still at least as large as the searched area, so
+ * only a few tiles are visited, no matter the size of the searched area.
+ *
+ * The tiles of each level are stored in compressed sparse row (CSR) format: the start of every tile in a packed array
+ * of node indices. Finding the tiles of a bounding box, and the nodes on them, is plain array arithmetic.
+ */
+public final class NodeGrid {
+	
+	/** Every level uses tiles of a quarter of the size of the tiles of the level above. */
+	private static final int LEVEL_TILE_SIZE_FACTOR = 4;
+	private static final int MAX_LEVEL_COUNT = 4;
+	/** A level is only added if it has at most this number of tiles per node (so the grid never uses much more memory than the nodes). */
+	private static final int MAX_TILES_PER_NODE = 4;
+	
+	private final double[] latitudes;
+	private final double[] longitudes;
+	
+	/** The levels, from the largest to the smallest tiles. */
+	private final Level[] levels;
+	
+	/**
+	 * Creates the grid for the given nodes. The arrays are used as is (not copied), so they should not be modified afterwards.
+	 * @param tileSize The size of the largest tiles (in degrees)
+	 * @param latitudes The latitude of each node
+	 * @param longitudes The longitude of each node
+	 */
+	public NodeGrid(double tileSize, double[] latitudes, double[] longitudes) {
+		
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		
+		List<Level> levels = new ArrayList<>();
+		levels.add(new Level(tileSize, latitudes, longitudes));
+		for (int i = 1; i < MAX_LEVEL_COUNT; i++) {
+			double levelTileSize = levels.get(i - 1).tileSize / LEVEL_TILE_SIZE_FACTOR;
+			if (Level.calculateTileCount(levelTileSize, latitudes, longitudes) > Math.max((long)latitudes.length * MAX_TILES_PER_NODE, 1024)) {
+				break;
+			}
+			levels.add(new Level(levelTileSize, latitudes, longitudes));
+		}
+		this.levels = levels.toArray(new Level[levels.size()]);
+	}
+	
+	/**
+	 * @return The number of levels of the grid.
+	 */
+	public int getLevelCount() {
+		return levels.length;
+	}
+	
+	/**
+	 * Finds all nodes within the given bounding box (in degrees, inclusive).
+	 * @return The nodes (indices), in no particular order.
+	 */
+	public int[] findNodesWithin(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+		
+		// The level with the smallest tiles that cover the bounding box with at most two tiles in each direction
+		double boxSize = Math.max(maxLatitude - minLatitude, maxLongitude - minLongitude);
+		Level level = levels[0];
+		for (int i = 1; i < levels.length && levels[i].tileSize >= boxSize; i++) {
+			level = levels[i];
+		}
+		
+		int minX = Math.max(level.calculateTileX(minLongitude), level.minTileX);
+		int maxX = Math.min(level.calculateTileX(maxLongitude), level.minTileX + level.width - 1);
+		int minY = Math.max(level.calculateTileY(minLatitude), level.minTileY);
+		int maxY = Math.min(level.calculateTileY(maxLatitude), level.minTileY + level.height - 1);
+		
+		int[] res = new int[16];
+		int resCount = 0;
+		for (int y = minY; y <= maxY; y++) {
+			for (int x = minX; x <= maxX; x++) {
+				int tile = level.getTileIndex(x, y);
+				for (int i = level.tileStarts[tile]; i < level.tileStarts[tile + 1]; i++) {
+					int node = level.tileNodes[i];
+					double lat = latitudes[node];
+					double lon = longitudes[node];
+					if (lat >= minLatitude && lat <= maxLatitude && lon >= minLongitude && lon <= maxLongitude) {
+						if (resCount == res.length) {
+							res = Arrays.copyOf(res, resCount * 2);
+						}
+						res[resCount++] = node;
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(res, resCount);
+	}
+	
+	/**
+	 * A single resolution of the grid.
+	 */
+	private static final class Level {
+		
+		private final double tileSize;
+		private final int minTileX;
+		private final int minTileY;
+		private final int width;
+		private final int height;
+		
+		/** For each tile (row by row), the index in tileNodes of its first node, followed by the total node count. */
+		private final int[] tileStarts;
+		private final int[] tileNodes;
+		
+		Level(double tileSize, double[] latitudes, double[] longitudes) {
+			
+			this.tileSize = tileSize;
+			
+			int nodeCount = latitudes.length;
+			int[] tileXs = new int[nodeCount];
+			int[] tileYs = new int[nodeCount];
+			int minX = Integer.MAX_VALUE;
+			int maxX = Integer.MIN_VALUE;
+			int minY = Integer.MAX_VALUE;
+			int maxY = Integer.MIN_VALUE;
+			for (int i = 0; i < nodeCount; i++) {
+				tileXs[i] = calculateTileX(tileSize, longitudes[i]);
+				tileYs[i] = calculateTileY(tileSize, latitudes[i]);
+				minX = Math.min(minX, tileXs[i]);
+				maxX = Math.max(maxX, tileXs[i]);
+				minY = Math.min(minY, tileYs[i]);
+				maxY = Math.max(maxY, tileYs[i]);
+			}
+			
+			this.minTileX = nodeCount == 0 ? 0 : minX;
+			this.minTileY = nodeCount == 0 ? 0 : minY;
+			this.width = nodeCount == 0 ? 0 : maxX - minX + 1;
+			this.height = nodeCount == 0 ? 0 : maxY - minY + 1;
+			
+			// Counting sort of the nodes by tile, which keeps the nodes on each tile in order of their index
+			this.tileStarts = new int[width * height + 1];
+			for (int i = 0; i < nodeCount; i++) {
+				tileStarts[getTileIndex(tileXs[i], tileYs[i]) + 1]++;
+			}
+			for (int tile = 0; tile < width * height; tile++) {
+				tileStarts[tile + 1] += tileStarts[tile];
+			}
+			this.tileNodes = new int[nodeCount];
+			int[] tileSizes = new int[width * height];
+			for (int i = 0; i < nodeCount; i++) {
+				int tile = getTileIndex(tileXs[i], tileYs[i]);
+				tileNodes[tileStarts[tile] + tileSizes[tile]++] = i;
+			}
+		}
+		
+		/**
+		 * @return The number of tiles a level with the given tile size would have for the given nodes.
+		 */
+		static long calculateTileCount(double tileSize, double[] latitudes, double[] longitudes) {
+			
+			if (latitudes.length == 0) {
+				return 0;
+			}
+			double minLatitude = Double.MAX_VALUE;
+			double maxLatitude = -Double.MAX_VALUE;
+			double minLongitude = Double.MAX_VALUE;
+			double maxLongitude = -Double.MAX_VALUE;
+			for (int i = 0; i < latitudes.length; i++) {
+				minLatitude = Math.min(minLatitude, latitudes[i]);
+				maxLatitude = Math.max(maxLatitude, latitudes[i]);
+				minLongitude = Math.min(minLongitude, longitudes[i]);
+				maxLongitude = Math.max(maxLongitude, longitudes[i]);
+			}
+			long width = calculateTileX(tileSize, maxLongitude) - calculateTileX(tileSize, minLongitude) + 1L;
+			long height = calculateTileY(tileSize, maxLatitude) - calculateTileY(tileSize, minLatitude) + 1L;
+			return width * height;
+		}
+		
+		private static int calculateTileX(double tileSize, double longitude) {
+			return (int)Math.floor((longitude - CoordinateUtil.MIN_LONGITUDE) / tileSize);
+		}
+		
+		private static int calculateTileY(double tileSize, double latitude) {
+			return (int)Math.floor((latitude - CoordinateUtil.MIN_LATITUDE) / tileSize);
+		}
+		
+		int calculateTileX(double longitude) {
+			return calculateTileX(tileSize, longitude);
+		}
+		
+		int calculateTileY(double latitude) {
+			return calculateTileY(tileSize, latitude);
+		}
+		
+		int getTileIndex(int x, int y) {
+			return (y - minTileY) * width + (x - minTileX);
+		}
+	}
+
+}
@@ -2,47 +2,28 @@ package com.basdado.trainfinder.model;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.Validate;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 
 import com.basdado.trainfinder.util.CoordinateUtil;
 
 import de.topobyte.osm4j.core.model.iface.OsmNode;
 import de.topobyte.osm4j.core.model.iface.OsmWay;
 
+/**
+ * Mutable railway map, used while reading the railway network from OpenStreetMap data.
+ * Once reading is complete, it is converted to a {@link RailwayGraph} using {@link #toRailwayGraph()}.
+ */
 public class OsmRailwayMap {
 	
-	private static final double TILE_SIZE = 0.1;
-	
 	private final Map<Long, OsmRailwayMapNode> nodes;
-	private final GeoGrid<Set<Long>> grid;
-	
-	/**
-	 * Cache for the longest distance between two nodes on the map.
-	 */
-	private double longestNodeConnectionDistance;
-	/**
-	 * Cache for the two nodes between which the longest distance on the map exists.
-	 */
-	private Pair<Long, Long> longestNodeConnection;
-	
-	// TODO add acceleration structure on the nodes to improve the performance of #findNodesNear()
-	// e.g. construct a grid, and store which node are in each grid tile. Then you only have to search nodes in the nearest grid tiles.
 	
 	public OsmRailwayMap() {
 		nodes = new HashMap<>();
-		grid = new GeoGrid<>(TILE_SIZE);
-		longestNodeConnectionDistance = 0;
 	}
 	
 	/**
@@ -55,14 +36,6 @@ public class OsmRailwayMap {
 	
 	public void addNode(Long id, OsmRailwayMapNode node) {
 		nodes.put(id, node);
-		
-		// Update the grid
-		Set<Long> tile = grid.getTileAt(node.getPosition());
-		if (tile == null) {
-			tile = new HashSet<>();
-			grid.setTileAt(node.getPosition(), tile);
-		}
-		tile.add(id);
 	}
 	
 	/**
@@ -74,9 +47,9 @@ public class OsmRailwayMap {
 		
 		if (way == null || way.getNumberOfNodes() == 0) return;
 		
-		List<Long> osmNodeIds = new ArrayList<>();
+		long[] osmNodeIds = new long[way.getNumberOfNodes()];
 		for (int i = 0; i < way.getNumberOfNodes(); i++) {
-			osmNodeIds.add(way.getNodeId(i));
+			osmNodeIds[i] = way.getNodeId(i);
 		}
 		
 		addWay(osmNodeIds);
@@ -84,8 +57,18 @@ public class OsmRailwayMap {
 	}
 	
 	public void addWay(List<Long> way) {
+		addWay(way.stream().mapToLong(Long::longValue).toArray());
+	}
+	
+	/**
+	 * Adds a way (given as the ids of the nodes along the way, in order) to this railway map.
+	 * @param way
+	 */
+	public void addWay(long[] way) {
 		
-		long lastNodeId = way.get(0);
+		if (way.length == 0) return;
+		
+		long lastNodeId = way[0];
 		OsmRailwayMapNode lastNode = nodes.get(lastNodeId);
 		
 		for (long nodeId : way) {
@@ -99,12 +82,7 @@ public class OsmRailwayMap {
 			
 			// Connect the last node and the current node
 			double dist = CoordinateUtil.dist(lastNode.getPosition(), node.getPosition());
-			lastNode.addConnection(nodeId, dist);
-			node.addConnection(lastNodeId, dist);
-			if (dist > longestNodeConnectionDistance) {
-				longestNodeConnectionDistance = dist;
-				longestNodeConnection = Pair.of(nodeId, lastNodeId);
-			}
+			addConnection(lastNodeId, nodeId, dist);
 			
 			// Update the last node
 			lastNodeId = nodeId;
@@ -112,14 +90,22 @@ public class OsmRailwayMap {
 		}
 	}
 	
-	public void removeConnection(Long node1Id, Long node2Id) {
+	/**
+	 * Connects two existing nodes with a track of the given length (in both directions).
+	 * @param node1Id The first node
+	 * @param node2Id The second node
+	 * @param dist The length of the track between the nodes (in meters)
+	 */
+	public void addConnection(long node1Id, long node2Id, double dist) {
 		
-		nodes.get(node1Id).removeConnection(node2Id);
-		nodes.get(node2Id).removeConnection(node1Id);
+		OsmRailwayMapNode node1 = nodes.get(node1Id);
+		OsmRailwayMapNode node2 = nodes.get(node2Id);
 		
-		if (longestNodeConnection.equals(Pair.of(node1Id, node2Id)) || longestNodeConnection.equals(Pair.of(node2Id, node1Id))) {
-			updateLongestNodeDist();
-		}
+		Validate.notNull(node1, "Node not found, nodeId " + node1Id);
+		Validate.notNull(node2, "Node not found, nodeId " + node2Id);
+		
+		node1.addConnection(node2Id, dist);
+		node2.addConnection(node1Id, dist);
 	}
 	
 	/**
@@ -141,9 +127,8 @@ public class OsmRailwayMap {
 	
 	public void removeNode(Long nodeId) {
 		OsmRailwayMapNode node = nodes.remove(nodeId);
-		if (node != null) {
-			Set<Long> nodeTile = grid.getTileAt(node.getPosition());
-			nodeTile.remove(nodeId);
+		if (node == null) {
+			return;
 		}
 		for (Long connectedNodeId : node.getConnections().keySet()) {
 			OsmRailwayMapNode connectedNode = nodes.get(connectedNodeId);
@@ -160,89 +145,45 @@ public class OsmRailwayMap {
 	}
 	
 	/**
-	 * Returns all nodes that are within maxDistance of the given position.
-	 * @param pos Coordinate
-	 * @param maxDistance The maximum distance nodes may have.
-	 * @return
+	 * Converts this map to an (immutable) railway graph. Nodes are ordered by their OSM id.
+	 * @return The railway graph
 	 */
-	public List<Long> findNodesNear(LatLng pos, double maxDistance) {
+	public RailwayGraph toRailwayGraph() {
 		
-		int centerX = grid.calculateHorizontalTileIdx(pos);
-		int centerY = grid.calculateVerticalTileIdx(pos);
+		List<Long> sortedNodeIds = new ArrayList<>(nodes.keySet());
+		Collections.sort(sortedNodeIds);
 		
-		int minTileX = centerX - 1;
-		while (grid.getDistanceToTile(pos, minTileX, centerY) < maxDistance) {
-			minTileX --;
-		}
+		int nodeCount = sortedNodeIds.size();
+		long[] osmNodeIds = new long[nodeCount];
+		double[] latitudes = new double[nodeCount];
+		double[] longitudes = new double[nodeCount];
+		int[] connectionOffsets = new int[nodeCount + 1];
 		
-		int maxTileX = centerX + 1;
-		while (grid.getDistanceToTile(pos, maxTileX, centerY) < maxDistance) {
-			maxTileX++;
-		}
-		
-		int minTileY = centerY - 1;
-		while (grid.getDistanceToTile(pos, centerX, minTileY) < maxDistance) {
-			minTileY --;
-		}
-		
-		int maxTileY = centerY + 1;
-		while (grid.getDistanceToTile(pos, centerX, maxTileY) < maxDistance) {
-			maxTileY++;
-		}
-		
-		List<Pair<Long, Double>> nearbyNodes = new ArrayList<>();
-		
-		for (int x = minTileX + 1; x < maxTileX; x++) {
-			for (int y = minTileY + 1; y < maxTileY; y++) {
-				
-				Set<Long> tile = grid.getTile(x, y);
-				if (tile == null || tile.isEmpty()) {
-					continue;
-				} else {
-					
-					if (grid.getDistanceToTile(pos, x, y) < maxDistance) {
-						for (Long nodeId : tile) {
-							OsmRailwayMapNode node = getNode(nodeId);
-							double dist = CoordinateUtil.angularDist(pos, node.getPosition()); // For comparison purposes, the angular distance is fine (slightly faster).
-							if (dist < maxDistance) {
-								nearbyNodes.add(new ImmutablePair<>(nodeId, dist));
-							}
-						}
-					}
-				}
-			}
-		}
-		
-		return nearbyNodes.stream()
-				.sorted(Comparator.comparing(Pair<Long,Double>::getRight)) // Sort by distance
-				.map(n -> n.getLeft()).collect(Collectors.toList()); // To list
-	}
-	
-	public double getLongestNodeConnectionDistance() {
-		return longestNodeConnectionDistance;
-	}
-	
-	/**
-	 * @return The longest distance between two neighboring nodes on the railway map.
-	 */
-	public void updateLongestNodeDist() {
-		
-		longestNodeConnectionDistance = 0;
-		for (Map.Entry<Long, OsmRailwayMapNode> nodeEntry : nodes.entrySet()) {
-			OsmRailwayMapNode node = nodeEntry.getValue();
-			for (Map.Entry<Long, Double> c : node.getConnections().entrySet()) {
-				if (c.getKey() > nodeEntry.getKey() && // Only check connections in ascending order
-						c.getValue() > longestNodeConnectionDistance) {
-					longestNodeConnectionDistance = c.getValue();
-					longestNodeConnection = Pair.of(nodeEntry.getKey(), c.getKey());
-				}
+		Map<Long, Integer> nodeIndices = new HashMap<>(nodeCount * 2);
+		for (int i = 0; i < nodeCount; i++) {
+			long nodeId = sortedNodeIds.get(i);
+			OsmRailwayMapNode node = nodes.get(nodeId);
+			osmNodeIds[i] = nodeId;
+			latitudes[i] = node.getPosition().getLatitude();
+			longitudes[i] = node.getPosition().getLongitude();
+			connectionOffsets[i + 1] = connectionOffsets[i] + node.getConnections().size();
+			nodeIndices.put(nodeId, i);
+		}
+		
+		int[] connectionTargets = new int[connectionOffsets[nodeCount]];
+		float[] connectionLengths = new float[connectionOffsets[nodeCount]];
+		for (int i = 0; i < nodeCount; i++) {
+			int c = connectionOffsets[i];
+			for (Map.Entry<Long, Double> connection : nodes.get(osmNodeIds[i]).getConnections().entrySet()) {
+				connectionTargets[c] = nodeIndices.get(connection.getKey());
+				connectionLengths[c] = connection.getValue().floatValue();
+				c++;
 			}
 		}
 		
+		return new RailwayGraph(osmNodeIds, latitudes, longitudes, connectionOffsets, connectionTargets, connectionLengths);
 	}
 	
-
-	
 	public static class OsmRailwayMapNode {
 		
 		private final LatLng position;
@@ -286,4 +227,4 @@ public class OsmRailwayMap {
 		}
 	}
 	
-}
\ No newline at end of file
+}
@@ -0,0 +1,309 @@
+package com.basdado.trainfinder.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import com.basdado.trainfinder.util.BoundedIntDoubleMaxHeap;
+import com.basdado.trainfinder.util.CoordinateUtil;
+
+/**
+ * Immutable railway network, stored as a graph in compressed sparse row (CSR) format.
+ * 
+ * Nodes are identified by a dense index in <code>[0, getNodeCount())</code>. The connections of node <code>i</code>
+ * are stored at the connection indices <code>[getFirstConnection(i), getConnectionEnd(i))</code>, and every
+ * connection is stored in both directions. Compared to a map of node objects, this uses a fraction of the memory
+ * and keeps the data that is needed during routing close together.
+ * 
+ * Because it is immutable, a RailwayGraph can safely be shared between threads.
+ */
+public final class RailwayGraph {
+	
+	static final double TILE_SIZE = 0.1;
+	
+	/** The distance (in meters) around a position that is searched first when looking for the nodes nearest to it. */
+	private static final double INITIAL_NEAREST_NODES_DISTANCE = 100;
+	
+	private final long[] osmNodeIds;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	
+	private final int[] connectionOffsets;
+	private final int[] connectionTargets;
+	private final float[] connectionLengths;
+	
+	private final double longestConnectionLength;
+	
+	/**
+	 * The nodes (indices) in each tile of the grid.
+	 */
+	private final NodeGrid grid;
+	
+	/**
+	 * The tracks (connections from the lowest to the highest node), to find the tracks near a position.
+	 */
+	private final TrackRTree trackTree;
+	
+	/**
+	 * Creates a railway graph. The arrays are used as is (not copied), so they should not be modified afterwards.
+	 * @param osmNodeIds The OSM id of each node
+	 * @param latitudes The latitude of each node
+	 * @param longitudes The longitude of each node
+	 * @param connectionOffsets For each node, the index of its first connection, followed by the total connection count (length: node count + 1).
+	 * @param connectionTargets For each connection, the node it connects to.
+	 * @param connectionLengths For each connection, the length of the track (in meters).
+	 */
+	public RailwayGraph(long[] osmNodeIds, double[] latitudes, double[] longitudes, int[] connectionOffsets, int[] connectionTargets, float[] connectionLengths) {
+		
+		int nodeCount = osmNodeIds.length;
+		Validate.isTrue(latitudes.length == nodeCount && longitudes.length == nodeCount, "Every node needs a position");
+		Validate.isTrue(connectionOffsets.length == nodeCount + 1, "Every node needs a connection offset");
+		Validate.isTrue(connectionTargets.length == connectionLengths.length, "Every connection needs a length");
+		
+		this.osmNodeIds = osmNodeIds;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.connectionOffsets = connectionOffsets;
+		this.connectionTargets = connectionTargets;
+		this.connectionLengths = connectionLengths;
+		
+		double longest = 0;
+		for (float length : connectionLengths) {
+			longest = Math.max(longest, length);
+		}
+		this.longestConnectionLength = longest;
+		
+		this.grid = new NodeGrid(TILE_SIZE, latitudes, longitudes);
+		this.trackTree = new TrackRTree(latitudes, longitudes, connectionOffsets, connectionTargets);
+	}
+	
+	public int getNodeCount() {
+		return osmNodeIds.length;
+	}
+	
+	/**
+	 * @return The number of connections (each track between two nodes is counted twice, once in each direction).
+	 */
+	public int getConnectionCount() {
+		return connectionTargets.length;
+	}
+	
+	public long getOsmNodeId(int node) {
+		return osmNodeIds[node];
+	}
+	
+	public double getLatitude(int node) {
+		return latitudes[node];
+	}
+	
+	public double getLongitude(int node) {
+		return longitudes[node];
+	}
+	
+	public LatLng getPosition(int node) {
+		return new LatLng(latitudes[node], longitudes[node]);
+	}
+	
+	/**
+	 * @return The index of the first connection of the given node.
+	 */
+	public int getFirstConnection(int node) {
+		return connectionOffsets[node];
+	}
+	
+	/**
+	 * @return The index after the last connection of the given node.
+	 */
+	public int getConnectionEnd(int node) {
+		return connectionOffsets[node + 1];
+	}
+	
+	public int getDegree(int node) {
+		return connectionOffsets[node + 1] - connectionOffsets[node];
+	}
+	
+	/**
+	 * @return The node the given connection leads to.
+	 */
+	public int getConnectionTarget(int connection) {
+		return connectionTargets[connection];
+	}
+	
+	/**
+	 * @return The length (in meters) of the given connection.
+	 */
+	public float getConnectionLength(int connection) {
+		return connectionLengths[connection];
+	}
+	
+	/**
+	 * @return The index of the connection from node <code>from</code> to node <code>to</code>, or -1 if they are not connected.
+	 */
+	public int findConnection(int from, int to) {
+		for (int c = connectionOffsets[from]; c < connectionOffsets[from + 1]; c++) {
+			if (connectionTargets[c] == to) {
+				return c;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return The longest distance between two neighboring nodes on the railway map.
+	 */
+	public double getLongestConnectionLength() {
+		return longestConnectionLength;
+	}
+	
+	/**
+	 * Returns all nodes that are within maxDistance of the given position.
+	 * @param pos Coordinate
+	 * @param maxDistance The maximum distance nodes may have.
+	 * @return The nodes (indices), sorted by distance to pos (nearest first).
+	 */
+	public int[] findNodesNear(LatLng pos, double maxDistance) {
+		
+		int[] candidateNodes = findCandidateNodes(pos, maxDistance);
+		
+		// For comparison purposes, the angular distance is fine (slightly faster).
+		double maxAngularDistance = maxDistance / CoordinateUtil.RADIUS_EARTH;
+		
+		BoundedIntDoubleMaxHeap nearbyNodes = new BoundedIntDoubleMaxHeap(candidateNodes.length);
+		for (int node : candidateNodes) {
+			double dist = CoordinateUtil.angularDist(pos.getLatitude(), pos.getLongitude(), latitudes[node], longitudes[node]);
+			if (dist < maxAngularDistance) {
+				nearbyNodes.offer(node, dist);
+			}
+		}
+		return nearbyNodes.removeAllAscending();
+	}
+	
+	/**
+	 * Returns the nodes nearest to the given position. The search starts with a small area around pos, which is doubled
+	 * until it contains enough nodes, so only the nodes near pos are looked at, and only the nearest nodes are sorted.
+	 * @param pos Coordinate
+	 * @param count The maximum number of nodes to return
+	 * @param maxDistance The maximum distance nodes may have.
+	 * @return The (at most) count nearest nodes (indices) within maxDistance, sorted by distance to pos (nearest first).
+	 */
+	public int[] findNearestNodes(LatLng pos, int count, double maxDistance) {
+		
+		BoundedIntDoubleMaxHeap nearestNodes = new BoundedIntDoubleMaxHeap(count);
+		double searchDistance = Math.min(maxDistance, INITIAL_NEAREST_NODES_DISTANCE);
+		
+		while (true) {
+			
+			nearestNodes.clear();
+			double maxAngularDistance = searchDistance / CoordinateUtil.RADIUS_EARTH;
+			for (int node : findCandidateNodes(pos, searchDistance)) {
+				double dist = CoordinateUtil.angularDist(pos.getLatitude(), pos.getLongitude(), latitudes[node], longitudes[node]);
+				if (dist < maxAngularDistance) {
+					nearestNodes.offer(node, dist);
+				}
+			}
+			
+			// Every node within the search distance has been seen, so if enough have been found, they are the nearest
+			if (nearestNodes.isFull() || searchDistance >= maxDistance || maxAngularDistance >= Math.PI) {
+				return nearestNodes.removeAllAscending();
+			}
+			searchDistance = Math.min(searchDistance * 2, maxDistance);
+		}
+	}
+	
+	/**
+	 * @return The nodes within the bounding box of the circle with the given radius around pos: a superset of the nodes within that distance.
+	 */
+	private int[] findCandidateNodes(LatLng pos, double distance) {
+		
+		double latitudeDelta = Math.toDegrees(distance / CoordinateUtil.RADIUS_EARTH);
+		double longitudeDelta = calculateLongitudeDelta(pos.getLatitude(), distance);
+		return grid.findNodesWithin(
+				pos.getLatitude() - latitudeDelta, pos.getLatitude() + latitudeDelta,
+				pos.getLongitude() - longitudeDelta, pos.getLongitude() + longitudeDelta);
+	}
+	
+	/**
+	 * Finds the positions on the tracks near the given position: all nodes within maxDistance, and for each track
+	 * passing within maxDistance, the position on that track closest to pos.
+	 * 
+	 * @param pos Coordinate
+	 * @param maxDistance The maximum distance between pos and the track.
+	 * @return The track positions, sorted by distance to pos (nearest first). Empty if no track is within maxDistance of pos.
+	 */
+	public List<TrackPosition> findTrackPositionsNear(LatLng pos, double maxDistance) {
+		
+		List<TrackPosition> res = new ArrayList<>();
+		
+		for (int node : findNodesNear(pos, maxDistance)) {
+			res.add(TrackPosition.atNode(node, getPosition(node)));
+		}
+		
+		for (int c : trackTree.findTracksWithin(pos, maxDistance)) {
+			int node = getConnectionSource(c);
+			int neighborNode = connectionTargets[c];
+			LatLng nodePosition = getPosition(node);
+			LatLng neighborPosition = getPosition(neighborNode);
+			
+			// The tree only returns the tracks that pass by close enough
+			double trackLength = connectionLengths[c];
+			double alongTrack = CoordinateUtil.alongTrackDist(nodePosition, neighborPosition, pos);
+			if (alongTrack <= 0 || alongTrack >= trackLength) {
+				continue; // The closest position is one of the end points, which has been added already
+			}
+			
+			LatLng positionOnTrack = CoordinateUtil.interpolate(nodePosition, neighborPosition, alongTrack / trackLength);
+			res.add(TrackPosition.onConnection(node, neighborNode, alongTrack, trackLength - alongTrack, positionOnTrack));
+		}
+		
+		res.sort(Comparator.comparingDouble(p -> CoordinateUtil.angularDist(p.getPosition(), pos)));
+		return res;
+	}
+	
+	/**
+	 * Finds the tracks closest to the given position (see {@link TrackRTree#findNearestTracks(LatLng, int)}).
+	 * @param pos Coordinate
+	 * @param count The number of tracks to find
+	 * @return The (at most) count closest tracks, as the connections from their lowest to their highest node, nearest first.
+	 */
+	public int[] findNearestTracks(LatLng pos, int count) {
+		return trackTree.findNearestTracks(pos, count);
+	}
+	
+	/**
+	 * @return The largest difference in longitude (in degrees) between a position at the given latitude and any position
+	 * within the given distance of it.
+	 */
+	private static double calculateLongitudeDelta(double latitude, double distance) {
+		
+		// Haversine formula, with the cosine of the latitude farthest from the equator the other position can have
+		double angularDistance = distance / CoordinateUtil.RADIUS_EARTH;
+		double maxAbsLatitude = Math.abs(latitude) + Math.toDegrees(angularDistance);
+		if (maxAbsLatitude >= 90) {
+			return 180;
+		}
+		double sinHalfLongitudeDelta = Math.sin(angularDistance / 2) / Math.cos(Math.toRadians(maxAbsLatitude));
+		return sinHalfLongitudeDelta >= 1 ? 180 : Math.toDegrees(2 * Math.asin(sinHalfLongitudeDelta));
+	}
+	
+	/**
+	 * @return The node the given connection starts at.
+	 */
+	private int getConnectionSource(int connection) {
+		
+		// The last node with its first connection at or before the given connection
+		int low = 0;
+		int high = getNodeCount() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (connectionOffsets[mid] <= connection) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.basdado.trainfinder.model;
+
+/**
+ * The result of a shortest path search over the {@link ContractedRailwayGraph}: the path starts at a track position,
+ * follows a number of chains (legs), and ends at another track position.
+ *
+ * Each leg follows a single chain from one offset to another. The first leg starts at the start position, the last leg
+ * ends at the end position, and all legs in between follow their chain from one junction to the other.
+ */
+public final class RailwayPath {
+	
+	private final TrackPosition from;
+	private final TrackPosition to;
+	private final int[] legChains;
+	private final double[] legStartOffsets;
+	private final double[] legEndOffsets;
+	private final double length;
+	private final int settledJunctionCount;
+	
+	public RailwayPath(TrackPosition from, TrackPosition to, int[] legChains, double[] legStartOffsets, double[] legEndOffsets, double length, int settledJunctionCount) {
+		this.from = from;
+		this.to = to;
+		this.legChains = legChains;
+		this.legStartOffsets = legStartOffsets;
+		this.legEndOffsets = legEndOffsets;
+		this.length = length;
+		this.settledJunctionCount = settledJunctionCount;
+	}
+	
+	public TrackPosition getFrom() {
+		return from;
+	}
+	
+	public TrackPosition getTo() {
+		return to;
+	}
+	
+	/**
+	 * @return The number of legs. Zero if from and to are the same junction.
+	 */
+	public int getLegCount() {
+		return legChains.length;
+	}
+	
+	/**
+	 * @return The chain followed by the given leg.
+	 */
+	public int getLegChain(int leg) {
+		return legChains[leg];
+	}
+	
+	/**
+	 * @return The offset along its chain at which the given leg starts.
+	 */
+	public double getLegStartOffset(int leg) {
+		return legStartOffsets[leg];
+	}
+	
+	/**
+	 * @return The offset along its chain at which the given leg ends.
+	 */
+	public double getLegEndOffset(int leg) {
+		return legEndOffsets[leg];
+	}
+	
+	/**
+	 * @return The length of the path (in meters).
+	 */
+	public double getLength() {
+		return length;
+	}
+	
+	/**
+	 * @return The number of junctions that were visited (settled) by the search that found this path.
+	 */
+	public int getSettledJunctionCount() {
+		return settledJunctionCount;
+	}
+
+}
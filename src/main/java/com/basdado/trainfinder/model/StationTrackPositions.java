@@ -0,0 +1,67 @@
+package com.basdado.trainfinder.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The positions on the tracks near each station, as an overlay on top of a railway graph. Stations are snapped to the
+ * tracks without modifying the graph, so the graph stays immutable and can be shared by any number of threads without
+ * locking. All known stations are snapped once using {@link #snapAll(Collection)}; the positions of any other station are
+ * found the first time they are needed. Either way, they are remembered from then on.
+ *
+ * This class is thread-safe.
+ */
+public final class StationTrackPositions {
+	
+	private final RailwayGraph graph;
+	private final double maxDistance;
+	private final ConcurrentMap<String, List<TrackPosition>> trackPositionsByStation;
+	
+	/**
+	 * @param graph The railway graph to find the track positions on
+	 * @param maxDistance The maximum distance between a station and the track positions near it.
+	 */
+	public StationTrackPositions(RailwayGraph graph, double maxDistance) {
+		this.graph = graph;
+		this.maxDistance = maxDistance;
+		this.trackPositionsByStation = new ConcurrentHashMap<>();
+	}
+	
+	public RailwayGraph getGraph() {
+		return graph;
+	}
+	
+	/**
+	 * Snaps all given stations to the tracks.
+	 * @return The number of stations without any tracks nearby.
+	 */
+	public int snapAll(Collection<Station> stations) {
+		
+		int unsnappedCount = 0;
+		for (Station station : stations) {
+			if (get(station).isEmpty()) {
+				unsnappedCount++;
+			}
+		}
+		return unsnappedCount;
+	}
+	
+	/**
+	 * @return The positions on the tracks near the given station, nearest first. Empty if there are no tracks near the station.
+	 */
+	public List<TrackPosition> get(Station station) {
+		return trackPositionsByStation.computeIfAbsent(station.getCode(),
+				code -> Collections.unmodifiableList(graph.findTrackPositionsNear(station.getLocation(), maxDistance)));
+	}
+	
+	/**
+	 * @return The number of stations that have been snapped to the tracks.
+	 */
+	public int size() {
+		return trackPositionsByStation.size();
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.basdado.trainfinder.model;
+
+/**
+ * A position on the railway graph. The position is either exactly at a node of the graph, or
+ * somewhere on the track (connection) between two connected nodes.
+ */
+public final class TrackPosition {
+	
+	private final int node1;
+	private final int node2;
+	private final double distanceToNode1;
+	private final double distanceToNode2;
+	private final LatLng position;
+	
+	private TrackPosition(int node1, int node2, double distanceToNode1, double distanceToNode2, LatLng position) {
+		this.node1 = node1;
+		this.node2 = node2;
+		this.distanceToNode1 = distanceToNode1;
+		this.distanceToNode2 = distanceToNode2;
+		this.position = position;
+	}
+	
+	/**
+	 * @param node The index of the node in the railway graph
+	 * @param position The position of that node
+	 * @return A track position exactly at the given node.
+	 */
+	public static TrackPosition atNode(int node, LatLng position) {
+		return new TrackPosition(node, node, 0, 0, position);
+	}
+	
+	/**
+	 * @param node1 The node at one end of the track
+	 * @param node2 The node at the other end of the track
+	 * @param distanceToNode1 The distance (over the track) from the position to node1
+	 * @param distanceToNode2 The distance (over the track) from the position to node2
+	 * @param position The position on the track
+	 * @return A track position on the track between node1 and node2.
+	 */
+	public static TrackPosition onConnection(int node1, int node2, double distanceToNode1, double distanceToNode2, LatLng position) {
+		return new TrackPosition(node1, node2, distanceToNode1, distanceToNode2, position);
+	}
+	
+	public boolean isAtNode() {
+		return node1 == node2;
+	}
+	
+	public int getNode1() {
+		return node1;
+	}
+	
+	public int getNode2() {
+		return node2;
+	}
+	
+	public double getDistanceToNode1() {
+		return distanceToNode1;
+	}
+	
+	public double getDistanceToNode2() {
+		return distanceToNode2;
+	}
+	
+	/**
+	 * @param node Either node1 or node2
+	 * @return The distance from this position to the given node.
+	 */
+	public double getDistanceTo(int node) {
+		if (node == node1) return distanceToNode1;
+		if (node == node2) return distanceToNode2;
+		throw new IllegalArgumentException("Node " + node + " is not an end point of this track position");
+	}
+	
+	/**
+	 * @return True iff this position and the other position lie on the same track (between the same two nodes).
+	 */
+	public boolean isOnSameConnection(TrackPosition other) {
+		return (node1 == other.node1 && node2 == other.node2) || (node1 == other.node2 && node2 == other.node1);
+	}
+	
+	public LatLng getPosition() {
+		return position;
+	}
+	
+	@Override
+	public String toString() {
+		return isAtNode() ? 
+				"[node " + node1 + " at " + position + "]" : 
+				"[" + distanceToNode1 + "m from node " + node1 + ", " + distanceToNode2 + "m from node " + node2 + " at " + position + "]";
+	}
+
+}
@@ -0,0 +1,423 @@
+package com.basdado.trainfinder.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.basdado.trainfinder.util.CoordinateUtil;
+
+/**
+ * Immutable R-tree over the tracks of a {@link RailwayGraph}, used to find the tracks near a position. Each track is
+ * a segment between two connected nodes, and is identified by its connection from the lowest to the highest node.
+ *
+ * The tree is bulk-loaded using Sort-Tile-Recursive (STR) packing: the tracks are sorted into vertical slices by longitude,
+ * each slice is sorted by latitude, and every run of {@link #NODE_CAPACITY} tracks becomes a leaf. The levels above are
+ * packed the same way, until a single root remains. This gives nearly full nodes with little overlap, so a query only
+ * visits a few nodes, no matter how long the tracks elsewhere are.
+ *
+ * All nodes are stored in flat arrays: the leaves first, then each level above, with the root last. The children of
+ * a node (tracks for a leaf, nodes otherwise) are always stored next to each other.
+ */
+public final class TrackRTree {
+	
+	static final int NODE_CAPACITY = 16;
+	
+	/**
+	 * Margin (in degrees) added to the latitudes of the bounding box of a leaf, because a track follows a great circle,
+	 * which bends slightly away from the equator, out of the bounding box of its end points.
+	 */
+	private static final double LATITUDE_MARGIN = 0.0001;
+	
+	private final double[] latitudes;
+	private final double[] longitudes;
+	
+	private final int[] trackConnections;
+	private final int[] trackNodes1;
+	private final int[] trackNodes2;
+	
+	private final double[] nodeMinLatitudes;
+	private final double[] nodeMaxLatitudes;
+	private final double[] nodeMinLongitudes;
+	private final double[] nodeMaxLongitudes;
+	private final int[] nodeFirstChild;
+	private final int[] nodeChildEnd;
+	private final int leafCount;
+	private final int root;
+	
+	/**
+	 * Creates the R-tree for the tracks of a railway graph (see {@link RailwayGraph#RailwayGraph(long[], double[], double[], int[], int[], float[])}
+	 * for the arguments). The arrays are not modified.
+	 */
+	TrackRTree(double[] latitudes, double[] longitudes, int[] connectionOffsets, int[] connectionTargets) {
+		
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		
+		int nodeCount = latitudes.length;
+		int trackCount = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			for (int c = connectionOffsets[node]; c < connectionOffsets[node + 1]; c++) {
+				if (node < connectionTargets[c]) {
+					trackCount++;
+				}
+			}
+		}
+		
+		int[] connections = new int[trackCount];
+		int[] nodes1 = new int[trackCount];
+		int[] nodes2 = new int[trackCount];
+		double[] centerLatitudes = new double[trackCount];
+		double[] centerLongitudes = new double[trackCount];
+		int track = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			for (int c = connectionOffsets[node]; c < connectionOffsets[node + 1]; c++) {
+				int neighborNode = connectionTargets[c];
+				if (node < neighborNode) { // Every track is added once
+					connections[track] = c;
+					nodes1[track] = node;
+					nodes2[track] = neighborNode;
+					centerLatitudes[track] = (latitudes[node] + latitudes[neighborNode]) / 2;
+					centerLongitudes[track] = (longitudes[node] + longitudes[neighborNode]) / 2;
+					track++;
+				}
+			}
+		}
+		
+		int[] order = calculatePackingOrder(centerLatitudes, centerLongitudes, trackCount);
+		this.trackConnections = new int[trackCount];
+		this.trackNodes1 = new int[trackCount];
+		this.trackNodes2 = new int[trackCount];
+		for (int i = 0; i < trackCount; i++) {
+			trackConnections[i] = connections[order[i]];
+			trackNodes1[i] = nodes1[order[i]];
+			trackNodes2[i] = nodes2[order[i]];
+		}
+		
+		int totalNodeCount = 0;
+		for (int levelSize = divideRoundingUp(trackCount, NODE_CAPACITY); levelSize > 0; levelSize = divideRoundingUp(levelSize, NODE_CAPACITY)) {
+			totalNodeCount += levelSize;
+			if (levelSize == 1) {
+				break;
+			}
+		}
+		this.nodeMinLatitudes = new double[totalNodeCount];
+		this.nodeMaxLatitudes = new double[totalNodeCount];
+		this.nodeMinLongitudes = new double[totalNodeCount];
+		this.nodeMaxLongitudes = new double[totalNodeCount];
+		this.nodeFirstChild = new int[totalNodeCount];
+		this.nodeChildEnd = new int[totalNodeCount];
+		
+		// The leaves
+		int levelEnd = 0;
+		for (int first = 0; first < trackCount; first += NODE_CAPACITY) {
+			int node = levelEnd++;
+			nodeFirstChild[node] = first;
+			nodeChildEnd[node] = Math.min(first + NODE_CAPACITY, trackCount);
+			nodeMinLatitudes[node] = Double.MAX_VALUE;
+			nodeMaxLatitudes[node] = -Double.MAX_VALUE;
+			nodeMinLongitudes[node] = Double.MAX_VALUE;
+			nodeMaxLongitudes[node] = -Double.MAX_VALUE;
+			for (int t = first; t < nodeChildEnd[node]; t++) {
+				extendNode(node, trackNodes1[t]);
+				extendNode(node, trackNodes2[t]);
+			}
+			nodeMinLatitudes[node] -= LATITUDE_MARGIN;
+			nodeMaxLatitudes[node] += LATITUDE_MARGIN;
+		}
+		this.leafCount = levelEnd;
+		
+		// The levels above the leaves
+		int levelStart = 0;
+		while (levelEnd - levelStart > 1) {
+			
+			sortLevel(levelStart, levelEnd);
+			int nextLevelEnd = levelEnd;
+			for (int first = levelStart; first < levelEnd; first += NODE_CAPACITY) {
+				int node = nextLevelEnd++;
+				nodeFirstChild[node] = first;
+				nodeChildEnd[node] = Math.min(first + NODE_CAPACITY, levelEnd);
+				nodeMinLatitudes[node] = Double.MAX_VALUE;
+				nodeMaxLatitudes[node] = -Double.MAX_VALUE;
+				nodeMinLongitudes[node] = Double.MAX_VALUE;
+				nodeMaxLongitudes[node] = -Double.MAX_VALUE;
+				for (int child = first; child < nodeChildEnd[node]; child++) {
+					nodeMinLatitudes[node] = Math.min(nodeMinLatitudes[node], nodeMinLatitudes[child]);
+					nodeMaxLatitudes[node] = Math.max(nodeMaxLatitudes[node], nodeMaxLatitudes[child]);
+					nodeMinLongitudes[node] = Math.min(nodeMinLongitudes[node], nodeMinLongitudes[child]);
+					nodeMaxLongitudes[node] = Math.max(nodeMaxLongitudes[node], nodeMaxLongitudes[child]);
+				}
+			}
+			levelStart = levelEnd;
+			levelEnd = nextLevelEnd;
+		}
+		this.root = levelEnd - 1;
+	}
+	
+	private void extendNode(int node, int graphNode) {
+		nodeMinLatitudes[node] = Math.min(nodeMinLatitudes[node], latitudes[graphNode]);
+		nodeMaxLatitudes[node] = Math.max(nodeMaxLatitudes[node], latitudes[graphNode]);
+		nodeMinLongitudes[node] = Math.min(nodeMinLongitudes[node], longitudes[graphNode]);
+		nodeMaxLongitudes[node] = Math.max(nodeMaxLongitudes[node], longitudes[graphNode]);
+	}
+	
+	/**
+	 * Reorders the nodes of a level in packing order, before their parents are created.
+	 */
+	private void sortLevel(int levelStart, int levelEnd) {
+		
+		int count = levelEnd - levelStart;
+		double[] centerLatitudes = new double[count];
+		double[] centerLongitudes = new double[count];
+		for (int i = 0; i < count; i++) {
+			centerLatitudes[i] = (nodeMinLatitudes[levelStart + i] + nodeMaxLatitudes[levelStart + i]) / 2;
+			centerLongitudes[i] = (nodeMinLongitudes[levelStart + i] + nodeMaxLongitudes[levelStart + i]) / 2;
+		}
+		int[] order = calculatePackingOrder(centerLatitudes, centerLongitudes, count);
+		
+		reorder(nodeMinLatitudes, levelStart, order);
+		reorder(nodeMaxLatitudes, levelStart, order);
+		reorder(nodeMinLongitudes, levelStart, order);
+		reorder(nodeMaxLongitudes, levelStart, order);
+		reorder(nodeFirstChild, levelStart, order);
+		reorder(nodeChildEnd, levelStart, order);
+	}
+	
+	private static void reorder(double[] values, int start, int[] order) {
+		double[] copy = Arrays.copyOfRange(values, start, start + order.length);
+		for (int i = 0; i < order.length; i++) {
+			values[start + i] = copy[order[i]];
+		}
+	}
+	
+	private static void reorder(int[] values, int start, int[] order) {
+		int[] copy = Arrays.copyOfRange(values, start, start + order.length);
+		for (int i = 0; i < order.length; i++) {
+			values[start + i] = copy[order[i]];
+		}
+	}
+	
+	/**
+	 * Calculates the Sort-Tile-Recursive order of the given items: sorted into vertical slices by longitude, and
+	 * sorted by latitude within each slice.
+	 * @return For each position in the packing order, the index of the item.
+	 */
+	private static int[] calculatePackingOrder(double[] centerLatitudes, double[] centerLongitudes, int count) {
+		
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingDouble(i -> centerLongitudes[i]));
+		
+		int sliceCount = (int)Math.ceil(Math.sqrt(divideRoundingUp(count, NODE_CAPACITY)));
+		int sliceSize = Math.max(sliceCount * NODE_CAPACITY, 1);
+		for (int sliceStart = 0; sliceStart < count; sliceStart += sliceSize) {
+			Arrays.sort(order, sliceStart, Math.min(sliceStart + sliceSize, count), Comparator.comparingDouble(i -> centerLatitudes[i]));
+		}
+		
+		int[] res = new int[count];
+		for (int i = 0; i < count; i++) {
+			res[i] = order[i];
+		}
+		return res;
+	}
+	
+	private static int divideRoundingUp(int dividend, int divisor) {
+		return (dividend + divisor - 1) / divisor;
+	}
+	
+	/**
+	 * @return The number of tracks in the tree.
+	 */
+	public int getTrackCount() {
+		return trackConnections.length;
+	}
+	
+	/**
+	 * Finds the tracks that pass within maxDistance of the given position.
+	 * @param pos Coordinate
+	 * @param maxDistance The maximum distance (in meters) between pos and the closest point of a track.
+	 * @return The tracks, as the connections from their lowest to their highest node (in no particular order).
+	 */
+	public int[] findTracksWithin(LatLng pos, double maxDistance) {
+		
+		if (root < 0) {
+			return new int[0];
+		}
+		int[] res = new int[16];
+		int resCount = 0;
+		
+		int[] stack = new int[64];
+		int stackSize = 0;
+		stack[stackSize++] = root;
+		
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			if (getMinimumDistance(pos, node) >= maxDistance) {
+				continue;
+			}
+			
+			if (node < leafCount) {
+				for (int t = nodeFirstChild[node]; t < nodeChildEnd[node]; t++) {
+					if (!isFartherThan(pos, t, maxDistance) && getDistanceToTrack(pos, t) < maxDistance) {
+						if (resCount == res.length) {
+							res = Arrays.copyOf(res, resCount * 2);
+						}
+						res[resCount++] = trackConnections[t];
+					}
+				}
+			} else {
+				int childCount = nodeChildEnd[node] - nodeFirstChild[node];
+				if (stackSize + childCount > stack.length) {
+					stack = Arrays.copyOf(stack, Math.max(stack.length * 2, stackSize + childCount));
+				}
+				for (int child = nodeFirstChild[node]; child < nodeChildEnd[node]; child++) {
+					stack[stackSize++] = child;
+				}
+			}
+		}
+		
+		return Arrays.copyOf(res, resCount);
+	}
+	
+	/**
+	 * Finds the tracks closest to the given position, using a best-first search: nodes and tracks are visited in order of
+	 * their (minimum) distance to pos, so the search stops as soon as enough tracks have been found.
+	 * @param pos Coordinate
+	 * @param count The number of tracks to find
+	 * @return The (at most) count tracks closest to pos, as the connections from their lowest to their highest node, nearest first.
+	 */
+	public int[] findNearestTracks(LatLng pos, int count) {
+		
+		int[] res = new int[Math.min(count, getTrackCount())];
+		int resCount = 0;
+		if (root < 0 || res.length == 0) {
+			return res;
+		}
+		
+		// Nodes are added as their index, tracks as -1 - their index
+		SearchQueue queue = new SearchQueue();
+		queue.add(root, getMinimumDistance(pos, root));
+		
+		while (resCount < res.length && !queue.isEmpty()) {
+			int item = queue.remove();
+			if (item < 0) {
+				res[resCount++] = trackConnections[-1 - item];
+			} else if (item < leafCount) {
+				for (int t = nodeFirstChild[item]; t < nodeChildEnd[item]; t++) {
+					queue.add(-1 - t, getDistanceToTrack(pos, t));
+				}
+			} else {
+				for (int child = nodeFirstChild[item]; child < nodeChildEnd[item]; child++) {
+					queue.add(child, getMinimumDistance(pos, child));
+				}
+			}
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Checks whether the track is certainly at least maxDistance away from pos, using the equirectangular approximation
+	 * of the distance including its error, which is much cheaper than calculating the exact distance.
+	 * @return True if the track is at least maxDistance away. False if it might be closer, or the approximation is not
+	 * accurate enough for this track.
+	 */
+	private boolean isFartherThan(LatLng pos, int track, double maxDistance) {
+		
+		double lat = pos.getLatitude();
+		double lon = pos.getLongitude();
+		double lat1 = latitudes[trackNodes1[track]];
+		double lon1 = longitudes[trackNodes1[track]];
+		double lat2 = latitudes[trackNodes2[track]];
+		double lon2 = longitudes[trackNodes2[track]];
+		
+		// If the track is within maxDistance, both of its ends are within maxDistance + its length of pos
+		double farthestDistance = maxDistance + CoordinateUtil.equirectangularDist(lat1, lon1, lat2, lon2);
+		double maxLatitude = Math.max(Math.abs(lat), Math.max(Math.abs(lat1), Math.abs(lat2)));
+		if (farthestDistance > CoordinateUtil.EQUIRECTANGULAR_MAX_DISTANCE || maxLatitude > CoordinateUtil.EQUIRECTANGULAR_MAX_LATITUDE) {
+			return false;
+		}
+		double error = maxDistance * CoordinateUtil.EQUIRECTANGULAR_RELATIVE_ERROR + CoordinateUtil.equirectangularCrossTrackError(farthestDistance, maxLatitude);
+		return CoordinateUtil.equirectangularCrossTrackDist(lat1, lon1, lat2, lon2, lat, lon) >= maxDistance + error;
+	}
+	
+	private double getDistanceToTrack(LatLng pos, int track) {
+		LatLng position1 = new LatLng(latitudes[trackNodes1[track]], longitudes[trackNodes1[track]]);
+		LatLng position2 = new LatLng(latitudes[trackNodes2[track]], longitudes[trackNodes2[track]]);
+		return Math.abs(CoordinateUtil.crossTrackDist(position1, position2, pos)); // Signed, depending on the side of the track
+	}
+	
+	/**
+	 * @return A lower bound of the distance (in meters) between pos and any position within the bounding box of the given node.
+	 */
+	private double getMinimumDistance(LatLng pos, int node) {
+		
+		double lat = pos.getLatitude();
+		double lon = pos.getLongitude();
+		double minLat = nodeMinLatitudes[node];
+		double maxLat = nodeMaxLatitudes[node];
+		
+		double latitudeDifference = Math.toRadians(Math.max(0, Math.max(minLat - lat, lat - maxLat)));
+		double longitudeDifference = Math.toRadians(Math.max(0, Math.max(nodeMinLongitudes[node] - lon, lon - nodeMaxLongitudes[node])));
+		
+		// Haversine formula, with the cosine of the latitude farthest from the equator in place of the cosines of both latitudes
+		double maxAbsLatitude = Math.max(Math.abs(lat), Math.max(Math.abs(minLat), Math.abs(maxLat)));
+		double minCosLatitude = Math.cos(Math.toRadians(Math.min(maxAbsLatitude, 90)));
+		double sinHalfLatitude = Math.sin(latitudeDifference / 2);
+		double sinHalfLongitude = Math.sin(longitudeDifference / 2);
+		double a = sinHalfLatitude * sinHalfLatitude + minCosLatitude * minCosLatitude * sinHalfLongitude * sinHalfLongitude;
+		return 2 * Math.asin(Math.min(1, Math.sqrt(a))) * CoordinateUtil.RADIUS_EARTH;
+	}
+	
+	/**
+	 * Minimal binary min-heap of items with a distance, for the best-first search.
+	 */
+	private static final class SearchQueue {
+		
+		private int[] items = new int[64];
+		private double[] distances = new double[64];
+		private int size;
+		
+		void add(int item, double distance) {
+			if (size == items.length) {
+				items = Arrays.copyOf(items, size * 2);
+				distances = Arrays.copyOf(distances, size * 2);
+			}
+			int i = size++;
+			while (i > 0 && distances[(i - 1) / 2] > distance) {
+				items[i] = items[(i - 1) / 2];
+				distances[i] = distances[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			items[i] = item;
+			distances[i] = distance;
+		}
+		
+		boolean isEmpty() {
+			return size == 0;
+		}
+		
+		int remove() {
+			int res = items[0];
+			int lastItem = items[--size];
+			double lastDistance = distances[size];
+			int i = 0;
+			while (2 * i + 1 < size) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && distances[child + 1] < distances[child]) {
+					child++;
+				}
+				if (distances[child] >= lastDistance) {
+					break;
+				}
+				items[i] = items[child];
+				distances[i] = distances[child];
+				i = child;
+			}
+			items[i] = lastItem;
+			distances[i] = lastDistance;
+			return res;
+		}
+	}
+
+}
@@ -1,13 +1,25 @@
 package com.basdado.trainfinder.ns.communicator;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -15,17 +27,31 @@ import javax.xml.bind.Unmarshaller;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
@@ -33,20 +59,88 @@ import org.slf4j.LoggerFactory;
 
 import com.basdado.trainfinder.ns.Constants;
 import com.basdado.trainfinder.ns.exception.NSException;
+import com.basdado.trainfinder.ns.exception.NSOverloadedException;
 import com.basdado.trainfinder.ns.model.DepartureInfoResponse;
 import com.basdado.trainfinder.ns.model.NSErrorResponse;
 import com.basdado.trainfinder.ns.model.StationInfoResponse;
 import com.basdado.trainfinder.ns.model.TravelAdviceResponse;
 
-public class NSCommunicator {
+/**
+ * Client for the NS API. All requests share a pool of connections, which are kept alive between requests, so
+ * consecutive requests to the API don't have to connect (and do the TLS handshake) again.
+ * 
+ * Every request can be done blocking (e.g. {@link #getDepartures(String)}), or asynchronously (e.g.
+ * {@link #getDeparturesAsync(String)}). The asynchronous requests use non-blocking I/O, so no thread waits for
+ * the response. They have their own pool of connections, with the same limits. Their responses are unmarshalled on the
+ * given executor, so the few I/O threads of the client don't wait for that, and can keep handling the other connections.
+ * 
+ * All requests go through an {@link NSRequestLimiter}, which keeps them within the configured rates and backs off when
+ * the API is overloaded. Requests that have to wait for it are done in order of their {@link NSRequestPriority}. Requests to
+ * which the API responds that it is overloaded fail with an (unchecked) {@link NSOverloadedException}, so they can be told
+ * apart from errors about the request itself.
+ * 
+ * This class is thread-safe. It should be closed when it is no longer used, to close the pooled connections.
+ */
+public class NSCommunicator implements Closeable {
 	
 	private static final Logger logger = LoggerFactory.getLogger(NSCommunicator.class);
 	
-	private NSCommunicatorConfiguration config;
+	/** HTTP status code with which the API tells that the request quota is exceeded */
+	private static final int TOO_MANY_REQUESTS = 429;
 	
-	public NSCommunicator(NSCommunicatorConfiguration config) {
+	/** For each response type, the JAXBContext to unmarshal it (or an NSErrorResponse) with. JAXBContexts are thread-safe. */
+	private static final ConcurrentMap<Class<?>, JAXBContext> jaxbContexts = new ConcurrentHashMap<>();
+	
+	private final NSCommunicatorConfiguration config;
+	private final CredentialsProvider credentialsProvider;
+	/** The hosts the credentials are sent to without waiting for an authentication challenge (preemptive authentication) */
+	private final AuthCache authCache;
+	private final CloseableHttpClient httpClient;
+	private final CloseableHttpAsyncClient asyncHttpClient;
+	private final NSRequestLimiter limiter;
+	/** The executor on which the responses of asynchronous requests are unmarshalled */
+	private final Executor responseExecutor;
+	
+	/**
+	 * @param config The configuration
+	 * @param responseExecutor The executor on which the responses of asynchronous requests are unmarshalled, and on which
+	 * their futures are completed.
+	 */
+	public NSCommunicator(NSCommunicatorConfiguration config, Executor responseExecutor) {
 		Validate.notNull(config, "NSCommunicatorConfiguration is required");
+		Validate.notNull(responseExecutor, "Response executor is required");
 		this.config = config;
+		this.responseExecutor = responseExecutor;
+		this.credentialsProvider = new BasicCredentialsProvider();
+		this.authCache = new BasicAuthCache();
+		
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+		connectionManager.setMaxTotal(config.getMaxConnections());
+		
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(config.getConnectTimeout())
+				.setConnectionRequestTimeout(config.getConnectTimeout())
+				.setSocketTimeout(config.getReadTimeout())
+				.build();
+		
+		this.httpClient = HttpClientBuilder.create()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setDefaultCredentialsProvider(credentialsProvider)
+				.evictExpiredConnections()
+				.evictIdleConnections(config.getConnectionIdleTimeout(), TimeUnit.MILLISECONDS)
+				.build();
+		
+		this.asyncHttpClient = HttpAsyncClients.custom()
+				.setMaxConnPerRoute(config.getMaxConnectionsPerRoute())
+				.setMaxConnTotal(config.getMaxConnections())
+				.setDefaultRequestConfig(requestConfig)
+				.setDefaultCredentialsProvider(credentialsProvider)
+				.build();
+		this.asyncHttpClient.start();
+		
+		this.limiter = new NSRequestLimiter(config);
 	}
 	
 	/**
@@ -55,7 +149,16 @@ public class NSCommunicator {
 	 */
 	public StationInfoResponse getStations() throws NSException {
 		
-		return doNSGetRequest(config.getStationListRequestURL(), StationInfoResponse.class);
+		return doNSGetRequest(config.getStationListRequestURL(), NSRequestType.STATIONS, NSRequestPriority.NORMAL, StationInfoResponse.class);
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #getStations()}.
+	 * @return A future of the StationInfoResponse, which completes exceptionally with an NSException if the NS API returns an error.
+	 */
+	public CompletableFuture<StationInfoResponse> getStationsAsync() {
+		
+		return doNSGetRequestAsync(config.getStationListRequestURL(), NSRequestType.STATIONS, NSRequestPriority.NORMAL, StationInfoResponse.class);
 	}
 	
 	/**
@@ -66,7 +169,44 @@ public class NSCommunicator {
 	 */
 	public DepartureInfoResponse getDepartures(String station) throws NSException {
 		
-		return doNSGetRequest(config.getDeparturesRequestUrl().replace("${station}", station), DepartureInfoResponse.class);
+		return getDepartures(station, NSRequestPriority.NORMAL);
+	}
+	
+	/**
+	 * Gets all departing trains in the coming hour (with a minimum of 10 departures).
+	 * @param station The station for which to calculate this
+	 * @param priority The priority of this request, if it has to wait for the rate limit
+	 * @return Departure info
+	 * @throws NSException
+	 */
+	public DepartureInfoResponse getDepartures(String station, NSRequestPriority priority) throws NSException {
+		
+		return doNSGetRequest(createDeparturesRequestUrl(station), NSRequestType.DEPARTURES, priority, DepartureInfoResponse.class);
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #getDepartures(String)}.
+	 * @param station The station for which to calculate this
+	 * @return A future of the departure info, which completes exceptionally with an NSException if the NS API returns an error.
+	 */
+	public CompletableFuture<DepartureInfoResponse> getDeparturesAsync(String station) {
+		
+		return getDeparturesAsync(station, NSRequestPriority.NORMAL);
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #getDepartures(String, NSRequestPriority)}.
+	 * @param station The station for which to calculate this
+	 * @param priority The priority of this request, if it has to wait for the rate limit
+	 * @return A future of the departure info, which completes exceptionally with an NSException if the NS API returns an error.
+	 */
+	public CompletableFuture<DepartureInfoResponse> getDeparturesAsync(String station, NSRequestPriority priority) {
+		
+		return doNSGetRequestAsync(createDeparturesRequestUrl(station), NSRequestType.DEPARTURES, priority, DepartureInfoResponse.class);
+	}
+	
+	private String createDeparturesRequestUrl(String station) {
+		return config.getDeparturesRequestUrl().replace("${station}", station);
 	}
 	
 	/**
@@ -86,6 +226,22 @@ public class NSCommunicator {
 	 */
 	public TravelAdviceResponse getTravelAdvice(String fromStation, String toStation, String viaStation, int previousAdvices, int nextAdvices, OffsetDateTime dateTime, boolean departure, boolean hslAllowed, boolean yearCard) throws NSException {
 		
+		return doNSGetRequest(createTravelAdviceRequestUrl(fromStation, toStation, viaStation, previousAdvices, nextAdvices, dateTime, departure, hslAllowed, yearCard), 
+				NSRequestType.TRAVEL_ADVICE, NSRequestPriority.NORMAL, TravelAdviceResponse.class);
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #getTravelAdvice(String, String, String, int, int, OffsetDateTime, boolean, boolean, boolean)}.
+	 * @return A future of the travel advice, which completes exceptionally with an NSException if the NS API returns an error.
+	 */
+	public CompletableFuture<TravelAdviceResponse> getTravelAdviceAsync(String fromStation, String toStation, String viaStation, int previousAdvices, int nextAdvices, OffsetDateTime dateTime, boolean departure, boolean hslAllowed, boolean yearCard) {
+		
+		return doNSGetRequestAsync(createTravelAdviceRequestUrl(fromStation, toStation, viaStation, previousAdvices, nextAdvices, dateTime, departure, hslAllowed, yearCard), 
+				NSRequestType.TRAVEL_ADVICE, NSRequestPriority.NORMAL, TravelAdviceResponse.class);
+	}
+	
+	private String createTravelAdviceRequestUrl(String fromStation, String toStation, String viaStation, int previousAdvices, int nextAdvices, OffsetDateTime dateTime, boolean departure, boolean hslAllowed, boolean yearCard) {
+		
 		List<NameValuePair> params = new ArrayList<>();
 		
 		params.add(new BasicNameValuePair("fromStation", fromStation));
@@ -104,7 +260,7 @@ public class NSCommunicator {
 		
 		String queryParams = URLEncodedUtils.format(params, StandardCharsets.UTF_8);
 		
-		return doNSGetRequest(config.getTravelAdviceRequestUrl().replace("${parameters}", queryParams), TravelAdviceResponse.class);
+		return config.getTravelAdviceRequestUrl().replace("${parameters}", queryParams);
 	}
 	
 	/**
@@ -119,6 +275,22 @@ public class NSCommunicator {
 	 */
 	public TravelAdviceResponse getTravelAdvice(String fromStation, String toStation, OffsetDateTime dateTime, boolean departure) throws NSException {
 		
+		return doNSGetRequest(createTravelAdviceRequestUrl(fromStation, toStation, dateTime, departure), 
+				NSRequestType.TRAVEL_ADVICE, NSRequestPriority.NORMAL, TravelAdviceResponse.class);
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #getTravelAdvice(String, String, OffsetDateTime, boolean)}.
+	 * @return A future of the travel advice, which completes exceptionally with an NSException if the NS API returns an error.
+	 */
+	public CompletableFuture<TravelAdviceResponse> getTravelAdviceAsync(String fromStation, String toStation, OffsetDateTime dateTime, boolean departure) {
+		
+		return doNSGetRequestAsync(createTravelAdviceRequestUrl(fromStation, toStation, dateTime, departure), 
+				NSRequestType.TRAVEL_ADVICE, NSRequestPriority.NORMAL, TravelAdviceResponse.class);
+	}
+	
+	private String createTravelAdviceRequestUrl(String fromStation, String toStation, OffsetDateTime dateTime, boolean departure) {
+		
 		List<NameValuePair> params = new ArrayList<>();
 		
 		params.add(new BasicNameValuePair("fromStation", fromStation));
@@ -130,52 +302,248 @@ public class NSCommunicator {
 		
 		String queryParams = URLEncodedUtils.format(params, StandardCharsets.UTF_8);
 		
-		return doNSGetRequest(config.getTravelAdviceRequestUrl().replace("${parameters}", queryParams), TravelAdviceResponse.class);
+		return config.getTravelAdviceRequestUrl().replace("${parameters}", queryParams);
+	}
+	
+	private <T> T doNSGetRequest(String requestUrl, NSRequestType requestType, NSRequestPriority priority, Class<T> responseClass) throws NSException {
+		
+		HttpGet httpGet = createGetRequest(requestUrl);
+		HttpClientContext context = createContext(getHost(httpGet.getURI()));
+		
+		waitForPermit(requestType, priority);
+		
+		logger.info("Executing request: " + httpGet.getRequestLine());
+		
+		CloseableHttpResponse response = null;
+		try {
+			response = httpClient.execute(httpGet, context);
+			return readResponse(response, responseClass);
 		
+		} catch (JAXBException e) {
+			throw new RuntimeException("Exception while unmarshalling response: ", e);
+		} catch (IOException e) {
+			logger.error("Exception while trying to do an HttpGet request", e);
+			throw new RuntimeException("EException while trying to do an HttpGet request", e);
+		} finally {
+			releasePermit(response);
+			HttpClientUtils.closeQuietly(response);
+		}
 	}
 	
-	private <T> T doNSGetRequest(String requestUrl, Class<T> responseClass) throws NSException {
+	/**
+	 * Blocks until the limiter permits a request of the given type.
+	 * @throws NSOverloadedException If no permit was given within the configured maximum wait time.
+	 */
+	private void waitForPermit(NSRequestType requestType, NSRequestPriority priority) {
 		
-		URI requestUri;
+		CompletableFuture<Void> permit = limiter.acquire(requestType, priority);
 		try {
-			requestUri = new URI(requestUrl);
-		} catch (URISyntaxException e1) {
-			throw new IllegalArgumentException("The provided request URL is not a valid URI: '" + requestUrl + "'");
+			permit.get(config.getMaxRateLimitWaitTime(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			if (permit.cancel(false)) {
+				throw new NSOverloadedException("Could not do a request to the NS API within " + config.getMaxRateLimitWaitTime() + " ms because of the rate limit");
+			}
+			permit.join(); // The permit was given in the meantime
+		} catch (InterruptedException e) {
+			if (!permit.cancel(false)) {
+				limiter.release(); // The permit was given in the meantime
+			}
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting to do a request to the NS API", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Could not do a request to the NS API: " + e.getCause().getMessage(), e.getCause());
 		}
+	}
+	
+	/**
+	 * Does the request without blocking. The response is unmarshalled on the response executor, which also completes the
+	 * returned future, unless the request fails before there is a response (then it is completed on an I/O thread of the client).
+	 * Cancelling the returned future aborts the request.
+	 */
+	private <T> CompletableFuture<T> doNSGetRequestAsync(String requestUrl, NSRequestType requestType, NSRequestPriority priority, Class<T> responseClass) {
 		
-		HttpHost nsHost = new HttpHost(requestUri.getHost(), getPort(requestUri), requestUri.getScheme());
-		CredentialsProvider credsProvider = new BasicCredentialsProvider();
-		credsProvider.setCredentials(
-				new AuthScope(nsHost), 
-				new UsernamePasswordCredentials(config.getUsername(), config.getPassword()));
+		HttpGet httpGet = createGetRequest(requestUrl);
+		HttpClientContext context = createContext(getHost(httpGet.getURI()));
 		
+		CompletableFuture<T> res = new CompletableFuture<>();
+		CompletableFuture<Void> permit = limiter.acquire(requestType, priority);
+		res.whenComplete((response, e) -> {
+			if (res.isCancelled()) {
+				permit.cancel(false);
+			}
+		});
 		
-		try (CloseableHttpClient httpClient = HttpClientBuilder.create().setDefaultCredentialsProvider(credsProvider).build()) {
-			
-			HttpGet httpGet = new HttpGet(requestUri);
-			
-			logger.info("Executing request: " + httpGet.getRequestLine());
-			
-			try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
-				
-				String responseBody = EntityUtils.toString(response.getEntity());
+		permit.whenComplete((p, permitException) -> {
+			if (permitException != null) {
+				res.completeExceptionally(permitException);
+			} else if (res.isDone()) {
+				limiter.release(); // Cancelled after the permit was given
+			} else {
+				executeAsync(httpGet, context, responseClass, res);
+			}
+		});
+		return res;
+	}
+	
+	private <T> void executeAsync(HttpGet httpGet, HttpClientContext context, Class<T> responseClass, CompletableFuture<T> res) {
+		
+		logger.info("Executing asynchronous request: " + httpGet.getRequestLine());
+		
+		Future<HttpResponse> responseFuture;
+		try {
+			responseFuture = asyncHttpClient.execute(httpGet, context, new FutureCallback<HttpResponse>() {
 				
-				logger.debug("Response: " + responseBody);
+				@Override
+				public void completed(HttpResponse response) {
+					
+					// The client has read the whole body into memory already, so the request is done
+					releasePermit(response);
+					try {
+						responseExecutor.execute(() -> completeAsync(response, responseClass, res));
+					} catch (RejectedExecutionException e) {
+						res.completeExceptionally(e);
+					}
+				}
 				
-				Object res = unmarshalAs(responseBody, responseClass, NSErrorResponse.class);
-				if (responseClass.isInstance(res)) {
-					return responseClass.cast(res);
-				} else {
-					throw new NSException(((NSErrorResponse)res).getMessage());
+				@Override
+				public void failed(Exception e) {
+					releasePermit(null);
+					logger.error("Exception while trying to do an asynchronous HttpGet request", e);
+					res.completeExceptionally(new RuntimeException("Exception while trying to do an HttpGet request", e));
 				}
 				
-			} catch (JAXBException e) {
-				throw new RuntimeException("Exception while unmarshalling response: ", e);
+				@Override
+				public void cancelled() {
+					releasePermit(null);
+					res.cancel(false);
+				}
+			});
+		} catch (RuntimeException e) {
+			releasePermit(null);
+			res.completeExceptionally(e);
+			return;
+		}
+		
+		res.whenComplete((response, e) -> {
+			if (res.isCancelled()) {
+				responseFuture.cancel(true);
 			}
-			
+		});
+	}
+	
+	/**
+	 * Completes the future of an asynchronous request with the unmarshalled response.
+	 */
+	private static <T> void completeAsync(HttpResponse response, Class<T> responseClass, CompletableFuture<T> res) {
+		
+		try {
+			res.complete(readResponse(response, responseClass));
+		} catch (NSException e) {
+			res.completeExceptionally(e);
+		} catch (JAXBException e) {
+			res.completeExceptionally(new RuntimeException("Exception while unmarshalling response: ", e));
 		} catch (IOException e) {
-			logger.error("Exception while trying to do an HttpGet request", e);
-			throw new RuntimeException("EException while trying to do an HttpGet request", e);
+			logger.error("Exception while trying to do an asynchronous HttpGet request", e);
+			res.completeExceptionally(new RuntimeException("Exception while trying to do an HttpGet request", e));
+		} catch (RuntimeException e) {
+			res.completeExceptionally(e);
+		}
+	}
+	
+	/**
+	 * Returns the permit of a request to the limiter, telling it whether the API is overloaded.
+	 * @param response The response, or null if there is no response.
+	 */
+	private void releasePermit(HttpResponse response) {
+		
+		if (response != null && isOverloaded(response)) {
+			limiter.releaseOverloaded(getRetryAfterMillis(response));
+		} else {
+			limiter.release();
+		}
+	}
+	
+	private static boolean isOverloaded(HttpResponse response) {
+		int statusCode = response.getStatusLine().getStatusCode();
+		return statusCode == TOO_MANY_REQUESTS || statusCode >= 500;
+	}
+	
+	/**
+	 * @return The time (in milliseconds) the API asked to wait before the next request, or 0 if it didn't.
+	 */
+	private static long getRetryAfterMillis(HttpResponse response) {
+		
+		Header retryAfter = response.getFirstHeader("Retry-After");
+		if (retryAfter != null) {
+			try {
+				return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.getValue().trim()));
+			} catch (NumberFormatException e) {
+				// It can also be a date, which is not worth parsing here: the exponential back off is used instead
+			}
+		}
+		return 0;
+	}
+	
+	private static HttpGet createGetRequest(String requestUrl) {
+		
+		URI requestUri;
+		try {
+			requestUri = new URI(requestUrl);
+		} catch (URISyntaxException e1) {
+			throw new IllegalArgumentException("The provided request URL is not a valid URI: '" + requestUrl + "'");
+		}
+		return new HttpGet(requestUri);
+	}
+	
+	private static HttpHost getHost(URI requestUri) {
+		return new HttpHost(requestUri.getHost(), getPort(requestUri), requestUri.getScheme());
+	}
+	
+	/**
+	 * Reads the response body as the given response class.
+	 * @throws NSException If the NS API returned an error instead.
+	 * @throws NSOverloadedException If the NS API is overloaded.
+	 */
+	private static <T> T readResponse(HttpResponse response, Class<T> responseClass) throws NSException, JAXBException, IOException {
+		
+		if (isOverloaded(response)) {
+			EntityUtils.consumeQuietly(response.getEntity());
+			throw new NSOverloadedException("The NS API is not available: " + response.getStatusLine());
+		}
+		
+		Object res = unmarshal(response.getEntity(), responseClass);
+		if (responseClass.isInstance(res)) {
+			return responseClass.cast(res);
+		} else {
+			throw new NSException(((NSErrorResponse)res).getMessage());
+		}
+	}
+	
+	/**
+	 * Creates the context for a request to the given host, which sends the credentials along with the request.
+	 */
+	private HttpClientContext createContext(HttpHost host) {
+		
+		if (authCache.get(host) == null) {
+			credentialsProvider.setCredentials(new AuthScope(host), new UsernamePasswordCredentials(config.getUsername(), config.getPassword()));
+			authCache.put(host, new BasicScheme());
+		}
+		
+		HttpClientContext context = HttpClientContext.create();
+		context.setAuthCache(authCache);
+		return context;
+	}
+	
+	/**
+	 * Closes all pooled connections, and aborts the asynchronous requests that are still running or waiting. No requests can be done afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		limiter.close();
+		try {
+			httpClient.close();
+		} finally {
+			asyncHttpClient.close();
 		}
 	}
 	
@@ -198,11 +566,47 @@ public class NSCommunicator {
 		return -1;
 	}
 	
-	private static Object unmarshalAs(String xmlStr, Class<?>... classes) throws JAXBException, IOException {
+	/**
+	 * Unmarshals the response body as the given response class or NSErrorResponse, directly from the stream of the entity.
+	 * The body is only read into memory if it is logged.
+	 */
+	private static Object unmarshal(HttpEntity entity, Class<?> responseClass) throws JAXBException, IOException {
+		
+		// Unmarshallers are not thread-safe, but cheap to create from an existing context
+		Unmarshaller unmarshaller = getJAXBContext(responseClass).createUnmarshaller();
+		
+		if (logger.isDebugEnabled()) {
+			byte[] responseBody = EntityUtils.toByteArray(entity);
+			logger.debug("Response: " + new String(responseBody, getCharset(entity)));
+			return unmarshaller.unmarshal(new ByteArrayInputStream(responseBody));
+		}
 		
-		JAXBContext jc = JAXBContext.newInstance(classes);
+		// Closing the stream reads the rest of the body, if any, so the connection can be reused
+		try (InputStream content = entity.getContent()) {
+			return unmarshaller.unmarshal(content);
+		}
+	}
+	
+	/**
+	 * @return The JAXBContext for the given response class and NSErrorResponse, which is only created the first time
+	 * it is needed, because creating it is expensive.
+	 */
+	private static JAXBContext getJAXBContext(Class<?> responseClass) throws JAXBException {
 		
-		Unmarshaller unmarshaller = jc.createUnmarshaller();
-		return unmarshaller.unmarshal(new ByteArrayInputStream(xmlStr.getBytes(StandardCharsets.UTF_8)));
-	}	
+		JAXBContext jaxbContext = jaxbContexts.get(responseClass);
+		if (jaxbContext == null) {
+			// Two threads might both create the context, but then only one of them is kept
+			JAXBContext newJaxbContext = JAXBContext.newInstance(responseClass, NSErrorResponse.class);
+			jaxbContext = jaxbContexts.putIfAbsent(responseClass, newJaxbContext);
+			if (jaxbContext == null) {
+				jaxbContext = newJaxbContext;
+			}
+		}
+		return jaxbContext;
+	}
+	
+	private static Charset getCharset(HttpEntity entity) {
+		Charset charset = ContentType.getOrDefault(entity).getCharset();
+		return charset == null ? StandardCharsets.UTF_8 : charset;
+	}
 }
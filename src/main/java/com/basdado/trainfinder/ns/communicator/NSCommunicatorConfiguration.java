@@ -5,6 +5,14 @@ public interface NSCommunicatorConfiguration {
 	static final String DEFAULT_STATION_LIST_REQUEST_URL = "https://webservices.ns.nl/ns-api-stations-v2";
 	static final String DEFAULT_DEPARTURES_REQUEST_URL = "https://webservices.ns.nl/ns-api-avt?station=${station}";
 	static final String DEFAULT_TRAVEL_ADVICE_REQUEST_URL = "https://webservices.ns.nl/ns-api-treinplanner?${parameters}";
+	static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+	static final int DEFAULT_READ_TIMEOUT = 30000;
+	static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+	static final int DEFAULT_MAX_CONNECTIONS = 20;
+	static final int DEFAULT_CONNECTION_IDLE_TIMEOUT = 30000;
+	static final double DEFAULT_REQUEST_RATE = 2;
+	static final int DEFAULT_REQUEST_BURST = 10;
+	static final int DEFAULT_MAX_RATE_LIMIT_WAIT_TIME = 60000;
 	
 	/**
 	 * @return The NS provided username, required to access the API.
@@ -40,4 +48,62 @@ public interface NSCommunicatorConfiguration {
 	default String getTravelAdviceRequestUrl() {
 		return DEFAULT_TRAVEL_ADVICE_REQUEST_URL;
 	}
+	
+	/**
+	 * @return The maximum time (in milliseconds) to wait for a connection to the API to be established, or for a pooled
+	 * connection to become available.
+	 */
+	default int getConnectTimeout() {
+		return DEFAULT_CONNECT_TIMEOUT;
+	}
+
+	/**
+	 * @return The maximum time (in milliseconds) to wait for data from the API, once connected.
+	 */
+	default int getReadTimeout() {
+		return DEFAULT_READ_TIMEOUT;
+	}
+	
+	/**
+	 * @return The maximum number of connections to a single host of the API.
+	 */
+	default int getMaxConnectionsPerRoute() {
+		return DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+	}
+	
+	/**
+	 * @return The maximum number of connections to the API in total.
+	 */
+	default int getMaxConnections() {
+		return DEFAULT_MAX_CONNECTIONS;
+	}
+	
+	/**
+	 * @return The time (in milliseconds) after which a connection that is kept alive, but not used, is closed.
+	 */
+	default int getConnectionIdleTimeout() {
+		return DEFAULT_CONNECTION_IDLE_TIMEOUT;
+	}
+	
+	/**
+	 * @return The number of requests of the given type that may be done per second, on average. Requests beyond this rate wait.
+	 */
+	default double getRequestRate(NSRequestType requestType) {
+		return DEFAULT_REQUEST_RATE;
+	}
+	
+	/**
+	 * @return The number of requests of the given type that may be done at once, when no requests of that type have been done for a while.
+	 */
+	default int getRequestBurst(NSRequestType requestType) {
+		return DEFAULT_REQUEST_BURST;
+	}
+	
+	/**
+	 * @return The maximum time (in milliseconds) a blocking request waits for the rate limit (or a back off), after which it fails
+	 * with an NSOverloadedException.
+	 */
+	default int getMaxRateLimitWaitTime() {
+		return DEFAULT_MAX_RATE_LIMIT_WAIT_TIME;
+	}
 }
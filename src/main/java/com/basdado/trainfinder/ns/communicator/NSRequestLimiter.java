@@ -0,0 +1,263 @@
+package com.basdado.trainfinder.ns.communicator;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basdado.trainfinder.util.TokenBucket;
+
+/**
+ * Decides when requests to the NS API may be done, to stay within the request quota and to back off when the API is overloaded.
+ *
+ * Every request first acquires a permit, which is given when:
+ * <ul>
+ * <li>The token bucket of its request type has a token, so each type of request stays within its configured rate.</li>
+ * <li>Fewer requests than the concurrency limit are running. The concurrency limit starts at the maximum number of connections
+ * per route. It is halved whenever the API responds with HTTP 429 (Too Many Requests) or a server error, and grows back by one
+ * for every concurrency limit successful requests.</li>
+ * <li>No back off is in progress. After an overloaded response, no permits are given for the time the API asked for
+ * (Retry-After), or otherwise for a time that doubles with every consecutive overloaded response. Either way, the back off
+ * lasts at most a minute.</li>
+ * </ul>
+ * Requests waiting for a permit are given one in order of priority, and in order of arrival within the same priority.
+ *
+ * This class is thread-safe.
+ */
+public class NSRequestLimiter implements Closeable {
+	
+	private static final Logger logger = LoggerFactory.getLogger(NSRequestLimiter.class);
+	
+	private static final long INITIAL_BACKOFF_MILLIS = 1000;
+	private static final long MAX_BACKOFF_MILLIS = 60000;
+	
+	private final int maxConcurrency;
+	private final Map<NSRequestType, TokenBucket> tokenBuckets = new EnumMap<>(NSRequestType.class);
+	private final Map<NSRequestType, PriorityQueue<PendingRequest>> pendingRequests = new EnumMap<>(NSRequestType.class);
+	/** Wakes up the waiting requests when a token is added, or when the back off is over */
+	private final ScheduledExecutorService scheduler;
+	
+	private int concurrencyLimit;
+	/** The number of successful requests since the concurrency limit last changed */
+	private int successCount = 0;
+	private int runningRequests = 0;
+	private int consecutiveOverloads = 0;
+	private long backoffEndTime;
+	private long requestCount = 0;
+	private ScheduledFuture<?> scheduledDispatch;
+	private boolean closed = false;
+	
+	public NSRequestLimiter(NSCommunicatorConfiguration config) {
+		
+		this.maxConcurrency = config.getMaxConnectionsPerRoute();
+		this.concurrencyLimit = maxConcurrency;
+		
+		long now = System.nanoTime();
+		this.backoffEndTime = now;
+		for (NSRequestType requestType : NSRequestType.values()) {
+			tokenBuckets.put(requestType, new TokenBucket(config.getRequestRate(requestType), config.getRequestBurst(requestType), now));
+			pendingRequests.put(requestType, new PriorityQueue<>(
+					Comparator.comparing((PendingRequest r) -> r.priority).thenComparingLong(r -> r.sequenceNumber)));
+		}
+		
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "NSRequestLimiter");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Requests a permit to do a request. Every permit that is given should be returned with {@link #release()} or
+	 * {@link #releaseOverloaded(long)} once the request is done. Cancelling the returned future before the permit is given
+	 * withdraws the request.
+	 * @return A future that completes when the request may be done.
+	 */
+	public CompletableFuture<Void> acquire(NSRequestType requestType, NSRequestPriority priority) {
+		
+		PendingRequest request = new PendingRequest(priority);
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("The request limiter is closed");
+			}
+			request.sequenceNumber = requestCount++;
+			pendingRequests.get(requestType).add(request);
+		}
+		dispatch();
+		return request.permit;
+	}
+	
+	/**
+	 * Returns the permit of a request that has been done.
+	 */
+	public void release() {
+		
+		synchronized (this) {
+			runningRequests--;
+			consecutiveOverloads = 0;
+			if (concurrencyLimit < maxConcurrency && ++successCount >= concurrencyLimit) {
+				concurrencyLimit++;
+				successCount = 0;
+			}
+		}
+		dispatch();
+	}
+	
+	/**
+	 * Returns the permit of a request to which the API responded that it is overloaded, which reduces the number of requests
+	 * that may run at the same time, and stops giving permits for a while.
+	 * @param retryAfterMillis The time the API asked to wait before doing the next request, or 0 if it didn't say.
+	 * Longer waits than the maximum back off are cut short.
+	 */
+	public void releaseOverloaded(long retryAfterMillis) {
+		
+		synchronized (this) {
+			runningRequests--;
+			concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+			successCount = 0;
+			
+			long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, retryAfterMillis > 0 ? retryAfterMillis :
+					INITIAL_BACKOFF_MILLIS << Math.min(consecutiveOverloads, 16));
+			consecutiveOverloads++;
+			backoffEndTime = Math.max(backoffEndTime, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+			
+			logger.warn("The NS API is overloaded, waiting " + backoffMillis + " ms before the next request, with at most " +
+					concurrencyLimit + " requests at the same time");
+		}
+		dispatch();
+	}
+	
+	/**
+	 * @return The number of requests that may currently run at the same time.
+	 */
+	public synchronized int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+	
+	/**
+	 * Gives permits to the waiting requests, for as far as the limits allow. If requests are left waiting because of the
+	 * back off or a lack of tokens, this is done again once that is over.
+	 */
+	private void dispatch() {
+		
+		List<PendingRequest> permittedRequests = new ArrayList<>();
+		
+		synchronized (this) {
+			
+			long now = System.nanoTime();
+			long nanosUntilNextDispatch = Long.MAX_VALUE;
+			if (now - backoffEndTime < 0) {
+				nanosUntilNextDispatch = backoffEndTime - now;
+			} else {
+				while (runningRequests < concurrencyLimit) {
+					
+					// The request with the highest priority of the request types that have a token left
+					NSRequestType requestType = null;
+					PendingRequest request = null;
+					for (Map.Entry<NSRequestType, PriorityQueue<PendingRequest>> entry : pendingRequests.entrySet()) {
+						
+						PriorityQueue<PendingRequest> queue = entry.getValue();
+						while (!queue.isEmpty() && queue.peek().permit.isCancelled()) {
+							queue.poll();
+						}
+						if (queue.isEmpty()) {
+							continue;
+						}
+						
+						long nanosUntilToken = tokenBuckets.get(entry.getKey()).getNanosUntilAvailable(now);
+						if (nanosUntilToken > 0) {
+							nanosUntilNextDispatch = Math.min(nanosUntilNextDispatch, nanosUntilToken);
+						} else if (request == null || queue.comparator().compare(queue.peek(), request) < 0) {
+							requestType = entry.getKey();
+							request = queue.peek();
+						}
+					}
+					if (request == null) {
+						break;
+					}
+					
+					pendingRequests.get(requestType).poll();
+					tokenBuckets.get(requestType).tryTake(now);
+					runningRequests++;
+					permittedRequests.add(request);
+				}
+			}
+			
+			if (nanosUntilNextDispatch != Long.MAX_VALUE && !closed) {
+				scheduleDispatch(nanosUntilNextDispatch);
+			}
+		}
+		
+		// Completed outside of the lock, because the requests may start right away in this thread
+		boolean permitsReturned = false;
+		for (PendingRequest request : permittedRequests) {
+			if (!request.permit.complete(null)) {
+				// Cancelled in the meantime
+				synchronized (this) {
+					runningRequests--;
+				}
+				permitsReturned = true;
+			}
+		}
+		if (permitsReturned) {
+			dispatch();
+		}
+	}
+	
+	/**
+	 * Makes sure dispatch is called within the given time.
+	 */
+	private synchronized void scheduleDispatch(long delayNanos) {
+		
+		if (scheduledDispatch != null) {
+			long scheduledDelayNanos = scheduledDispatch.getDelay(TimeUnit.NANOSECONDS);
+			if (scheduledDelayNanos > 0 && scheduledDelayNanos <= delayNanos) {
+				return; // Dispatch is called soon enough already
+			}
+			scheduledDispatch.cancel(false);
+		}
+		scheduledDispatch = scheduler.schedule(this::dispatch, delayNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Stops giving permits. The requests that are still waiting for a permit fail with an IllegalStateException.
+	 */
+	@Override
+	public void close() {
+		
+		List<PendingRequest> waitingRequests = new ArrayList<>();
+		synchronized (this) {
+			closed = true;
+			pendingRequests.values().forEach(waitingRequests::addAll);
+			pendingRequests.values().forEach(PriorityQueue::clear);
+		}
+		scheduler.shutdownNow();
+		
+		for (PendingRequest request : waitingRequests) {
+			request.permit.completeExceptionally(new IllegalStateException("The request limiter is closed"));
+		}
+	}
+	
+	private static class PendingRequest {
+		
+		private final NSRequestPriority priority;
+		private final CompletableFuture<Void> permit = new CompletableFuture<>();
+		private long sequenceNumber;
+		
+		public PendingRequest(NSRequestPriority priority) {
+			this.priority = priority;
+		}
+	}
+
+}
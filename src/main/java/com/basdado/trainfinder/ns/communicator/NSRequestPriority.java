@@ -0,0 +1,13 @@
+package com.basdado.trainfinder.ns.communicator;
+
+/**
+ * When requests to the NS API have to wait because of the rate limit, requests with a higher priority are done first.
+ */
+public enum NSRequestPriority {
+	
+	/** For information that is needed right away, e.g. the departures at the next station of a moving train. */
+	HIGH, 
+	NORMAL, 
+	/** For background refreshes, that may wait until nothing more important has to be requested. */
+	LOW
+}
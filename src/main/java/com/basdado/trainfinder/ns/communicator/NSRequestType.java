@@ -0,0 +1,8 @@
+package com.basdado.trainfinder.ns.communicator;
+
+/**
+ * The endpoints of the NS API. Each has its own rate limit (see {@link NSCommunicatorConfiguration#getRequestRate(NSRequestType)}).
+ */
+public enum NSRequestType {
+	STATIONS, DEPARTURES, TRAVEL_ADVICE
+}
@@ -0,0 +1,14 @@
+package com.basdado.trainfinder.ns.exception;
+
+/**
+ * Thrown when the NS API is overloaded (it responded with HTTP 429 Too Many Requests or a server error). Unlike an
+ * {@link NSException}, this says nothing about the requested data: the request should just be tried again later.
+ */
+public class NSOverloadedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+	
+	public NSOverloadedException(String message) {
+		super(message);
+	}
+}
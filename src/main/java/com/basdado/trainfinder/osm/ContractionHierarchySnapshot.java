@@ -0,0 +1,191 @@
+package com.basdado.trainfinder.osm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basdado.trainfinder.model.ContractedRailwayGraph;
+import com.basdado.trainfinder.model.ContractionHierarchy;
+
+
+/**
+ * Reads and writes a binary snapshot of a {@link ContractionHierarchy}, so it only has to be built once for every
+ * railroad file. The snapshot is stored next to the railway map snapshot (see {@link OsmRailwayMapSnapshot}), and
+ * uses the same layout conventions.
+ *
+ * The snapshot is stored in big-endian byte order with the following layout:
+ * <pre>
+ * header:  int magic, int version, long source checksum, int junction count (J), int chain count, int edge count (E)
+ * payload: int[J + 1] edge offsets, int[E] edge targets, double[E] edge lengths, int[E] first edges, int[E] second edges
+ * trailer: long CRC32 of the payload
+ * </pre>
+ * The junction and chain counts are used to check that the hierarchy belongs to the contracted railway graph it is read for.
+ */
+public final class ContractionHierarchySnapshot {
+	
+	private static final Logger logger = LoggerFactory.getLogger(ContractionHierarchySnapshot.class);
+	
+	private static final int MAGIC = 0x54464348; // "TFCH"
+	private static final int FORMAT_VERSION = 1;
+	
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+	private static final int TRAILER_SIZE = 8;
+	
+	private ContractionHierarchySnapshot() {
+	}
+	
+	/**
+	 * Writes a snapshot of the given contraction hierarchy. The snapshot is first written to a temporary file, which then
+	 * replaces the given file, so a partially written snapshot is never picked up.
+	 * @param hierarchy The contraction hierarchy to store
+	 * @param sourceChecksum The checksum of the file the railway graph was read from (see {@link OsmRailwayMapSnapshot#calculateChecksum(Path)}).
+	 * @param file The file to write the snapshot to
+	 * @throws IOException If the snapshot could not be written
+	 */
+	public static void write(ContractionHierarchy hierarchy, long sourceChecksum, Path file) throws IOException {
+		
+		ContractedRailwayGraph graph = hierarchy.getGraph();
+		int junctionCount = graph.getJunctionCount();
+		int edgeCount = hierarchy.getEdgeCount();
+		
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		
+		try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+			
+			DataOutputStream out = new DataOutputStream(fileOut);
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(sourceChecksum);
+			out.writeInt(junctionCount);
+			out.writeInt(graph.getChainCount());
+			out.writeInt(edgeCount);
+			
+			CRC32 payloadCrc = new CRC32();
+			DataOutputStream payloadOut = new DataOutputStream(new CheckedOutputStream(fileOut, payloadCrc));
+			payloadOut.writeInt(0);
+			for (int j = 0; j < junctionCount; j++) {
+				payloadOut.writeInt(hierarchy.getEdgeEnd(j));
+			}
+			for (int e = 0; e < edgeCount; e++) {
+				payloadOut.writeInt(hierarchy.getEdgeTarget(e));
+			}
+			for (int e = 0; e < edgeCount; e++) {
+				payloadOut.writeDouble(hierarchy.getEdgeLength(e));
+			}
+			for (int e = 0; e < edgeCount; e++) {
+				payloadOut.writeInt(hierarchy.getEdgeFirst(e));
+			}
+			for (int e = 0; e < edgeCount; e++) {
+				payloadOut.writeInt(hierarchy.getEdgeSecond(e));
+			}
+			
+			out.writeLong(payloadCrc.getValue());
+		}
+		
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Reads a contraction hierarchy snapshot by memory-mapping the given file.
+	 * @param file The snapshot file
+	 * @param sourceChecksum The checksum of the OSM file the railway graph was read from (see {@link OsmRailwayMapSnapshot#calculateChecksum(Path)}).
+	 * @param graph The contracted railway graph the hierarchy should be built for
+	 * @return The contraction hierarchy, or null if there is no snapshot, or the snapshot was created for a different OSM file, graph or format version.
+	 * @throws IOException If the snapshot could not be read or is corrupt.
+	 */
+	public static ContractionHierarchy read(Path file, long sourceChecksum, ContractedRailwayGraph graph) throws IOException {
+		
+		if (!Files.isRegularFile(file)) {
+			logger.info("No contraction hierarchy snapshot found at: " + file);
+			return null;
+		}
+		
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		if (buffer.limit() < HEADER_SIZE + TRAILER_SIZE || buffer.getInt() != MAGIC) {
+			throw new IOException("Not a contraction hierarchy snapshot: " + file);
+		}
+		int version = buffer.getInt();
+		if (version != FORMAT_VERSION) {
+			logger.info("Contraction hierarchy snapshot has format version " + version + ", expected " + FORMAT_VERSION);
+			return null;
+		}
+		if (buffer.getLong() != sourceChecksum) {
+			logger.info("Contraction hierarchy snapshot was created from a different railroad file");
+			return null;
+		}
+		
+		int junctionCount = buffer.getInt();
+		int chainCount = buffer.getInt();
+		int edgeCount = buffer.getInt();
+		if (junctionCount != graph.getJunctionCount() || chainCount != graph.getChainCount()) {
+			logger.info("Contraction hierarchy snapshot was created for a different railway graph");
+			return null;
+		}
+		long expectedSize = HEADER_SIZE + (Integer.BYTES * (junctionCount + 1L)) +
+				((long)(3 * Integer.BYTES + Double.BYTES) * edgeCount) + TRAILER_SIZE;
+		if (edgeCount < 0 || buffer.limit() != expectedSize) {
+			throw new IOException("Contraction hierarchy snapshot has an invalid size: " + file);
+		}
+		
+		// Validate the payload before using any of it
+		ByteBuffer payload = buffer.duplicate();
+		payload.position(HEADER_SIZE).limit(buffer.limit() - TRAILER_SIZE);
+		CRC32 payloadCrc = new CRC32();
+		payloadCrc.update(payload);
+		if (payloadCrc.getValue() != buffer.getLong(buffer.limit() - TRAILER_SIZE)) {
+			throw new IOException("Contraction hierarchy snapshot is corrupt (checksum mismatch): " + file);
+		}
+		
+		int[] offsets = new int[junctionCount + 1];
+		int[] targets = new int[edgeCount];
+		double[] lengths = new double[edgeCount];
+		int[] first = new int[edgeCount];
+		int[] second = new int[edgeCount];
+		
+		buffer.asIntBuffer().get(offsets);
+		buffer.position(buffer.position() + Integer.BYTES * (junctionCount + 1));
+		buffer.asIntBuffer().get(targets);
+		buffer.position(buffer.position() + Integer.BYTES * edgeCount);
+		buffer.asDoubleBuffer().get(lengths);
+		buffer.position(buffer.position() + Double.BYTES * edgeCount);
+		buffer.asIntBuffer().get(first);
+		buffer.position(buffer.position() + Integer.BYTES * edgeCount);
+		buffer.asIntBuffer().get(second);
+		
+		if (offsets[0] != 0 || offsets[junctionCount] != edgeCount) {
+			throw new IOException("Contraction hierarchy snapshot contains invalid edge offsets: " + file);
+		}
+		for (int j = 0; j < junctionCount; j++) {
+			if (offsets[j] > offsets[j + 1]) {
+				throw new IOException("Contraction hierarchy snapshot contains invalid edge offsets: " + file);
+			}
+		}
+		for (int e = 0; e < edgeCount; e++) {
+			boolean validChain = first[e] == -1 && second[e] >= 0 && (second[e] >> 1) < chainCount;
+			boolean validShortcut = first[e] >= 0 && first[e] < edgeCount && second[e] >= 0 && second[e] < edgeCount;
+			if (targets[e] < 0 || targets[e] >= junctionCount || !(validChain || validShortcut)) {
+				throw new IOException("Contraction hierarchy snapshot contains an invalid edge: " + file);
+			}
+		}
+		
+		return new ContractionHierarchy(graph, offsets, targets, lengths, first, second);
+	}
+
+}
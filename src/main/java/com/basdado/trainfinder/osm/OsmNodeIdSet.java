@@ -0,0 +1,58 @@
+package com.basdado.trainfinder.osm;
+
+import java.util.Arrays;
+
+/**
+ * Compact set of OSM node ids. Ids are first collected using {@link #add(long)}, after which
+ * {@link #seal()} sorts and deduplicates them, so {@link #contains(long)} can be answered by a binary search.
+ * Uses 8 bytes per id, instead of the ~50 bytes per id a <code>HashSet&lt;Long&gt;</code> would use.
+ */
+class OsmNodeIdSet {
+	
+	private long[] ids;
+	private int size;
+	private boolean sealed;
+	
+	public OsmNodeIdSet() {
+		ids = new long[1024];
+	}
+	
+	public void add(long id) {
+		if (sealed) {
+			throw new IllegalStateException("Can't add ids to a sealed set");
+		}
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, size * 2);
+		}
+		ids[size++] = id;
+	}
+	
+	/**
+	 * Sorts and deduplicates the collected ids. After sealing, no new ids can be added.
+	 */
+	public void seal() {
+		
+		Arrays.sort(ids, 0, size);
+		int uniqueCount = 0;
+		for (int i = 0; i < size; i++) {
+			if (uniqueCount == 0 || ids[uniqueCount - 1] != ids[i]) {
+				ids[uniqueCount++] = ids[i];
+			}
+		}
+		size = uniqueCount;
+		ids = Arrays.copyOf(ids, size);
+		sealed = true;
+	}
+	
+	public boolean contains(long id) {
+		if (!sealed) {
+			throw new IllegalStateException("The set must be sealed before it can be queried");
+		}
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+	
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,350 @@
+package com.basdado.trainfinder.osm;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basdado.trainfinder.config.OpenStreetMapConfiguration;
+import com.basdado.trainfinder.model.ContractedRailwayGraph;
+import com.basdado.trainfinder.model.ContractionHierarchy;
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.OsmRailwayMap;
+import com.basdado.trainfinder.model.OsmRailwayMap.OsmRailwayMapNode;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.osm.pbf.PbfRailwayReader;
+import com.basdado.trainfinder.osm.pbf.PbfRailwayReader.PbfRailwayHandler;
+
+import de.topobyte.osm4j.core.access.OsmHandler;
+import de.topobyte.osm4j.core.access.OsmInputException;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmTag;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.xml.dynsax.OsmXmlReader;
+
+/**
+ * Loads the railway map from the configured OSM file (either OSM XML, or PBF if the file name ends with ".pbf"). If enabled, a binary snapshot of the parsed
+ * map is used instead of the OSM file, as long as the OSM file didn't change since the snapshot was written.
+ */
+public class OsmRailwayMapLoader {
+	
+	private static final Logger logger = LoggerFactory.getLogger(OsmRailwayMapLoader.class);
+	
+	private static final String CONTRACTION_HIERARCHY_SNAPSHOT_FILE_EXTENSION = ".ch";
+	
+	private final OpenStreetMapConfiguration osmConfig;
+	private Long railroadChecksum;
+	
+	public OsmRailwayMapLoader(OpenStreetMapConfiguration osmConfig) {
+		this.osmConfig = osmConfig;
+	}
+	
+	/**
+	 * Loads the railway map, either from the snapshot (if it is up to date) or from the OSM file.
+	 * @return The railway graph.
+	 */
+	public RailwayGraph load() {
+		
+		final Path railroadFile = Paths.get(osmConfig.getRailroadFile());
+		if (!Files.isRegularFile(railroadFile)) {
+			throw new IllegalArgumentException("File not found: " + railroadFile);
+		}
+		
+		if (!osmConfig.isSnapshotEnabled()) {
+			return readOsmFile(railroadFile).toRailwayGraph();
+		}
+		
+		final Path snapshotFile = Paths.get(osmConfig.getSnapshotFile());
+		final long checksum = getRailroadChecksum();
+		
+		try {
+			RailwayGraph railwayGraph = OsmRailwayMapSnapshot.read(snapshotFile, checksum);
+			if (railwayGraph != null) {
+				logger.info("Railway map was read from snapshot: " + snapshotFile);
+				return railwayGraph;
+			}
+		} catch (IOException e) {
+			logger.warn("Could not read railway map snapshot, falling back to the railroad file: " + e.getMessage(), e);
+		}
+		
+		RailwayGraph railwayGraph = readOsmFile(railroadFile).toRailwayGraph();
+		
+		try {
+			OsmRailwayMapSnapshot.write(railwayGraph, checksum, snapshotFile);
+			logger.info("Railway map snapshot was written to: " + snapshotFile);
+		} catch (IOException e) {
+			logger.warn("Could not write railway map snapshot: " + e.getMessage(), e);
+		}
+		
+		return railwayGraph;
+	}
+	
+	/**
+	 * Loads the contraction hierarchy for the given graph (contracted from the graph returned by {@link #load()}), either
+	 * from the snapshot next to the railway map snapshot (if it is up to date) or by building it.
+	 * @return The contraction hierarchy.
+	 */
+	public ContractionHierarchy loadContractionHierarchy(ContractedRailwayGraph routingGraph) {
+		
+		if (!osmConfig.isSnapshotEnabled()) {
+			return buildContractionHierarchy(routingGraph);
+		}
+		
+		final Path snapshotFile = Paths.get(osmConfig.getSnapshotFile() + CONTRACTION_HIERARCHY_SNAPSHOT_FILE_EXTENSION);
+		final long checksum = getRailroadChecksum();
+		
+		try {
+			ContractionHierarchy hierarchy = ContractionHierarchySnapshot.read(snapshotFile, checksum, routingGraph);
+			if (hierarchy != null) {
+				logger.info("Contraction hierarchy was read from snapshot: " + snapshotFile);
+				return hierarchy;
+			}
+		} catch (IOException e) {
+			logger.warn("Could not read contraction hierarchy snapshot, building it again: " + e.getMessage(), e);
+		}
+		
+		ContractionHierarchy hierarchy = buildContractionHierarchy(routingGraph);
+		
+		try {
+			ContractionHierarchySnapshot.write(hierarchy, checksum, snapshotFile);
+			logger.info("Contraction hierarchy snapshot was written to: " + snapshotFile);
+		} catch (IOException e) {
+			logger.warn("Could not write contraction hierarchy snapshot: " + e.getMessage(), e);
+		}
+		
+		return hierarchy;
+	}
+	
+	private static ContractionHierarchy buildContractionHierarchy(ContractedRailwayGraph routingGraph) {
+		
+		logger.info("Building contraction hierarchy for " + routingGraph.getJunctionCount() + " junctions");
+		long start = System.currentTimeMillis();
+		ContractionHierarchy hierarchy = ContractionHierarchy.build(routingGraph);
+		logger.info("Contraction hierarchy with " + hierarchy.getEdgeCount() + " edges was built in " + (System.currentTimeMillis() - start) + "ms");
+		return hierarchy;
+	}
+	
+	/**
+	 * @return The checksum of the railroad file (see {@link OsmRailwayMapSnapshot#calculateChecksum(Path)}), which is only calculated once.
+	 */
+	public long getRailroadChecksum() {
+		
+		if (railroadChecksum == null) {
+			Path railroadFile = Paths.get(osmConfig.getRailroadFile());
+			try {
+				railroadChecksum = OsmRailwayMapSnapshot.calculateChecksum(railroadFile);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Could not read railroad file: " + railroadFile, e);
+			}
+		}
+		return railroadChecksum;
+	}
+	
+	private OsmRailwayMap readOsmFile(Path railroadFile) {
+		
+		if (isPbfFile(railroadFile)) {
+			return readPbfFile(railroadFile);
+		}
+		
+		OsmNodeIdSet railwayNodeIds = null;
+		if (osmConfig.isTwoPassIngest()) {
+			logger.info("Collecting railway nodes in: " + railroadFile);
+			RailwayNodeIdCollector collector = new RailwayNodeIdCollector();
+			readOsmFile(railroadFile, collector);
+			railwayNodeIds = collector.getNodeIds();
+			logger.info("Found " + railwayNodeIds.size() + " railway nodes");
+		}
+		
+		logger.info("Reading railway map at: " + railroadFile);
+		OsmRailwayMap railwayMap = new OsmRailwayMap();
+		readOsmFile(railroadFile, new OsmRailwayMapReader(railwayMap, railwayNodeIds));
+		
+		return railwayMap;
+	}
+	
+	private OsmRailwayMap readPbfFile(Path railroadFile) {
+		
+		final int threadCount = Runtime.getRuntime().availableProcessors();
+		
+		try {
+			OsmNodeIdSet railwayNodeIds = null;
+			if (osmConfig.isTwoPassIngest()) {
+				logger.info("Collecting railway nodes in: " + railroadFile + " using " + threadCount + " threads");
+				OsmNodeIdSet collectedNodeIds = new OsmNodeIdSet();
+				new PbfRailwayReader(railroadFile, threadCount, false, null).read(new PbfRailwayHandler() {
+					
+					@Override
+					public void handleNode(long id, double latitude, double longitude) {
+						// Nodes are read in the second pass
+					}
+					
+					@Override
+					public void handleRailway(long[] nodeIds) {
+						for (long nodeId : nodeIds) {
+							collectedNodeIds.add(nodeId);
+						}
+					}
+					
+					@Override
+					public void complete() {
+						collectedNodeIds.seal();
+					}
+				});
+				railwayNodeIds = collectedNodeIds;
+				logger.info("Found " + railwayNodeIds.size() + " railway nodes");
+			}
+			
+			logger.info("Reading railway map at: " + railroadFile + " using " + threadCount + " threads");
+			OsmRailwayMap railwayMap = new OsmRailwayMap();
+			new PbfRailwayReader(railroadFile, threadCount, true, railwayNodeIds == null ? null : railwayNodeIds::contains).read(new PbfRailwayHandler() {
+				
+				@Override
+				public void handleNode(long id, double latitude, double longitude) {
+					railwayMap.addNode(id, new OsmRailwayMapNode(new LatLng(latitude, longitude)));
+				}
+				
+				@Override
+				public void handleRailway(long[] nodeIds) {
+					railwayMap.addWay(nodeIds);
+				}
+				
+				@Override
+				public void complete() {
+					railwayMap.clean();
+				}
+			});
+			return railwayMap;
+			
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Error in OSM file", e);
+		}
+	}
+	
+	private static boolean isPbfFile(Path file) {
+		return file.getFileName().toString().toLowerCase().endsWith(".pbf");
+	}
+	
+	private static void readOsmFile(Path file, OsmHandler handler) {
+		
+		OsmXmlReader xmlReader;
+		try {
+			xmlReader = new OsmXmlReader(file.toFile(), true);
+		} catch (FileNotFoundException e) {
+			throw new IllegalArgumentException("File not found: " + file, e);
+		}
+		
+		xmlReader.setHandler(handler);
+		try {
+			xmlReader.read();
+		} catch (OsmInputException e) {
+			throw new IllegalArgumentException("Error in OSM file", e);
+		}
+	}
+	
+	private static boolean isRailway(OsmWay way) {
+		
+		for (int i = 0; i < way.getNumberOfTags(); i++) {
+			OsmTag tag = way.getTag(i);
+			if ("railway".equals(tag.getKey()) && "rail".equals(tag.getValue())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Builds the railway map from the OSM data. If a set of railway node ids is given, only those nodes are added to the map,
+	 * otherwise all nodes are added and the nodes that are not on a railway are removed when reading is complete.
+	 */
+	private static class OsmRailwayMapReader implements OsmHandler {
+
+		private final OsmRailwayMap target;
+		private final OsmNodeIdSet railwayNodeIds;
+		
+		public OsmRailwayMapReader(OsmRailwayMap target, OsmNodeIdSet railwayNodeIds) {
+			this.target = target;
+			this.railwayNodeIds = railwayNodeIds;
+		}
+		
+		@Override
+		public void complete() throws IOException {
+			target.clean();
+		}
+
+		@Override
+		public void handle(OsmBounds bounds) throws IOException {
+			// We don't care about bounds for the train map
+		}
+
+		@Override
+		public void handle(OsmNode node) throws IOException {
+			if (railwayNodeIds == null || railwayNodeIds.contains(node.getId())) {
+				target.addNode(node);
+			}
+		}
+
+		@Override
+		public void handle(OsmWay way) throws IOException {
+			
+			if (isRailway(way)) {
+				target.addWay(way);
+			}
+			
+		}
+
+		@Override
+		public void handle(OsmRelation arg0) throws IOException {
+			// Not important for railway map
+		}
+		
+	}
+	
+	/**
+	 * Collects the ids of all nodes that are used by railways.
+	 */
+	private static class RailwayNodeIdCollector implements OsmHandler {
+		
+		private final OsmNodeIdSet nodeIds = new OsmNodeIdSet();
+		
+		public OsmNodeIdSet getNodeIds() {
+			return nodeIds;
+		}
+		
+		@Override
+		public void complete() throws IOException {
+			nodeIds.seal();
+		}
+		
+		@Override
+		public void handle(OsmBounds bounds) throws IOException {
+			// Not needed to find railway nodes
+		}
+		
+		@Override
+		public void handle(OsmNode node) throws IOException {
+			// Nodes are read in the second pass
+		}
+		
+		@Override
+		public void handle(OsmWay way) throws IOException {
+			
+			if (isRailway(way)) {
+				for (int i = 0; i < way.getNumberOfNodes(); i++) {
+					nodeIds.add(way.getNodeId(i));
+				}
+			}
+		}
+		
+		@Override
+		public void handle(OsmRelation relation) throws IOException {
+			// Not important for railway map
+		}
+	}
+
+}
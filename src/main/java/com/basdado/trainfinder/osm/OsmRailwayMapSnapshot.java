@@ -0,0 +1,211 @@
+package com.basdado.trainfinder.osm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basdado.trainfinder.model.RailwayGraph;
+
+
+/**
+ * Reads and writes a compact binary snapshot of a {@link RailwayGraph}, so the OSM file doesn't
+ * have to be parsed again on every startup. The layout matches the arrays of the graph, so reading
+ * the snapshot is a bulk copy of each array.
+ * 
+ * The snapshot is stored in big-endian byte order with the following layout:
+ * <pre>
+ * header:  int magic, int version, long source checksum, int node count (N), int connection count (M)
+ * payload: long[N] node ids, double[N] latitudes, double[N] longitudes,
+ *          int[N + 1] connection offsets, int[M] connected node indices, float[M] connection lengths
+ * trailer: long CRC32 of the payload
+ * </pre>
+ * The connections of node <code>i</code> are stored at the indices <code>[offsets[i], offsets[i + 1])</code>.
+ * Every connection is stored in both directions.
+ */
+public final class OsmRailwayMapSnapshot {
+	
+	private static final Logger logger = LoggerFactory.getLogger(OsmRailwayMapSnapshot.class);
+	
+	private static final int MAGIC = 0x5446524D; // "TFRM"
+	private static final int FORMAT_VERSION = 2;
+	
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+	private static final int TRAILER_SIZE = 8;
+	
+	private static final int CHECKSUM_BUFFER_SIZE = 1 << 20;
+	
+	private OsmRailwayMapSnapshot() {
+	}
+	
+	/**
+	 * Calculates a checksum of the given (OSM) file, which is used to find out if a snapshot is still up to date.
+	 * @param file The file to calculate the checksum for
+	 * @return The file size (upper 32 bits) combined with the CRC32 of the file contents (lower 32 bits).
+	 * @throws IOException If the file could not be read.
+	 */
+	public static long calculateChecksum(Path file) throws IOException {
+		
+		CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(CHECKSUM_BUFFER_SIZE);
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+			return (channel.size() << 32) | crc.getValue();
+		}
+	}
+	
+	/**
+	 * Writes a snapshot of the given railway graph. The snapshot is first written to a temporary file, which then replaces
+	 * the given file, so a partially written snapshot is never picked up.
+	 * @param railwayGraph The railway graph to store
+	 * @param sourceChecksum The checksum of the file the railway graph was read from (see {@link #calculateChecksum(Path)}).
+	 * @param file The file to write the snapshot to
+	 * @throws IOException If the snapshot could not be written
+	 */
+	public static void write(RailwayGraph railwayGraph, long sourceChecksum, Path file) throws IOException {
+		
+		int nodeCount = railwayGraph.getNodeCount();
+		int connectionCount = railwayGraph.getConnectionCount();
+		
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		
+		try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+			
+			DataOutputStream out = new DataOutputStream(fileOut);
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(sourceChecksum);
+			out.writeInt(nodeCount);
+			out.writeInt(connectionCount);
+			
+			CRC32 payloadCrc = new CRC32();
+			DataOutputStream payloadOut = new DataOutputStream(new CheckedOutputStream(fileOut, payloadCrc));
+			for (int i = 0; i < nodeCount; i++) {
+				payloadOut.writeLong(railwayGraph.getOsmNodeId(i));
+			}
+			for (int i = 0; i < nodeCount; i++) {
+				payloadOut.writeDouble(railwayGraph.getLatitude(i));
+			}
+			for (int i = 0; i < nodeCount; i++) {
+				payloadOut.writeDouble(railwayGraph.getLongitude(i));
+			}
+			payloadOut.writeInt(0);
+			for (int i = 0; i < nodeCount; i++) {
+				payloadOut.writeInt(railwayGraph.getConnectionEnd(i));
+			}
+			for (int c = 0; c < connectionCount; c++) {
+				payloadOut.writeInt(railwayGraph.getConnectionTarget(c));
+			}
+			for (int c = 0; c < connectionCount; c++) {
+				payloadOut.writeFloat(railwayGraph.getConnectionLength(c));
+			}
+			
+			out.writeLong(payloadCrc.getValue());
+		}
+		
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Reads a railway graph snapshot by memory-mapping the given file.
+	 * @param file The snapshot file
+	 * @param sourceChecksum The checksum of the OSM file the snapshot should be created from (see {@link #calculateChecksum(Path)}).
+	 * @return The railway graph, or null if there is no snapshot, or the snapshot was created for a different OSM file or format version.
+	 * @throws IOException If the snapshot could not be read or is corrupt.
+	 */
+	public static RailwayGraph read(Path file, long sourceChecksum) throws IOException {
+		
+		if (!Files.isRegularFile(file)) {
+			logger.info("No railway map snapshot found at: " + file);
+			return null;
+		}
+		
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		if (buffer.limit() < HEADER_SIZE + TRAILER_SIZE || buffer.getInt() != MAGIC) {
+			throw new IOException("Not a railway map snapshot: " + file);
+		}
+		int version = buffer.getInt();
+		if (version != FORMAT_VERSION) {
+			logger.info("Railway map snapshot has format version " + version + ", expected " + FORMAT_VERSION);
+			return null;
+		}
+		if (buffer.getLong() != sourceChecksum) {
+			logger.info("Railway map snapshot was created from a different railroad file");
+			return null;
+		}
+		
+		int nodeCount = buffer.getInt();
+		int connectionCount = buffer.getInt();
+		long expectedSize = HEADER_SIZE + (3L * Long.BYTES * nodeCount) + (Integer.BYTES * (nodeCount + 1L)) + 
+				((long)(Integer.BYTES + Float.BYTES) * connectionCount) + TRAILER_SIZE;
+		if (nodeCount < 0 || connectionCount < 0 || buffer.limit() != expectedSize) {
+			throw new IOException("Railway map snapshot has an invalid size: " + file);
+		}
+		
+		// Validate the payload before using any of it
+		ByteBuffer payload = buffer.duplicate();
+		payload.position(HEADER_SIZE).limit(buffer.limit() - TRAILER_SIZE);
+		CRC32 payloadCrc = new CRC32();
+		payloadCrc.update(payload);
+		if (payloadCrc.getValue() != buffer.getLong(buffer.limit() - TRAILER_SIZE)) {
+			throw new IOException("Railway map snapshot is corrupt (checksum mismatch): " + file);
+		}
+		
+		long[] nodeIds = new long[nodeCount];
+		double[] latitudes = new double[nodeCount];
+		double[] longitudes = new double[nodeCount];
+		int[] offsets = new int[nodeCount + 1];
+		int[] connectedNodes = new int[connectionCount];
+		float[] connectionLengths = new float[connectionCount];
+		
+		buffer.asLongBuffer().get(nodeIds);
+		buffer.position(buffer.position() + Long.BYTES * nodeCount);
+		buffer.asDoubleBuffer().get(latitudes);
+		buffer.position(buffer.position() + Double.BYTES * nodeCount);
+		buffer.asDoubleBuffer().get(longitudes);
+		buffer.position(buffer.position() + Double.BYTES * nodeCount);
+		buffer.asIntBuffer().get(offsets);
+		buffer.position(buffer.position() + Integer.BYTES * (nodeCount + 1));
+		buffer.asIntBuffer().get(connectedNodes);
+		buffer.position(buffer.position() + Integer.BYTES * connectionCount);
+		buffer.asFloatBuffer().get(connectionLengths);
+		
+		if (offsets[0] != 0 || offsets[nodeCount] != connectionCount) {
+			throw new IOException("Railway map snapshot contains invalid connection offsets: " + file);
+		}
+		
+		for (int i = 0; i < nodeCount; i++) {
+			if (offsets[i] > offsets[i + 1]) {
+				throw new IOException("Railway map snapshot contains invalid connection offsets: " + file);
+			}
+		}
+		for (int connectedNode : connectedNodes) {
+			if (connectedNode < 0 || connectedNode >= nodeCount) {
+				throw new IOException("Railway map snapshot contains an invalid connection: " + file);
+			}
+		}
+		
+		return new RailwayGraph(nodeIds, latitudes, longitudes, offsets, connectedNodes, connectionLengths);
+	}
+
+}
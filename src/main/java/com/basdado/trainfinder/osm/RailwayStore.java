@@ -0,0 +1,397 @@
+package com.basdado.trainfinder.osm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.Railway;
+import com.basdado.trainfinder.model.Station;
+
+/**
+ * Persistent store of the railways calculated between stations, so they survive restarts. A railway only changes when the
+ * railroad file changes, so the store is tied to the checksum of the railroad file (and to the distance within which
+ * stations are snapped to the tracks), and is cleared when either of them changes.
+ *
+ * The store is a single file, to which every railway is appended as a record. Only the position of each record is kept in
+ * memory; the records are read when they are needed. The file is stored in big-endian byte order with the following layout:
+ * <pre>
+ * header: int magic, int version, long source checksum, double station to track distance
+ * record: int payload size, payload, long CRC32 of the payload
+ * payload: UTF from station code, UTF to station code, double[2] from station location, double[2] to station location,
+ *          int node count (N), int[N] latitudes, int[N] longitudes, double[N] lengths until each node
+ * </pre>
+ * Coordinates are stored in units of 10<sup>-7</sup> degrees (about a centimeter). A railway is only returned for stations
+ * at the same location as when it was stored. Records that were not completely written (e.g. when the server was stopped
+ * while writing) are removed when the store is opened.
+ *
+ * A railway that is replaced keeps its old record in the file. When the store is opened while more than half of the records
+ * (by size) are such stale records, the file is rewritten with only the current records.
+ *
+ * The store can be used by multiple threads at the same time.
+ */
+public final class RailwayStore implements Closeable {
+	
+	private static final Logger logger = LoggerFactory.getLogger(RailwayStore.class);
+	
+	private static final int MAGIC = 0x54465257; // "TFRW"
+	private static final int FORMAT_VERSION = 1;
+	
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+	private static final int MAX_PAYLOAD_SIZE = 1 << 26;
+	private static final double COORDINATE_SCALE = 1e7;
+	
+	private final Path file;
+	private final FileChannel channel;
+	/** The position of the record of each railway, by the codes of its from and to station. */
+	private final Map<String, Long> recordPositions;
+	private long size;
+	
+	private RailwayStore(Path file, FileChannel channel, Map<String, Long> recordPositions, long size) {
+		this.file = file;
+		this.channel = channel;
+		this.recordPositions = recordPositions;
+		this.size = size;
+	}
+	
+	/**
+	 * Opens the store in the given file, or creates it if it does not exist. If the store was created for a different
+	 * railroad file or station to track distance, it is cleared.
+	 * @param file The file of the store
+	 * @param sourceChecksum The checksum of the railroad file (see {@link OsmRailwayMapSnapshot#calculateChecksum(Path)}).
+	 * @param stationToTrackDistance The distance within which stations are snapped to the tracks.
+	 * @throws IOException If the store could not be opened or created.
+	 */
+	public static RailwayStore open(Path file, long sourceChecksum, double stationToTrackDistance) throws IOException {
+		
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			Map<String, Long> recordPositions = new ConcurrentHashMap<>();
+			long size = readRecordPositions(file, channel, sourceChecksum, stationToTrackDistance, recordPositions);
+			if (size < 0) {
+				// Empty, outdated or not a railway store at all: start over
+				channel.truncate(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(sourceChecksum).putDouble(stationToTrackDistance).flip();
+				writeFully(channel, header, 0);
+				size = HEADER_SIZE;
+			} else {
+				if (size < channel.size()) {
+					logger.warn("Removing incomplete railway records at the end of: " + file);
+					channel.truncate(size);
+				}
+				long currentRecordsSize = getRecordsSize(channel, recordPositions.values());
+				if (size - HEADER_SIZE - currentRecordsSize > currentRecordsSize) {
+					logger.info("Compacting railway store, " + (size - HEADER_SIZE - currentRecordsSize) + " of " + (size - HEADER_SIZE) + " bytes are replaced railways: " + file);
+					try {
+						channel = compact(file, channel, recordPositions);
+						size = channel.size();
+					} catch (IOException e) {
+						if (!channel.isOpen()) {
+							throw e;
+						}
+						// The store can still be used as it is
+						logger.warn("Could not compact railway store: " + e.getMessage(), e);
+					}
+				}
+			}
+			return new RailwayStore(file, channel, recordPositions, size);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Finds the position of every complete record in the file.
+	 * @return The size of the file up to the end of the last complete record, or -1 if the file should be cleared.
+	 */
+	private static long readRecordPositions(Path file, FileChannel channel, long sourceChecksum, double stationToTrackDistance,
+			Map<String, Long> recordPositions) throws IOException {
+		
+		if (channel.size() < HEADER_SIZE) {
+			return -1;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel, header, 0);
+		header.flip();
+		if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+			logger.info("Railway store has an unknown format, clearing it: " + file);
+			return -1;
+		}
+		if (header.getLong() != sourceChecksum || header.getDouble() != stationToTrackDistance) {
+			logger.info("Railway store was created for a different railroad file or station to track distance, clearing it: " + file);
+			return -1;
+		}
+		
+		long position = HEADER_SIZE;
+		while (true) {
+			Record record;
+			try {
+				record = readRecord(channel, position);
+			} catch (IOException e) {
+				return position; // Incomplete or corrupt record: everything from here is discarded
+			}
+			if (record == null) {
+				return position;
+			}
+			recordPositions.put(getKey(record.fromCode, record.toCode), position);
+			position = record.end;
+		}
+	}
+	
+	/**
+	 * @return The total size of the records at the given positions.
+	 */
+	private static long getRecordsSize(FileChannel channel, Collection<Long> positions) throws IOException {
+		
+		long recordsSize = 0;
+		ByteBuffer sizeBuffer = ByteBuffer.allocate(4);
+		for (long position : positions) {
+			sizeBuffer.clear();
+			readFully(channel, sizeBuffer, position);
+			recordsSize += 4 + sizeBuffer.getInt(0) + 8;
+		}
+		return recordsSize;
+	}
+	
+	/**
+	 * Rewrites the file with only the records at the given positions (in the order in which they were written), and
+	 * updates the positions to those in the new file. The new file is written next to the old one and then moved over it,
+	 * so the old file stays intact if anything goes wrong while writing.
+	 * @return The channel of the new file. The given channel is closed.
+	 */
+	private static FileChannel compact(Path file, FileChannel channel, Map<String, Long> recordPositions) throws IOException {
+		
+		List<Map.Entry<String, Long>> records = new ArrayList<>(recordPositions.entrySet());
+		records.sort(Map.Entry.comparingByValue());
+		
+		Path compactedFile = file.resolveSibling(file.getFileName() + ".compacting");
+		Map<String, Long> compactedPositions = new HashMap<>();
+		try (FileChannel compacted = FileChannel.open(compactedFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			transferFully(channel, 0, HEADER_SIZE, compacted);
+			ByteBuffer sizeBuffer = ByteBuffer.allocate(4);
+			for (Map.Entry<String, Long> record : records) {
+				sizeBuffer.clear();
+				readFully(channel, sizeBuffer, record.getValue());
+				compactedPositions.put(record.getKey(), compacted.position());
+				transferFully(channel, record.getValue(), 4 + sizeBuffer.getInt(0) + 8, compacted);
+			}
+			compacted.force(true);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(compactedFile);
+			throw e;
+		}
+		
+		channel.close();
+		Files.move(compactedFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		recordPositions.putAll(compactedPositions);
+		return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+	
+	/**
+	 * @return The number of railways in the store.
+	 */
+	public int size() {
+		return recordPositions.size();
+	}
+	
+	/**
+	 * Finds the railway between the given stations. A railway that was stored in the opposite direction is reversed.
+	 * @return The railway, or null if it is not in the store (or was stored for stations at another location).
+	 * @throws IOException If the railway could not be read.
+	 */
+	public Railway get(Station from, Station to) throws IOException {
+		
+		Railway railway = read(from, to);
+		if (railway == null) {
+			Railway reversed = read(to, from);
+			if (reversed != null) {
+				railway = reversed.reversed();
+			}
+		}
+		return railway;
+	}
+	
+	private Railway read(Station from, Station to) throws IOException {
+		
+		Long position = recordPositions.get(getKey(from.getCode(), to.getCode()));
+		if (position == null) {
+			return null;
+		}
+		
+		Record record = readRecord(channel, position);
+		if (record == null || !record.fromLocation.equals(from.getLocation()) || !record.toLocation.equals(to.getLocation())) {
+			return null;
+		}
+		return new Railway(record.nodes, record.lengthUntil, from, to);
+	}
+	
+	/**
+	 * Adds the given railway to the store, replacing any railway between the same stations.
+	 * @throws IOException If the railway could not be written.
+	 */
+	public void put(Railway railway) throws IOException {
+		
+		Station from = railway.getFrom();
+		Station to = railway.getTo();
+		int nodeCount = railway.getNodeCount();
+		
+		ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(64 + nodeCount * 16);
+		DataOutputStream payload = new DataOutputStream(payloadBytes);
+		payload.writeUTF(from.getCode());
+		payload.writeUTF(to.getCode());
+		payload.writeDouble(from.getLocation().getLatitude());
+		payload.writeDouble(from.getLocation().getLongitude());
+		payload.writeDouble(to.getLocation().getLatitude());
+		payload.writeDouble(to.getLocation().getLongitude());
+		payload.writeInt(nodeCount);
+		for (int i = 0; i < nodeCount; i++) {
+			payload.writeInt((int)Math.round(railway.getNodePosition(i).getLatitude() * COORDINATE_SCALE));
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			payload.writeInt((int)Math.round(railway.getNodePosition(i).getLongitude() * COORDINATE_SCALE));
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			payload.writeDouble(railway.getDistanceUntil(i));
+		}
+		
+		byte[] payloadArray = payloadBytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(payloadArray);
+		ByteBuffer record = ByteBuffer.allocate(4 + payloadArray.length + 8);
+		record.putInt(payloadArray.length).put(payloadArray).putLong(crc.getValue()).flip();
+		
+		synchronized (this) {
+			long position = size;
+			writeFully(channel, record, position);
+			size += record.limit();
+			recordPositions.put(getKey(from.getCode(), to.getCode()), position);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	@Override
+	public String toString() {
+		return "RailwayStore[" + file + "]";
+	}
+	
+	private static String getKey(String fromCode, String toCode) {
+		return fromCode + "-" + toCode;
+	}
+	
+	/**
+	 * Reads the record at the given position.
+	 * @return The record, or null if the position is at the end of the file.
+	 * @throws IOException If the record is incomplete or corrupt, or could not be read.
+	 */
+	private static Record readRecord(FileChannel channel, long position) throws IOException {
+		
+		if (position >= channel.size()) {
+			return null;
+		}
+		ByteBuffer sizeBuffer = ByteBuffer.allocate(4);
+		readFully(channel, sizeBuffer, position);
+		int payloadSize = sizeBuffer.getInt(0);
+		if (payloadSize <= 0 || payloadSize > MAX_PAYLOAD_SIZE) {
+			throw new IOException("Invalid railway record size: " + payloadSize);
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(payloadSize + 8);
+		readFully(channel, buffer, position + 4);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, payloadSize);
+		if (crc.getValue() != buffer.getLong(payloadSize)) {
+			throw new IOException("Railway record is corrupt (checksum mismatch)");
+		}
+		
+		DataInputStream payload = new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, payloadSize));
+		Record record = new Record();
+		record.fromCode = payload.readUTF();
+		record.toCode = payload.readUTF();
+		record.fromLocation = new LatLng(payload.readDouble(), payload.readDouble());
+		record.toLocation = new LatLng(payload.readDouble(), payload.readDouble());
+		int nodeCount = payload.readInt();
+		if (nodeCount < 2 || payloadSize < nodeCount * 16L) {
+			throw new IOException("Invalid railway record node count: " + nodeCount);
+		}
+		int[] latitudes = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			latitudes[i] = payload.readInt();
+		}
+		record.nodes = new LatLng[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			record.nodes[i] = new LatLng(latitudes[i] / COORDINATE_SCALE, payload.readInt() / COORDINATE_SCALE);
+		}
+		record.lengthUntil = new double[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			record.lengthUntil[i] = payload.readDouble();
+		}
+		record.end = position + 4 + payloadSize + 8;
+		return record;
+	}
+	
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of railway store");
+			}
+		}
+	}
+	
+	/**
+	 * Appends the given range of the source channel to the target channel.
+	 */
+	private static void transferFully(FileChannel source, long position, long count, FileChannel target) throws IOException {
+		
+		long transferred = 0;
+		while (transferred < count) {
+			long n = source.transferTo(position + transferred, count - transferred, target);
+			if (n <= 0) {
+				throw new EOFException("Unexpected end of railway store");
+			}
+			transferred += n;
+		}
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+	
+	private static final class Record {
+		private String fromCode;
+		private String toCode;
+		private LatLng fromLocation;
+		private LatLng toLocation;
+		private LatLng[] nodes;
+		private double[] lengthUntil;
+		private long end;
+	}
+
+}
@@ -0,0 +1,435 @@
+package com.basdado.trainfinder.osm.pbf;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongPredicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the railways (ways tagged <code>railway=rail</code>) and nodes from an OpenStreetMap PBF file.
+ * 
+ * Blobs are read sequentially from the file, but decompressing and decoding them is done in parallel on
+ * a pool of worker threads. The decoded blocks are handed to the {@link PbfRailwayHandler} in file order,
+ * on the thread that called {@link #read(PbfRailwayHandler)}, so the handler doesn't need to be thread-safe.
+ * 
+ * See: http://wiki.openstreetmap.org/wiki/PBF_Format
+ */
+public class PbfRailwayReader {
+	
+	private static final String BLOB_TYPE_HEADER = "OSMHeader";
+	private static final String BLOB_TYPE_DATA = "OSMData";
+	
+	private static final List<String> SUPPORTED_FEATURES = Arrays.asList("OsmSchema-V0.6", "DenseNodes");
+	
+	private static final double NANODEGREES_PER_DEGREE = 1e9;
+	
+	private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+	private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+	
+	private static final byte[] RAILWAY_KEY = "railway".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] RAIL_VALUE = "rail".getBytes(StandardCharsets.UTF_8);
+	
+	private final Path file;
+	private final int threadCount;
+	private final boolean readNodes;
+	private final LongPredicate nodeFilter;
+	
+	/**
+	 * @param file The PBF file
+	 * @param threadCount The number of threads used to decode blocks
+	 * @param readNodes If false, only railways are decoded, which is a lot faster.
+	 * @param nodeFilter Only nodes for which this filter returns true are passed to the handler (null for all nodes).
+	 */
+	public PbfRailwayReader(Path file, int threadCount, boolean readNodes, LongPredicate nodeFilter) {
+		this.file = file;
+		this.threadCount = Math.max(1, threadCount);
+		this.readNodes = readNodes;
+		this.nodeFilter = nodeFilter;
+	}
+	
+	/**
+	 * Reads the file, passing all (accepted) nodes and railways to the handler.
+	 * @param handler The handler receiving the nodes and railways.
+	 * @throws IOException If the file could not be read, or is not a valid PBF file.
+	 */
+	public void read(PbfRailwayHandler handler) throws IOException {
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, r -> {
+			Thread thread = new Thread(r, "pbf-decoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		// Limit the number of decoded blocks waiting to be handled, so memory use stays bounded
+		final int maxPendingBlocks = threadCount * 2;
+		Deque<Future<DecodedBlock>> pendingBlocks = new ArrayDeque<>();
+		
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+			
+			while (true) {
+				
+				int blobHeaderSize;
+				try {
+					blobHeaderSize = in.readInt();
+				} catch (EOFException e) {
+					break; // Reached the end of the file
+				}
+				if (blobHeaderSize < 0 || blobHeaderSize > MAX_BLOB_HEADER_SIZE) {
+					throw new IOException("Invalid blob header size: " + blobHeaderSize);
+				}
+				
+				byte[] blobHeader = new byte[blobHeaderSize];
+				in.readFully(blobHeader);
+				
+				String blobType = null;
+				int blobSize = -1;
+				ProtobufInput headerInput = new ProtobufInput(blobHeader);
+				int tag;
+				while ((tag = headerInput.readTag()) != 0) {
+					switch (ProtobufInput.getFieldNumber(tag)) {
+						case 1: blobType = headerInput.readString(); break;
+						case 3: blobSize = headerInput.readInt32(); break;
+						default: headerInput.skipField(tag);
+					}
+				}
+				if (blobSize < 0 || blobSize > MAX_BLOB_SIZE) {
+					throw new IOException("Invalid blob size: " + blobSize);
+				}
+				
+				byte[] blob = new byte[blobSize];
+				in.readFully(blob);
+				
+				if (BLOB_TYPE_HEADER.equals(blobType)) {
+					checkHeaderBlock(decompress(blob));
+				} else if (BLOB_TYPE_DATA.equals(blobType)) {
+					pendingBlocks.addLast(executor.submit(() -> decodeDataBlock(decompress(blob))));
+					if (pendingBlocks.size() >= maxPendingBlocks) {
+						handleBlock(pendingBlocks.removeFirst(), handler);
+					}
+				}
+				// Unknown blob types should be skipped
+			}
+			
+			while (!pendingBlocks.isEmpty()) {
+				handleBlock(pendingBlocks.removeFirst(), handler);
+			}
+			
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		handler.complete();
+	}
+	
+	private void handleBlock(Future<DecodedBlock> blockFuture, PbfRailwayHandler handler) throws IOException {
+		
+		DecodedBlock block;
+		try {
+			block = blockFuture.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decoding PBF file", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException("Error while decoding PBF block", e.getCause());
+		}
+		
+		for (int i = 0; i < block.nodeCount; i++) {
+			handler.handleNode(block.nodeIds[i], block.latitudes[i], block.longitudes[i]);
+		}
+		for (long[] railway : block.railways) {
+			handler.handleRailway(railway);
+		}
+	}
+	
+	private static byte[] decompress(byte[] blob) throws IOException {
+		
+		byte[] raw = null;
+		byte[] zlibData = null;
+		int rawSize = -1;
+		
+		ProtobufInput input = new ProtobufInput(blob);
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+				case 1: raw = input.readBytes(); break;
+				case 2: rawSize = input.readInt32(); break;
+				case 3: zlibData = input.readBytes(); break;
+				case 4: throw new IOException("LZMA compressed PBF blobs are not supported");
+				default: input.skipField(tag);
+			}
+		}
+		
+		if (raw != null) {
+			return raw;
+		}
+		if (zlibData == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+			throw new IOException("PBF blob contains no supported data");
+		}
+		
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(zlibData);
+			byte[] data = new byte[rawSize];
+			int inflated = 0;
+			while (inflated < rawSize && !inflater.finished()) {
+				int n = inflater.inflate(data, inflated, rawSize - inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += n;
+			}
+			if (inflated != rawSize) {
+				throw new IOException("PBF blob is truncated");
+			}
+			return data;
+		} catch (DataFormatException e) {
+			throw new IOException("PBF blob contains invalid compressed data", e);
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	private static void checkHeaderBlock(byte[] data) throws IOException {
+		
+		ProtobufInput input = new ProtobufInput(data);
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			if (ProtobufInput.getFieldNumber(tag) == 4) { // required_features
+				String feature = input.readString();
+				if (!SUPPORTED_FEATURES.contains(feature)) {
+					throw new IOException("PBF file requires unsupported feature: " + feature);
+				}
+			} else {
+				input.skipField(tag);
+			}
+		}
+	}
+	
+	private DecodedBlock decodeDataBlock(byte[] data) throws IOException {
+		
+		List<byte[]> stringTable = new ArrayList<>();
+		List<ProtobufInput> groups = new ArrayList<>();
+		int granularity = 100;
+		long latOffset = 0;
+		long lonOffset = 0;
+		
+		ProtobufInput input = new ProtobufInput(data);
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+				case 1: readStringTable(input.readLengthDelimited(), stringTable); break;
+				case 2: groups.add(input.readLengthDelimited()); break;
+				case 17: granularity = input.readInt32(); break;
+				case 19: latOffset = input.readVarint(); break;
+				case 20: lonOffset = input.readVarint(); break;
+				default: input.skipField(tag);
+			}
+		}
+		
+		// Find the string table entries for railway=rail, so tags can be compared by index
+		int railwayKey = -1;
+		int railValue = -1;
+		for (int i = 0; i < stringTable.size(); i++) {
+			if (Arrays.equals(RAILWAY_KEY, stringTable.get(i))) railwayKey = i;
+			if (Arrays.equals(RAIL_VALUE, stringTable.get(i))) railValue = i;
+		}
+		
+		DecodedBlock block = new DecodedBlock(granularity, latOffset, lonOffset);
+		for (ProtobufInput group : groups) {
+			while ((tag = group.readTag()) != 0) {
+				switch (ProtobufInput.getFieldNumber(tag)) {
+					case 1: if (readNodes) readNode(group.readLengthDelimited(), block); else group.skipField(tag); break;
+					case 2: if (readNodes) readDenseNodes(group.readLengthDelimited(), block); else group.skipField(tag); break;
+					case 3: readWay(group.readLengthDelimited(), railwayKey, railValue, block); break;
+					default: group.skipField(tag); // Relations and changesets are not needed
+				}
+			}
+		}
+		
+		return block;
+	}
+	
+	private static void readStringTable(ProtobufInput input, List<byte[]> stringTable) throws IOException {
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			if (ProtobufInput.getFieldNumber(tag) == 1) {
+				stringTable.add(input.readBytes());
+			} else {
+				input.skipField(tag);
+			}
+		}
+	}
+	
+	private void readNode(ProtobufInput input, DecodedBlock block) throws IOException {
+		
+		long id = 0, lat = 0, lon = 0;
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+				case 1: id = input.readSInt64(); break;
+				case 8: lat = input.readSInt64(); break;
+				case 9: lon = input.readSInt64(); break;
+				default: input.skipField(tag);
+			}
+		}
+		block.addNode(id, lat, lon, nodeFilter);
+	}
+	
+	private void readDenseNodes(ProtobufInput input, DecodedBlock block) throws IOException {
+		
+		long[] ids = null, lats = null, lons = null;
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+				case 1: ids = readPackedDeltaSInt64(input, tag); break;
+				case 8: lats = readPackedDeltaSInt64(input, tag); break;
+				case 9: lons = readPackedDeltaSInt64(input, tag); break;
+				default: input.skipField(tag); // Metadata and tags are not needed
+			}
+		}
+		
+		if (ids == null) return;
+		if (lats == null || lons == null || lats.length != ids.length || lons.length != ids.length) {
+			throw new IOException("PBF dense nodes have inconsistent lengths");
+		}
+		for (int i = 0; i < ids.length; i++) {
+			block.addNode(ids[i], lats[i], lons[i], nodeFilter);
+		}
+	}
+	
+	private static void readWay(ProtobufInput input, int railwayKey, int railValue, DecodedBlock block) throws IOException {
+		
+		long[] keys = null, values = null;
+		ProtobufInput refs = null;
+		int tag;
+		while ((tag = input.readTag()) != 0) {
+			switch (ProtobufInput.getFieldNumber(tag)) {
+				case 2: keys = readPackedVarints(input, tag); break;
+				case 3: values = readPackedVarints(input, tag); break;
+				case 8: refs = readPacked(input, tag); break; // Only decoded when this way turns out to be a railway
+				default: input.skipField(tag);
+			}
+		}
+		
+		if (railwayKey < 0 || railValue < 0 || keys == null || values == null || refs == null) return;
+		
+		for (int i = 0; i < keys.length && i < values.length; i++) {
+			if (keys[i] == railwayKey && values[i] == railValue) {
+				block.railways.add(readDeltaSInt64(refs));
+				return;
+			}
+		}
+	}
+	
+	private static long[] readPackedVarints(ProtobufInput input, int tag) throws IOException {
+		
+		if (ProtobufInput.getWireType(tag) != ProtobufInput.WIRE_TYPE_LENGTH_DELIMITED) {
+			return new long[] { input.readVarint() };
+		}
+		ProtobufInput packed = input.readLengthDelimited();
+		long[] values = new long[16];
+		int count = 0;
+		while (packed.hasRemaining()) {
+			if (count == values.length) values = Arrays.copyOf(values, count * 2);
+			values[count++] = packed.readVarint();
+		}
+		return Arrays.copyOf(values, count);
+	}
+	
+	private static long[] readPackedDeltaSInt64(ProtobufInput input, int tag) throws IOException {
+		return readDeltaSInt64(readPacked(input, tag));
+	}
+	
+	private static ProtobufInput readPacked(ProtobufInput input, int tag) throws IOException {
+		
+		if (ProtobufInput.getWireType(tag) != ProtobufInput.WIRE_TYPE_LENGTH_DELIMITED) {
+			throw new IOException("Expected a packed field, field number: " + ProtobufInput.getFieldNumber(tag));
+		}
+		return input.readLengthDelimited();
+	}
+	
+	private static long[] readDeltaSInt64(ProtobufInput packed) throws IOException {
+		
+		long[] values = new long[64];
+		int count = 0;
+		long value = 0;
+		while (packed.hasRemaining()) {
+			value += packed.readSInt64();
+			if (count == values.length) values = Arrays.copyOf(values, count * 2);
+			values[count++] = value;
+		}
+		return Arrays.copyOf(values, count);
+	}
+	
+	/**
+	 * Receives the nodes and railways read from a PBF file.
+	 */
+	public static interface PbfRailwayHandler {
+		
+		void handleNode(long id, double latitude, double longitude) throws IOException;
+		
+		/**
+		 * @param nodeIds The ids of the nodes of a way tagged railway=rail, in order.
+		 */
+		void handleRailway(long[] nodeIds) throws IOException;
+		
+		void complete() throws IOException;
+	}
+	
+	/**
+	 * The nodes and railways decoded from one data block.
+	 */
+	private static final class DecodedBlock {
+		
+		private final int granularity;
+		private final long latOffset;
+		private final long lonOffset;
+		
+		private long[] nodeIds = new long[0];
+		private double[] latitudes = new double[0];
+		private double[] longitudes = new double[0];
+		private int nodeCount;
+		
+		private final List<long[]> railways = new ArrayList<>();
+		
+		public DecodedBlock(int granularity, long latOffset, long lonOffset) {
+			this.granularity = granularity;
+			this.latOffset = latOffset;
+			this.lonOffset = lonOffset;
+		}
+		
+		public void addNode(long id, long lat, long lon, LongPredicate nodeFilter) {
+			
+			if (nodeFilter != null && !nodeFilter.test(id)) return;
+			
+			if (nodeCount == nodeIds.length) {
+				int newCapacity = Math.max(256, nodeCount * 2);
+				nodeIds = Arrays.copyOf(nodeIds, newCapacity);
+				latitudes = Arrays.copyOf(latitudes, newCapacity);
+				longitudes = Arrays.copyOf(longitudes, newCapacity);
+			}
+			nodeIds[nodeCount] = id;
+			latitudes[nodeCount] = (latOffset + ((long)granularity * lat)) / NANODEGREES_PER_DEGREE;
+			longitudes[nodeCount] = (lonOffset + ((long)granularity * lon)) / NANODEGREES_PER_DEGREE;
+			nodeCount++;
+		}
+	}
+}
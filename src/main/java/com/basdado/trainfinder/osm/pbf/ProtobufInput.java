@@ -0,0 +1,134 @@
+package com.basdado.trainfinder.osm.pbf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal reader for the protocol buffer wire format, supporting just enough to decode OSM PBF files.
+ * Reads from a byte array, so no copies are made when reading nested messages.
+ * 
+ * See: https://developers.google.com/protocol-buffers/docs/encoding
+ */
+final class ProtobufInput {
+	
+	static final int WIRE_TYPE_VARINT = 0;
+	static final int WIRE_TYPE_FIXED64 = 1;
+	static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+	static final int WIRE_TYPE_FIXED32 = 5;
+	
+	private final byte[] buffer;
+	private final int limit;
+	private int position;
+	
+	public ProtobufInput(byte[] buffer) {
+		this(buffer, 0, buffer.length);
+	}
+	
+	public ProtobufInput(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+	
+	public boolean hasRemaining() {
+		return position < limit;
+	}
+	
+	/**
+	 * @return The next field tag (field number and wire type), or 0 if the end of the message is reached.
+	 */
+	public int readTag() throws IOException {
+		if (!hasRemaining()) return 0;
+		return readInt32();
+	}
+	
+	public static int getFieldNumber(int tag) {
+		return tag >>> 3;
+	}
+	
+	public static int getWireType(int tag) {
+		return tag & 0x7;
+	}
+	
+	public long readVarint() throws IOException {
+		
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (position >= limit) {
+				throw new IOException("Truncated protobuf message");
+			}
+			byte b = buffer[position++];
+			result |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("Malformed protobuf varint");
+	}
+	
+	public int readInt32() throws IOException {
+		return (int)readVarint();
+	}
+	
+	/**
+	 * Reads a zigzag-encoded signed varint.
+	 */
+	public long readSInt64() throws IOException {
+		long value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * @return A reader over the next length-delimited field (e.g. a nested message or a packed repeated field).
+	 */
+	public ProtobufInput readLengthDelimited() throws IOException {
+		int length = readLength();
+		ProtobufInput nested = new ProtobufInput(buffer, position, length);
+		position += length;
+		return nested;
+	}
+	
+	public byte[] readBytes() throws IOException {
+		int length = readLength();
+		byte[] bytes = new byte[length];
+		System.arraycopy(buffer, position, bytes, 0, length);
+		position += length;
+		return bytes;
+	}
+	
+	public String readString() throws IOException {
+		int length = readLength();
+		String str = new String(buffer, position, length, StandardCharsets.UTF_8);
+		position += length;
+		return str;
+	}
+	
+	/**
+	 * Skips the value of a field with the given tag.
+	 * @param tag The tag that was just read
+	 */
+	public void skipField(int tag) throws IOException {
+		switch (getWireType(tag)) {
+			case WIRE_TYPE_VARINT: readVarint(); break;
+			case WIRE_TYPE_FIXED64: skip(8); break;
+			case WIRE_TYPE_LENGTH_DELIMITED: skip(readLength()); break;
+			case WIRE_TYPE_FIXED32: skip(4); break;
+			default: throw new IOException("Unsupported protobuf wire type: " + getWireType(tag));
+		}
+	}
+	
+	private int readLength() throws IOException {
+		int length = readInt32();
+		if (length < 0 || length > limit - position) {
+			throw new IOException("Truncated protobuf message");
+		}
+		return length;
+	}
+	
+	private void skip(int length) throws IOException {
+		if (length > limit - position) {
+			throw new IOException("Truncated protobuf message");
+		}
+		position += length;
+	}
+}
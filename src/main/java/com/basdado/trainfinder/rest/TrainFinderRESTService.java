@@ -11,9 +11,13 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 
 import org.apache.commons.lang3.NotImplementedException;
 
+import com.basdado.trainfinder.controller.RailwayWarmUpController;
+import com.basdado.trainfinder.controller.RailwayWarmUpProgressMXBean;
 import com.basdado.trainfinder.controller.TrainStatusFacade;
 import com.basdado.trainfinder.data.StationRepository;
 import com.basdado.trainfinder.model.Station;
@@ -31,6 +35,7 @@ public class TrainFinderRESTService {
 	
 	@Inject private StationRepository stationRepository;
 	@Inject private TrainStatusFacade trainStatusFacade;
+	@Inject private RailwayWarmUpController railwayWarmUp;
 
     @GET
     @Path("/near-{lat:[0-9]*.?[0-9]*}-{lon:[0-9]*.?[0-9]*}")
@@ -55,4 +60,22 @@ public class TrainFinderRESTService {
     public Collection<Train> getTrains() {
     	return trainStatusFacade.getCurrentTrains();
     }
+    
+    /**
+     * Reports whether the railways of the warm-up routes are calculated (200), or not yet (503), with the warm-up progress.
+     */
+    @GET
+    @Path("ready")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getReadiness() {
+    	RailwayWarmUpProgressMXBean progress = railwayWarmUp.getProgress();
+    	return Response.status(getReadinessStatus(progress)).entity(progress).build();
+    }
+    
+    /**
+     * @return The status the readiness endpoint responds with for the given warm-up progress.
+     */
+    public static Status getReadinessStatus(RailwayWarmUpProgressMXBean progress) {
+    	return progress.isReady() ? Status.OK : Status.SERVICE_UNAVAILABLE;
+    }
 }
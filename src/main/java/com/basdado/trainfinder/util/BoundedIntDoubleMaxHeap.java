@@ -0,0 +1,130 @@
+package com.basdado.trainfinder.util;
+
+/**
+ * Keeps the (at most) <code>capacity</code> int keys with the lowest double rating out of all keys offered to it, such as
+ * the nodes nearest to a position. The keys are kept in a binary max-heap, so the key with the highest rating (the first
+ * to be dropped) is always at the root, and offering a key is O(log capacity).
+ *
+ * Like {@link IntDoubleMinHeap}, the heap is backed by primitive arrays only, and does not allocate any objects after it
+ * has been created.
+ */
+public class BoundedIntDoubleMaxHeap {
+	
+	private final int[] keys;
+	private final double[] ratings;
+	private int size;
+	
+	/**
+	 * @param capacity The maximum number of keys to keep.
+	 */
+	public BoundedIntDoubleMaxHeap(int capacity) {
+		
+		if (capacity < 0) {
+			throw new IllegalArgumentException("The capacity of the heap should be at least 0, but was " + capacity);
+		}
+		this.keys = new int[capacity];
+		this.ratings = new double[capacity];
+	}
+	
+	/**
+	 * Adds the key if the heap is not full yet, or if its rating is lower than the highest rating on the heap (which
+	 * is then dropped).
+	 * @return True iff the key was added.
+	 */
+	public boolean offer(int key, double rating) {
+		
+		if (size < keys.length) {
+			siftUp(size++, key, rating);
+			return true;
+		}
+		if (size == 0 || rating >= ratings[0]) {
+			return false;
+		}
+		siftDown(0, key, rating);
+		return true;
+	}
+	
+	public boolean isFull() {
+		return size == keys.length;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The highest rating on the heap (O(1)), or Double.MAX_VALUE if the heap is empty.
+	 */
+	public double peekRating() {
+		return size == 0 ? Double.MAX_VALUE : ratings[0];
+	}
+	
+	/**
+	 * Removes all keys from the heap, so it can be reused.
+	 */
+	public void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Removes all keys from the heap, and returns them ordered by rating (O(N log N) in the number of keys on the heap).
+	 * @return The keys, lowest rating first.
+	 */
+	public int[] removeAllAscending() {
+		
+		int[] res = new int[size];
+		while (size > 0) {
+			res[size - 1] = keys[0];
+			size--;
+			if (size > 0) {
+				siftDown(0, keys[size], ratings[size]); // Move the last key to the root, and make sure the heap is ordered again
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * Places the key at the given index, or higher up in the tree if its parents have a lower rating.
+	 */
+	private void siftUp(int index, int key, double rating) {
+		
+		while (index > 0) {
+			int parentIdx = (index - 1) / 2;
+			if (ratings[parentIdx] >= rating) {
+				break;
+			}
+			// Move the parent down
+			keys[index] = keys[parentIdx];
+			ratings[index] = ratings[parentIdx];
+			index = parentIdx;
+		}
+		keys[index] = key;
+		ratings[index] = rating;
+	}
+	
+	/**
+	 * Places the key at the given index, or lower in the tree if its children have a higher rating.
+	 */
+	private void siftDown(int index, int key, double rating) {
+		
+		while (true) {
+			int childIdx = index * 2 + 1;
+			if (childIdx >= size) {
+				break;
+			}
+			if (childIdx + 1 < size && ratings[childIdx + 1] > ratings[childIdx]) {
+				childIdx++; // The largest child
+			}
+			if (ratings[childIdx] <= rating) {
+				break;
+			}
+			// Move the child up
+			keys[index] = keys[childIdx];
+			ratings[index] = ratings[childIdx];
+			index = childIdx;
+		}
+		keys[index] = key;
+		ratings[index] = rating;
+	}
+
+}
@@ -13,6 +13,14 @@ public class CoordinateUtil {
 	public static final double RADIUS_EARTH = 6371008.8f;
 	public static final double HALF_PI = Math.PI * 0.5;
 	
+	/**
+	 * The maximum distance (in meters) for which the equirectangular approximations are accurate to within
+	 * {@link #EQUIRECTANGULAR_RELATIVE_ERROR}, at latitudes of at most {@link #EQUIRECTANGULAR_MAX_LATITUDE}.
+	 */
+	public static final double EQUIRECTANGULAR_MAX_DISTANCE = 10000;
+	public static final double EQUIRECTANGULAR_MAX_LATITUDE = 80;
+	public static final double EQUIRECTANGULAR_RELATIVE_ERROR = 1e-5;
+	
 	/**
 	 * Converts a coordinate (as latitude and longitude) on Earth to a 3D vector (where the numbers are expressed in meters)
 	 * @param coord A coordinate (latitude, longitude) on the Earth's surface
@@ -82,19 +90,78 @@ public class CoordinateUtil {
 	 * @return The angular distance between c1 and c2.
 	 */
 	public static double angularDist(LatLng c1, LatLng c2) {
+		return angularDist(c1.getLatitude(), c1.getLongitude(), c2.getLatitude(), c2.getLongitude());
+	}
 		
-	    double dLat = Math.toRadians(c2.getLatitude()-c1.getLatitude());
-	    double dLng = Math.toRadians(c2.getLongitude()-c1.getLongitude());
+	/**
+	 * Same as {@link #angularDist(LatLng, LatLng)}, for coordinates given in degrees, without creating any LatLng.
+	 */
+	public static double angularDist(double lat1, double lon1, double lat2, double lon2) {
+	
+	    double dLat = Math.toRadians(lat2 - lat1);
+	    double dLng = Math.toRadians(lon2 - lon1);
 	    
 	    double sinLatDiv2 = Math.sin(dLat/2);
 	    double sinLngDiv2 = Math.sin(dLng/2);
 	    
 	    double a = sinLatDiv2 * sinLatDiv2 +
-	               Math.cos(Math.toRadians(c1.getLatitude())) * Math.cos(Math.toRadians(c2.getLatitude())) *
+	               Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
 	               sinLngDiv2 * sinLngDiv2;
 	    return 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
 	}
 	
+	/**
+	 * Approximates the distance (in meters) between two coordinates (in degrees), by projecting them onto a plane using
+	 * the equirectangular projection around their mean latitude. This takes a single cosine and square root, instead of
+	 * the trigonometry of {@link #dist(LatLng, LatLng)}.
+	 * 
+	 * For coordinates at most {@link #EQUIRECTANGULAR_MAX_DISTANCE} apart, at latitudes of at most
+	 * {@link #EQUIRECTANGULAR_MAX_LATITUDE}, the relative error is below {@link #EQUIRECTANGULAR_RELATIVE_ERROR}. The
+	 * error grows with the square of the distance, so it should not be used for long distances.
+	 */
+	public static double equirectangularDist(double lat1, double lon1, double lat2, double lon2) {
+		
+		double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+		double y = Math.toRadians(lat2 - lat1);
+		return Math.sqrt(x * x + y * y) * RADIUS_EARTH;
+	}
+	
+	/**
+	 * Approximates the distance (in meters) between c3 and the closest point on the path between c1 and c2 (all in
+	 * degrees), like the absolute value of {@link #crossTrackDist(LatLng, LatLng, LatLng)}, by projecting the coordinates
+	 * onto a plane using the equirectangular projection around c3.
+	 * 
+	 * Within {@link #EQUIRECTANGULAR_MAX_DISTANCE} and {@link #EQUIRECTANGULAR_MAX_LATITUDE}, the error is at most
+	 * {@link #EQUIRECTANGULAR_RELATIVE_ERROR} times the distance, plus {@link #equirectangularCrossTrackError(double, double)}.
+	 */
+	public static double equirectangularCrossTrackDist(double lat1, double lon1, double lat2, double lon2, double lat3, double lon3) {
+		
+		double cosLat3 = Math.cos(Math.toRadians(lat3));
+		double x1 = Math.toRadians(lon1 - lon3) * cosLat3;
+		double y1 = Math.toRadians(lat1 - lat3);
+		double dx = Math.toRadians(lon2 - lon1) * cosLat3;
+		double dy = Math.toRadians(lat2 - lat1);
+		
+		// The fraction of the path at which it is closest to c3 (the origin), limited to the path itself
+		double lengthSquared = dx * dx + dy * dy;
+		double f = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(x1 * dx + y1 * dy) / lengthSquared));
+		double x = x1 + f * dx;
+		double y = y1 + f * dy;
+		return Math.sqrt(x * x + y * y) * RADIUS_EARTH;
+	}
+	
+	/**
+	 * The part of the error of {@link #equirectangularCrossTrackDist(double, double, double, double, double, double)} that
+	 * does not depend on the distance itself: the projected path is a straight line, where the orthodrome curves towards
+	 * the pole, and the scale of the projection only matches at the latitude of c3.
+	 * @param distance The largest distance (in meters) between c3 and either end of the path
+	 * @param maxLatitude The highest absolute latitude (in degrees) of c1, c2 and c3
+	 * @return The upper bound of the error (in meters)
+	 */
+	public static double equirectangularCrossTrackError(double distance, double maxLatitude) {
+		return distance * distance * Math.tan(Math.toRadians(Math.abs(maxLatitude))) / RADIUS_EARTH;
+	}
+	
 	/**
 	 * Calculates the bearing (forward azimuth) which when followed in a straight line
 	 * (along a great circle) takes you from c1 to c2.
@@ -0,0 +1,221 @@
+package com.basdado.trainfinder.util;
+
+import java.util.Arrays;
+
+/**
+ * Priority heap of int keys with a double rating, for keys in the range <code>[0, keyCount)</code> (such as node indices).
+ *
+ * Unlike {@link PriorityHeap}, this heap is backed by primitive arrays only: adding, updating and removing keys does not
+ * allocate any objects (except when the heap needs to grow). The position of every key in the heap is kept in an array,
+ * so updating the rating of a key is O(log N).
+ *
+ * The heap is a d-ary tree (a binary tree by default), stored in level order with the root at index 0: the children
+ * of the node at index <code>i</code> are at <code>i * d + 1</code> up to <code>i * d + d</code>, and its parent is at
+ * <code>(i - 1) / d</code>. A higher arity makes the tree shallower (cheaper to add and update keys), at the cost of
+ * comparing more children when removing the smallest key.
+ */
+public class IntDoubleMinHeap {
+	
+	private static final int NOT_IN_HEAP = -1;
+	
+	private final int arity;
+	
+	private int[] keys;
+	private double[] ratings;
+	private int size;
+	
+	/**
+	 * For each key, the index in the heap, or NOT_IN_HEAP.
+	 */
+	private final int[] positions;
+	
+	/**
+	 * Creates a binary heap.
+	 * @param keyCount The number of distinct keys: all keys must be in <code>[0, keyCount)</code>.
+	 */
+	public IntDoubleMinHeap(int keyCount) {
+		this(keyCount, 2);
+	}
+	
+	/**
+	 * @param keyCount The number of distinct keys: all keys must be in <code>[0, keyCount)</code>.
+	 * @param arity The number of children of each node in the heap (at least 2).
+	 */
+	public IntDoubleMinHeap(int keyCount, int arity) {
+		
+		if (arity < 2) {
+			throw new IllegalArgumentException("The arity of the heap should be at least 2, but was " + arity);
+		}
+		
+		this.arity = arity;
+		int capacity = Math.max(1, Math.min(keyCount, 16));
+		this.keys = new int[capacity];
+		this.ratings = new double[capacity];
+		this.positions = new int[keyCount];
+		Arrays.fill(positions, NOT_IN_HEAP);
+	}
+	
+	/**
+	 * Adds a key with the given rating to the heap (O(log N)).
+	 * @throws IllegalArgumentException If the key is already in the heap.
+	 */
+	public void add(int key, double rating) {
+		
+		if (positions[key] != NOT_IN_HEAP) {
+			throw new IllegalArgumentException("Key is already in the heap: " + key);
+		}
+		
+		if (size == keys.length) {
+			int newCapacity = Math.min(Math.max(size * 2, 1), positions.length);
+			keys = Arrays.copyOf(keys, newCapacity);
+			ratings = Arrays.copyOf(ratings, newCapacity);
+		}
+		
+		siftUp(size++, key, rating);
+	}
+	
+	public boolean contains(int key) {
+		return positions[key] != NOT_IN_HEAP;
+	}
+	
+	/**
+	 * @return The rating of the given key, or Double.MAX_VALUE if the key is not in the heap.
+	 */
+	public double getRating(int key) {
+		int position = positions[key];
+		return position == NOT_IN_HEAP ? Double.MAX_VALUE : ratings[position];
+	}
+	
+	/**
+	 * Updates the rating of the given key if the new rating is lower than the current rating (O(log N)).
+	 * @return True iff the key is in the heap and its rating was updated.
+	 */
+	public boolean updateMinRating(int key, double newRating) {
+		
+		int position = positions[key];
+		if (position == NOT_IN_HEAP || newRating >= ratings[position]) {
+			return false;
+		}
+		
+		siftUp(position, key, newRating);
+		return true;
+	}
+	
+	/**
+	 * Adds the key to the heap, or lowers its rating if it is already in the heap with a higher rating.
+	 * @return True iff the key was added or its rating was updated.
+	 */
+	public boolean addOrUpdateMinRating(int key, double rating) {
+		
+		if (positions[key] == NOT_IN_HEAP) {
+			add(key, rating);
+			return true;
+		}
+		return updateMinRating(key, rating);
+	}
+	
+	/**
+	 * @return The smallest key on the heap (O(1)), or -1 if the heap is empty.
+	 */
+	public int peek() {
+		return size == 0 ? NOT_IN_HEAP : keys[0];
+	}
+	
+	/**
+	 * @return The rating of the smallest key on the heap (O(1)), or Double.MAX_VALUE if the heap is empty.
+	 */
+	public double peekRating() {
+		return size == 0 ? Double.MAX_VALUE : ratings[0];
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Removes the smallest key from the heap and returns it (O(log N)).
+	 * @return The smallest key, or -1 if the heap is empty.
+	 */
+	public int remove() {
+		
+		if (size == 0) return NOT_IN_HEAP;
+		
+		int removedKey = keys[0];
+		positions[removedKey] = NOT_IN_HEAP;
+		size--;
+		if (size > 0) {
+			siftDown(0, keys[size], ratings[size]); // Move the last key to the root, and make sure the heap is ordered again
+		}
+		return removedKey;
+	}
+	
+	/**
+	 * Removes all keys from the heap (O(N) in the number of keys on the heap), so it can be reused for another search.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[keys[i]] = NOT_IN_HEAP;
+		}
+		size = 0;
+	}
+	
+	/**
+	 * Places the key at the given index, or higher up in the tree if its parents have a higher rating.
+	 */
+	private void siftUp(int index, int key, double rating) {
+		
+		while (index > 0) {
+			int parentIdx = (index - 1) / arity;
+			if (ratings[parentIdx] <= rating) {
+				break;
+			}
+			// Move the parent down
+			keys[index] = keys[parentIdx];
+			ratings[index] = ratings[parentIdx];
+			positions[keys[index]] = index;
+			index = parentIdx;
+		}
+		keys[index] = key;
+		ratings[index] = rating;
+		positions[key] = index;
+	}
+	
+	/**
+	 * Places the key at the given index, or lower in the tree if its children have a lower rating.
+	 */
+	private void siftDown(int index, int key, double rating) {
+		
+		while (true) {
+			int firstChildIdx = index * arity + 1;
+			if (firstChildIdx >= size) {
+				break;
+			}
+			
+			// Find the smallest child
+			int smallestChildIdx = firstChildIdx;
+			int lastChildIdx = Math.min(firstChildIdx + arity, size);
+			for (int childIdx = firstChildIdx + 1; childIdx < lastChildIdx; childIdx++) {
+				if (ratings[childIdx] < ratings[smallestChildIdx]) {
+					smallestChildIdx = childIdx;
+				}
+			}
+			
+			if (ratings[smallestChildIdx] >= rating) {
+				break;
+			}
+			// Move the smallest child up
+			keys[index] = keys[smallestChildIdx];
+			ratings[index] = ratings[smallestChildIdx];
+			positions[keys[index]] = index;
+			index = smallestChildIdx;
+		}
+		keys[index] = key;
+		ratings[index] = rating;
+		positions[key] = index;
+	}
+
+}
@@ -1,6 +1,8 @@
 package com.basdado.trainfinder.util;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Array-based priority heap implementation.
@@ -10,6 +12,10 @@ import java.util.Arrays;
  * This allows for O(1) retrieval of the smallest node in the tree, because this
  * node is always the root, and O(log N) performance for adding nodes to the tree.
  * 
+ * The heap keeps track of the position of each item in the tree, so updating the
+ * rating of an item is O(log N) as well. Because of this, every item can only be
+ * in the heap once.
+ * 
  * @author Immortaly007
  */
 public class PriorityHeap<T> {
@@ -25,19 +31,25 @@ public class PriorityHeap<T> {
 	 *      3   4 5   6
 	 * </pre>
 	 * This ensures that you can find the left child index by:
-	 * <code>currentIdx * 2</code>, and the right child index by
-	 * <code>currentIdx * 2 + 1</code>. Similarly, the parent node
-	 * can be find by using an integer division by two, as in:
-	 * <code>currentIdx / 2</code> or <code>currentIdx << 1</code>.
+	 * <code>currentIdx * 2 + 1</code>, and the right child index by
+	 * <code>currentIdx * 2 + 2</code>. Similarly, the parent node
+	 * can be found by using an integer division by two, as in:
+	 * <code>(currentIdx - 1) / 2</code>.
 	 * 
 	 */
 	private PriorityHeapNode<T>[] tree;
 	private int size;
 	
+	/**
+	 * The index in the tree of each item in the heap.
+	 */
+	private final Map<T, Integer> positions;
+	
 	
 	@SuppressWarnings("unchecked")
 	public PriorityHeap(int capacity) {
 		tree = new PriorityHeapNode[capacity];
+		positions = new HashMap<>(capacity);
 	}
 	
 	public PriorityHeap() {
@@ -48,15 +60,21 @@ public class PriorityHeap<T> {
 	 * Adds an item with the given rating to the priority heap (O(log N)).
 	 * @param item
 	 * @param rating
+	 * @throws IllegalArgumentException If the item is already in the heap (use {@link #updateRating(Object, double)} instead).
 	 */
 	public void add(T item, double rating) {
 		
+		if (positions.containsKey(item)) {
+			throw new IllegalArgumentException("Item is already in the heap: " + item);
+		}
+		
 		if (size >= tree.length) {
 			resize(size * 2);
 		}
 		
 		int newNodeIdx = size++;
 		tree[newNodeIdx] = new PriorityHeapNode<T>(item, rating);
+		positions.put(item, newNodeIdx);
 		upheap(newNodeIdx);
 	}
 	
@@ -107,7 +125,7 @@ public class PriorityHeap<T> {
 	public boolean updateMinRating(T item, double newRating) {
 		
 		int itemIdx = indexOf(item);
-		if (itemIdx == 1) {
+		if (itemIdx == -1) {
 			return false;
 		}
 		
@@ -124,13 +142,9 @@ public class PriorityHeap<T> {
 	
 	private int indexOf(T item) {
 		
-		for (int i = 0; i < size; i++) {
-			if (tree[i].getItem().equals(item)) {
-				return i;
-			}
-		}
-		return -1;
-	} 
+		Integer position = positions.get(item);
+		return position == null ? -1 : position;
+	}
 	
 	/**
 	 * @return The first (smallest) item on the heap (O(1)).
@@ -165,9 +179,12 @@ public class PriorityHeap<T> {
 		if (size == 0) return null; // Or throw exception?
 		
 		PriorityHeapNode<T> removedNode = tree[0];
+		positions.remove(removedNode.getItem());
 		size--;
 		if (size > 0) {
 			tree[0] = tree[size]; // Put the last added node at the root
+			tree[size] = null;
+			positions.put(tree[0].getItem(), 0);
 			downheap(0); // And make sure the heap is ordered again
 		}
 		
@@ -188,52 +205,55 @@ public class PriorityHeap<T> {
 	 * @param index The index of the node to be considered
 	 */
 	private void upheap(int index) {
-		int parentIdx = parentIdx(index);
-		if (tree[parentIdx].getRating() > tree[index].getRating()) {
+		while (index > 0) {
+			int parentIdx = parentIdx(index);
+			if (tree[parentIdx].getRating() <= tree[index].getRating()) {
+				break;
+			}
 			swap(index, parentIdx);
-			upheap(parentIdx);
+			index = parentIdx;
 		}
 	}
 	
 	/**
 	 * From the node with the given index, goes down in the tree, and swaps
-	 * with the child smallest child if that child is smaller than the current
+	 * with the smallest child if that child is smaller than the current
 	 * node.
 	 * @param index The index of the node to be considered.
 	 */
 	private void downheap(int index) {
 		
-		if (index >= size) {
-			return;
-		}
-		
-		int leftChildIdx = leftChildIdx(index);
-		int rightChildIdx = rightChildIdx(index);
-		
-		// Swap with the smallest child (if that child is bigger than this node):
-		double nodeRating = tree[index].getRating();
-		double leftChildRating = leftChildIdx < size ? tree[leftChildIdx].getRating() : Double.MAX_VALUE;
-		double rightChildRating = rightChildIdx < size ? tree[rightChildIdx].getRating() : Double.MAX_VALUE;
-		
-		if (leftChildRating <= rightChildRating && leftChildRating < nodeRating) { // if the left child is the smallest and we need to swap with it:
-			swap(leftChildIdx, index);
-			downheap(leftChildIdx);
-		} else if (rightChildRating < leftChildRating && rightChildRating < nodeRating) { // if the right child is the smallest and we need to swap with it:
-			swap(rightChildIdx, index);
-			downheap(rightChildIdx);
+		while (true) {
+			int leftChildIdx = leftChildIdx(index);
+			int rightChildIdx = rightChildIdx(index);
+			
+			// Swap with the smallest child (if that child is smaller than this node):
+			double nodeRating = tree[index].getRating();
+			double leftChildRating = leftChildIdx < size ? tree[leftChildIdx].getRating() : Double.MAX_VALUE;
+			double rightChildRating = rightChildIdx < size ? tree[rightChildIdx].getRating() : Double.MAX_VALUE;
+			
+			if (leftChildRating <= rightChildRating && leftChildRating < nodeRating) { // if the left child is the smallest and we need to swap with it:
+				swap(leftChildIdx, index);
+				index = leftChildIdx;
+			} else if (rightChildRating < leftChildRating && rightChildRating < nodeRating) { // if the right child is the smallest and we need to swap with it:
+				swap(rightChildIdx, index);
+				index = rightChildIdx;
+			} else {
+				break;
+			}
 		}
 	}
 	
 	private int parentIdx(int index) {
-		return index / 2;
+		return (index - 1) / 2;
 	}
 	
 	private int leftChildIdx(int index) {
-		return index * 2;
+		return index * 2 + 1;
 	}
 	
 	private int rightChildIdx(int index) {
-		return index * 2 + 1;
+		return index * 2 + 2;
 	}
 	
 	private void swap(int aIdx, int bIdx) {
@@ -241,6 +261,8 @@ public class PriorityHeap<T> {
 		PriorityHeapNode<T> temp = tree[aIdx];
 		tree[aIdx] = tree[bIdx];
 		tree[bIdx] = temp;
+		positions.put(tree[aIdx].getItem(), aIdx);
+		positions.put(tree[bIdx].getItem(), bIdx);
 		
 	}
 	
@@ -1,83 +1,569 @@
 package com.basdado.trainfinder.util;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
-import com.basdado.trainfinder.model.OsmRailwayMap;
-import com.basdado.trainfinder.model.OsmRailwayMap.OsmRailwayMapNode;
+import com.basdado.trainfinder.model.ContractedRailwayGraph;
+import com.basdado.trainfinder.model.ContractionHierarchy;
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.RailwayPath;
+import com.basdado.trainfinder.model.TrackPosition;
 
 public class RailwayMapUtil {
 	
+	private static final int NO_JUNCTION = -1;
+	
+	// A search starts at the junctions next to a track position. Instead of the edge over which they were reached, these
+	// junctions get a (negative) marker, which tells whether the track position is at the junction itself (AT_JUNCTION),
+	// or on a chain that starts or ends at the junction. For destinations, the marker also contains the destination index.
+	private static final int AT_JUNCTION = 0;
+	private static final int FROM_CHAIN_START = 1;
+	private static final int FROM_CHAIN_END = 2;
+	private static final int MARKER_KINDS = 3;
+	
+	/**
+	 * The straight line distance to the destination is scaled down slightly, so it stays a lower bound of the remaining
+	 * track length despite rounding (connection lengths are stored as floats).
+	 */
+	private static final double HEURISTIC_SCALE = 0.999;
+	
+	public static enum SearchAlgorithm {
+		/**
+		 * Dijkstra's algorithm, searching from the source until a destination is reached.
+		 */
+		DIJKSTRA,
+		/**
+		 * A*: like Dijkstra, but junctions closer to the destinations (in a straight line) are visited first.
+		 */
+		A_STAR,
+		/**
+		 * Dijkstra's algorithm from the source and from the destinations at the same time, until both searches meet.
+		 */
+		BIDIRECTIONAL_DIJKSTRA
+	}
 	
 	/**
-	 * Uses Dijkstra algorithm to find the shortest path from the source node to one of the destination nodes. 
-	 * @param sourceNodeId
-	 * @param destNodes
-	 * @return
+	 * Finds the shortest path from the source position to one of the destination positions. Only the junctions of the
+	 * graph are visited; the chains between them are followed as a whole.
+	 *
+	 * With A*, junctions are visited in order of their distance from the source plus the straight line distance to the
+	 * nearest destination. The straight line distance is never more than the length of the track, so A* finds the same
+	 * shortest path, while visiting far fewer junctions that lead away from the destinations.
+	 *
+	 * The bidirectional search visits the junctions nearest to the source and the junctions nearest to the destinations
+	 * in turns, and stops once no path via the junctions that are left can be shorter than the best path through a
+	 * junction reached from both sides. Both searches only cover about half the distance, so together they visit far
+	 * fewer junctions than a single search on long paths.
+	 *
+	 * @param graph The (contracted) railway graph to search
+	 * @param source The position at which the path starts
+	 * @param destinations The positions at which the path may end
+	 * @param algorithm The search algorithm to use. All algorithms find a shortest path.
+	 * @return The shortest path, or null if none of the destinations can be reached from the source.
 	 */
-	public static List<Long> calculateShortestPathBetween(OsmRailwayMap railwayMap, Long sourceNodeId, Set<Long> destNodes) {
+	public static RailwayPath calculateShortestPathBetween(ContractedRailwayGraph graph, TrackPosition source, List<TrackPosition> destinations, SearchAlgorithm algorithm) {
 		
-//		Map<Long, Double> dist = new HashMap<>();
-		Map<Long, Long> prev = new HashMap<>();
-		PriorityHeap<Long> toVisit = new PriorityHeap<>();
-		Set<Long> visited = new HashSet<>();
-		Set<Long> toVisitSet = new HashSet<>();
-
-		toVisit.add(sourceNodeId, 0.0);
+		int sourceJunction = graph.getJunction(source);
+		int sourceChain = sourceJunction == NO_JUNCTION ? graph.getChain(source) : -1;
+		double sourceOffset = sourceJunction == NO_JUNCTION ? graph.getChainOffset(source) : 0;
 		
-		boolean reachedDestination = false;
-		Long destNodeId = null;
-		while(!reachedDestination) {
-			
-			// Find the nearest (node with the smallest distance) unchecked node
-			double uDist = toVisit.peekRating();
-			Long uId = toVisit.remove();
-			toVisitSet.remove(uId);
-			
-			if (uId == null) {
-				return null; // We checked all reachable nodes, but no path to a destination node was found
+		int destinationCount = destinations.size();
+		int[] destinationJunctions = new int[destinationCount];
+		int[] destinationChains = new int[destinationCount];
+		double[] destinationOffsets = new double[destinationCount];
+		for (int i = 0; i < destinationCount; i++) {
+			TrackPosition destination = destinations.get(i);
+			destinationJunctions[i] = graph.getJunction(destination);
+			if (destinationJunctions[i] == NO_JUNCTION) {
+				destinationChains[i] = graph.getChain(destination);
+				destinationOffsets[i] = graph.getChainOffset(destination);
 			}
-			if (destNodes.contains(uId)) {
-				reachedDestination = true;
-				destNodeId = uId;
+		}
+		
+		// A destination on the same chain as the source can be reached directly
+		int bestDestination = -1;
+		double bestDist = Double.POSITIVE_INFINITY;
+		if (sourceJunction == NO_JUNCTION) {
+			for (int i = 0; i < destinationCount; i++) {
+				if (destinationJunctions[i] == NO_JUNCTION && destinationChains[i] == sourceChain) {
+					double directDist = Math.abs(sourceOffset - destinationOffsets[i]);
+					if (directDist < bestDist) {
+						bestDist = directDist;
+						bestDestination = i;
+					}
+				}
+			}
+		}
+		
+		int junctionCount = graph.getJunctionCount();
+		
+		// The estimated remaining distance (A*) of each junction, calculated when the junction is first reached
+		double[] remainingDist = null;
+		if (algorithm == SearchAlgorithm.A_STAR) {
+			remainingDist = new double[junctionCount];
+			Arrays.fill(remainingDist, Double.NaN);
+		}
+		
+		Search forward = new Search(junctionCount);
+		if (sourceJunction != NO_JUNCTION) {
+			forward.addStart(sourceJunction, 0, 0, toMarker(0, AT_JUNCTION));
+		} else {
+			int startJunction = graph.getChainStartJunction(sourceChain);
+			int endJunction = graph.getChainEndJunction(sourceChain);
+			forward.addStart(startJunction, sourceOffset,
+					estimateRemainingDistance(graph, startJunction, destinations, remainingDist), toMarker(0, FROM_CHAIN_START));
+			forward.addStart(endJunction, graph.getChainLength(sourceChain) - sourceOffset,
+					estimateRemainingDistance(graph, endJunction, destinations, remainingDist), toMarker(0, FROM_CHAIN_END));
+		}
+		
+		// The junctions next to the destinations are where the backward search starts. The other algorithms only
+		// use these to see when a destination is reached.
+		Search backward = new Search(junctionCount);
+		for (int i = 0; i < destinationCount; i++) {
+			if (destinationJunctions[i] != NO_JUNCTION) {
+				backward.addStart(destinationJunctions[i], 0, 0, toMarker(i, AT_JUNCTION));
 			} else {
+				int chain = destinationChains[i];
+				backward.addStart(graph.getChainStartJunction(chain), destinationOffsets[i], 0, toMarker(i, FROM_CHAIN_START));
+				backward.addStart(graph.getChainEndJunction(chain), graph.getChainLength(chain) - destinationOffsets[i], 0, toMarker(i, FROM_CHAIN_END));
+			}
+		}
+		
+		int meetingJunction = NO_JUNCTION;
+		
+		if (algorithm == SearchAlgorithm.BIDIRECTIONAL_DIJKSTRA) {
 			
-				OsmRailwayMapNode u = railwayMap.getNode(uId);
+			// Once the nearest unvisited junctions of both searches are together further away than the best path found,
+			// that path is the shortest
+			while (!forward.isDone() && !backward.isDone() && forward.peekRating() + backward.peekRating() < bestDist) {
 				
-				Map<Long, Double> connections = u.getConnections();
-				for (Map.Entry<Long, Double> connection : connections.entrySet()) {
-					Long cId = connection.getKey();
-					Double cDist = connection.getValue();
-					Double newConnectionDistance = uDist + cDist;
-					boolean newShortestPath = false;
-					if (toVisitSet.contains(cId)) {
-						newShortestPath = toVisit.updateMinRating(cId, newConnectionDistance);
-					} else if (!visited.contains(cId)) {
-						toVisit.add(cId, newConnectionDistance);
-						toVisitSet.add(cId);
-						newShortestPath = true;
-					}
-					
-					if (newShortestPath) {
-						prev.put(cId, uId);
+				// Continue with the search that has the nearest unvisited junction
+				Search search = forward.peekRating() <= backward.peekRating() ? forward : backward;
+				Search other = search == forward ? backward : forward;
+				
+				int u = search.visitNext();
+				if (search.dist[u] + other.dist[u] < bestDist) {
+					bestDist = search.dist[u] + other.dist[u];
+					meetingJunction = u;
+				}
+				
+				for (int e = graph.getFirstEdge(u); e < graph.getEdgeEnd(u); e++) {
+					int v = graph.getEdgeTarget(e);
+					if (search.relax(u, e, v, graph.getEdgeLength(e), 0) && search.dist[v] + other.dist[v] < bestDist) {
+						bestDist = search.dist[v] + other.dist[v];
+						meetingJunction = v;
 					}
 				}
+			}
+		
+		} else {
+			
+			// Once the nearest unvisited junction is further away than the best path found, that path is the shortest
+			// (with A*, the rating of a junction is a lower bound of the length of any path to a destination via that junction)
+			while (!forward.isDone() && forward.peekRating() < bestDist) {
 				
-				visited.add(uId);
+				// Find the nearest (junction with the smallest rating) unchecked junction
+				int u = forward.visitNext();
+				
+				// A destination can be reached from this junction
+				if (forward.dist[u] + backward.dist[u] < bestDist) {
+					bestDist = forward.dist[u] + backward.dist[u];
+					meetingJunction = u;
+				}
+				
+				for (int e = graph.getFirstEdge(u); e < graph.getEdgeEnd(u); e++) {
+					int v = graph.getEdgeTarget(e);
+					forward.relax(u, e, v, graph.getEdgeLength(e), estimateRemainingDistance(graph, v, destinations, remainingDist));
+				}
+			}
+		}
+		
+		int settledJunctionCount = forward.visitedCount + backward.visitedCount;
+		
+		if (meetingJunction == NO_JUNCTION) {
+			if (bestDestination == -1) {
+				return null; // We checked all reachable junctions, but no path to a destination was found
 			}
+			// Directly over the same chain
+			return new RailwayPath(source, destinations.get(bestDestination), new int[] { sourceChain },
+					new double[] { sourceOffset }, new double[] { destinationOffsets[bestDestination] }, bestDist, settledJunctionCount);
+		}
+		
+		// Walk back from the meeting junction to where both searches started
+		int forwardEdgeCount = 0;
+		int j = meetingJunction;
+		for (; forward.prevEdge[j] >= 0; j = getEdgeSource(graph, forward.prevEdge[j])) {
+			forwardEdgeCount++;
 		}
+		int sourceMarker = forward.prevEdge[j];
 		
-		LinkedList<Long> result = new LinkedList<>();
-		Long curNodeId = destNodeId;
-		while(result.isEmpty() || result.getFirst() != sourceNodeId) {
-			result.addFirst(curNodeId);
-			curNodeId = prev.get(curNodeId);
+		int backwardEdgeCount = 0;
+		j = meetingJunction;
+		for (; backward.prevEdge[j] >= 0; j = getEdgeSource(graph, backward.prevEdge[j])) {
+			backwardEdgeCount++;
 		}
-		return result;		
+		int destinationMarker = backward.prevEdge[j];
+		int destinationIdx = getMarkerIndex(destinationMarker);
+		
+		boolean sourceLeg = getMarkerKind(sourceMarker) != AT_JUNCTION;
+		boolean destinationLeg = getMarkerKind(destinationMarker) != AT_JUNCTION;
+		
+		int legCount = (sourceLeg ? 1 : 0) + forwardEdgeCount + backwardEdgeCount + (destinationLeg ? 1 : 0);
+		int[] legChains = new int[legCount];
+		double[] legStartOffsets = new double[legCount];
+		double[] legEndOffsets = new double[legCount];
+		
+		if (sourceLeg) {
+			legChains[0] = sourceChain;
+			legStartOffsets[0] = sourceOffset;
+			legEndOffsets[0] = getMarkerKind(sourceMarker) == FROM_CHAIN_START ? 0 : graph.getChainLength(sourceChain);
+		}
+		
+		// The edges of the forward search are followed in the same direction
+		int leg = (sourceLeg ? 1 : 0) + forwardEdgeCount - 1;
+		for (j = meetingJunction; forward.prevEdge[j] >= 0; j = getEdgeSource(graph, forward.prevEdge[j])) {
+			int edge = forward.prevEdge[j];
+			int chain = graph.getEdgeChain(edge);
+			legChains[leg] = chain;
+			legStartOffsets[leg] = graph.isEdgeReversed(edge) ? graph.getChainLength(chain) : 0;
+			legEndOffsets[leg] = graph.isEdgeReversed(edge) ? 0 : graph.getChainLength(chain);
+			leg--;
+		}
+		
+		// The edges of the backward search are followed in the opposite direction
+		leg = (sourceLeg ? 1 : 0) + forwardEdgeCount;
+		for (j = meetingJunction; backward.prevEdge[j] >= 0; j = getEdgeSource(graph, backward.prevEdge[j])) {
+			int edge = backward.prevEdge[j];
+			int chain = graph.getEdgeChain(edge);
+			legChains[leg] = chain;
+			legStartOffsets[leg] = graph.isEdgeReversed(edge) ? 0 : graph.getChainLength(chain);
+			legEndOffsets[leg] = graph.isEdgeReversed(edge) ? graph.getChainLength(chain) : 0;
+			leg++;
+		}
+		
+		if (destinationLeg) {
+			int destinationChain = destinationChains[destinationIdx];
+			legChains[leg] = destinationChain;
+			legStartOffsets[leg] = getMarkerKind(destinationMarker) == FROM_CHAIN_START ? 0 : graph.getChainLength(destinationChain);
+			legEndOffsets[leg] = destinationOffsets[destinationIdx];
+		}
+		
+		return new RailwayPath(source, destinations.get(destinationIdx), legChains, legStartOffsets, legEndOffsets, bestDist, settledJunctionCount);
+	}
+	
+	/**
+	 * Finds the shortest path from the source position to one of the destination positions using a contraction hierarchy.
+	 *
+	 * Both the source and the destinations are searched using only the upward edges of the hierarchy, until the nearest
+	 * unvisited junctions of both searches are further away than the best path through a junction reached from both sides.
+	 * Each search only visits a few junctions, after which the shortcuts of the path are unpacked into the chains they consist of.
+	 *
+	 * @param hierarchy The contraction hierarchy of the (contracted) railway graph to search
+	 * @param source The position at which the path starts
+	 * @param destinations The positions at which the path may end
+	 * @return The shortest path, or null if none of the destinations can be reached from the source.
+	 */
+	public static RailwayPath calculateShortestPathBetween(ContractionHierarchy hierarchy, TrackPosition source, List<TrackPosition> destinations) {
+		
+		ContractedRailwayGraph graph = hierarchy.getGraph();
+		
+		int sourceJunction = graph.getJunction(source);
+		int sourceChain = sourceJunction == NO_JUNCTION ? graph.getChain(source) : -1;
+		double sourceOffset = sourceJunction == NO_JUNCTION ? graph.getChainOffset(source) : 0;
+		
+		int destinationCount = destinations.size();
+		int[] destinationChains = new int[destinationCount];
+		double[] destinationOffsets = new double[destinationCount];
+		
+		int junctionCount = graph.getJunctionCount();
+		Search forward = new Search(junctionCount);
+		Search backward = new Search(junctionCount);
+		
+		if (sourceJunction != NO_JUNCTION) {
+			forward.addStart(sourceJunction, 0, 0, toMarker(0, AT_JUNCTION));
+		} else {
+			forward.addStart(graph.getChainStartJunction(sourceChain), sourceOffset, 0, toMarker(0, FROM_CHAIN_START));
+			forward.addStart(graph.getChainEndJunction(sourceChain), graph.getChainLength(sourceChain) - sourceOffset, 0, toMarker(0, FROM_CHAIN_END));
+		}
+		
+		// A destination on the same chain as the source can be reached directly
+		int bestDestination = -1;
+		double bestDist = Double.POSITIVE_INFINITY;
+		
+		for (int i = 0; i < destinationCount; i++) {
+			TrackPosition destination = destinations.get(i);
+			int destinationJunction = graph.getJunction(destination);
+			if (destinationJunction != NO_JUNCTION) {
+				backward.addStart(destinationJunction, 0, 0, toMarker(i, AT_JUNCTION));
+				continue;
+			}
+			
+			int chain = graph.getChain(destination);
+			double offset = graph.getChainOffset(destination);
+			destinationChains[i] = chain;
+			destinationOffsets[i] = offset;
+			backward.addStart(graph.getChainStartJunction(chain), offset, 0, toMarker(i, FROM_CHAIN_START));
+			backward.addStart(graph.getChainEndJunction(chain), graph.getChainLength(chain) - offset, 0, toMarker(i, FROM_CHAIN_END));
+			
+			if (chain == sourceChain && Math.abs(sourceOffset - offset) < bestDist) {
+				bestDist = Math.abs(sourceOffset - offset);
+				bestDestination = i;
+			}
+		}
+		
+		// Both searches only go upward, so (unlike the bidirectional Dijkstra) each search can only stop once its own
+		// nearest unvisited junction is further away than the best path found.
+		int meetingJunction = NO_JUNCTION;
+		while ((!forward.isDone() && forward.peekRating() < bestDist) || (!backward.isDone() && backward.peekRating() < bestDist)) {
+			
+			Search search = forward.peekRating() <= backward.peekRating() ? forward : backward;
+			Search other = search == forward ? backward : forward;
+			
+			int u = search.visitNext();
+			if (search.dist[u] + other.dist[u] < bestDist) {
+				bestDist = search.dist[u] + other.dist[u];
+				meetingJunction = u;
+			}
+			
+			for (int e = hierarchy.getFirstEdge(u); e < hierarchy.getEdgeEnd(u); e++) {
+				search.relax(u, e, hierarchy.getEdgeTarget(e), hierarchy.getEdgeLength(e), 0);
+			}
+		}
+		
+		int settledJunctionCount = forward.visitedCount + backward.visitedCount;
+		
+		if (meetingJunction == NO_JUNCTION) {
+			if (bestDestination == -1) {
+				return null; // No path to a destination exists
+			}
+			// Directly over the same chain
+			return new RailwayPath(source, destinations.get(bestDestination), new int[] { sourceChain },
+					new double[] { sourceOffset }, new double[] { destinationOffsets[bestDestination] }, bestDist, settledJunctionCount);
+		}
+		
+		// Collect the edges of the forward search (from the meeting junction back to the source), and find where both searches started
+		int forwardEdgeCount = 0;
+		int[] forwardEdges = new int[16];
+		int j = meetingJunction;
+		for (; forward.prevEdge[j] >= 0; j = hierarchy.getEdgeSource(forward.prevEdge[j])) {
+			if (forwardEdgeCount == forwardEdges.length) {
+				forwardEdges = Arrays.copyOf(forwardEdges, forwardEdgeCount * 2);
+			}
+			forwardEdges[forwardEdgeCount++] = forward.prevEdge[j];
+		}
+		int sourceMarker = forward.prevEdge[j];
+		
+		j = meetingJunction;
+		for (; backward.prevEdge[j] >= 0; j = hierarchy.getEdgeSource(backward.prevEdge[j])) {
+			// Just walking back to the start of the backward search
+		}
+		int destinationMarker = backward.prevEdge[j];
+		int destinationIdx = getMarkerIndex(destinationMarker);
+		
+		LegList legs = new LegList(graph);
+		if (getMarkerKind(sourceMarker) != AT_JUNCTION) {
+			legs.add(sourceChain, sourceOffset, getMarkerKind(sourceMarker) == FROM_CHAIN_START ? 0 : graph.getChainLength(sourceChain));
+		}
+		
+		// The edges of the forward search are followed upward, the edges of the backward search downward
+		for (int i = forwardEdgeCount - 1; i >= 0; i--) {
+			unpackEdge(hierarchy, forwardEdges[i], false, legs);
+		}
+		for (j = meetingJunction; backward.prevEdge[j] >= 0; j = hierarchy.getEdgeSource(backward.prevEdge[j])) {
+			unpackEdge(hierarchy, backward.prevEdge[j], true, legs);
+		}
+		
+		if (getMarkerKind(destinationMarker) != AT_JUNCTION) {
+			int destinationChain = destinationChains[destinationIdx];
+			legs.add(destinationChain, getMarkerKind(destinationMarker) == FROM_CHAIN_START ? 0 : graph.getChainLength(destinationChain), destinationOffsets[destinationIdx]);
+		}
+		
+		return legs.toRailwayPath(source, destinations.get(destinationIdx), bestDist, settledJunctionCount);
+	}
+	
+	/**
+	 * Adds the chains of the given contraction hierarchy edge to the legs, replacing each shortcut by the two edges it consists of.
+	 * @param reversed True iff the edge should be followed from its target to its source
+	 */
+	private static void unpackEdge(ContractionHierarchy hierarchy, int edge, boolean reversed, LegList legs) {
+		
+		// Each entry is an edge times two, plus one if reversed. The edges are popped in the order they are followed.
+		int[] stack = new int[16];
+		int stackSize = 0;
+		stack[stackSize++] = edge * 2 + (reversed ? 1 : 0);
+		
+		while (stackSize > 0) {
+			int entry = stack[--stackSize];
+			int e = entry >> 1;
+			boolean entryReversed = (entry & 1) == 1;
+			
+			if (!hierarchy.isShortcut(e)) {
+				int chainCode = hierarchy.getEdgeSecond(e) ^ (entryReversed ? 1 : 0);
+				legs.addChain(chainCode >> 1, (chainCode & 1) == 1);
+				continue;
+			}
+			
+			if (stackSize + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			// A shortcut goes down the first edge (in reverse) to the contracted junction, and then up the second edge.
+			// Reversed, it goes down the second edge and up the first edge. The edge followed first is pushed last.
+			int first = hierarchy.getEdgeFirst(e);
+			int second = hierarchy.getEdgeSecond(e);
+			if (entryReversed) {
+				stack[stackSize++] = first * 2;
+				stack[stackSize++] = second * 2 + 1;
+			} else {
+				stack[stackSize++] = second * 2;
+				stack[stackSize++] = first * 2 + 1;
+			}
+		}
+	}
+	
+	private static int toMarker(int index, int kind) {
+		return -1 - (index * MARKER_KINDS + kind);
+	}
+	
+	private static int getMarkerIndex(int marker) {
+		return (-1 - marker) / MARKER_KINDS;
+	}
+	
+	private static int getMarkerKind(int marker) {
+		return (-1 - marker) % MARKER_KINDS;
+	}
+	
+	/**
+	 * @return The junction the given edge starts at.
+	 */
+	private static int getEdgeSource(ContractedRailwayGraph graph, int edge) {
+		int chain = graph.getEdgeChain(edge);
+		return graph.isEdgeReversed(edge) ? graph.getChainEndJunction(chain) : graph.getChainStartJunction(chain);
+	}
+	
+	/**
+	 * @param remainingDist The estimates calculated so far (NaN if not calculated yet), or null if A* is not used.
+	 * @return A lower bound of the distance from the junction to the nearest destination, or 0 if A* is not used.
+	 */
+	private static double estimateRemainingDistance(ContractedRailwayGraph graph, int junction, List<TrackPosition> destinations, double[] remainingDist) {
+		
+		if (remainingDist == null) {
+			return 0;
+		}
+		
+		if (Double.isNaN(remainingDist[junction])) {
+			LatLng junctionPosition = graph.getRailwayGraph().getPosition(graph.getJunctionNode(junction));
+			double minDist = Double.POSITIVE_INFINITY;
+			for (TrackPosition destination : destinations) {
+				minDist = Math.min(minDist, CoordinateUtil.dist(junctionPosition, destination.getPosition()));
+			}
+			remainingDist[junction] = minDist * HEURISTIC_SCALE;
+		}
+		return remainingDist[junction];
+	}
+	
+	/**
+	 * The state of the search in one direction.
+	 */
+	private static final class Search {
+		
+		private final double[] dist;
+		private final int[] prevEdge;
+		private final boolean[] visited;
+		private final IntDoubleMinHeap toVisit;
+		private int visitedCount;
+		
+		private Search(int junctionCount) {
+			dist = new double[junctionCount];
+			prevEdge = new int[junctionCount];
+			visited = new boolean[junctionCount];
+			toVisit = new IntDoubleMinHeap(junctionCount);
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		}
+		
+		private void addStart(int junction, double junctionDist, double remainingDist, int marker) {
+			
+			if (junctionDist >= dist[junction]) return; // Happens if both ends of a chain are the same junction
+			
+			toVisit.addOrUpdateMinRating(junction, junctionDist + remainingDist);
+			dist[junction] = junctionDist;
+			prevEdge[junction] = marker;
+		}
+		
+		private boolean isDone() {
+			return toVisit.isEmpty();
+		}
+		
+		private double peekRating() {
+			return toVisit.peekRating();
+		}
+		
+		private int visitNext() {
+			int junction = toVisit.remove();
+			visited[junction] = true;
+			visitedCount++;
+			return junction;
+		}
+		
+		/**
+		 * @return True iff the path to v via the given edge is shorter than any path to v found before.
+		 */
+		private boolean relax(int u, int edge, int v, double edgeLength, double remainingDist) {
+			
+			if (visited[v]) return false;
+			
+			double newDist = dist[u] + edgeLength;
+			if (newDist < dist[v]) {
+				toVisit.addOrUpdateMinRating(v, newDist + remainingDist);
+				dist[v] = newDist;
+				prevEdge[v] = edge;
+				return true;
+			}
+			return false;
+		}
+	
+	}
+	
+	/**
+	 * The legs of a path, collected while unpacking the path.
+	 */
+	private static final class LegList {
+		
+		private final ContractedRailwayGraph graph;
+		private int[] legChains = new int[16];
+		private double[] legStartOffsets = new double[16];
+		private double[] legEndOffsets = new double[16];
+		private int legCount;
+		
+		private LegList(ContractedRailwayGraph graph) {
+			this.graph = graph;
+		}
+		
+		private void add(int chain, double startOffset, double endOffset) {
+			
+			if (legCount == legChains.length) {
+				legChains = Arrays.copyOf(legChains, legCount * 2);
+				legStartOffsets = Arrays.copyOf(legStartOffsets, legCount * 2);
+				legEndOffsets = Arrays.copyOf(legEndOffsets, legCount * 2);
+			}
+			legChains[legCount] = chain;
+			legStartOffsets[legCount] = startOffset;
+			legEndOffsets[legCount] = endOffset;
+			legCount++;
+		}
+		
+		/**
+		 * Adds a leg that follows the whole chain.
+		 */
+		private void addChain(int chain, boolean reversed) {
+			double chainLength = graph.getChainLength(chain);
+			add(chain, reversed ? chainLength : 0, reversed ? 0 : chainLength);
+		}
+		
+		private RailwayPath toRailwayPath(TrackPosition from, TrackPosition to, double length, int settledJunctionCount) {
+			return new RailwayPath(from, to, Arrays.copyOf(legChains, legCount), Arrays.copyOf(legStartOffsets, legCount),
+					Arrays.copyOf(legEndOffsets, legCount), length, settledJunctionCount);
+		}
+	
 	}
 
 }
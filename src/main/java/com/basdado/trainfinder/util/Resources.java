@@ -16,19 +16,26 @@
  */
 package com.basdado.trainfinder.util;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Resource;
 import javax.cache.CacheManager;
 import javax.cache.Caching;
 import javax.cache.spi.CachingProvider;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.inject.Disposes;
 import javax.enterprise.inject.Produces;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import com.basdado.trainfinder.config.ConfigService;
 import com.basdado.trainfinder.ns.communicator.NSCommunicator;
 import com.basdado.trainfinder.ns.communicator.NSCommunicatorConfiguration;
+import com.basdado.trainfinder.ns.communicator.NSRequestType;
 
 
 /**
@@ -38,6 +45,7 @@ import com.basdado.trainfinder.ns.communicator.NSCommunicatorConfiguration;
 public class Resources {
 
 	@Inject ConfigService configService;
+	@Resource ManagedExecutorService executor;
 	
     @Produces
     public Logger produceLog(InjectionPoint injectionPoint) {
@@ -59,8 +67,12 @@ public class Resources {
 		} 
     }
 
+    /**
+     * Produces the single NSCommunicator of the application, so all requests to the NS API share its pooled connections.
+     */
     @Produces
-    public NSCommunicator produceNSCommunicator(InjectionPoint injectionPoint) {
+    @Singleton
+    public NSCommunicator produceNSCommunicator() {
     	
     	NSCommunicatorConfiguration nsCommunicatorConfig = new NSCommunicatorConfiguration() {
 			
@@ -73,9 +85,58 @@ public class Resources {
 			public String getPassword() {
 				return configService.getNSAPIConfiguration().getPassword();
 			}
+			
+			@Override
+			public int getConnectTimeout() {
+				return configService.getNSAPIConfiguration().getConnectTimeout();
+			}
+			
+			@Override
+			public int getReadTimeout() {
+				return configService.getNSAPIConfiguration().getReadTimeout();
+			}
+			
+			@Override
+			public int getMaxConnectionsPerRoute() {
+				return configService.getNSAPIConfiguration().getMaxConnectionsPerRoute();
+			}
+			
+			@Override
+			public int getMaxConnections() {
+				return configService.getNSAPIConfiguration().getMaxConnections();
+			}
+			
+			@Override
+			public int getConnectionIdleTimeout() {
+				return configService.getNSAPIConfiguration().getConnectionIdleTimeout();
+			}
+			
+			@Override
+			public double getRequestRate(NSRequestType requestType) {
+				return configService.getNSAPIConfiguration().getRequestRate(requestType);
+			}
+			
+			@Override
+			public int getRequestBurst(NSRequestType requestType) {
+				return configService.getNSAPIConfiguration().getRequestBurst(requestType);
+			}
+			
+			@Override
+			public int getMaxRateLimitWaitTime() {
+				return configService.getNSAPIConfiguration().getMaxRateLimitWaitTime();
+			}
 		};
 		
-		return new NSCommunicator(nsCommunicatorConfig);
+		return new NSCommunicator(nsCommunicatorConfig, executor);
     	
     }
+
+    public void closeNSCommunicator(@Disposes NSCommunicator nsCommunicator) {
+
+    	try {
+    		nsCommunicator.close();
+    	} catch (IOException e) {
+    		Logger.getLogger(Resources.class.getName()).log(Level.WARNING, "Could not close the NS communicator: " + e.getMessage(), e);
+    	}
+    }
 }
@@ -0,0 +1,79 @@
+package com.basdado.trainfinder.util;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Token bucket rate limiter: tokens are added at a fixed rate, up to the capacity of the bucket, and every action
+ * takes one token. This limits the actions to the rate on average, while allowing bursts of up to capacity actions.
+ * 
+ * The current time is passed to every method (in nanoseconds, as from {@link System#nanoTime()}), which makes it
+ * easy to test. This class is not thread-safe.
+ */
+public class TokenBucket {
+	
+	private final double tokensPerNano;
+	private final double capacity;
+	
+	private double tokens;
+	private long lastRefillTime;
+	
+	/**
+	 * Creates a full token bucket.
+	 * @param rate The number of tokens added per second
+	 * @param capacity The maximum number of tokens in the bucket (at least 1)
+	 * @param now The current time in nanoseconds
+	 */
+	public TokenBucket(double rate, double capacity, long now) {
+		Validate.isTrue(rate > 0, "The rate should be positive, but was %f", rate);
+		Validate.isTrue(capacity >= 1, "The capacity should be at least 1, but was %f", capacity);
+		this.tokensPerNano = rate / 1e9;
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.lastRefillTime = now;
+	}
+	
+	/**
+	 * Takes a token from the bucket, if there is one.
+	 * @return Whether a token was taken.
+	 */
+	public boolean tryTake(long now) {
+		
+		refill(now);
+		if (tokens < 1) {
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+	
+	/**
+	 * @return The time (in nanoseconds) until a token can be taken, or 0 if a token can be taken right away.
+	 */
+	public long getNanosUntilAvailable(long now) {
+		
+		refill(now);
+		if (tokens >= 1) {
+			return 0;
+		}
+		return (long) Math.ceil((1 - tokens) / tokensPerNano);
+	}
+	
+	/**
+	 * @return The number of (whole) tokens in the bucket.
+	 */
+	public int getAvailableTokens(long now) {
+		
+		refill(now);
+		return (int) tokens;
+	}
+	
+	private void refill(long now) {
+		
+		long elapsed = now - lastRefillTime;
+		if (elapsed > 0) {
+			tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+			lastRefillTime = now;
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.basdado.trainfinder.benchmark;
+
+import java.util.Random;
+
+import org.apache.commons.configuration2.BaseConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import com.basdado.trainfinder.config.OpenStreetMapConfiguration;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.osm.OsmRailwayMapLoader;
+import com.basdado.trainfinder.test.TestRailwayGraphs;
+
+/**
+ * Provides the railway graph the benchmarks run on.
+ */
+final class BenchmarkRailwayGraphs {
+	
+	private BenchmarkRailwayGraphs() {}
+	
+	/**
+	 * Loads the railway graph from the given OSM file (using the snapshot next to it, if any). If no file is given,
+	 * a generated network of roughly the size of the Dutch railway network is used instead.
+	 * @param railroadFile OSM (XML or PBF) file, or an empty string.
+	 */
+	static RailwayGraph load(String railroadFile) {
+		
+		if (StringUtils.isBlank(railroadFile)) {
+			// About 35000 nodes in total
+			return TestRailwayGraphs.createRandomGridRailwayGraph(new Random(42), 30, 20, 0.05);
+		}
+		
+		BaseConfiguration config = new BaseConfiguration();
+		config.setProperty("OpenStreetMap.RailroadFile", railroadFile);
+		config.setProperty("OpenStreetMap.PreferredStationToTrackDistance", 50);
+		config.setProperty("OpenStreetMap.MaxStationToTrackDistance", 100);
+		return new OsmRailwayMapLoader(new OpenStreetMapConfiguration(config)).load();
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.basdado.trainfinder.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.util.CoordinateUtil;
+
+/**
+ * Compares the exact (haversine and bearing based) distance functions of {@link CoordinateUtil} with their
+ * equirectangular approximations, on the tracks of the railway graph and random positions near them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DistanceBenchmark {
+	
+	/**
+	 * The OSM file to read the railway graph from. Uses a generated railway graph if empty.
+	 */
+	@Param({""})
+	public String railroadFile;
+	
+	private static final int TRACK_COUNT = 1000;
+	/** The maximum distance (in degrees) between a track and the position near it. */
+	private static final double MAX_POSITION_OFFSET = 0.005;
+	
+	private double[] latitudes1;
+	private double[] longitudes1;
+	private double[] latitudes2;
+	private double[] longitudes2;
+	private double[] latitudes3;
+	private double[] longitudes3;
+	
+	@Setup
+	public void setUp() {
+		RailwayGraph railwayGraph = BenchmarkRailwayGraphs.load(railroadFile);
+		
+		Random random = new Random(1);
+		latitudes1 = new double[TRACK_COUNT];
+		longitudes1 = new double[TRACK_COUNT];
+		latitudes2 = new double[TRACK_COUNT];
+		longitudes2 = new double[TRACK_COUNT];
+		latitudes3 = new double[TRACK_COUNT];
+		longitudes3 = new double[TRACK_COUNT];
+		for (int i = 0; i < TRACK_COUNT; i++) {
+			int node = random.nextInt(railwayGraph.getNodeCount());
+			int connection = railwayGraph.getFirstConnection(node);
+			int neighborNode = connection < railwayGraph.getConnectionEnd(node) ? railwayGraph.getConnectionTarget(connection) : node;
+			
+			LatLng position1 = railwayGraph.getPosition(node);
+			LatLng position2 = railwayGraph.getPosition(neighborNode);
+			latitudes1[i] = position1.getLatitude();
+			longitudes1[i] = position1.getLongitude();
+			latitudes2[i] = position2.getLatitude();
+			longitudes2[i] = position2.getLongitude();
+			latitudes3[i] = position1.getLatitude() + (random.nextDouble() * 2 - 1) * MAX_POSITION_OFFSET;
+			longitudes3[i] = position1.getLongitude() + (random.nextDouble() * 2 - 1) * MAX_POSITION_OFFSET;
+		}
+	}
+	
+	@Benchmark
+	public double dist() {
+		
+		double res = 0;
+		for (int i = 0; i < TRACK_COUNT; i++) {
+			res += CoordinateUtil.dist(new LatLng(latitudes1[i], longitudes1[i]), new LatLng(latitudes3[i], longitudes3[i]));
+		}
+		return res;
+	}
+	
+	@Benchmark
+	public double angularDist() {
+		
+		double res = 0;
+		for (int i = 0; i < TRACK_COUNT; i++) {
+			res += CoordinateUtil.angularDist(latitudes1[i], longitudes1[i], latitudes3[i], longitudes3[i]);
+		}
+		return res;
+	}
+	
+	@Benchmark
+	public double equirectangularDist() {
+		
+		double res = 0;
+		for (int i = 0; i < TRACK_COUNT; i++) {
+			res += CoordinateUtil.equirectangularDist(latitudes1[i], longitudes1[i], latitudes3[i], longitudes3[i]);
+		}
+		return res;
+	}
+	
+	@Benchmark
+	public double crossTrackDist() {
+		
+		double res = 0;
+		for (int i = 0; i < TRACK_COUNT; i++) {
+			res += Math.abs(CoordinateUtil.crossTrackDist(new LatLng(latitudes1[i], longitudes1[i]),
+					new LatLng(latitudes2[i], longitudes2[i]), new LatLng(latitudes3[i], longitudes3[i])));
+		}
+		return res;
+	}
+	
+	@Benchmark
+	public double equirectangularCrossTrackDist() {
+		
+		double res = 0;
+		for (int i = 0; i < TRACK_COUNT; i++) {
+			res += CoordinateUtil.equirectangularCrossTrackDist(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i], latitudes3[i], longitudes3[i]);
+		}
+		return res;
+	}
+
+}
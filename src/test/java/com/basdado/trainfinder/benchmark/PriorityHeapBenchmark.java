@@ -0,0 +1,220 @@
+package com.basdado.trainfinder.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.util.IntDoubleMinHeap;
+import com.basdado.trainfinder.util.PriorityHeap;
+
+/**
+ * Compares the indexed {@link PriorityHeap} with the previous implementation (which looked up items with a linear scan)
+ * and with the primitive {@link IntDoubleMinHeap}, by running a full Dijkstra search over the railway graph from a number
+ * of random nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PriorityHeapBenchmark {
+	
+	/**
+	 * The OSM file to read the railway graph from. Uses a generated railway graph if empty.
+	 */
+	@Param({""})
+	public String railroadFile;
+	
+	private RailwayGraph railwayGraph;
+	private int[] sourceNodes;
+	
+	@Setup
+	public void setUp() {
+		railwayGraph = BenchmarkRailwayGraphs.load(railroadFile);
+		
+		Random random = new Random(1);
+		sourceNodes = new int[10];
+		for (int i = 0; i < sourceNodes.length; i++) {
+			sourceNodes[i] = random.nextInt(railwayGraph.getNodeCount());
+		}
+		
+		// All heaps should result in the same distances, or the comparison is meaningless
+		for (int source : sourceNodes) {
+			double[] expected = initDistances(source);
+			indexedHeap(source, expected);
+			checkDistances("LinearScanPriorityHeap", expected, source, dist -> linearScanHeap(source, dist));
+			checkDistances("IntDoubleMinHeap", expected, source, dist -> intDoubleMinHeap(source, dist, new IntDoubleMinHeap(dist.length, 2)));
+			checkDistances("4-ary IntDoubleMinHeap", expected, source, dist -> intDoubleMinHeap(source, dist, new IntDoubleMinHeap(dist.length, 4)));
+		}
+	}
+	
+	private void checkDistances(String heapName, double[] expected, int source, ToDoubleFunction<double[]> dijkstra) {
+		
+		double[] dist = initDistances(source);
+		dijkstra.applyAsDouble(dist);
+		if (!Arrays.equals(expected, dist)) {
+			throw new IllegalStateException("Dijkstra with the " + heapName + " finds other distances from node " + source + " than with the PriorityHeap");
+		}
+	}
+	
+	@Benchmark
+	public double indexedHeap() {
+		
+		double res = 0;
+		for (int source : sourceNodes) {
+			res += indexedHeap(source, initDistances(source));
+		}
+		return res;
+	}
+	
+	@Benchmark
+	public double linearScanHeap() {
+		
+		double res = 0;
+		for (int source : sourceNodes) {
+			res += linearScanHeap(source, initDistances(source));
+		}
+		return res;
+	}
+	
+	@Benchmark
+	public double intDoubleMinHeap() {
+		return intDoubleMinHeap(2);
+	}
+	
+	@Benchmark
+	public double intDoubleMinHeap4Ary() {
+		return intDoubleMinHeap(4);
+	}
+	
+	private double intDoubleMinHeap(int arity) {
+		
+		double res = 0;
+		IntDoubleMinHeap toVisit = new IntDoubleMinHeap(railwayGraph.getNodeCount(), arity);
+		for (int source : sourceNodes) {
+			res += intDoubleMinHeap(source, initDistances(source), toVisit);
+		}
+		return res;
+	}
+	
+	/**
+	 * Runs Dijkstra's algorithm from the source using a {@link PriorityHeap}.
+	 * @param dist The initial distance of each node, which is replaced by the distance from the source
+	 * @return The sum of the distances of the visited nodes.
+	 */
+	private double indexedHeap(int source, double[] dist) {
+		
+		double res = 0;
+		boolean[] visited = new boolean[dist.length];
+		PriorityHeap<Integer> toVisit = new PriorityHeap<>();
+		toVisit.add(source, 0);
+		
+		while (!toVisit.isEmpty()) {
+			double uDist = toVisit.peekRating();
+			int u = toVisit.remove();
+			visited[u] = true;
+			res += uDist;
+			
+			for (int c = railwayGraph.getFirstConnection(u); c < railwayGraph.getConnectionEnd(u); c++) {
+				int v = railwayGraph.getConnectionTarget(c);
+				double newDist = uDist + railwayGraph.getConnectionLength(c);
+				if (!visited[v] && newDist < dist[v]) {
+					if (dist[v] == Double.POSITIVE_INFINITY) {
+						toVisit.add(v, newDist);
+					} else {
+						toVisit.updateMinRating(v, newDist);
+					}
+					dist[v] = newDist;
+				}
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * Runs Dijkstra's algorithm from the source using a {@link LinearScanPriorityHeap}.
+	 * @param dist The initial distance of each node, which is replaced by the distance from the source
+	 * @return The sum of the distances of the visited nodes.
+	 */
+	private double linearScanHeap(int source, double[] dist) {
+		
+		double res = 0;
+		boolean[] visited = new boolean[dist.length];
+		LinearScanPriorityHeap<Integer> toVisit = new LinearScanPriorityHeap<>();
+		toVisit.add(source, 0);
+		
+		while (!toVisit.isEmpty()) {
+			double uDist = toVisit.peekRating();
+			int u = toVisit.remove();
+			visited[u] = true;
+			res += uDist;
+			
+			for (int c = railwayGraph.getFirstConnection(u); c < railwayGraph.getConnectionEnd(u); c++) {
+				int v = railwayGraph.getConnectionTarget(c);
+				double newDist = uDist + railwayGraph.getConnectionLength(c);
+				if (!visited[v] && newDist < dist[v]) {
+					if (dist[v] == Double.POSITIVE_INFINITY) {
+						toVisit.add(v, newDist);
+					} else {
+						toVisit.updateMinRating(v, newDist);
+					}
+					dist[v] = newDist;
+				}
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * Runs Dijkstra's algorithm from the source using the given (reused) {@link IntDoubleMinHeap}.
+	 * @param dist The initial distance of each node, which is replaced by the distance from the source
+	 * @return The sum of the distances of the visited nodes.
+	 */
+	private double intDoubleMinHeap(int source, double[] dist, IntDoubleMinHeap toVisit) {
+		
+		double res = 0;
+		boolean[] visited = new boolean[dist.length];
+		toVisit.clear();
+		toVisit.add(source, 0);
+		
+		while (!toVisit.isEmpty()) {
+			double uDist = toVisit.peekRating();
+			int u = toVisit.remove();
+			visited[u] = true;
+			res += uDist;
+			
+			for (int c = railwayGraph.getFirstConnection(u); c < railwayGraph.getConnectionEnd(u); c++) {
+				int v = railwayGraph.getConnectionTarget(c);
+				double newDist = uDist + railwayGraph.getConnectionLength(c);
+				if (!visited[v] && newDist < dist[v]) {
+					toVisit.addOrUpdateMinRating(v, newDist);
+					dist[v] = newDist;
+				}
+			}
+		}
+		return res;
+	}
+	
+	private double[] initDistances(int source) {
+		double[] dist = new double[railwayGraph.getNodeCount()];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		dist[source] = 0;
+		return dist;
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.basdado.trainfinder.benchmark;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.basdado.trainfinder.model.ContractedRailwayGraph;
+import com.basdado.trainfinder.model.ContractionHierarchy;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.model.RailwayPath;
+import com.basdado.trainfinder.model.TrackPosition;
+import com.basdado.trainfinder.test.TestRailwayGraphs;
+import com.basdado.trainfinder.util.RailwayMapUtil;
+import com.basdado.trainfinder.util.RailwayMapUtil.SearchAlgorithm;
+
+/**
+ * Compares the search algorithms of {@link RailwayMapUtil} with a query on the {@link ContractionHierarchy}, by finding
+ * the paths between a number of random pairs of nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RoutingBenchmark {
+	
+	/**
+	 * The OSM file to read the railway graph from. Uses a generated railway graph if empty.
+	 */
+	@Param({""})
+	public String railroadFile;
+	
+	private ContractedRailwayGraph routingGraph;
+	private ContractionHierarchy contractionHierarchy;
+	private TrackPosition[] sources;
+	private TrackPosition[] destinations;
+	
+	@Setup
+	public void setUp() {
+		RailwayGraph railwayGraph = BenchmarkRailwayGraphs.load(railroadFile);
+		routingGraph = new ContractedRailwayGraph(railwayGraph);
+		contractionHierarchy = ContractionHierarchy.build(routingGraph);
+		
+		Random random = new Random(1);
+		sources = new TrackPosition[10];
+		destinations = new TrackPosition[sources.length];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = TestRailwayGraphs.randomNodePosition(railwayGraph, random);
+			destinations[i] = TestRailwayGraphs.randomNodePosition(railwayGraph, random);
+		}
+		
+		// Comparing the speed only makes sense if all of them find the shortest paths
+		for (int i = 0; i < sources.length; i++) {
+			double expectedLength = getLength(RailwayMapUtil.calculateShortestPathBetween(routingGraph, sources[i], Collections.singletonList(destinations[i]), SearchAlgorithm.DIJKSTRA));
+			for (SearchAlgorithm algorithm : SearchAlgorithm.values()) {
+				checkLength(algorithm.name(), i, expectedLength, RailwayMapUtil.calculateShortestPathBetween(routingGraph, sources[i], Collections.singletonList(destinations[i]), algorithm));
+			}
+			checkLength("Contraction hierarchy", i, expectedLength, RailwayMapUtil.calculateShortestPathBetween(contractionHierarchy, sources[i], Collections.singletonList(destinations[i])));
+		}
+	}
+	
+	private void checkLength(String algorithmName, int pathIndex, double expectedLength, RailwayPath path) {
+		
+		if (Math.abs(getLength(path) - expectedLength) > 1e-6) {
+			throw new IllegalStateException(algorithmName + " finds a path of " + getLength(path) + " m from " + sources[pathIndex] +
+					" to " + destinations[pathIndex] + ", but Dijkstra finds a path of " + expectedLength + " m");
+		}
+	}
+	
+	private static double getLength(RailwayPath path) {
+		return path == null ? 0 : path.getLength();
+	}
+	
+	@Benchmark
+	public double dijkstra() {
+		return search(SearchAlgorithm.DIJKSTRA);
+	}
+	
+	@Benchmark
+	public double aStar() {
+		return search(SearchAlgorithm.A_STAR);
+	}
+	
+	@Benchmark
+	public double bidirectionalDijkstra() {
+		return search(SearchAlgorithm.BIDIRECTIONAL_DIJKSTRA);
+	}
+	
+	@Benchmark
+	public double contractionHierarchy() {
+		
+		double res = 0;
+		for (int i = 0; i < sources.length; i++) {
+			RailwayPath path = RailwayMapUtil.calculateShortestPathBetween(contractionHierarchy, sources[i], Collections.singletonList(destinations[i]));
+			res += getLength(path);
+		}
+		return res;
+	}
+	
+	private double search(SearchAlgorithm algorithm) {
+		
+		double res = 0;
+		for (int i = 0; i < sources.length; i++) {
+			RailwayPath path = RailwayMapUtil.calculateShortestPathBetween(routingGraph, sources[i], Collections.singletonList(destinations[i]), algorithm);
+			res += getLength(path);
+		}
+		return res;
+	}
+
+}
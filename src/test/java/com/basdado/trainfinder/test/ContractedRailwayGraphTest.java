@@ -0,0 +1,233 @@
+package com.basdado.trainfinder.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.model.ContractedRailwayGraph;
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.OsmRailwayMap;
+import com.basdado.trainfinder.model.OsmRailwayMap.OsmRailwayMapNode;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.model.TrackPosition;
+
+public class ContractedRailwayGraphTest {
+	
+	@Test
+	public void singleChainTest() {
+		
+		ContractedRailwayGraph graph = createGraph(new long[][] {
+			{ 1, 2, 100 }, { 2, 3, 200 }, { 3, 4, 300 }, { 4, 5, 400 }
+		});
+		
+		Assert.assertEquals(2, graph.getJunctionCount());
+		Assert.assertEquals(1, graph.getChainCount());
+		assertChain(graph, 0, 1000, 1, 2, 3, 4, 5);
+		assertEdges(graph, 1, 1000);
+		assertEdges(graph, 5, 1000);
+		assertPositionsOnChains(graph);
+	}
+	
+	@Test
+	public void pureLoopTest() {
+		
+		ContractedRailwayGraph graph = createGraph(new long[][] {
+			{ 1, 2, 100 }, { 2, 3, 100 }, { 3, 4, 100 }, { 4, 1, 200 }
+		});
+		
+		// All nodes have two connections, so one of them has to become a junction
+		Assert.assertEquals(1, graph.getJunctionCount());
+		Assert.assertEquals(1, graph.getChainCount());
+		Assert.assertEquals(graph.getChainStartJunction(0), graph.getChainEndJunction(0));
+		assertChain(graph, 0, 500, 1, 2, 3, 4, 1);
+		assertEdges(graph, 1, 500, 500);
+		assertPositionsOnChains(graph);
+	}
+	
+	@Test
+	public void loopAtJunctionTest() {
+		
+		ContractedRailwayGraph graph = createGraph(new long[][] {
+			// A loop at junction 1, with a spur to 4
+			{ 1, 2, 100 }, { 2, 3, 100 }, { 3, 1, 100 }, { 1, 4, 50 },
+			// A loop without any junction, which is only found in the second pass
+			{ 10, 11, 30 }, { 11, 12, 30 }, { 12, 10, 40 }
+		});
+		
+		Assert.assertEquals(3, graph.getJunctionCount());
+		Assert.assertEquals(3, graph.getChainCount());
+		int loop = findChain(graph, 2, 3);
+		Assert.assertEquals(graph.getChainStartJunction(loop), graph.getChainEndJunction(loop));
+		assertChain(graph, loop, 300, 1, 2, 3, 1);
+		assertChain(graph, findChain(graph, 1, 4), 50, 1, 4);
+		assertChain(graph, findChain(graph, 11, 12), 100, 10, 11, 12, 10);
+		assertEdges(graph, 1, 300, 300, 50);
+		assertEdges(graph, 4, 50);
+		assertEdges(graph, 10, 100, 100);
+		assertPositionsOnChains(graph);
+	}
+	
+	@Test
+	public void parallelChainsTest() {
+		
+		ContractedRailwayGraph graph = createGraph(new long[][] {
+			// Two chains between junctions 1 and 2
+			{ 1, 5, 100 }, { 5, 2, 100 },
+			{ 1, 6, 50 }, { 6, 7, 50 }, { 7, 2, 50 },
+			// A direct track between them as well
+			{ 1, 2, 400 },
+			{ 1, 3, 10 }, { 2, 4, 20 }
+		});
+		
+		Assert.assertEquals(4, graph.getJunctionCount());
+		Assert.assertEquals(5, graph.getChainCount());
+		assertChain(graph, findChain(graph, 5, 2), 200, 1, 5, 2);
+		assertChain(graph, findChain(graph, 6, 7), 150, 1, 6, 7, 2);
+		assertChain(graph, findChain(graph, 1, 2), 400, 1, 2);
+		assertChain(graph, findChain(graph, 1, 3), 10, 1, 3);
+		assertChain(graph, findChain(graph, 2, 4), 20, 2, 4);
+		assertEdges(graph, 1, 200, 150, 400, 10);
+		assertEdges(graph, 2, 200, 150, 400, 20);
+		
+		// The edges between the junctions follow different chains
+		int junction1 = graph.getNodeJunction(getNode(graph, 1));
+		int junction2 = graph.getNodeJunction(getNode(graph, 2));
+		Set<Integer> chains = new HashSet<>();
+		for (int e = graph.getFirstEdge(junction1); e < graph.getEdgeEnd(junction1); e++) {
+			if (graph.getEdgeTarget(e) == junction2) {
+				chains.add(graph.getEdgeChain(e));
+			}
+		}
+		Assert.assertEquals(3, chains.size());
+		assertPositionsOnChains(graph);
+	}
+	
+	/**
+	 * Creates a graph from the given tracks, each given as the OSM ids of the nodes at both ends and the track length.
+	 */
+	private static ContractedRailwayGraph createGraph(long[][] tracks) {
+		
+		OsmRailwayMap railwayMap = new OsmRailwayMap();
+		for (long[] track : tracks) {
+			for (int i = 0; i < 2; i++) {
+				if (railwayMap.getNode(track[i]) == null) {
+					railwayMap.addNode(track[i], new OsmRailwayMapNode(new LatLng(52 + track[i] * 0.001, 5 + (track[i] % 3) * 0.001)));
+				}
+			}
+			railwayMap.addConnection(track[0], track[1], track[2]);
+		}
+		return new ContractedRailwayGraph(railwayMap.toRailwayGraph());
+	}
+	
+	private static int getNode(ContractedRailwayGraph graph, long osmNodeId) {
+		
+		RailwayGraph railwayGraph = graph.getRailwayGraph();
+		for (int node = 0; node < railwayGraph.getNodeCount(); node++) {
+			if (railwayGraph.getOsmNodeId(node) == osmNodeId) {
+				return node;
+			}
+		}
+		throw new IllegalArgumentException("Unknown node: " + osmNodeId);
+	}
+	
+	/**
+	 * @return The chain that contains the track between the given nodes.
+	 */
+	private static int findChain(ContractedRailwayGraph graph, long osmNodeId1, long osmNodeId2) {
+		
+		int node1 = getNode(graph, osmNodeId1);
+		int node2 = getNode(graph, osmNodeId2);
+		return graph.getChain(TrackPosition.onConnection(node1, node2, 1, 1, graph.getRailwayGraph().getPosition(node1)));
+	}
+	
+	/**
+	 * Checks that the chain consists of the given nodes (in either direction), and that the offsets of its nodes add up
+	 * to the given length.
+	 */
+	private static void assertChain(ContractedRailwayGraph graph, int chain, double length, long... expectedOsmNodeIds) {
+		
+		RailwayGraph railwayGraph = graph.getRailwayGraph();
+		List<Long> osmNodeIds = new ArrayList<>();
+		for (int i = graph.getFirstChainNode(chain); i < graph.getChainNodeEnd(chain); i++) {
+			osmNodeIds.add(railwayGraph.getOsmNodeId(graph.getChainNode(i)));
+		}
+		List<Long> expected = new ArrayList<>();
+		for (long osmNodeId : expectedOsmNodeIds) {
+			expected.add(osmNodeId);
+		}
+		List<Long> expectedReversed = new ArrayList<>(expected);
+		Collections.reverse(expectedReversed);
+		Assert.assertTrue("Chain " + osmNodeIds + ", expected " + expected, osmNodeIds.equals(expected) || osmNodeIds.equals(expectedReversed));
+		
+		Assert.assertEquals(length, graph.getChainLength(chain), 1e-3);
+		Assert.assertEquals(0, graph.getChainNodeOffset(graph.getFirstChainNode(chain)), 0);
+		for (int i = graph.getFirstChainNode(chain) + 1; i < graph.getChainNodeEnd(chain); i++) {
+			int connection = railwayGraph.findConnection(graph.getChainNode(i - 1), graph.getChainNode(i));
+			Assert.assertEquals(graph.getChainNodeOffset(i - 1) + railwayGraph.getConnectionLength(connection), graph.getChainNodeOffset(i), 1e-3);
+		}
+		
+		Assert.assertEquals(graph.getChainNode(graph.getFirstChainNode(chain)), graph.getJunctionNode(graph.getChainStartJunction(chain)));
+		Assert.assertEquals(graph.getChainNode(graph.getChainNodeEnd(chain) - 1), graph.getJunctionNode(graph.getChainEndJunction(chain)));
+	}
+	
+	/**
+	 * Checks the lengths of the edges of the junction at the given node.
+	 */
+	private static void assertEdges(ContractedRailwayGraph graph, long osmNodeId, double... expectedLengths) {
+		
+		int junction = graph.getNodeJunction(getNode(graph, osmNodeId));
+		Assert.assertTrue("Not a junction: " + osmNodeId, junction != -1);
+		
+		double[] lengths = new double[graph.getEdgeEnd(junction) - graph.getFirstEdge(junction)];
+		for (int e = graph.getFirstEdge(junction); e < graph.getEdgeEnd(junction); e++) {
+			lengths[e - graph.getFirstEdge(junction)] = graph.getEdgeLength(e);
+			Assert.assertEquals(graph.getChainLength(graph.getEdgeChain(e)), graph.getEdgeLength(e), 0);
+		}
+		double[] expected = expectedLengths.clone();
+		Arrays.sort(lengths);
+		Arrays.sort(expected);
+		Assert.assertArrayEquals(expected, lengths, 1e-3);
+	}
+	
+	/**
+	 * Checks that positions at the nodes in the middle of each chain, and on each track of each chain, are found on that
+	 * chain at the right offset.
+	 */
+	private static void assertPositionsOnChains(ContractedRailwayGraph graph) {
+		
+		RailwayGraph railwayGraph = graph.getRailwayGraph();
+		for (int chain = 0; chain < graph.getChainCount(); chain++) {
+			for (int i = graph.getFirstChainNode(chain); i < graph.getChainNodeEnd(chain); i++) {
+				
+				int node = graph.getChainNode(i);
+				if (graph.getNodeJunction(node) == -1) {
+					Assert.assertEquals(-1, graph.getJunction(TrackPosition.atNode(node, railwayGraph.getPosition(node))));
+					Assert.assertEquals(chain, graph.getChain(TrackPosition.atNode(node, railwayGraph.getPosition(node))));
+					Assert.assertEquals(graph.getChainNodeOffset(i), graph.getChainOffset(TrackPosition.atNode(node, railwayGraph.getPosition(node))), 1e-3);
+				}
+				if (i == graph.getFirstChainNode(chain)) {
+					continue;
+				}
+				
+				// A quarter along the track from the previous node, from either side
+				int previousNode = graph.getChainNode(i - 1);
+				double trackLength = graph.getChainNodeOffset(i) - graph.getChainNodeOffset(i - 1);
+				double expectedOffset = graph.getChainNodeOffset(i - 1) + trackLength / 4;
+				for (TrackPosition position : Arrays.asList(
+						TrackPosition.onConnection(previousNode, node, trackLength / 4, trackLength * 3 / 4, railwayGraph.getPosition(node)),
+						TrackPosition.onConnection(node, previousNode, trackLength * 3 / 4, trackLength / 4, railwayGraph.getPosition(node)))) {
+					Assert.assertEquals(-1, graph.getJunction(position));
+					Assert.assertEquals(chain, graph.getChain(position));
+					Assert.assertEquals(expectedOffset, graph.getChainOffset(position), 1e-3);
+				}
+			}
+		}
+	}
+
+}
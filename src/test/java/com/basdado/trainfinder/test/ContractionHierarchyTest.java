@@ -0,0 +1,92 @@
+package com.basdado.trainfinder.test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.model.ContractedRailwayGraph;
+import com.basdado.trainfinder.model.ContractionHierarchy;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.model.RailwayPath;
+import com.basdado.trainfinder.model.TrackPosition;
+import com.basdado.trainfinder.util.RailwayMapUtil;
+import com.basdado.trainfinder.util.RailwayMapUtil.SearchAlgorithm;
+
+public class ContractionHierarchyTest {
+	
+	@Test
+	public void shortestPathTest() {
+		assertShortestPaths(false);
+	}
+	
+	/**
+	 * Like the track positions of stations, the sources and destinations may be anywhere on a track, so the search has to
+	 * start and end in the middle of a chain.
+	 */
+	@Test
+	public void trackPositionsTest() {
+		assertShortestPaths(true);
+	}
+	
+	/**
+	 * Compares the paths found using the contraction hierarchy with the paths found by Dijkstra's algorithm.
+	 * @param onTracks True iff the sources and destinations may be between two nodes, otherwise they are always at a node.
+	 */
+	private static void assertShortestPaths(boolean onTracks) {
+		
+		Random random = new Random(1);
+		RailwayGraph railwayGraph = TestRailwayGraphs.createRandomRailwayGraph(random, 200, 0.1, 40, 11);
+		ContractedRailwayGraph routingGraph = new ContractedRailwayGraph(railwayGraph);
+		ContractionHierarchy hierarchy = ContractionHierarchy.build(routingGraph);
+		
+		for (int i = 0; i < 500; i++) {
+			TrackPosition source = onTracks ? TestRailwayGraphs.randomTrackPosition(railwayGraph, random) : TestRailwayGraphs.randomNodePosition(railwayGraph, random);
+			TrackPosition destination = onTracks ? TestRailwayGraphs.randomTrackPosition(railwayGraph, random) : TestRailwayGraphs.randomNodePosition(railwayGraph, random);
+			List<TrackPosition> destinations = Collections.singletonList(destination);
+			
+			RailwayPath expected = RailwayMapUtil.calculateShortestPathBetween(routingGraph, source, destinations, SearchAlgorithm.DIJKSTRA);
+			RailwayPath actual = RailwayMapUtil.calculateShortestPathBetween(hierarchy, source, destinations);
+			if (expected == null) {
+				Assert.assertNull(actual);
+				continue;
+			}
+			
+			Assert.assertEquals(expected.getLength(), actual.getLength(), 1e-6);
+			
+			// The unpacked legs should be connected, and add up to the length of the path
+			double legLength = 0;
+			for (int leg = 0; leg < actual.getLegCount(); leg++) {
+				legLength += Math.abs(actual.getLegEndOffset(leg) - actual.getLegStartOffset(leg));
+				if (leg > 0) {
+					Assert.assertEquals(getLegEndNode(routingGraph, actual, leg - 1), getLegStartNode(routingGraph, actual, leg));
+				}
+			}
+			Assert.assertEquals(actual.getLength(), legLength, 1e-6);
+			
+			// A path from or to the middle of a chain starts or ends with part of that chain
+			if (routingGraph.getJunction(source) == -1) {
+				Assert.assertEquals(routingGraph.getChain(source), actual.getLegChain(0));
+				Assert.assertEquals(routingGraph.getChainOffset(source), actual.getLegStartOffset(0), 1e-6);
+			}
+			if (routingGraph.getJunction(destination) == -1) {
+				int lastLeg = actual.getLegCount() - 1;
+				Assert.assertEquals(routingGraph.getChain(destination), actual.getLegChain(lastLeg));
+				Assert.assertEquals(routingGraph.getChainOffset(destination), actual.getLegEndOffset(lastLeg), 1e-6);
+			}
+		}
+	}
+	
+	private static int getLegStartNode(ContractedRailwayGraph graph, RailwayPath path, int leg) {
+		int chain = path.getLegChain(leg);
+		return graph.getChainNode(path.getLegStartOffset(leg) == 0 ? graph.getFirstChainNode(chain) : graph.getChainNodeEnd(chain) - 1);
+	}
+	
+	private static int getLegEndNode(ContractedRailwayGraph graph, RailwayPath path, int leg) {
+		int chain = path.getLegChain(leg);
+		return graph.getChainNode(path.getLegEndOffset(leg) == 0 ? graph.getFirstChainNode(chain) : graph.getChainNodeEnd(chain) - 1);
+	}
+
+}
@@ -1,5 +1,7 @@
 package com.basdado.trainfinder.test;
 
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -131,4 +133,39 @@ public class CoordinateUtilTest {
         Assert.assertEquals(CoordinateUtil.dist(c1, c2), d, 1.0);
 	}
 
+	@Test
+	public void testEquirectangularErrorBound() {
+		
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			LatLng c1 = randomCoordinate(random, new LatLng(
+					(random.nextDouble() * 2 - 1) * (CoordinateUtil.EQUIRECTANGULAR_MAX_LATITUDE - 1), random.nextDouble() * 360 - 180));
+			LatLng c2 = randomCoordinate(random, c1);
+			LatLng c3 = randomCoordinate(random, c1);
+			
+			double dist = CoordinateUtil.dist(c1, c2);
+			double approximateDist = CoordinateUtil.equirectangularDist(c1.getLatitude(), c1.getLongitude(), c2.getLatitude(), c2.getLongitude());
+			Assert.assertEquals(dist, approximateDist, dist * CoordinateUtil.EQUIRECTANGULAR_RELATIVE_ERROR);
+			
+			double crossTrackDist = Math.abs(CoordinateUtil.crossTrackDist(c1, c2, c3));
+			double approximateCrossTrackDist = CoordinateUtil.equirectangularCrossTrackDist(
+					c1.getLatitude(), c1.getLongitude(), c2.getLatitude(), c2.getLongitude(), c3.getLatitude(), c3.getLongitude());
+			double farthestDistance = Math.max(CoordinateUtil.dist(c1, c3), CoordinateUtil.dist(c2, c3));
+			double maxLatitude = Math.max(Math.abs(c3.getLatitude()), Math.max(Math.abs(c1.getLatitude()), Math.abs(c2.getLatitude())));
+			Assert.assertEquals(crossTrackDist, approximateCrossTrackDist, crossTrackDist * CoordinateUtil.EQUIRECTANGULAR_RELATIVE_ERROR
+					+ CoordinateUtil.equirectangularCrossTrackError(farthestDistance, maxLatitude));
+		}
+	}
+
+	/**
+	 * @return A random coordinate within half of {@link CoordinateUtil#EQUIRECTANGULAR_MAX_DISTANCE} of the given one.
+	 */
+	private static LatLng randomCoordinate(Random random, LatLng c) {
+		
+		double angularDistance = random.nextDouble() * CoordinateUtil.EQUIRECTANGULAR_MAX_DISTANCE / 2 / CoordinateUtil.RADIUS_EARTH;
+		double bearing = random.nextDouble() * 2 * Math.PI;
+		return new LatLng(c.getLatitude() + Math.toDegrees(angularDistance * Math.cos(bearing)),
+				c.getLongitude() + Math.toDegrees(angularDistance * Math.sin(bearing) / Math.cos(Math.toRadians(c.getLatitude()))));
+	}
+
 }
@@ -0,0 +1,93 @@
+package com.basdado.trainfinder.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.util.IntDoubleMinHeap;
+
+public class IntDoubleMinHeapTest {
+	
+	@Test
+	public void orderTest() {
+		
+		IntDoubleMinHeap heap = new IntDoubleMinHeap(4);
+		heap.add(1, 2.0);
+		heap.add(2, 3.0);
+		heap.add(3, 4.0);
+		heap.add(0, 1.0);
+		
+		Assert.assertEquals(0, heap.remove());
+		Assert.assertEquals(1, heap.remove());
+		Assert.assertEquals(2, heap.remove());
+		Assert.assertEquals(3, heap.remove());
+		Assert.assertTrue(heap.isEmpty());
+		Assert.assertEquals(-1, heap.remove());
+	}
+	
+	@Test
+	public void updateMinRatingTest() {
+		
+		IntDoubleMinHeap heap = new IntDoubleMinHeap(5);
+		heap.add(0, 1.0);
+		heap.add(1, 2.0);
+		heap.add(2, 3.0);
+		heap.add(3, 4.0);
+		
+		Assert.assertTrue(heap.updateMinRating(3, 0.5));
+		Assert.assertTrue(heap.updateMinRating(1, 0.8));
+		Assert.assertFalse(heap.updateMinRating(2, 5.0));
+		Assert.assertFalse(heap.updateMinRating(4, 0.1));
+		Assert.assertEquals(0.8, heap.getRating(1), 0.0);
+		
+		Assert.assertEquals(3, heap.remove());
+		Assert.assertEquals(1, heap.remove());
+		Assert.assertEquals(0, heap.remove());
+		Assert.assertEquals(2, heap.remove());
+	}
+	
+	@Test
+	public void clearTest() {
+		
+		IntDoubleMinHeap heap = new IntDoubleMinHeap(3);
+		heap.add(0, 1.0);
+		heap.add(2, 2.0);
+		heap.clear();
+		
+		Assert.assertTrue(heap.isEmpty());
+		Assert.assertFalse(heap.contains(0));
+		heap.add(0, 3.0);
+		Assert.assertEquals(0, heap.peek());
+	}
+	
+	@Test
+	public void randomTest() {
+		
+		Random random = new Random(7);
+		for (int arity = 2; arity <= 5; arity++) {
+			
+			int keyCount = 1000;
+			IntDoubleMinHeap heap = new IntDoubleMinHeap(keyCount, arity);
+			double[] ratings = new double[keyCount];
+			for (int key = 0; key < keyCount; key++) {
+				ratings[key] = random.nextDouble();
+				heap.add(key, ratings[key]);
+			}
+			for (int i = 0; i < keyCount; i++) {
+				int key = random.nextInt(keyCount);
+				ratings[key] = ratings[key] * random.nextDouble();
+				heap.updateMinRating(key, ratings[key]);
+			}
+			
+			double[] expected = ratings.clone();
+			Arrays.sort(expected);
+			for (int i = 0; i < keyCount; i++) {
+				Assert.assertEquals(expected[i], heap.peekRating(), 0.0);
+				Assert.assertEquals(expected[i], ratings[heap.remove()], 0.0);
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,204 @@
+package com.basdado.trainfinder.test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.ns.communicator.NSCommunicator;
+import com.basdado.trainfinder.ns.communicator.NSCommunicatorConfiguration;
+import com.basdado.trainfinder.ns.communicator.NSRequestPriority;
+import com.basdado.trainfinder.ns.communicator.NSRequestType;
+import com.basdado.trainfinder.ns.exception.NSException;
+import com.basdado.trainfinder.ns.exception.NSOverloadedException;
+import com.basdado.trainfinder.ns.model.DepartureInfoResponse;
+import com.sun.net.httpserver.HttpServer;
+
+public class NSCommunicatorTest {
+
+	/**
+	 * An overloaded API should not look like an error about the request (which the repositories turn into "no departures"),
+	 * so the request is tried again later.
+	 */
+	@Test
+	public void overloadedTest() throws IOException, InterruptedException, TimeoutException {
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			int statusCode = exchange.getRequestURI().getQuery().contains("station=BUSY") ? 503 : 429;
+			exchange.getResponseHeaders().add("Retry-After", "1");
+			exchange.sendResponseHeaders(statusCode, -1);
+			exchange.close();
+		});
+		server.start();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try (NSCommunicator communicator = new NSCommunicator(createConfig(server.getAddress().getPort(), 1000, 100, 60000), executor)) {
+			
+			try {
+				communicator.getDepartures("UT");
+				Assert.fail("The request should fail");
+			} catch (NSOverloadedException e) {
+				// Expected
+			} catch (NSException e) {
+				Assert.fail("An overloaded API should not result in an NSException");
+			}
+
+			try {
+				communicator.getDeparturesAsync("BUSY").get(10, TimeUnit.SECONDS);
+				Assert.fail("The request should fail");
+			} catch (ExecutionException e) {
+				Assert.assertTrue("Expected an NSOverloadedException, but was: " + e.getCause(), e.getCause() instanceof NSOverloadedException);
+			}
+		} finally {
+			executor.shutdownNow();
+			server.stop(0);
+		}
+	}
+	
+	/**
+	 * A blocking request should not wait for the rate limit indefinitely.
+	 */
+	@Test
+	public void rateLimitWaitTest() throws IOException, NSException {
+		
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			exchange.sendResponseHeaders(429, -1);
+			exchange.close();
+		});
+		server.start();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		// A single request per 1000 seconds
+		try (NSCommunicator communicator = new NSCommunicator(createConfig(server.getAddress().getPort(), 0.001, 1, 200), executor)) {
+			
+			try {
+				communicator.getDepartures("UT");
+				Assert.fail("The request should fail");
+			} catch (NSOverloadedException e) {
+				// Expected, the API is overloaded
+			}
+			
+			long start = System.nanoTime();
+			try {
+				communicator.getDepartures("UT");
+				Assert.fail("The request should fail");
+			} catch (NSOverloadedException e) {
+				// Expected, the rate limit doesn't allow another request in time
+			}
+			long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			Assert.assertTrue("Waited " + waitMillis + " ms", waitMillis >= 200 && waitMillis < 5000);
+		} finally {
+			executor.shutdownNow();
+			server.stop(0);
+		}
+	}
+	
+	/**
+	 * A cancelled request should withdraw its request for a permit, or return the permit if it was running already, so
+	 * it doesn't hold up the requests after it.
+	 */
+	@Test
+	public void cancelTest() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		
+		CountDownLatch slowRequestReceived = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			if (exchange.getRequestURI().getQuery().contains("station=SLOW")) {
+				slowRequestReceived.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		// A single request at a time
+		try (NSCommunicator communicator = new NSCommunicator(createConfig(server.getAddress().getPort(), 1000, 100, 60000, 1), executor)) {
+			
+			CompletableFuture<DepartureInfoResponse> running = communicator.getDeparturesAsync("SLOW");
+			Assert.assertTrue(slowRequestReceived.await(10, TimeUnit.SECONDS));
+			
+			// Waits for the permit of the running request, until it is cancelled
+			CompletableFuture<DepartureInfoResponse> waiting = communicator.getDeparturesAsync("UT", NSRequestPriority.HIGH);
+			CompletableFuture<DepartureInfoResponse> next = communicator.getDeparturesAsync("AMF", NSRequestPriority.LOW);
+			Assert.assertTrue(waiting.cancel(false));
+			Assert.assertTrue(running.cancel(false));
+			
+			// The permit is free for the next request, while the server is still busy with the cancelled one
+			try {
+				next.get(5, TimeUnit.SECONDS);
+			} catch (ExecutionException e) {
+				// Any response will do, the request got a permit
+			}
+			Assert.assertTrue(waiting.isCancelled());
+			Assert.assertTrue(running.isCancelled());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+			server.stop(0);
+		}
+	}
+	
+	private static NSCommunicatorConfiguration createConfig(int port, double requestRate, int requestBurst, int maxRateLimitWaitTime) {
+		return createConfig(port, requestRate, requestBurst, maxRateLimitWaitTime, NSCommunicatorConfiguration.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+	}
+	
+	private static NSCommunicatorConfiguration createConfig(int port, double requestRate, int requestBurst, int maxRateLimitWaitTime, int maxConnectionsPerRoute) {
+		
+		return new NSCommunicatorConfiguration() {
+
+			@Override
+			public String getUsername() {
+				return "user";
+			}
+
+			@Override
+			public String getPassword() {
+				return "password";
+			}
+
+			@Override
+			public String getDeparturesRequestUrl() {
+				return "http://127.0.0.1:" + port + "/ns-api-avt?station=${station}";
+			}
+
+			@Override
+			public double getRequestRate(NSRequestType requestType) {
+				return requestRate;
+			}
+
+			@Override
+			public int getRequestBurst(NSRequestType requestType) {
+				return requestBurst;
+			}
+			
+			@Override
+			public int getMaxRateLimitWaitTime() {
+				return maxRateLimitWaitTime;
+			}
+			
+			@Override
+			public int getMaxConnectionsPerRoute() {
+				return maxConnectionsPerRoute;
+			}
+		};
+	}
+
+}
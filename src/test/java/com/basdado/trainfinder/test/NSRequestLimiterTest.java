@@ -0,0 +1,142 @@
+package com.basdado.trainfinder.test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.ns.communicator.NSCommunicatorConfiguration;
+import com.basdado.trainfinder.ns.communicator.NSRequestLimiter;
+import com.basdado.trainfinder.ns.communicator.NSRequestPriority;
+import com.basdado.trainfinder.ns.communicator.NSRequestType;
+
+public class NSRequestLimiterTest {
+	
+	@Test
+	public void priorityTest() {
+		
+		try (NSRequestLimiter limiter = new NSRequestLimiter(createConfig(1, 1000, 100))) {
+			
+			CompletableFuture<Void> first = limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL);
+			Assert.assertTrue(first.isDone());
+			
+			// Only one request may run at a time, so these have to wait
+			CompletableFuture<Void> low = limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.LOW);
+			CompletableFuture<Void> normal = limiter.acquire(NSRequestType.TRAVEL_ADVICE, NSRequestPriority.NORMAL);
+			CompletableFuture<Void> high = limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.HIGH);
+			CompletableFuture<Void> normal2 = limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL);
+			Assert.assertFalse(low.isDone() || normal.isDone() || high.isDone() || normal2.isDone());
+			
+			limiter.release();
+			Assert.assertTrue(high.isDone());
+			Assert.assertFalse(low.isDone() || normal.isDone() || normal2.isDone());
+			
+			limiter.release();
+			Assert.assertTrue(normal.isDone());
+			Assert.assertFalse(low.isDone() || normal2.isDone());
+			
+			limiter.release();
+			Assert.assertTrue(normal2.isDone());
+			Assert.assertFalse(low.isDone());
+			
+			limiter.release();
+			Assert.assertTrue(low.isDone());
+		}
+	}
+	
+	@Test
+	public void cancelTest() {
+		
+		try (NSRequestLimiter limiter = new NSRequestLimiter(createConfig(1, 1000, 100))) {
+			
+			limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL);
+			CompletableFuture<Void> cancelled = limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.HIGH);
+			CompletableFuture<Void> waiting = limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL);
+			cancelled.cancel(false);
+			
+			limiter.release();
+			Assert.assertTrue(waiting.isDone());
+		}
+	}
+	
+	@Test
+	public void rateTest() throws Exception {
+		
+		try (NSRequestLimiter limiter = new NSRequestLimiter(createConfig(10, 10, 2))) {
+			
+			long start = System.nanoTime();
+			Assert.assertTrue(limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL).isDone());
+			Assert.assertTrue(limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL).isDone());
+			
+			// The bucket is empty, but other request types have their own bucket
+			CompletableFuture<Void> third = limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL);
+			Assert.assertFalse(third.isDone());
+			Assert.assertTrue(limiter.acquire(NSRequestType.TRAVEL_ADVICE, NSRequestPriority.NORMAL).isDone());
+			
+			// A token is added every 100 ms
+			third.get(5, TimeUnit.SECONDS);
+			Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+		}
+	}
+	
+	@Test
+	public void overloadTest() throws Exception {
+		
+		try (NSRequestLimiter limiter = new NSRequestLimiter(createConfig(8, 1000, 100))) {
+			
+			limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL);
+			limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL);
+			Assert.assertEquals(8, limiter.getConcurrencyLimit());
+			
+			long start = System.nanoTime();
+			limiter.releaseOverloaded(200);
+			Assert.assertEquals(4, limiter.getConcurrencyLimit());
+			
+			// No requests until the API said to retry
+			CompletableFuture<Void> next = limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL);
+			Assert.assertFalse(next.isDone());
+			next.get(5, TimeUnit.SECONDS);
+			Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+			
+			// The concurrency limit grows back by one for every concurrency limit successful requests (4 + 5 + 6 + 7)
+			for (int i = 0; i < 22; i++) {
+				limiter.acquire(NSRequestType.DEPARTURES, NSRequestPriority.NORMAL);
+				limiter.release();
+			}
+			Assert.assertEquals(8, limiter.getConcurrencyLimit());
+		}
+	}
+	
+	private static NSCommunicatorConfiguration createConfig(int maxConcurrentRequests, double requestRate, int requestBurst) {
+		
+		return new NSCommunicatorConfiguration() {
+			
+			@Override
+			public String getUsername() {
+				return "user";
+			}
+			
+			@Override
+			public String getPassword() {
+				return "password";
+			}
+			
+			@Override
+			public int getMaxConnectionsPerRoute() {
+				return maxConcurrentRequests;
+			}
+			
+			@Override
+			public double getRequestRate(NSRequestType requestType) {
+				return requestRate;
+			}
+			
+			@Override
+			public int getRequestBurst(NSRequestType requestType) {
+				return requestBurst;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,375 @@
+package com.basdado.trainfinder.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.commons.configuration2.BaseConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.config.OpenStreetMapConfiguration;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.osm.OsmRailwayMapLoader;
+import com.basdado.trainfinder.osm.pbf.PbfRailwayReader;
+import com.basdado.trainfinder.osm.pbf.PbfRailwayReader.PbfRailwayHandler;
+
+public class PbfRailwayReaderTest {
+	
+	/** Node id, latitude and longitude (in units of 1e-7 degrees) */
+	private static final long[][] NODES = {
+		{ 101, 520900000, 51100000 },
+		{ 102, 520910000, 51120000 },
+		{ 4000000001L, 520925000, 51135000 },
+		{ 103, 520940000, 51150000 },
+		{ 104, 520905000, 51160000 },
+		{ 105, 521000000, 52000000 },
+		{ 106, 522000000, 53000000 },
+		{ 107, 519000000, 49000000 },
+	};
+	
+	/** The ways, as their tags (key, value, ...) and node ids */
+	private static final String[][] WAY_TAGS = {
+		{ "railway", "rail" },
+		{ "electrified", "contact_line", "railway", "rail" },
+		{ "highway", "residential" },
+		{ "railway", "abandoned" },
+	};
+	private static final long[][] WAY_NODES = {
+		{ 101, 102, 4000000001L, 103 },
+		{ 104, 102 },
+		{ 105, 106 },
+		{ 103, 106 },
+	};
+	
+	/** The first nodes are stored as dense nodes, the others as plain nodes */
+	private static final int DENSE_NODE_COUNT = 3;
+	/** Granularity (in nanodegrees) of the block with plain nodes */
+	private static final int PLAIN_NODE_GRANULARITY = 1000;
+	
+	@Test
+	public void pbfMatchesXmlTest() throws IOException {
+		
+		Path dir = Files.createTempDirectory("pbf-test");
+		Path xmlFile = dir.resolve("railways.osm");
+		Path pbfFile = dir.resolve("railways.osm.pbf");
+		try {
+			Files.write(xmlFile, createOsmXml().getBytes(StandardCharsets.UTF_8));
+			Files.write(pbfFile, createPbf());
+			
+			for (boolean twoPassIngest : new boolean[] { false, true }) {
+				
+				RailwayGraph expected = load(xmlFile, twoPassIngest);
+				RailwayGraph actual = load(pbfFile, twoPassIngest);
+				
+				// Nodes that are not on a railway should be left out
+				Assert.assertEquals(5, expected.getNodeCount());
+				assertGraphEquals(expected, actual);
+			}
+		} finally {
+			Files.deleteIfExists(xmlFile);
+			Files.deleteIfExists(pbfFile);
+			Files.deleteIfExists(dir);
+		}
+	}
+	
+	@Test
+	public void railwaysOnlyTest() throws IOException {
+		
+		Path pbfFile = Files.createTempFile("pbf-test", ".osm.pbf");
+		try {
+			Files.write(pbfFile, createPbf());
+			
+			List<Long> nodeIds = new ArrayList<>();
+			List<long[]> railways = new ArrayList<>();
+			new PbfRailwayReader(pbfFile, 2, false, null).read(new PbfRailwayHandler() {
+				
+				@Override
+				public void handleNode(long id, double latitude, double longitude) {
+					nodeIds.add(id);
+				}
+				
+				@Override
+				public void handleRailway(long[] nodeIds) {
+					railways.add(nodeIds);
+				}
+				
+				@Override
+				public void complete() {
+				}
+			});
+			
+			Assert.assertTrue(nodeIds.isEmpty());
+			Assert.assertEquals(2, railways.size());
+			Assert.assertArrayEquals(WAY_NODES[0], railways.get(0));
+			Assert.assertArrayEquals(WAY_NODES[1], railways.get(1));
+		} finally {
+			Files.deleteIfExists(pbfFile);
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void truncatedFileTest() throws IOException {
+		
+		Path pbfFile = Files.createTempFile("pbf-test", ".osm.pbf");
+		try {
+			byte[] pbf = createPbf();
+			Files.write(pbfFile, Arrays.copyOf(pbf, pbf.length - 10));
+			
+			new PbfRailwayReader(pbfFile, 1, true, null).read(new PbfRailwayHandler() {
+				
+				@Override
+				public void handleNode(long id, double latitude, double longitude) {
+				}
+				
+				@Override
+				public void handleRailway(long[] nodeIds) {
+				}
+				
+				@Override
+				public void complete() {
+				}
+			});
+		} finally {
+			Files.deleteIfExists(pbfFile);
+		}
+	}
+	
+	private static RailwayGraph load(Path railroadFile, boolean twoPassIngest) {
+		
+		BaseConfiguration config = new BaseConfiguration();
+		config.setProperty("OpenStreetMap.RailroadFile", railroadFile.toString());
+		config.setProperty("OpenStreetMap.TwoPassIngest", twoPassIngest);
+		config.setProperty("OpenStreetMap.Snapshot.Enabled", false);
+		config.setProperty("OpenStreetMap.PreferredStationToTrackDistance", 50);
+		config.setProperty("OpenStreetMap.MaxStationToTrackDistance", 100);
+		return new OsmRailwayMapLoader(new OpenStreetMapConfiguration(config)).load();
+	}
+	
+	private static void assertGraphEquals(RailwayGraph expected, RailwayGraph actual) {
+		
+		Assert.assertEquals(expected.getNodeCount(), actual.getNodeCount());
+		Assert.assertEquals(expected.getConnectionCount(), actual.getConnectionCount());
+		for (int node = 0; node < expected.getNodeCount(); node++) {
+			Assert.assertEquals(expected.getOsmNodeId(node), actual.getOsmNodeId(node));
+			Assert.assertEquals(expected.getLatitude(node), actual.getLatitude(node), 1e-9);
+			Assert.assertEquals(expected.getLongitude(node), actual.getLongitude(node), 1e-9);
+			Assert.assertEquals(expected.getDegree(node), actual.getDegree(node));
+			for (int c = expected.getFirstConnection(node); c < expected.getConnectionEnd(node); c++) {
+				int target = expected.getConnectionTarget(c);
+				int actualConnection = actual.findConnection(node, target);
+				Assert.assertTrue("Connection missing: " + expected.getOsmNodeId(node) + " - " + expected.getOsmNodeId(target), actualConnection >= 0);
+				Assert.assertEquals(expected.getConnectionLength(c), actual.getConnectionLength(actualConnection), 1e-3);
+			}
+		}
+	}
+	
+	private static String createOsmXml() {
+		
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+		xml.append("<osm version=\"0.6\">\n");
+		for (long[] node : NODES) {
+			xml.append("  <node id=\"").append(node[0])
+				.append("\" lat=\"").append(BigDecimal.valueOf(node[1], 7).toPlainString())
+				.append("\" lon=\"").append(BigDecimal.valueOf(node[2], 7).toPlainString()).append("\"/>\n");
+		}
+		for (int i = 0; i < WAY_NODES.length; i++) {
+			xml.append("  <way id=\"").append(201 + i).append("\">\n");
+			for (long nodeId : WAY_NODES[i]) {
+				xml.append("    <nd ref=\"").append(nodeId).append("\"/>\n");
+			}
+			for (int t = 0; t < WAY_TAGS[i].length; t += 2) {
+				xml.append("    <tag k=\"").append(WAY_TAGS[i][t]).append("\" v=\"").append(WAY_TAGS[i][t + 1]).append("\"/>\n");
+			}
+			xml.append("  </way>\n");
+		}
+		xml.append("</osm>\n");
+		return xml.toString();
+	}
+	
+	/**
+	 * Creates the PBF equivalent of {@link #createOsmXml()}: a header block, a compressed block with dense nodes,
+	 * a block of an unknown type, and an uncompressed block with plain nodes (using a different granularity) and the ways.
+	 */
+	private static byte[] createPbf() throws IOException {
+		
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		
+		ProtobufOutput headerBlock = new ProtobufOutput();
+		headerBlock.writeString(4, "OsmSchema-V0.6");
+		headerBlock.writeString(4, "DenseNodes");
+		writeBlob(file, "OSMHeader", headerBlock.toByteArray(), false);
+		
+		ProtobufOutput denseNodes = new ProtobufOutput();
+		long[] ids = new long[DENSE_NODE_COUNT], lats = new long[DENSE_NODE_COUNT], lons = new long[DENSE_NODE_COUNT];
+		for (int i = 0; i < DENSE_NODE_COUNT; i++) {
+			ids[i] = NODES[i][0];
+			lats[i] = NODES[i][1]; // Default granularity of 100 nanodegrees
+			lons[i] = NODES[i][2];
+		}
+		denseNodes.writePackedDeltaSInt64(1, ids);
+		denseNodes.writePackedDeltaSInt64(8, lats);
+		denseNodes.writePackedDeltaSInt64(9, lons);
+		ProtobufOutput denseGroup = new ProtobufOutput();
+		denseGroup.writeMessage(2, denseNodes);
+		ProtobufOutput denseBlock = new ProtobufOutput();
+		denseBlock.writeMessage(1, createStringTable(""));
+		denseBlock.writeMessage(2, denseGroup);
+		writeBlob(file, "OSMData", denseBlock.toByteArray(), true);
+		
+		writeBlob(file, "OSMUnknown", new byte[] { 1, 2, 3 }, false);
+		
+		List<String> strings = new ArrayList<>(Arrays.asList("", "unused"));
+		ProtobufOutput group = new ProtobufOutput();
+		for (int i = DENSE_NODE_COUNT; i < NODES.length; i++) {
+			ProtobufOutput node = new ProtobufOutput();
+			node.writeSInt64(1, NODES[i][0]);
+			node.writeSInt64(8, NODES[i][1] * 100 / PLAIN_NODE_GRANULARITY);
+			node.writeSInt64(9, NODES[i][2] * 100 / PLAIN_NODE_GRANULARITY);
+			group.writeMessage(1, node);
+		}
+		for (int i = 0; i < WAY_NODES.length; i++) {
+			long[] keys = new long[WAY_TAGS[i].length / 2], values = new long[WAY_TAGS[i].length / 2];
+			for (int t = 0; t < keys.length; t++) {
+				keys[t] = getStringIndex(strings, WAY_TAGS[i][t * 2]);
+				values[t] = getStringIndex(strings, WAY_TAGS[i][t * 2 + 1]);
+			}
+			ProtobufOutput way = new ProtobufOutput();
+			way.writeVarint(1, 201 + i);
+			way.writePackedVarints(2, keys);
+			way.writePackedVarints(3, values);
+			way.writePackedDeltaSInt64(8, WAY_NODES[i]);
+			group.writeMessage(3, way);
+		}
+		ProtobufOutput block = new ProtobufOutput();
+		block.writeMessage(1, createStringTable(strings.toArray(new String[strings.size()])));
+		block.writeMessage(2, group);
+		block.writeVarint(17, PLAIN_NODE_GRANULARITY);
+		writeBlob(file, "OSMData", block.toByteArray(), false);
+		
+		return file.toByteArray();
+	}
+	
+	private static int getStringIndex(List<String> strings, String str) {
+		int index = strings.indexOf(str);
+		if (index < 0) {
+			strings.add(str);
+			index = strings.size() - 1;
+		}
+		return index;
+	}
+	
+	private static ProtobufOutput createStringTable(String... strings) {
+		ProtobufOutput stringTable = new ProtobufOutput();
+		for (String str : strings) {
+			stringTable.writeString(1, str);
+		}
+		return stringTable;
+	}
+	
+	private static void writeBlob(ByteArrayOutputStream file, String type, byte[] data, boolean compress) throws IOException {
+		
+		ProtobufOutput blob = new ProtobufOutput();
+		if (compress) {
+			Deflater deflater = new Deflater();
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			while (!deflater.finished()) {
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+			}
+			deflater.end();
+			blob.writeVarint(2, data.length);
+			blob.writeBytes(3, compressed.toByteArray());
+		} else {
+			blob.writeBytes(1, data);
+		}
+		byte[] blobBytes = blob.toByteArray();
+		
+		ProtobufOutput blobHeader = new ProtobufOutput();
+		blobHeader.writeString(1, type);
+		blobHeader.writeVarint(3, blobBytes.length);
+		byte[] blobHeaderBytes = blobHeader.toByteArray();
+		
+		DataOutputStream out = new DataOutputStream(file);
+		out.writeInt(blobHeaderBytes.length);
+		out.write(blobHeaderBytes);
+		out.write(blobBytes);
+	}
+	
+	/**
+	 * Writes the protocol buffer wire format, for as far as needed to create PBF files.
+	 */
+	private static class ProtobufOutput {
+		
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		public void writeVarint(int fieldNumber, long value) {
+			writeRawVarint(fieldNumber << 3);
+			writeRawVarint(value);
+		}
+		
+		public void writeSInt64(int fieldNumber, long value) {
+			writeVarint(fieldNumber, zigzag(value));
+		}
+		
+		public void writeBytes(int fieldNumber, byte[] bytes) {
+			writeRawVarint((fieldNumber << 3) | 2);
+			writeRawVarint(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+		
+		public void writeString(int fieldNumber, String str) {
+			writeBytes(fieldNumber, str.getBytes(StandardCharsets.UTF_8));
+		}
+		
+		public void writeMessage(int fieldNumber, ProtobufOutput message) {
+			writeBytes(fieldNumber, message.toByteArray());
+		}
+		
+		public void writePackedVarints(int fieldNumber, long[] values) {
+			ProtobufOutput packed = new ProtobufOutput();
+			for (long value : values) {
+				packed.writeRawVarint(value);
+			}
+			writeMessage(fieldNumber, packed);
+		}
+		
+		public void writePackedDeltaSInt64(int fieldNumber, long[] values) {
+			ProtobufOutput packed = new ProtobufOutput();
+			long previous = 0;
+			for (long value : values) {
+				packed.writeRawVarint(zigzag(value - previous));
+				previous = value;
+			}
+			writeMessage(fieldNumber, packed);
+		}
+		
+		public byte[] toByteArray() {
+			return out.toByteArray();
+		}
+		
+		private void writeRawVarint(long value) {
+			while ((value & ~0x7FL) != 0) {
+				out.write((int)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.write((int)value);
+		}
+		
+		private static long zigzag(long value) {
+			return (value << 1) ^ (value >> 63);
+		}
+	}
+
+}
@@ -58,4 +58,51 @@ public class PriorityHeapTest {
 		
 	}
 	
+	@Test
+	public void updateMinRatingTest() {
+		
+		PriorityHeap<String> heap = new PriorityHeap<>();
+		heap.add("a", 1.0);
+		heap.add("b", 2.0);
+		heap.add("c", 3.0);
+		heap.add("d", 4.0);
+		
+		Assert.assertTrue(heap.updateMinRating("d", 0.5));
+		Assert.assertTrue(heap.updateMinRating("b", 0.8));
+		Assert.assertFalse(heap.updateMinRating("c", 5.0));
+		Assert.assertFalse(heap.updateMinRating("e", 0.1));
+		Assert.assertEquals(0.8, heap.getRating("b"), 0.0);
+		
+		Assert.assertEquals("d", heap.remove());
+		Assert.assertEquals("b", heap.remove());
+		Assert.assertEquals("a", heap.remove());
+		Assert.assertEquals("c", heap.remove());
+		Assert.assertTrue(heap.isEmpty());
+	}
+	
+	@Test
+	public void containsTest() {
+		
+		PriorityHeap<String> heap = new PriorityHeap<>();
+		heap.add("a", 1.0);
+		heap.add("b", 2.0);
+		Assert.assertTrue(heap.contains("a"));
+		Assert.assertTrue(heap.contains("b"));
+		
+		heap.remove();
+		Assert.assertFalse(heap.contains("a"));
+		Assert.assertTrue(heap.contains("b"));
+		
+		heap.add("a", 3.0);
+		Assert.assertTrue(heap.contains("a"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void duplicateItemTest() {
+		
+		PriorityHeap<String> heap = new PriorityHeap<>();
+		heap.add("a", 1.0);
+		heap.add("a", 2.0);
+	}
+	
 }
@@ -0,0 +1,205 @@
+package com.basdado.trainfinder.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.controller.RailwayComputations;
+import com.basdado.trainfinder.exception.PathFindingException;
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.Railway;
+import com.basdado.trainfinder.model.Station;
+
+public class RailwayComputationsTest {
+	
+	private static final Station UTRECHT = new Station("UT", "Utrecht", "Utrecht Centraal", new LatLng(52.0894, 5.1100), "NL");
+	private static final Station AMERSFOORT = new Station("AMF", "Amersfoort", "Amersfoort", new LatLng(52.1534, 5.3736), "NL");
+	
+	private static final int CALLER_COUNT = 6;
+	
+	@Test
+	public void concurrentCallersTest() throws Exception {
+		
+		AtomicInteger invocationCount = new AtomicInteger();
+		CountDownLatch calculating = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		RailwayComputations computations = new RailwayComputations((from, to) -> {
+			invocationCount.incrementAndGet();
+			calculating.countDown();
+			await(release);
+			return createRailway(from, to);
+		});
+		
+		ExecutorService executor = Executors.newFixedThreadPool(CALLER_COUNT + 1);
+		try {
+			Future<Railway> first = executor.submit(() -> computations.getRailway(UTRECHT, AMERSFOORT));
+			Assert.assertTrue(calculating.await(10, TimeUnit.SECONDS));
+			
+			// Callers for the same pair and for the reversed pair, while the first one is still calculating
+			List<Thread> callerThreads = new ArrayList<>();
+			List<Future<Railway>> callers = new ArrayList<>();
+			for (int i = 0; i < CALLER_COUNT; i++) {
+				boolean reversed = i % 2 == 1;
+				callers.add(executor.submit(() -> {
+					synchronized (callerThreads) {
+						callerThreads.add(Thread.currentThread());
+					}
+					return reversed ? computations.getRailway(AMERSFOORT, UTRECHT) : computations.getRailway(UTRECHT, AMERSFOORT);
+				}));
+			}
+			awaitWaiting(callerThreads, CALLER_COUNT);
+			Assert.assertEquals(1, computations.size());
+			
+			release.countDown();
+			assertRailway(UTRECHT, AMERSFOORT, first.get(10, TimeUnit.SECONDS));
+			for (int i = 0; i < CALLER_COUNT; i++) {
+				Railway railway = callers.get(i).get(10, TimeUnit.SECONDS);
+				if (i % 2 == 1) {
+					assertRailway(AMERSFOORT, UTRECHT, railway);
+				} else {
+					assertRailway(UTRECHT, AMERSFOORT, railway);
+				}
+			}
+			Assert.assertEquals(1, invocationCount.get());
+			Assert.assertEquals(0, computations.size());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void failureTest() throws Exception {
+		
+		AtomicInteger invocationCount = new AtomicInteger();
+		CountDownLatch calculating = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		RailwayComputations computations = new RailwayComputations((from, to) -> {
+			if (invocationCount.incrementAndGet() == 1) {
+				calculating.countDown();
+				await(release);
+				throw new PathFindingException("No tracks near " + from.getCode());
+			}
+			return createRailway(from, to);
+		});
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Railway> first = executor.submit(() -> computations.getRailway(UTRECHT, AMERSFOORT));
+			Assert.assertTrue(calculating.await(10, TimeUnit.SECONDS));
+			List<Thread> callerThreads = new ArrayList<>();
+			Future<Railway> waiting = executor.submit(() -> {
+				synchronized (callerThreads) {
+					callerThreads.add(Thread.currentThread());
+				}
+				return computations.getRailway(AMERSFOORT, UTRECHT);
+			});
+			awaitWaiting(callerThreads, 1);
+			
+			// Both the calculating and the waiting thread get the error
+			release.countDown();
+			assertPathFindingException(first);
+			assertPathFindingException(waiting);
+			Assert.assertEquals(1, invocationCount.get());
+			
+			// The failed calculation is forgotten, so the next caller tries again
+			Assert.assertEquals(0, computations.size());
+			assertRailway(AMERSFOORT, UTRECHT, computations.getRailway(AMERSFOORT, UTRECHT));
+			Assert.assertEquals(2, invocationCount.get());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void runtimeExceptionTest() {
+		
+		AtomicInteger invocationCount = new AtomicInteger();
+		RailwayComputations computations = new RailwayComputations((from, to) -> {
+			if (invocationCount.incrementAndGet() == 1) {
+				throw new IllegalStateException("Unexpected");
+			}
+			return createRailway(from, to);
+		});
+		
+		try {
+			computations.getRailway(UTRECHT, AMERSFOORT);
+			Assert.fail("The exception of the calculation should be thrown");
+		} catch (IllegalStateException | PathFindingException e) {
+			Assert.assertTrue(e instanceof IllegalStateException);
+		}
+		Assert.assertEquals(0, computations.size());
+	}
+	
+	/**
+	 * Waits until the given number of caller threads are started and are waiting (for the running calculation).
+	 */
+	private static void awaitWaiting(List<Thread> callerThreads, int callerCount) throws InterruptedException, TimeoutException {
+		
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (System.nanoTime() < deadline) {
+			boolean waiting = true;
+			synchronized (callerThreads) {
+				for (Thread thread : callerThreads) {
+					waiting &= thread.getState() == Thread.State.WAITING;
+				}
+				waiting &= callerThreads.size() == callerCount;
+			}
+			if (waiting) {
+				return;
+			}
+			Thread.sleep(5);
+		}
+		throw new TimeoutException("Callers are not waiting for the calculation");
+	}
+	
+	/**
+	 * Waits for the latch inside a calculation, which can only throw a PathFindingException.
+	 */
+	private static void await(CountDownLatch latch) throws PathFindingException {
+		
+		try {
+			if (!latch.await(10, TimeUnit.SECONDS)) {
+				throw new PathFindingException("The calculation was not released");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PathFindingException("Interrupted while calculating", e);
+		}
+	}
+	
+	private static void assertPathFindingException(Future<Railway> future) throws InterruptedException, TimeoutException {
+		
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			Assert.fail("A PathFindingException should be thrown");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof PathFindingException);
+		}
+	}
+	
+	private static void assertRailway(Station from, Station to, Railway railway) {
+		
+		Assert.assertNotNull(railway);
+		Assert.assertEquals(from, railway.getFrom());
+		Assert.assertEquals(to, railway.getTo());
+		Assert.assertEquals(from.getLocation().getLatitude(), railway.getNodePosition(0).getLatitude(), 1e-9);
+		Assert.assertEquals(to.getLocation().getLatitude(), railway.getNodePosition(railway.getNodeCount() - 1).getLatitude(), 1e-9);
+	}
+	
+	private static Railway createRailway(Station from, Station to) {
+		return new Railway(new LatLng[] { from.getLocation(), to.getLocation() }, new double[] { 0, 20000 }, from, to);
+	}
+
+}
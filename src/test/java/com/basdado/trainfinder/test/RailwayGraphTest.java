@@ -0,0 +1,198 @@
+package com.basdado.trainfinder.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.OsmRailwayMap;
+import com.basdado.trainfinder.model.OsmRailwayMap.OsmRailwayMapNode;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.model.TrackPosition;
+import com.basdado.trainfinder.util.CoordinateUtil;
+
+public class RailwayGraphTest {
+	
+	@Test
+	public void toRailwayGraphTest() {
+		
+		OsmRailwayMap railwayMap = new OsmRailwayMap();
+		railwayMap.addNode(30L, new OsmRailwayMapNode(new LatLng(52.02, 5.00)));
+		railwayMap.addNode(10L, new OsmRailwayMapNode(new LatLng(52.00, 5.00)));
+		railwayMap.addNode(40L, new OsmRailwayMapNode(new LatLng(52.02, 5.02)));
+		railwayMap.addNode(20L, new OsmRailwayMapNode(new LatLng(52.01, 5.00)));
+		railwayMap.addNode(50L, new OsmRailwayMapNode(new LatLng(52.03, 5.02)));
+		// Not on any railway, but not cleaned either
+		railwayMap.addNode(5L, new OsmRailwayMapNode(new LatLng(52.01, 5.01)));
+		railwayMap.addWay(Arrays.asList(10L, 20L, 30L, 40L));
+		railwayMap.addConnection(40L, 50L, 1234.5);
+		
+		RailwayGraph graph = railwayMap.toRailwayGraph();
+		
+		// Nodes are ordered by their OSM id
+		long[] expectedIds = { 5, 10, 20, 30, 40, 50 };
+		int[] expectedDegrees = { 0, 1, 2, 2, 2, 1 };
+		Assert.assertEquals(expectedIds.length, graph.getNodeCount());
+		Assert.assertEquals(8, graph.getConnectionCount());
+		for (int node = 0; node < graph.getNodeCount(); node++) {
+			Assert.assertEquals(expectedIds[node], graph.getOsmNodeId(node));
+			LatLng expectedPosition = railwayMap.getNode(expectedIds[node]).getPosition();
+			Assert.assertEquals(expectedPosition.getLatitude(), graph.getLatitude(node), 0);
+			Assert.assertEquals(expectedPosition.getLongitude(), graph.getLongitude(node), 0);
+			Assert.assertEquals(expectedDegrees[node], graph.getDegree(node));
+			
+			// Every connection exists in both directions, with the same length
+			for (int c = graph.getFirstConnection(node); c < graph.getConnectionEnd(node); c++) {
+				int neighborNode = graph.getConnectionTarget(c);
+				int reverseConnection = graph.findConnection(neighborNode, node);
+				Assert.assertTrue(reverseConnection >= 0);
+				Assert.assertEquals(graph.getConnectionLength(c), graph.getConnectionLength(reverseConnection), 0);
+			}
+		}
+		
+		// The lengths are the distances between the nodes, unless given explicitly
+		Assert.assertEquals((float)CoordinateUtil.dist(graph.getPosition(1), graph.getPosition(2)), graph.getConnectionLength(graph.findConnection(1, 2)), 0);
+		Assert.assertEquals((float)CoordinateUtil.dist(graph.getPosition(3), graph.getPosition(4)), graph.getConnectionLength(graph.findConnection(3, 4)), 0);
+		Assert.assertEquals(1234.5f, graph.getConnectionLength(graph.findConnection(5, 4)), 0);
+		Assert.assertEquals(-1, graph.findConnection(1, 3));
+		Assert.assertEquals(-1, graph.findConnection(0, 1));
+		
+		// The track from node 10 (which has the same first connection as the node without connections) starts at the right node
+		LatLng halfway = CoordinateUtil.interpolate(graph.getPosition(1), graph.getPosition(2), 0.5);
+		List<TrackPosition> trackPositions = graph.findTrackPositionsNear(halfway, 10);
+		Assert.assertEquals(1, trackPositions.size());
+		TrackPosition trackPosition = trackPositions.get(0);
+		Assert.assertFalse(trackPosition.isAtNode());
+		Assert.assertEquals(1, trackPosition.getNode1());
+		Assert.assertEquals(2, trackPosition.getNode2());
+		Assert.assertEquals(trackPosition.getDistanceToNode1(), trackPosition.getDistanceToNode2(), 1);
+	}
+	
+	@Test
+	public void trackPositionsNearTest() {
+		
+		Random random = new Random(1);
+		RailwayGraph graph = TestRailwayGraphs.createRandomRailwayGraph(random, 300, 0.4, 60, 6);
+		
+		for (int i = 0; i < 200; i++) {
+			LatLng pos = new LatLng(52 + random.nextDouble() * 0.4, 5 + random.nextDouble() * 0.4);
+			double maxDistance = 50 + random.nextDouble() * 5000;
+			
+			Set<String> actual = new HashSet<>();
+			double previousDistance = 0;
+			for (TrackPosition trackPosition : graph.findTrackPositionsNear(pos, maxDistance)) {
+				actual.add(getKey(trackPosition.getNode1(), trackPosition.getNode2()));
+				double distance = CoordinateUtil.dist(pos, trackPosition.getPosition());
+				Assert.assertTrue("Track positions should be sorted by distance", distance >= previousDistance - 1e-6);
+				previousDistance = distance;
+			}
+			
+			Assert.assertEquals(findTrackPositionsNear(graph, pos, maxDistance), actual);
+		}
+	}
+	
+	@Test
+	public void nearestNodesTest() {
+		
+		Random random = new Random(3);
+		RailwayGraph graph = TestRailwayGraphs.createRandomRailwayGraph(random, 300, 0.4, 60, 6);
+		
+		for (int i = 0; i < 200; i++) {
+			LatLng pos = new LatLng(51.9 + random.nextDouble() * 0.6, 4.9 + random.nextDouble() * 0.6);
+			int count = random.nextInt(10);
+			double maxDistance = random.nextBoolean() ? Double.MAX_VALUE : random.nextDouble() * 10000;
+			
+			// The nodes within maxDistance, by checking all of them
+			List<Double> nodeDistances = new ArrayList<>();
+			for (int node = 0; node < graph.getNodeCount(); node++) {
+				double distance = CoordinateUtil.dist(pos, graph.getPosition(node));
+				if (distance < maxDistance) {
+					nodeDistances.add(distance);
+				}
+			}
+			Collections.sort(nodeDistances);
+			
+			int[] nearestNodes = graph.findNearestNodes(pos, count, maxDistance);
+			Assert.assertEquals(Math.min(count, nodeDistances.size()), nearestNodes.length);
+			for (int j = 0; j < nearestNodes.length; j++) {
+				Assert.assertEquals(nodeDistances.get(j), CoordinateUtil.dist(pos, graph.getPosition(nearestNodes[j])), 1e-6);
+			}
+		}
+	}
+	
+	@Test
+	public void nearestTracksTest() {
+		
+		Random random = new Random(2);
+		RailwayGraph graph = TestRailwayGraphs.createRandomRailwayGraph(random, 300, 0.4, 60, 6);
+		
+		for (int i = 0; i < 200; i++) {
+			LatLng pos = new LatLng(51.9 + random.nextDouble() * 0.6, 4.9 + random.nextDouble() * 0.6);
+			int count = 1 + random.nextInt(20);
+			
+			// The distance to every track, by checking all of them
+			List<Double> trackDistances = new ArrayList<>();
+			for (int node = 0; node < graph.getNodeCount(); node++) {
+				for (int c = graph.getFirstConnection(node); c < graph.getConnectionEnd(node); c++) {
+					if (node < graph.getConnectionTarget(c)) {
+						trackDistances.add(getDistanceToTrack(graph, c, pos));
+					}
+				}
+			}
+			Collections.sort(trackDistances);
+			
+			int[] nearestTracks = graph.findNearestTracks(pos, count);
+			Assert.assertEquals(Math.min(count, trackDistances.size()), nearestTracks.length);
+			for (int j = 0; j < nearestTracks.length; j++) {
+				Assert.assertEquals(trackDistances.get(j), getDistanceToTrack(graph, nearestTracks[j], pos), 1e-6);
+			}
+		}
+	}
+	
+	private static double getDistanceToTrack(RailwayGraph graph, int connection, LatLng pos) {
+		
+		for (int node = 0; node < graph.getNodeCount(); node++) {
+			if (connection >= graph.getFirstConnection(node) && connection < graph.getConnectionEnd(node)) {
+				return Math.abs(CoordinateUtil.crossTrackDist(graph.getPosition(node), graph.getPosition(graph.getConnectionTarget(connection)), pos));
+			}
+		}
+		throw new IllegalArgumentException("Unknown connection: " + connection);
+	}
+	
+	/**
+	 * Finds the track positions near pos by checking every node and track of the graph.
+	 */
+	private static Set<String> findTrackPositionsNear(RailwayGraph graph, LatLng pos, double maxDistance) {
+		
+		Set<String> res = new HashSet<>();
+		for (int node = 0; node < graph.getNodeCount(); node++) {
+			if (CoordinateUtil.dist(pos, graph.getPosition(node)) < maxDistance) {
+				res.add(getKey(node, node));
+			}
+			for (int c = graph.getFirstConnection(node); c < graph.getConnectionEnd(node); c++) {
+				int neighborNode = graph.getConnectionTarget(c);
+				if (node > neighborNode) {
+					continue;
+				}
+				double trackDist = Math.abs(CoordinateUtil.crossTrackDist(graph.getPosition(node), graph.getPosition(neighborNode), pos));
+				double alongTrack = CoordinateUtil.alongTrackDist(graph.getPosition(node), graph.getPosition(neighborNode), pos);
+				if (trackDist < maxDistance && alongTrack > 0 && alongTrack < graph.getConnectionLength(c)) {
+					res.add(getKey(node, neighborNode));
+				}
+			}
+		}
+		return res;
+	}
+	
+	private static String getKey(int node1, int node2) {
+		return node1 + "-" + node2;
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.basdado.trainfinder.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.model.ContractedRailwayGraph;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.model.RailwayPath;
+import com.basdado.trainfinder.model.TrackPosition;
+import com.basdado.trainfinder.util.CoordinateUtil;
+import com.basdado.trainfinder.util.RailwayMapUtil;
+import com.basdado.trainfinder.util.RailwayMapUtil.SearchAlgorithm;
+
+public class RailwayMapUtilTest {
+	
+	/**
+	 * A* should find exactly the same paths as Dijkstra's algorithm, from and to positions at junctions, at nodes in the
+	 * middle of chains, and on the tracks in between.
+	 */
+	@Test
+	public void aStarTest() {
+		assertSamePaths(SearchAlgorithm.A_STAR);
+	}
+	
+	/**
+	 * The bidirectional search should find exactly the same paths as Dijkstra's algorithm, including paths that stay on
+	 * the chain of the source.
+	 */
+	@Test
+	public void bidirectionalDijkstraTest() {
+		assertSamePaths(SearchAlgorithm.BIDIRECTIONAL_DIJKSTRA);
+	}
+	
+	private static void assertSamePaths(SearchAlgorithm algorithm) {
+		
+		Random random = new Random(1);
+		List<RailwayGraph> railwayGraphs = new ArrayList<>();
+		railwayGraphs.add(TestRailwayGraphs.createRandomRailwayGraph(random, 200, 0.1, 40, 11));
+		railwayGraphs.add(TestRailwayGraphs.createRandomGridRailwayGraph(random, 8, 5, 0.05));
+		
+		for (RailwayGraph railwayGraph : railwayGraphs) {
+			ContractedRailwayGraph routingGraph = new ContractedRailwayGraph(railwayGraph);
+			
+			for (int i = 0; i < 500; i++) {
+				TrackPosition source = TestRailwayGraphs.randomTrackPosition(railwayGraph, random);
+				List<TrackPosition> destinations = new ArrayList<>();
+				int destinationCount = 1 + random.nextInt(3);
+				for (int j = 0; j < destinationCount; j++) {
+					// Sometimes on the same chain as the source, where the shortest path may or may not leave the chain
+					destinations.add(random.nextInt(4) == 0 ?
+							randomPositionOnChain(routingGraph, routingGraph.getChain(source), random) :
+							TestRailwayGraphs.randomTrackPosition(railwayGraph, random));
+				}
+				
+				RailwayPath expected = RailwayMapUtil.calculateShortestPathBetween(routingGraph, source, destinations, SearchAlgorithm.DIJKSTRA);
+				RailwayPath actual = RailwayMapUtil.calculateShortestPathBetween(routingGraph, source, destinations, algorithm);
+				assertSamePath("From " + source + " to " + destinations, expected, actual);
+				
+				// Unless the source is in the middle of the same chain as the destination, junctions had to be visited
+				for (RailwayPath path : Arrays.asList(expected, actual)) {
+					if (path != null && (path.getLegCount() > 1 || routingGraph.getJunction(source) != -1)) {
+						Assert.assertTrue(path.getSettledJunctionCount() > 0);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return A random position (at a node or between two nodes) on the given chain.
+	 */
+	private static TrackPosition randomPositionOnChain(ContractedRailwayGraph routingGraph, int chain, Random random) {
+		
+		RailwayGraph railwayGraph = routingGraph.getRailwayGraph();
+		int index = routingGraph.getFirstChainNode(chain) + random.nextInt(routingGraph.getChainNodeEnd(chain) - routingGraph.getFirstChainNode(chain) - 1);
+		int node = routingGraph.getChainNode(index);
+		if (random.nextBoolean()) {
+			return TrackPosition.atNode(node, railwayGraph.getPosition(node));
+		}
+		
+		int nextNode = routingGraph.getChainNode(index + 1);
+		double trackLength = railwayGraph.getConnectionLength(railwayGraph.findConnection(node, nextNode));
+		double f = 0.05 + random.nextDouble() * 0.9;
+		return TrackPosition.onConnection(node, nextNode, f * trackLength, (1 - f) * trackLength,
+				CoordinateUtil.interpolate(railwayGraph.getPosition(node), railwayGraph.getPosition(nextNode), f));
+	}
+	
+	/**
+	 * Checks that both paths go to the same destination, over the same chains.
+	 */
+	private static void assertSamePath(String message, RailwayPath expected, RailwayPath actual) {
+		
+		if (expected == null) {
+			Assert.assertNull(message, actual);
+			return;
+		}
+		Assert.assertNotNull(message, actual);
+		Assert.assertEquals(message, expected.getLength(), actual.getLength(), 1e-6);
+		Assert.assertSame(message, expected.getTo(), actual.getTo());
+		Assert.assertEquals(message, expected.getLegCount(), actual.getLegCount());
+		for (int leg = 0; leg < expected.getLegCount(); leg++) {
+			Assert.assertEquals(message, expected.getLegChain(leg), actual.getLegChain(leg));
+			Assert.assertEquals(message, expected.getLegStartOffset(leg), actual.getLegStartOffset(leg), 1e-6);
+			Assert.assertEquals(message, expected.getLegEndOffset(leg), actual.getLegEndOffset(leg), 1e-6);
+		}
+	}
+
+}
@@ -0,0 +1,272 @@
+package com.basdado.trainfinder.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.Railway;
+import com.basdado.trainfinder.model.Station;
+import com.basdado.trainfinder.osm.RailwayStore;
+
+public class RailwayStoreTest {
+	
+	private static final long CHECKSUM = 0x1234567890L;
+	private static final double STATION_TO_TRACK_DISTANCE = 50;
+	
+	private static final Station UTRECHT = new Station("UT", "Utrecht", "Utrecht Centraal", new LatLng(52.0894, 5.1100), "NL");
+	private static final Station AMERSFOORT = new Station("AMF", "Amersfoort", "Amersfoort", new LatLng(52.1534, 5.3736), "NL");
+	private static final Station GOUDA = new Station("GD", "Gouda", "Gouda", new LatLng(52.0174, 4.7043), "NL");
+	
+	@Test
+	public void putGetTest() throws IOException {
+		
+		Path file = Files.createTempFile("railway-store", ".railways");
+		try {
+			Railway utrechtAmersfoort = createRailway(UTRECHT, AMERSFOORT, 10);
+			Railway goudaUtrecht = createRailway(GOUDA, UTRECHT, 7);
+			
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(0, store.size());
+				store.put(utrechtAmersfoort);
+				store.put(goudaUtrecht);
+				Assert.assertEquals(2, store.size());
+				
+				assertRailwayEquals(utrechtAmersfoort, store.get(UTRECHT, AMERSFOORT));
+				assertRailwayEquals(goudaUtrecht, store.get(GOUDA, UTRECHT));
+				// Railways are found in the opposite direction as well
+				assertRailwayEquals(utrechtAmersfoort.reversed(), store.get(AMERSFOORT, UTRECHT));
+				Assert.assertNull(store.get(GOUDA, AMERSFOORT));
+			}
+			
+			// Railways survive reopening the store
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(2, store.size());
+				assertRailwayEquals(utrechtAmersfoort, store.get(UTRECHT, AMERSFOORT));
+				assertRailwayEquals(goudaUtrecht.reversed(), store.get(UTRECHT, GOUDA));
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	@Test
+	public void truncatedRecordTest() throws IOException {
+		
+		Path file = Files.createTempFile("railway-store", ".railways");
+		try {
+			Railway utrechtAmersfoort = createRailway(UTRECHT, AMERSFOORT, 10);
+			Railway goudaUtrecht = createRailway(GOUDA, UTRECHT, 7);
+			fillStore(file, utrechtAmersfoort, goudaUtrecht);
+			
+			// As if the server was stopped while writing the last record
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(channel.size() - 5);
+			}
+			
+			long truncatedSize;
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(1, store.size());
+				assertRailwayEquals(utrechtAmersfoort, store.get(UTRECHT, AMERSFOORT));
+				Assert.assertNull(store.get(GOUDA, UTRECHT));
+				truncatedSize = Files.size(file);
+				
+				// New records are written after the last complete record
+				store.put(goudaUtrecht);
+			}
+			
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(2, store.size());
+				assertRailwayEquals(goudaUtrecht, store.get(GOUDA, UTRECHT));
+				Assert.assertTrue(truncatedSize < Files.size(file));
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	@Test
+	public void corruptRecordTest() throws IOException {
+		
+		Path file = Files.createTempFile("railway-store", ".railways");
+		try {
+			Railway utrechtAmersfoort = createRailway(UTRECHT, AMERSFOORT, 10);
+			fillStore(file, utrechtAmersfoort, createRailway(GOUDA, UTRECHT, 7));
+			long size = Files.size(file);
+			
+			// Change a byte in the payload of the last record, just before its checksum
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocate(1);
+				channel.read(buffer, size - 9);
+				buffer.put(0, (byte)(buffer.get(0) ^ 0xFF));
+				buffer.rewind();
+				channel.write(buffer, size - 9);
+			}
+			
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(1, store.size());
+				assertRailwayEquals(utrechtAmersfoort, store.get(UTRECHT, AMERSFOORT));
+				Assert.assertNull(store.get(GOUDA, UTRECHT));
+			}
+			Assert.assertTrue("The corrupt record should be removed", Files.size(file) < size);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	@Test
+	public void clearTest() throws IOException {
+		
+		Path file = Files.createTempFile("railway-store", ".railways");
+		try {
+			Railway utrechtAmersfoort = createRailway(UTRECHT, AMERSFOORT, 10);
+			
+			// A different railroad file
+			fillStore(file, utrechtAmersfoort);
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM + 1, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(0, store.size());
+				Assert.assertNull(store.get(UTRECHT, AMERSFOORT));
+			}
+			// Opening it with the original checksum doesn't bring the railway back
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(0, store.size());
+			}
+			
+			// A different station to track distance
+			fillStore(file, utrechtAmersfoort);
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE * 2)) {
+				Assert.assertEquals(0, store.size());
+				Assert.assertNull(store.get(UTRECHT, AMERSFOORT));
+			}
+			
+			// Not a railway store at all
+			Files.write(file, new byte[100]);
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(0, store.size());
+				store.put(utrechtAmersfoort);
+			}
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(1, store.size());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	@Test
+	public void movedStationTest() throws IOException {
+		
+		Path file = Files.createTempFile("railway-store", ".railways");
+		try {
+			fillStore(file, createRailway(UTRECHT, AMERSFOORT, 10));
+			
+			Station movedAmersfoort = new Station(AMERSFOORT.getCode(), AMERSFOORT.getShortName(), AMERSFOORT.getFullName(),
+					new LatLng(AMERSFOORT.getLocation().getLatitude() + 0.001, AMERSFOORT.getLocation().getLongitude()), AMERSFOORT.getCountryCode());
+			
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertNotNull(store.get(UTRECHT, AMERSFOORT));
+				Assert.assertNull(store.get(UTRECHT, movedAmersfoort));
+				Assert.assertNull(store.get(movedAmersfoort, UTRECHT));
+				
+				// Storing the railway to the new location replaces the old one
+				Railway railway = createRailway(UTRECHT, movedAmersfoort, 5);
+				store.put(railway);
+				Assert.assertEquals(1, store.size());
+				assertRailwayEquals(railway, store.get(UTRECHT, movedAmersfoort));
+				Assert.assertNull(store.get(UTRECHT, AMERSFOORT));
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	@Test
+	public void compactTest() throws IOException {
+		
+		Path file = Files.createTempFile("railway-store", ".railways");
+		try {
+			Railway goudaUtrecht = createRailway(GOUDA, UTRECHT, 7);
+			Railway utrechtAmersfoort = createRailway(UTRECHT, AMERSFOORT, 10);
+			fillStore(file, goudaUtrecht, createRailway(UTRECHT, AMERSFOORT, 8), utrechtAmersfoort);
+			long size = Files.size(file);
+			
+			// A single replaced railway is not worth rewriting the file for
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(2, store.size());
+				Assert.assertEquals(size, Files.size(file));
+				
+				for (int i = 0; i < 5; i++) {
+					store.put(createRailway(GOUDA, UTRECHT, 20 + i));
+				}
+				store.put(goudaUtrecht);
+			}
+			
+			// Most of the file are replaced railways now
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(2, store.size());
+				Assert.assertTrue("The replaced railways should be removed", Files.size(file) < size);
+				assertRailwayEquals(goudaUtrecht, store.get(GOUDA, UTRECHT));
+				assertRailwayEquals(utrechtAmersfoort, store.get(UTRECHT, AMERSFOORT));
+				
+				// New records are written after the compacted records
+				store.put(createRailway(AMERSFOORT, GOUDA, 5));
+			}
+			
+			try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+				Assert.assertEquals(3, store.size());
+				assertRailwayEquals(goudaUtrecht, store.get(GOUDA, UTRECHT));
+				assertRailwayEquals(utrechtAmersfoort, store.get(UTRECHT, AMERSFOORT));
+				assertRailwayEquals(createRailway(AMERSFOORT, GOUDA, 5), store.get(AMERSFOORT, GOUDA));
+			}
+			Assert.assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".compacting")));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	private static void fillStore(Path file, Railway... railways) throws IOException {
+		try (RailwayStore store = RailwayStore.open(file, CHECKSUM, STATION_TO_TRACK_DISTANCE)) {
+			for (Railway railway : railways) {
+				store.put(railway);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a railway in a straight line between the stations.
+	 */
+	private static Railway createRailway(Station from, Station to, int nodeCount) {
+		
+		LatLng[] nodes = new LatLng[nodeCount];
+		double[] lengthUntil = new double[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			double f = i / (double)(nodeCount - 1);
+			nodes[i] = new LatLng(
+					from.getLocation().getLatitude() + f * (to.getLocation().getLatitude() - from.getLocation().getLatitude()),
+					from.getLocation().getLongitude() + f * (to.getLocation().getLongitude() - from.getLocation().getLongitude()));
+			lengthUntil[i] = f * 20000;
+		}
+		return new Railway(nodes, lengthUntil, from, to);
+	}
+	
+	private static void assertRailwayEquals(Railway expected, Railway actual) {
+		
+		Assert.assertNotNull(actual);
+		Assert.assertEquals(expected.getFrom(), actual.getFrom());
+		Assert.assertEquals(expected.getTo(), actual.getTo());
+		Assert.assertEquals(expected.getNodeCount(), actual.getNodeCount());
+		for (int i = 0; i < expected.getNodeCount(); i++) {
+			// Coordinates are stored in units of 1e-7 degrees
+			Assert.assertEquals(expected.getNodePosition(i).getLatitude(), actual.getNodePosition(i).getLatitude(), 1e-7);
+			Assert.assertEquals(expected.getNodePosition(i).getLongitude(), actual.getNodePosition(i).getLongitude(), 1e-7);
+			Assert.assertEquals(expected.getDistanceUntil(i), actual.getDistanceUntil(i), 1e-6);
+		}
+	}
+
+}
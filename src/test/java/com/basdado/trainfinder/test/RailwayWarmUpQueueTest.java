@@ -0,0 +1,142 @@
+package com.basdado.trainfinder.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.controller.RailwayWarmUpProgress;
+import com.basdado.trainfinder.controller.RailwayWarmUpQueue;
+import com.basdado.trainfinder.exception.PathFindingException;
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.Station;
+import com.basdado.trainfinder.rest.TrainFinderRESTService;
+
+public class RailwayWarmUpQueueTest {
+	
+	private static final Station UTRECHT = new Station("UT", "Utrecht", "Utrecht Centraal", new LatLng(52.0894, 5.1100), "NL");
+	private static final Station AMERSFOORT = new Station("AMF", "Amersfoort", "Amersfoort", new LatLng(52.1534, 5.3736), "NL");
+	private static final Station GOUDA = new Station("GD", "Gouda", "Gouda", new LatLng(52.0174, 4.7043), "NL");
+	
+	@Test
+	public void stationPairsTest() {
+		
+		List<String> calculatedPairs = Collections.synchronizedList(new ArrayList<>());
+		RailwayWarmUpQueue queue = new RailwayWarmUpQueue(Runnable::run, 2, (from, to) -> {
+			calculatedPairs.add(from.getCode() + "-" + to.getCode());
+			if (to.equals(GOUDA)) {
+				throw new PathFindingException("No railway to " + to.getCode());
+			}
+		});
+		
+		// Each pair is only calculated once (in the direction in which it was added first), stops at the same station are skipped
+		queue.addRoute(Arrays.asList(UTRECHT, AMERSFOORT, AMERSFOORT, UTRECHT, null, GOUDA));
+		queue.addRoute(Arrays.asList(GOUDA, UTRECHT, AMERSFOORT));
+		queue.addRoute(Arrays.asList(AMERSFOORT, GOUDA));
+		
+		Assert.assertEquals(Arrays.asList("UT-AMF", "GD-UT", "AMF-GD"), calculatedPairs);
+		RailwayWarmUpProgress progress = queue.getProgress();
+		Assert.assertEquals(3, progress.getPairCount());
+		Assert.assertEquals(2, progress.getCompletedPairCount());
+		Assert.assertEquals(1, progress.getFailedPairCount());
+		Assert.assertEquals(1, progress.getProgress(), 0);
+	}
+	
+	@Test
+	public void readyTest() {
+		
+		List<Runnable> tasks = new ArrayList<>();
+		RailwayWarmUpQueue queue = new RailwayWarmUpQueue(tasks::add, 1, (from, to) -> {});
+		RailwayWarmUpProgress progress = queue.getProgress();
+		Assert.assertEquals(Status.SERVICE_UNAVAILABLE, TrainFinderRESTService.getReadinessStatus(progress));
+		
+		queue.addRoute(Arrays.asList(UTRECHT, AMERSFOORT, GOUDA));
+		queue.startupRoutesAdded();
+		Assert.assertEquals(2, progress.getPairCount());
+		Assert.assertEquals(0, progress.getProgress(), 0);
+		Assert.assertEquals(Status.SERVICE_UNAVAILABLE, TrainFinderRESTService.getReadinessStatus(progress));
+		
+		// A single worker calculates both pairs
+		Assert.assertEquals(1, tasks.size());
+		tasks.remove(0).run();
+		Assert.assertEquals(2, progress.getCompletedPairCount());
+		Assert.assertEquals(1, progress.getProgress(), 0);
+		Assert.assertEquals(Status.OK, TrainFinderRESTService.getReadinessStatus(progress));
+		
+		// Once ready, new pairs don't make it unready again
+		queue.addRoute(Arrays.asList(GOUDA, UTRECHT));
+		Assert.assertEquals(3, progress.getPairCount());
+		Assert.assertEquals(Status.OK, TrainFinderRESTService.getReadinessStatus(progress));
+		tasks.remove(0).run();
+		Assert.assertTrue(tasks.isEmpty());
+	}
+	
+	@Test
+	public void readyWithoutRoutesTest() {
+		
+		RailwayWarmUpQueue queue = new RailwayWarmUpQueue(Runnable::run, 1, (from, to) -> {});
+		queue.startupRoutesAdded();
+		Assert.assertEquals(Status.OK, TrainFinderRESTService.getReadinessStatus(queue.getProgress()));
+	}
+	
+	@Test
+	public void maxWorkerCountTest() throws InterruptedException {
+		
+		final int maxWorkerCount = 3;
+		final int stationCount = 20;
+		
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch allWorkersStarted = new CountDownLatch(maxWorkerCount);
+		AtomicInteger runningCount = new AtomicInteger();
+		AtomicInteger maxRunningCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(stationCount);
+		try {
+			RailwayWarmUpQueue queue = new RailwayWarmUpQueue(executor, maxWorkerCount, (from, to) -> {
+				int count = runningCount.incrementAndGet();
+				maxRunningCount.accumulateAndGet(count, Math::max);
+				allWorkersStarted.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				runningCount.decrementAndGet();
+			});
+			
+			List<Station> stations = new ArrayList<>();
+			for (int i = 0; i < stationCount; i++) {
+				stations.add(new Station("S" + i, "S" + i, "Station " + i, new LatLng(52, 5 + i * 0.01), "NL"));
+			}
+			queue.addRoute(stations);
+			queue.startupRoutesAdded();
+			
+			Assert.assertTrue(allWorkersStarted.await(10, TimeUnit.SECONDS));
+			// Give any further workers the time to start, while all workers are blocked
+			Thread.sleep(200);
+			Assert.assertEquals(maxWorkerCount, runningCount.get());
+			Assert.assertFalse(queue.getProgress().isReady());
+			
+			release.countDown();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (!queue.getProgress().isReady() && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(queue.getProgress().isReady());
+			Assert.assertEquals(stationCount - 1, queue.getProgress().getCompletedPairCount());
+			Assert.assertEquals(maxWorkerCount, maxRunningCount.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.basdado.trainfinder.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.basdado.trainfinder.model.LatLng;
+import com.basdado.trainfinder.model.OsmRailwayMap;
+import com.basdado.trainfinder.model.OsmRailwayMap.OsmRailwayMapNode;
+import com.basdado.trainfinder.model.RailwayGraph;
+import com.basdado.trainfinder.model.TrackPosition;
+import com.basdado.trainfinder.util.CoordinateUtil;
+
+/**
+ * Generates the railway graphs used by the tests and benchmarks.
+ */
+public final class TestRailwayGraphs {
+	
+	private TestRailwayGraphs() {}
+	
+	/**
+	 * Creates a railway map of random railways between random nodes in a square area, so the railways cross each other often.
+	 * @param nodeCount The number of nodes to place, of which the nodes that are not on any railway are removed
+	 * @param size The length (in degrees) of the sides of the area, which has its south west corner at 52, 5
+	 * @param wayCount The number of railways
+	 * @param maxWayLength The maximum number of nodes of a railway (at least 2)
+	 */
+	public static RailwayGraph createRandomRailwayGraph(Random random, int nodeCount, double size, int wayCount, int maxWayLength) {
+		
+		OsmRailwayMap railwayMap = new OsmRailwayMap();
+		for (long id = 1; id <= nodeCount; id++) {
+			railwayMap.addNode(id, new OsmRailwayMapNode(new LatLng(52 + random.nextDouble() * size, 5 + random.nextDouble() * size)));
+		}
+		for (int i = 0; i < wayCount; i++) {
+			List<Long> way = new ArrayList<>();
+			int length = 2 + random.nextInt(maxWayLength - 1);
+			while (way.size() < length) {
+				long id = 1 + random.nextInt(nodeCount);
+				if (!way.contains(id)) {
+					way.add(id);
+				}
+			}
+			railwayMap.addWay(way);
+		}
+		railwayMap.clean();
+		return railwayMap.toRailwayGraph();
+	}
+	
+	/**
+	 * Creates a grid of railways between junctions, where every track between two neighboring junctions consists of
+	 * nodesPerTrack slightly wiggling nodes. About a fifth of the tracks are left out, so not all junctions are alike.
+	 * @param junctionsPerSide The number of junctions along each side of the grid
+	 * @param nodesPerTrack The number of connections of each track between two junctions
+	 * @param junctionDistance The distance (in degrees) between neighboring junctions
+	 */
+	public static RailwayGraph createRandomGridRailwayGraph(Random random, int junctionsPerSide, int nodesPerTrack, double junctionDistance) {
+		
+		OsmRailwayMap railwayMap = new OsmRailwayMap();
+		long nextId = 1;
+		long[][] junctionIds = new long[junctionsPerSide][junctionsPerSide];
+		for (int x = 0; x < junctionsPerSide; x++) {
+			for (int y = 0; y < junctionsPerSide; y++) {
+				junctionIds[x][y] = nextId++;
+				railwayMap.addNode(junctionIds[x][y], new OsmRailwayMapNode(junctionPosition(x, y, junctionDistance)));
+			}
+		}
+		
+		for (int x = 0; x < junctionsPerSide; x++) {
+			for (int y = 0; y < junctionsPerSide; y++) {
+				for (int direction = 0; direction < 2; direction++) {
+					int toX = x + (direction == 0 ? 1 : 0);
+					int toY = y + (direction == 1 ? 1 : 0);
+					if (toX >= junctionsPerSide || toY >= junctionsPerSide || random.nextDouble() < 0.2) {
+						continue;
+					}
+					
+					LatLng from = junctionPosition(x, y, junctionDistance);
+					LatLng to = junctionPosition(toX, toY, junctionDistance);
+					List<Long> way = new ArrayList<>();
+					way.add(junctionIds[x][y]);
+					for (int i = 1; i < nodesPerTrack; i++) {
+						double f = i / (double)nodesPerTrack;
+						double wiggle = (random.nextDouble() - 0.5) * junctionDistance * 0.02;
+						railwayMap.addNode(nextId, new OsmRailwayMapNode(new LatLng(
+								from.getLatitude() + f * (to.getLatitude() - from.getLatitude()) + wiggle,
+								from.getLongitude() + f * (to.getLongitude() - from.getLongitude()) + wiggle)));
+						way.add(nextId++);
+					}
+					way.add(junctionIds[toX][toY]);
+					railwayMap.addWay(way);
+				}
+			}
+		}
+		
+		railwayMap.clean();
+		return railwayMap.toRailwayGraph();
+	}
+	
+	private static LatLng junctionPosition(int x, int y, double junctionDistance) {
+		return new LatLng(51.0 + y * junctionDistance, 4.0 + x * junctionDistance);
+	}
+	
+	/**
+	 * @return A random node of the graph that is on a track.
+	 */
+	public static TrackPosition randomNodePosition(RailwayGraph railwayGraph, Random random) {
+		
+		while (true) {
+			int node = random.nextInt(railwayGraph.getNodeCount());
+			if (railwayGraph.getDegree(node) > 0) {
+				return TrackPosition.atNode(node, railwayGraph.getPosition(node));
+			}
+		}
+	}
+	
+	/**
+	 * @return A random position on the tracks of the graph: either at a node (which may or may not be a junction), or
+	 * somewhere on the track between two connected nodes.
+	 */
+	public static TrackPosition randomTrackPosition(RailwayGraph railwayGraph, Random random) {
+		
+		TrackPosition nodePosition = randomNodePosition(railwayGraph, random);
+		if (random.nextBoolean()) {
+			return nodePosition;
+		}
+		
+		int node = nodePosition.getNode1();
+		int connection = railwayGraph.getFirstConnection(node) + random.nextInt(railwayGraph.getDegree(node));
+		int neighborNode = railwayGraph.getConnectionTarget(connection);
+		double trackLength = railwayGraph.getConnectionLength(connection);
+		double f = 0.05 + random.nextDouble() * 0.9;
+		return TrackPosition.onConnection(node, neighborNode, f * trackLength, (1 - f) * trackLength,
+				CoordinateUtil.interpolate(railwayGraph.getPosition(node), railwayGraph.getPosition(neighborNode), f));
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.basdado.trainfinder.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.basdado.trainfinder.util.TokenBucket;
+
+public class TokenBucketTest {
+	
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	@Test
+	public void burstTest() {
+		
+		TokenBucket bucket = new TokenBucket(2, 5, 0);
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(bucket.tryTake(0));
+		}
+		Assert.assertFalse(bucket.tryTake(0));
+		Assert.assertEquals(SECOND / 2, bucket.getNanosUntilAvailable(0));
+	}
+	
+	@Test
+	public void refillTest() {
+		
+		TokenBucket bucket = new TokenBucket(2, 5, 0);
+		for (int i = 0; i < 5; i++) {
+			bucket.tryTake(0);
+		}
+		
+		// Two tokens per second are added
+		Assert.assertFalse(bucket.tryTake(SECOND / 4));
+		Assert.assertTrue(bucket.tryTake(SECOND / 2));
+		Assert.assertFalse(bucket.tryTake(SECOND / 2));
+		Assert.assertEquals(SECOND / 4, bucket.getNanosUntilAvailable(3 * SECOND / 4));
+		
+		// But never more than the capacity
+		Assert.assertEquals(5, bucket.getAvailableTokens(100 * SECOND));
+		Assert.assertEquals(0, bucket.getNanosUntilAvailable(100 * SECOND));
+	}
+
+}